@@ -0,0 +1,158 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.benchmarks;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.TiledImage;
+
+/**
+ * Creates synthetic tiled rasters for the benchmarks. Images are filled
+ * with reproducible pseudo-random values which lie within the range of
+ * the requested data type.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class BenchmarkImages {
+    
+    /**
+     * Data types used for benchmark images. The names are used as 
+     * JMH parameter values.
+     */
+    public enum Type {
+        /** Unsigned 8 bit integer data. */
+        BYTE(DataBuffer.TYPE_BYTE, 255),
+        
+        /** Unsigned 16 bit integer data. */
+        USHORT(DataBuffer.TYPE_USHORT, 65535),
+        
+        /** Signed 32 bit integer data. */
+        INT(DataBuffer.TYPE_INT, 100000),
+        
+        /** 32 bit floating point data. */
+        FLOAT(DataBuffer.TYPE_FLOAT, 1000),
+        
+        /** 64 bit floating point data. */
+        DOUBLE(DataBuffer.TYPE_DOUBLE, 1000);
+        
+        private final int dataType;
+        private final int maxValue;
+
+        private Type(int dataType, int maxValue) {
+            this.dataType = dataType;
+            this.maxValue = maxValue;
+        }
+
+        /**
+         * Gets the {@link DataBuffer} type constant.
+         * 
+         * @return the data type
+         */
+        public int getDataType() {
+            return dataType;
+        }
+        
+        /**
+         * Gets the maximum value used when filling images of this type.
+         * 
+         * @return maximum sample value
+         */
+        public int getMaxValue() {
+            return maxValue;
+        }
+    }
+
+    private BenchmarkImages() {
+    }
+    
+    /**
+     * Creates a single-band tiled image filled with pseudo-random values.
+     * The same {@code seed} always gives the same image.
+     * 
+     * @param type data type
+     * @param width image width
+     * @param height image height
+     * @param tileSize tile width and height
+     * @param seed seed for the random number generator
+     * 
+     * @return a new image
+     */
+    public static TiledImage createImage(Type type, int width, int height, 
+            int tileSize, long seed) {
+        
+        TiledImage image = createEmptyImage(type, width, height, tileSize);
+        
+        Random rr = new Random(seed);
+        boolean fractional = type == Type.FLOAT || type == Type.DOUBLE;
+        double[] row = new double[width];
+        
+        for (int ty = image.getMinTileY(); ty <= image.getMaxTileY(); ty++) {
+            for (int tx = image.getMinTileX(); tx <= image.getMaxTileX(); tx++) {
+                WritableRaster tile = image.getWritableTile(tx, ty);
+                int w = tile.getWidth();
+                
+                for (int y = tile.getMinY(); y < tile.getMinY() + tile.getHeight(); y++) {
+                    for (int i = 0; i < w; i++) {
+                        row[i] = fractional ? 
+                                rr.nextDouble() * type.getMaxValue() : 
+                                rr.nextInt(type.getMaxValue() + 1);
+                    }
+                    tile.setSamples(tile.getMinX(), y, w, 1, 0, row);
+                }
+                
+                image.releaseWritableTile(tx, ty);
+            }
+        }
+        
+        return image;
+    }
+    
+    /**
+     * Creates a single-band tiled image with all values zero, suitable 
+     * for use as a destination image.
+     * 
+     * @param type data type
+     * @param width image width
+     * @param height image height
+     * @param tileSize tile width and height
+     * 
+     * @return a new image
+     */
+    public static TiledImage createEmptyImage(Type type, int width, int height, int tileSize) {
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
+                type.getDataType(), tileSize, tileSize, 1);
+        
+        return new TiledImage(0, 0, width, height, 0, 0, sm, PlanarImage.createColorModel(sm));
+    }
+    
+}
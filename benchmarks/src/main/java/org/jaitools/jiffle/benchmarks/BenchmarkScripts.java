@@ -0,0 +1,170 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jaitools.jiffle.Jiffle;
+
+/**
+ * Representative scripts used by the benchmarks. Scripts for the direct 
+ * runtime read from two source images, {@code a} and {@code b}, and write
+ * to {@code dest}. Scripts for the indirect runtime and the image operator
+ * only use pixel position, since they do not work with source images.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class BenchmarkScripts {
+    
+    /** Name of the first source image variable. */
+    public static final String SOURCE_A = "a";
+    
+    /** Name of the second source image variable. */
+    public static final String SOURCE_B = "b";
+    
+    /** Name of the destination image variable. */
+    public static final String DEST = "dest";
+    
+    private static final Map<String, String> DIRECT_SCRIPTS;
+    private static final Map<String, String> INDIRECT_SCRIPTS;
+    
+    static {
+        Map<String, String> m = new LinkedHashMap<String, String>();
+        
+        m.put("bandmath", 
+                "dest = (a - b) / (a + b + 1);");
+        
+        m.put("conditional", 
+                "dest = con(a > b, a - b, con(b > 100, sqrt(b), 0));");
+        
+        m.put("stats", 
+                "values = [a, b, a * b, a + b, abs(a - b)]; \n"
+                + "dest = max(values) - min(values) + mean(values) + sdev(values);");
+        
+        m.put("neighbourhood", 
+                "options { outside = 0; } \n"
+                + "dest = (a[-1,-1] + a[0,-1] + a[1,-1] + a[-1,0] + \n"
+                + "        a[1,0] + a[-1,1] + a[0,1] + a[1,1]) / 8;");
+        
+        m.put("loop", 
+                "options { outside = 0; } \n"
+                + "n = 0; \n"
+                + "foreach (dy in -2:2) { \n"
+                + "  foreach (dx in -2:2) { \n"
+                + "    n += a[dx, dy] > b; \n"
+                + "  } \n"
+                + "} \n"
+                + "dest = n;");
+        
+        DIRECT_SCRIPTS = Collections.unmodifiableMap(m);
+        
+        m = new LinkedHashMap<String, String>();
+        
+        m.put("position", 
+                "dest = sqrt(x() * x() + y() * y());");
+        
+        m.put("conditional", 
+                "dest = con(x() > y(), x() - y(), y() % 7);");
+        
+        m.put("stats", 
+                "values = [x(), y(), x() * y(), x() + y()]; \n"
+                + "dest = max(values) - min(values) + mean(values);");
+        
+        m.put("loop", 
+                "n = 0; \n"
+                + "foreach (i in 1:8) { \n"
+                + "  n += sin(x() * i) * cos(y() * i); \n"
+                + "} \n"
+                + "dest = n;");
+        
+        INDIRECT_SCRIPTS = Collections.unmodifiableMap(m);
+    }
+
+    private BenchmarkScripts() {
+    }
+    
+    /**
+     * Gets a script for the direct runtime by name. Names are:
+     * {@code bandmath, conditional, stats, neighbourhood, loop}.
+     * 
+     * @param name script name
+     * @return the script
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static String getDirectScript(String name) {
+        return getScript(DIRECT_SCRIPTS, name);
+    }
+    
+    /**
+     * Gets a script for the indirect runtime or the image operator by name. 
+     * Names are: {@code position, conditional, stats, loop}.
+     * 
+     * @param name script name
+     * @return the script
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static String getIndirectScript(String name) {
+        return getScript(INDIRECT_SCRIPTS, name);
+    }
+    
+    /**
+     * Gets the image parameters for direct runtime scripts.
+     * 
+     * @return a new map of image parameters
+     */
+    public static Map<String, Jiffle.ImageRole> getDirectImageParams() {
+        Map<String, Jiffle.ImageRole> params = new LinkedHashMap<String, Jiffle.ImageRole>();
+        params.put(SOURCE_A, Jiffle.ImageRole.SOURCE);
+        params.put(SOURCE_B, Jiffle.ImageRole.SOURCE);
+        params.put(DEST, Jiffle.ImageRole.DEST);
+        return params;
+    }
+    
+    /**
+     * Gets the image parameters for indirect runtime scripts.
+     * 
+     * @return a new map of image parameters
+     */
+    public static Map<String, Jiffle.ImageRole> getIndirectImageParams() {
+        Map<String, Jiffle.ImageRole> params = new LinkedHashMap<String, Jiffle.ImageRole>();
+        params.put(DEST, Jiffle.ImageRole.DEST);
+        return params;
+    }
+    
+    private static String getScript(Map<String, String> scripts, String name) {
+        String script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException(
+                    "Unknown script name " + name + ". Valid names are " + scripts.keySet());
+        }
+        return script;
+    }
+    
+}
@@ -0,0 +1,103 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jaitools.jiffle.Jiffle;
+import org.jaitools.jiffle.RuntimeClassCache;
+import org.jaitools.jiffle.runtime.JiffleDirectRuntime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for compiling scripts and creating runtime objects.
+ * <p>
+ * {@code compile} measures parsing and checking a script. The 
+ * {@code runtimeInstance} benchmarks measure source generation and 
+ * compilation of the runtime class ({@code Cold}, with the runtime class 
+ * cache cleared beforehand) or retrieval of a previously compiled class
+ * ({@code Cached}), each followed by creation of the runtime object.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+    
+    @Param({"bandmath", "conditional", "stats", "neighbourhood", "loop"})
+    public String script;
+    
+    private String scriptText;
+    private Map<String, Jiffle.ImageRole> params;
+    private Jiffle jiffle;
+    
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        scriptText = BenchmarkScripts.getDirectScript(script);
+        params = BenchmarkScripts.getDirectImageParams();
+    }
+    
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws Exception {
+        jiffle = new Jiffle(scriptText, params);
+    }
+    
+    @Benchmark
+    public Jiffle compile() throws Exception {
+        return new Jiffle(scriptText, params);
+    }
+    
+    @Benchmark
+    public JiffleDirectRuntime runtimeInstanceCold() throws Exception {
+        RuntimeClassCache.clear();
+        return jiffle.getRuntimeInstance();
+    }
+    
+    @Benchmark
+    public JiffleDirectRuntime runtimeInstanceCached() throws Exception {
+        return jiffle.getRuntimeInstance();
+    }
+
+}
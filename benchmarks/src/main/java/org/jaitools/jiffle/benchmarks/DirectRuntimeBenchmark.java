@@ -0,0 +1,104 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.TiledImage;
+
+import org.jaitools.jiffle.Jiffle;
+import org.jaitools.jiffle.runtime.JiffleDirectRuntime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@code evaluateAll} in the direct runtime. Each invocation
+ * processes the whole destination image. The runtime object and images 
+ * are created once per trial.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectRuntimeBenchmark {
+    
+    @Param({"bandmath", "conditional", "stats", "neighbourhood", "loop"})
+    public String script;
+    
+    @Param({"BYTE", "DOUBLE"})
+    public BenchmarkImages.Type dataType;
+    
+    @Param({"512", "2048"})
+    public int size;
+    
+    @Param({"256"})
+    public int tileSize;
+    
+    @Param({"1"})
+    public int parallelism;
+    
+    private JiffleDirectRuntime runtime;
+    private TiledImage destImage;
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Jiffle jiffle = new Jiffle(BenchmarkScripts.getDirectScript(script), 
+                BenchmarkScripts.getDirectImageParams());
+        runtime = jiffle.getRuntimeInstance();
+        
+        runtime.setSourceImage(BenchmarkScripts.SOURCE_A, 
+                BenchmarkImages.createImage(dataType, size, size, tileSize, 42));
+        runtime.setSourceImage(BenchmarkScripts.SOURCE_B, 
+                BenchmarkImages.createImage(dataType, size, size, tileSize, 43));
+        
+        destImage = BenchmarkImages.createEmptyImage(dataType, size, size, tileSize);
+        runtime.setDestinationImage(BenchmarkScripts.DEST, destImage);
+    }
+    
+    @Benchmark
+    public TiledImage evaluateAll() {
+        runtime.evaluateAll(null, parallelism);
+        return destImage;
+    }
+
+}
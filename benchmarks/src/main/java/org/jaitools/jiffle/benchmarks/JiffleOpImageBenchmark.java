@@ -0,0 +1,111 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.benchmarks;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.media.jai.jiffleop.JiffleOpImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link JiffleOpImage#computeTile(int, int)}. Tiles are 
+ * computed directly, bypassing the JAI tile cache, and each invocation 
+ * computes every tile of the image once.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JiffleOpImageBenchmark {
+    
+    @Param({"position", "conditional", "stats", "loop"})
+    public String script;
+    
+    @Param({"BYTE", "DOUBLE"})
+    public BenchmarkImages.Type dataType;
+    
+    @Param({"512"})
+    public int size;
+    
+    @Param({"128", "512"})
+    public int tileSize;
+    
+    private JiffleOpImage opImage;
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Rectangle bounds = new Rectangle(0, 0, size, size);
+        
+        ImageLayout layout = new ImageLayout(bounds.x, bounds.y, bounds.width, bounds.height);
+        SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
+                dataType.getDataType(), tileSize, tileSize, 1);
+        layout.setSampleModel(sm);
+        layout.setColorModel(PlanarImage.createColorModel(sm));
+        
+        Map<String, RenderedImage> sourceImages = CollectionFactory.map();
+        opImage = new JiffleOpImage(sourceImages, layout, null, 
+                BenchmarkScripts.getIndirectScript(script), 
+                new String[] {BenchmarkScripts.DEST}, bounds);
+    }
+    
+    @Benchmark
+    public void computeTiles(Blackhole bh) {
+        for (int ty = opImage.getMinTileY(); ty <= opImage.getMaxTileY(); ty++) {
+            for (int tx = opImage.getMinTileX(); tx <= opImage.getMaxTileX(); tx++) {
+                bh.consume(opImage.computeTile(tx, ty));
+            }
+        }
+    }
+
+}
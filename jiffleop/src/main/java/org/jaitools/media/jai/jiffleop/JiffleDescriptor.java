@@ -42,23 +42,31 @@ public class JiffleDescriptor extends OperationDescriptorImpl {
     static final int SCRIPT_ARG = 0;
     static final int DEST_NAME_ARG = 1;
     static final int DEST_BOUNDS_ARG = 2;
+    static final int SOURCE_NAMES_ARG = 3;
+    static final int DEST_NAMES_ARG = 4;
 
     private static final String[] paramNames = {
         "script",
         "destName",
-        "destBounds"
+        "destBounds",
+        "sourceNames",
+        "destNames"
     };
 
     private static final Class[] paramClasses = {
          String.class,
          String.class,
-         Rectangle.class
+         Rectangle.class,
+         String[].class,
+         String[].class
     };
 
     private static final Object[] paramDefaults = {
          NO_PARAMETER_DEFAULT,
          "dest",
-         (Rectangle)null
+         (Rectangle)null,
+         (String[])null,
+         (String[])null
     };
 
     public JiffleDescriptor() {
@@ -72,7 +80,15 @@ public class JiffleDescriptor extends OperationDescriptorImpl {
                     {"arg0Desc", paramNames[0] + " (String):" +
                              "the Jiffle script"},
                     {"arg1Desc", paramNames[1] + " (String, default \"dest\"):" +
-                             "the destination variable name"}
+                             "the destination variable name"},
+                    {"arg2Desc", paramNames[2] + " (Rectangle, default null):" +
+                             "the destination bounds; if null, the union of the source bounds"},
+                    {"arg3Desc", paramNames[3] + " (String[], default null):" +
+                             "the script variable names for the sources, in order; " +
+                             "if null, the names src0, src1, ... are used"},
+                    {"arg4Desc", paramNames[4] + " (String[], default null):" +
+                             "the destination variable names, one per band of the " +
+                             "result; if null, the single variable given by destName"}
 
                 },
                 new String[]{RenderedRegistryMode.MODE_NAME},   // supported modes
@@ -25,24 +25,34 @@
 
 package org.jaitools.media.jai.jiffleop;
 
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.media.jai.ImageLayout;
 import javax.media.jai.OpImage;
 import javax.media.jai.PlanarImage;
 
-import org.jaitools.CollectionFactory;
-import org.jaitools.jiffle.Jiffle;
 import org.jaitools.jiffle.JiffleException;
+import org.jaitools.jiffle.runtime.AbstractIndirectRuntime;
 import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
 
 /**
  * Jiffle operation.
+ * <p>
+ * The image is created with a runtime class for the script, which 
+ * {@link JiffleRIF} takes from the {@link JiffleScriptRegistry} so that the
+ * script is not compiled again each time a rendering chain is built. 
+ * Tiles may be computed concurrently by the JAI {@code TileScheduler}: each
+ * computation takes a runtime object from a pool, creating a new one from 
+ * the class if none is free, so that no runtime state is shared between threads.
+ * The number of runtime objects is thus bounded by the number of tiles
+ * being computed at the same time.
  * 
  * @author Michael Bedward
  * @since 0.1
@@ -50,105 +60,303 @@ import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
  */
 public class JiffleOpImage extends OpImage {
     
-    private final JiffleIndirectRuntime runtime;
+    /* 
+     * Configured runtime object used only as a template for the
+     * runtime objects which compute tiles.
+     */
+    private final AbstractIndirectRuntime prototype;
+    
+    /* Runtime objects not currently computing a tile. */
+    private final ConcurrentLinkedQueue<AbstractIndirectRuntime> runtimePool;
+    
+    private final String[] sourceVarNames;
+    private final String[] destVarNames;
     
-    // TESTING
-    private final int band = 0;
+    /* 
+     * Read footprints of the sources, indexed as the sources; 
+     * null for an unbounded footprint. 
+     */
+    private final Rectangle[] footprints;
     
     private final Rectangle bounds;
 
+    /**
+     * Creates a new image for a script. The runtime class is taken from the
+     * {@link JiffleScriptRegistry}, so the script is only compiled if it
+     * is not already registered.
+     * 
+     * @param sourceImages source images keyed by script variable name
+     * @param layout image layout
+     * @param configuration configuration map
+     * @param script the script
+     * @param destVarNames destination variable names, one per band
+     * @param destBounds destination bounds or {@code null} for the union
+     *        of the source bounds
+     */
     public JiffleOpImage(Map<String, RenderedImage> sourceImages, 
             ImageLayout layout, 
             Map configuration,
             String script,
-            String destVarName,
+            String[] destVarNames,
+            Rectangle destBounds) {
+        
+        this(sourceImages, layout, configuration, 
+                getRuntimeClass(script, sourceImages, destVarNames), 
+                destVarNames, destBounds);
+    }
+
+    /**
+     * Creates a new image using a runtime class which has already been
+     * compiled for the script.
+     * 
+     * @param sourceImages source images keyed by script variable name
+     * @param layout image layout
+     * @param configuration configuration map
+     * @param runtimeClass the runtime class, which must extend 
+     *        {@link AbstractIndirectRuntime} since tiles are computed 
+     *        with its {@code evaluateBlock} method
+     * @param destVarNames destination variable names, one per band
+     * @param destBounds destination bounds or {@code null} for the union
+     *        of the source bounds
+     * 
+     * @throws IllegalArgumentException if the runtime class does not extend
+     *         {@code AbstractIndirectRuntime}
+     */
+    public JiffleOpImage(Map<String, RenderedImage> sourceImages, 
+            ImageLayout layout, 
+            Map configuration,
+            Class<? extends JiffleIndirectRuntime> runtimeClass,
+            String[] destVarNames,
             Rectangle destBounds) {
         
-        super(new Vector(sourceImages.values()), layout, configuration, false);
+        super(new Vector(sourceImages.values()), layout, configuration, true);
+        
+        if (!AbstractIndirectRuntime.class.isAssignableFrom(runtimeClass)) {
+            throw new IllegalArgumentException(
+                    "Runtime class does not extend AbstractIndirectRuntime: " 
+                    + runtimeClass.getName());
+        }
         
         try {
-            Jiffle jiffle = new Jiffle();
-            jiffle.setScript(script);
-            
-            Map<String, Jiffle.ImageRole> imageParams = CollectionFactory.map();
-            for (String varName : sourceImages.keySet()) {
-                imageParams.put(varName, Jiffle.ImageRole.SOURCE);
-            }
-            imageParams.put(destVarName, Jiffle.ImageRole.DEST);
-            
-            jiffle.setImageParams(imageParams);
-            jiffle.compile();
-            runtime = (JiffleIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
-            
-            for (String varName : sourceImages.keySet()) {
-                runtime.setSourceImage(varName);
-            }
-            
-            if (destBounds == null) {
-                bounds = getSourceBounds();
-                if (bounds == null) {
-                    throw new IllegalArgumentException(
-                            "No source images and no destination bounds specified");
-                }
-            } else {
-                bounds = new Rectangle(destBounds);
+            prototype = (AbstractIndirectRuntime) runtimeClass.newInstance();
+        } catch (Exception ex) {
+            throw new RuntimeException("Unable to create runtime object", ex);
+        }
+        
+        this.sourceVarNames = sourceImages.keySet().toArray(new String[0]);
+        this.destVarNames = destVarNames.clone();
+        setImages(prototype);
+        
+        if (destBounds == null) {
+            bounds = getSourceBounds();
+            if (bounds == null) {
+                throw new IllegalArgumentException(
+                        "No source images and no destination bounds specified");
             }
-            
-            runtime.setWorldByResolution(bounds, 1, 1);
-            
-        } catch (JiffleException ex) {
-            throw new RuntimeException(ex);
+        } else {
+            bounds = new Rectangle(destBounds);
         }
+        
+        prototype.setWorldByResolution(bounds, 1, 1);
+        
+        footprints = new Rectangle[sourceVarNames.length];
+        for (int i = 0; i < sourceVarNames.length; i++) {
+            footprints[i] = prototype.getSourceFootprint(sourceVarNames[i]);
+        }
+        
+        runtimePool = new ConcurrentLinkedQueue<AbstractIndirectRuntime>();
+        runtimePool.add(createRuntime());
     }
     
     
 
     /**
-     * For testing: returns null to indicate that all of the destination
-     * could be affected.
+     * Returns the destination rectangle affected by the given source 
+     * rectangle. This is worked out from the read footprint of the source 
+     * in the script: the source rectangle is grown by the pixel offsets
+     * at which the script reads the source. If the footprint is unbounded,
+     * the whole destination could be affected.
+     * 
+     * @param sourceRect the source rectangle
+     * @param sourceIndex the source image index
      * 
-     * @param sourceRect
-     * @param sourceIndex
-     * @return 
+     * @return the affected destination rectangle, which will be empty if
+     *         the script does not read the source
      */
     @Override
     public Rectangle mapSourceRect(Rectangle sourceRect, int sourceIndex) {
-        return null;
+        checkSourceIndex(sourceIndex);
+        
+        Rectangle fp = footprints[sourceIndex];
+        if (fp == null) {
+            return getBounds();
+        }
+        if (fp.isEmpty()) {
+            return new Rectangle();
+        }
+        
+        // a destination pixel at p reads source pixels p + fp 
+        Rectangle r = new Rectangle(
+                sourceRect.x - (fp.x + fp.width - 1),
+                sourceRect.y - (fp.y + fp.height - 1),
+                sourceRect.width + fp.width - 1,
+                sourceRect.height + fp.height - 1);
+        
+        return r.intersection(getBounds());
     }
 
     /**
-     * For testing: returns the source image bounds.
+     * Returns the source rectangle required to compute the given destination
+     * rectangle. This is the destination rectangle grown by the read footprint 
+     * of the source in the script, clipped to the source bounds. If the 
+     * footprint is unbounded, the whole source is required. 
+     * 
+     * @param destRect the destination rectangle
+     * @param sourceIndex the source image index
      * 
-     * @param destRect
-     * @param sourceIndex
-     * @return 
+     * @return the required source rectangle, which will be empty if 
+     *         no source data is required
      */
     @Override
     public Rectangle mapDestRect(Rectangle destRect, int sourceIndex) {
-        return getSourceImage(sourceIndex).getBounds();
+        checkSourceIndex(sourceIndex);
+        
+        Rectangle srcBounds = getSourceImage(sourceIndex).getBounds();
+        Rectangle fp = footprints[sourceIndex];
+        if (fp == null) {
+            return srcBounds;
+        }
+        if (fp.isEmpty()) {
+            return new Rectangle();
+        }
+        
+        Rectangle r = new Rectangle(
+                destRect.x + fp.x,
+                destRect.y + fp.y,
+                destRect.width + fp.width - 1,
+                destRect.height + fp.height - 1);
+        
+        return r.intersection(srcBounds);
     }
 
+    /**
+     * Computes a rectangle of the destination by fetching the source data
+     * required and passing it to {@link #computeRect(Raster[], WritableRaster, Rectangle)}.
+     * This is not normally called because {@link #computeTile} fetches the
+     * source data for each tile.
+     * 
+     * @param sources source images
+     * @param dest destination raster
+     * @param destRect the rectangle to compute
+     */
     @Override
     protected void computeRect(PlanarImage[] sources, WritableRaster dest, Rectangle destRect) {
-        for (int y = destRect.y, iy = 0; iy < destRect.height; y++, iy++) {
-            for (int x = destRect.x, ix = 0; ix < destRect.width; x++, ix++) {
-                dest.setSample(x, y, band, runtime.evaluate(x, y));
-            }
+        Raster[] rasters = new Raster[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            Rectangle srcRect = mapDestRect(destRect, i);
+            rasters[i] = srcRect.isEmpty() ? null : sources[i].getData(srcRect);
         }
+        
+        computeRect(rasters, dest, destRect);
     }
 
+    /**
+     * Computes a rectangle of the destination from source rasters which
+     * have already been fetched. The rasters are passed to the runtime
+     * object which evaluates the script for the whole rectangle, reading
+     * source values directly from them and writing all destination bands
+     * in a single pass.
+     * 
+     * @param sources source rasters
+     * @param dest destination raster
+     * @param destRect the rectangle to compute
+     */
     @Override
     protected void computeRect(Raster[] sources, WritableRaster dest, Rectangle destRect) {
-        super.computeRect(sources, dest, destRect);
+        AbstractIndirectRuntime runtime = runtimePool.poll();
+        if (runtime == null) {
+            runtime = createRuntime();
+        }
+        
+        try {
+            runtime.evaluateBlock(sources, dest, destRect);
+        } finally {
+            runtimePool.offer(runtime);
+        }
     }
 
+    /**
+     * Computes a tile. Source data is fetched here, rather than by the 
+     * base class, for the area given by {@link #mapDestRect} so that a 
+     * source which is not needed for the tile (because the tile lies 
+     * beyond the source bounds or the script does not read the source) 
+     * is passed to the runtime object as a {@code null} raster instead of
+     * being requested for an empty area.
+     * 
+     * @param tileX tile X index
+     * @param tileY tile Y index
+     * 
+     * @return the computed tile
+     */
     @Override
     public Raster computeTile(int tileX, int tileY) {
-        return super.computeTile(tileX, tileY);
+        WritableRaster dest = createWritableRaster(sampleModel, 
+                new Point(tileXToX(tileX), tileYToY(tileY)));
+        Rectangle destRect = getTileRect(tileX, tileY);
+        
+        Raster[] rasters = new Raster[getNumSources()];
+        for (int i = 0; i < rasters.length; i++) {
+            Rectangle srcRect = mapDestRect(destRect, i);
+            rasters[i] = srcRect.isEmpty() ? null : getSourceImage(i).getData(srcRect);
+        }
+        
+        computeRect(rasters, dest, destRect);
+        return dest;
     }
     
     
 
+    /**
+     * Creates a runtime object, for use by a single thread at a time, by 
+     * copying the prototype. This does not require the script to be compiled
+     * again.
+     * 
+     * @return the new runtime object
+     */
+    private AbstractIndirectRuntime createRuntime() {
+        AbstractIndirectRuntime runtime = (AbstractIndirectRuntime) prototype.copy();
+        setImages(runtime);
+        return runtime;
+    }
+    
+    private void setImages(JiffleIndirectRuntime runtime) {
+        for (String varName : sourceVarNames) {
+            runtime.setSourceImage(varName);
+        }
+        
+        // each destination variable is written to the band
+        // corresponding to its position in the array
+        for (String varName : destVarNames) {
+            runtime.setDestinationImage(varName);
+        }
+    }
+
+    private static Class<? extends JiffleIndirectRuntime> getRuntimeClass(String script,
+            Map<String, RenderedImage> sourceImages, String[] destVarNames) {
+        try {
+            return JiffleScriptRegistry.getRuntimeClass(script, 
+                    sourceImages.keySet().toArray(new String[0]), destVarNames);
+        } catch (JiffleException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void checkSourceIndex(int sourceIndex) {
+        if (sourceIndex < 0 || sourceIndex >= getNumSources()) {
+            throw new IllegalArgumentException("Invalid source index: " + sourceIndex);
+        }
+    }
+
     private Rectangle getSourceBounds() {
         Rectangle r = null;
         
@@ -41,6 +41,8 @@ import javax.media.jai.PlanarImage;
 import javax.media.jai.RasterFactory;
 
 import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.JiffleException;
+import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
 
 /**
  * The image factory for the "Jiffle" operation.
@@ -64,22 +66,64 @@ public class JiffleRIF implements RenderedImageFactory {
     public RenderedImage create(ParameterBlock paramBlock,
             RenderingHints renderHints) {
         
-        Map<String, RenderedImage> sourceImages = CollectionFactory.map();
-        
         String script = (String) paramBlock.getObjectParameter(JiffleDescriptor.SCRIPT_ARG);
         String destVarName = (String) paramBlock.getObjectParameter(JiffleDescriptor.DEST_NAME_ARG);
         Rectangle destBounds = (Rectangle) paramBlock.getObjectParameter(JiffleDescriptor.DEST_BOUNDS_ARG);
+        String[] sourceNames = (String[]) paramBlock.getObjectParameter(JiffleDescriptor.SOURCE_NAMES_ARG);
+        String[] destVarNames = (String[]) paramBlock.getObjectParameter(JiffleDescriptor.DEST_NAMES_ARG);
+        
+        if (destVarNames == null) {
+            destVarNames = new String[] {destVarName};
+        } else if (destVarNames.length == 0) {
+            throw new IllegalArgumentException("destNames must not be empty");
+        }
+        
+        // Source images in parameter block order, keyed by variable name
+        Map<String, RenderedImage> sourceImages = CollectionFactory.orderedMap();
+        final int numSources = paramBlock.getNumSources();
+        if (sourceNames != null && sourceNames.length != numSources) {
+            throw new IllegalArgumentException(String.format(
+                    "Got %d source names for %d sources", sourceNames.length, numSources));
+        }
+        
+        Rectangle sourceBounds = null;
+        for (int i = 0; i < numSources; i++) {
+            RenderedImage img = paramBlock.getRenderedSource(i);
+            String name = sourceNames == null ? "src" + i : sourceNames[i];
+            sourceImages.put(name, img);
+            
+            Rectangle r = new Rectangle(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight());
+            sourceBounds = sourceBounds == null ? r : sourceBounds.union(r);
+        }
+        
+        if (destBounds == null) {
+            destBounds = sourceBounds;
+        }
+        if (destBounds == null) {
+            throw new IllegalArgumentException(
+                    "No source images and no destination bounds specified");
+        }
 
         // Ignore any ImageLayout that was provided and create one here
+        // with a band for each destination variable
         ImageLayout layout = new ImageLayout(destBounds.x, destBounds.y, destBounds.width, destBounds.height);
 
         Dimension defaultTileSize = JAI.getDefaultTileSize();
         SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(
-                DataBuffer.TYPE_DOUBLE, defaultTileSize.width, defaultTileSize.height, 1);
+                DataBuffer.TYPE_DOUBLE, defaultTileSize.width, defaultTileSize.height, 
+                destVarNames.length);
         layout.setSampleModel(sm);
         layout.setColorModel(PlanarImage.createColorModel(sm));
         
-        return new JiffleOpImage(sourceImages, layout, renderHints, script, destVarName, destBounds);
+        Class<? extends JiffleIndirectRuntime> runtimeClass;
+        try {
+            runtimeClass = JiffleScriptRegistry.getRuntimeClass(script,
+                    sourceImages.keySet().toArray(new String[0]), destVarNames);
+        } catch (JiffleException ex) {
+            throw new RuntimeException(ex);
+        }
+        
+        return new JiffleOpImage(sourceImages, layout, renderHints, runtimeClass, destVarNames, destBounds);
     }
 }
 
@@ -0,0 +1,221 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.media.jai.jiffleop;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.Jiffle;
+import org.jaitools.jiffle.JiffleException;
+import org.jaitools.jiffle.LruCache;
+import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
+
+/**
+ * A process-wide registry of compiled scripts for the "Jiffle" operation.
+ * Each time a rendering chain is created, {@link JiffleRIF} resolves the 
+ * script to a runtime class here, so that a script used repeatedly is only 
+ * parsed and compiled once and each {@link JiffleOpImage} simply creates
+ * runtime objects from the class.
+ * <p>
+ * Classes are keyed by the script and the source and destination variable
+ * names, in order. When the registry is full the least recently used 
+ * class is discarded. The maximum size defaults to {@link #DEFAULT_MAX_SIZE}
+ * and can be changed with {@link #setMaxSize(int)}; a size of 0 disables 
+ * the registry. The classes are held in an {@link LruCache}.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleScriptRegistry {
+    
+    /** Default maximum number of compiled scripts held. */
+    public static final int DEFAULT_MAX_SIZE = 50;
+    
+    private static final LruCache<Key, Class<? extends JiffleIndirectRuntime>> registry = 
+            new LruCache<Key, Class<? extends JiffleIndirectRuntime>>(DEFAULT_MAX_SIZE);
+
+    /**
+     * Key for registered classes.
+     */
+    private static final class Key {
+        private final String script;
+        private final List<String> sourceVarNames;
+        private final List<String> destVarNames;
+
+        private Key(String script, String[] sourceVarNames, String[] destVarNames) {
+            this.script = script;
+            this.sourceVarNames = Arrays.asList(sourceVarNames.clone());
+            this.destVarNames = Arrays.asList(destVarNames.clone());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return sourceVarNames.equals(other.sourceVarNames)
+                    && destVarNames.equals(other.destVarNames)
+                    && script.equals(other.script);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + script.hashCode();
+            hash = 31 * hash + sourceVarNames.hashCode();
+            hash = 31 * hash + destVarNames.hashCode();
+            return hash;
+        }
+    }
+    
+    /**
+     * Gets the indirect runtime class for a script, compiling the script
+     * if it is not already registered. The class records the image 
+     * parameters, so new instances are ready to use after their source 
+     * and destination images have been set.
+     * 
+     * @param script the script
+     * @param sourceVarNames source image variable names
+     * @param destVarNames destination image variable names
+     * 
+     * @return the runtime class
+     * 
+     * @throws JiffleException if the script cannot be compiled
+     */
+    public static Class<? extends JiffleIndirectRuntime> getRuntimeClass(
+            String script, String[] sourceVarNames, String[] destVarNames) 
+            throws JiffleException {
+        
+        Key key = new Key(script, sourceVarNames, destVarNames);
+        Class<? extends JiffleIndirectRuntime> clazz = registry.get(key);
+        
+        if (clazz == null) {
+            // compile outside the lock; if another thread compiles the
+            // same script at the same time, the last class put wins
+            clazz = compile(script, sourceVarNames, destVarNames);
+            registry.put(key, clazz);
+        }
+        
+        return clazz;
+    }
+    
+    private static Class<? extends JiffleIndirectRuntime> compile(
+            String script, String[] sourceVarNames, String[] destVarNames)
+            throws JiffleException {
+        
+        Map<String, Jiffle.ImageRole> imageParams = CollectionFactory.map();
+        for (String varName : sourceVarNames) {
+            imageParams.put(varName, Jiffle.ImageRole.SOURCE);
+        }
+        for (String varName : destVarNames) {
+            imageParams.put(varName, Jiffle.ImageRole.DEST);
+        }
+        
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        JiffleIndirectRuntime runtime = 
+                (JiffleIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        
+        return runtime.getClass();
+    }
+    
+    /**
+     * Gets the number of lookups which found a registered class.
+     * 
+     * @return number of hits
+     */
+    public static long getHitCount() {
+        return registry.getHitCount();
+    }
+    
+    /**
+     * Gets the number of lookups which did not find a registered class.
+     * 
+     * @return number of misses
+     */
+    public static long getMissCount() {
+        return registry.getMissCount();
+    }
+    
+    /**
+     * Gets the proportion of lookups which found a registered class.
+     * 
+     * @return hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public static double getHitRate() {
+        return registry.getHitRate();
+    }
+    
+    /**
+     * Resets the hit and miss counts to zero.
+     */
+    public static void resetCounts() {
+        registry.resetCounts();
+    }
+    
+    /**
+     * Gets the number of registered classes.
+     * 
+     * @return number of classes
+     */
+    public static int getSize() {
+        return registry.getSize();
+    }
+    
+    /**
+     * Gets the maximum number of classes that the registry will hold.
+     * 
+     * @return maximum size
+     */
+    public static int getMaxSize() {
+        return registry.getMaxSize();
+    }
+    
+    /**
+     * Sets the maximum number of classes that the registry will hold. If it
+     * currently holds more classes, the least recently used are discarded.
+     * 
+     * @param size maximum size; 0 disables the registry
+     * 
+     * @throws IllegalArgumentException if {@code size} is negative
+     */
+    public static void setMaxSize(int size) {
+        registry.setMaxSize(size);
+    }
+    
+    /**
+     * Removes all classes from the registry. Hit and miss counts are not
+     * changed.
+     */
+    public static void clear() {
+        registry.clear();
+    }
+}
@@ -0,0 +1,113 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.media.jai.jiffleop;
+
+import java.awt.Rectangle;
+
+import javax.media.jai.JAI;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.RenderedOp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for JiffleScriptRegistry.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleScriptRegistryTest {
+    
+    private static final String SCRIPT = "dest = x() + y();";
+    private static final String[] NO_SOURCES = new String[0];
+    private static final String[] DEST = {"dest"};
+    
+    @Before
+    public void setup() {
+        JiffleScriptRegistry.clear();
+        JiffleScriptRegistry.resetCounts();
+        JiffleScriptRegistry.setMaxSize(JiffleScriptRegistry.DEFAULT_MAX_SIZE);
+    }
+    
+    @After
+    public void cleanup() {
+        setup();
+    }
+    
+    @Test
+    public void sameScriptSameClass() throws Exception {
+        Class<?> c1 = JiffleScriptRegistry.getRuntimeClass(SCRIPT, NO_SOURCES, DEST);
+        Class<?> c2 = JiffleScriptRegistry.getRuntimeClass(SCRIPT, NO_SOURCES, DEST);
+        
+        assertSame(c1, c2);
+        assertEquals(1, JiffleScriptRegistry.getHitCount());
+        assertEquals(1, JiffleScriptRegistry.getMissCount());
+        assertEquals(0.5, JiffleScriptRegistry.getHitRate(), 1.0e-8);
+    }
+    
+    @Test
+    public void differentVarNamesDifferentClass() throws Exception {
+        Class<?> c1 = JiffleScriptRegistry.getRuntimeClass(SCRIPT, NO_SOURCES, DEST);
+        Class<?> c2 = JiffleScriptRegistry.getRuntimeClass(
+                "out = x() + y();", NO_SOURCES, new String[] {"out"});
+        
+        assertNotSame(c1, c2);
+        assertEquals(0, JiffleScriptRegistry.getHitCount());
+        assertEquals(2, JiffleScriptRegistry.getSize());
+    }
+    
+    @Test
+    public void maxSize() throws Exception {
+        JiffleScriptRegistry.setMaxSize(1);
+        JiffleScriptRegistry.getRuntimeClass(SCRIPT, NO_SOURCES, DEST);
+        JiffleScriptRegistry.getRuntimeClass("dest = 1;", NO_SOURCES, DEST);
+        assertEquals(1, JiffleScriptRegistry.getSize());
+        
+        JiffleScriptRegistry.setMaxSize(0);
+        assertEquals(0, JiffleScriptRegistry.getSize());
+        JiffleScriptRegistry.getRuntimeClass(SCRIPT, NO_SOURCES, DEST);
+        assertEquals(0, JiffleScriptRegistry.getSize());
+    }
+    
+    @Test
+    public void operatorUsesRegistry() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+            pb.setParameter("script", SCRIPT);
+            pb.setParameter("destBounds", new Rectangle(0, 0, 10, 10));
+            
+            RenderedOp op = JAI.create("Jiffle", pb);
+            assertEquals(i + 1.0, op.getData().getSampleDouble(i, 1, 0), 1.0e-8);
+        }
+        
+        assertEquals(1, JiffleScriptRegistry.getMissCount());
+        assertEquals(2, JiffleScriptRegistry.getHitCount());
+    }
+}
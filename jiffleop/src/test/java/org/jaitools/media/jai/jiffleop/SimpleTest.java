@@ -26,15 +26,21 @@
 package org.jaitools.media.jai.jiffleop;
 
 import java.awt.Dimension;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.RenderedImage;
 
 import javax.media.jai.JAI;
 import javax.media.jai.ParameterBlockJAI;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.TileScheduler;
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
+import org.jaitools.imageutils.ImageUtils;
 import org.jaitools.jiffle.JiffleBuilder;
 
 import org.junit.After;
@@ -85,6 +91,155 @@ public class SimpleTest {
         assertResult(result, script);
     }
 
+    @Test
+    public void sourceImage() throws Exception {
+        ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+        
+        TiledImage src = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                src.setSample(x, y, 0, y * WIDTH + x);
+            }
+        }
+        pb.setSource("source0", src);
+        
+        pb.setParameter("script", "options { outside = 0; } dest = 2 * src + src[1, 0];");
+        pb.setParameter("destName", "dest");
+        pb.setParameter("sourceNames", new String[] {"src"});
+        
+        RenderedOp op = JAI.create("Jiffle", pb);
+        RenderedImage result = op.getRendering();
+        
+        RandomIter iter = RandomIterFactory.create(result, null);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = 2 * src.getSampleDouble(x, y, 0)
+                        + (x < WIDTH - 1 ? src.getSampleDouble(x + 1, y, 0) : 0);
+                assertEquals(expected, iter.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+
+    @Test
+    public void destBoundsBeyondSource() throws Exception {
+        ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+        
+        TiledImage src = ImageUtils.createConstantImage(WIDTH, WIDTH, 1d);
+        pb.setSource("source0", src);
+        
+        // tiles in the lower right of the destination need no source data
+        pb.setParameter("script", "options { outside = 0; } dest = src + 1;");
+        pb.setParameter("sourceNames", new String[] {"src"});
+        pb.setParameter("destBounds", new Rectangle(0, 0, 2 * WIDTH, 2 * WIDTH));
+        
+        RenderedOp op = JAI.create("Jiffle", pb);
+        RenderedImage result = op.getRendering();
+        
+        RandomIter iter = RandomIterFactory.create(result, null);
+        for (int y = 0; y < 2 * WIDTH; y++) {
+            for (int x = 0; x < 2 * WIDTH; x++) {
+                double expected = x < WIDTH && y < WIDTH ? 2 : 1;
+                assertEquals(expected, iter.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+
+    @Test
+    public void multipleDestinations() throws Exception {
+        ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+
+        pb.setParameter("script", "a = x() + y(); b = x() * y();");
+        pb.setParameter("destNames", new String[] {"b", "a"});
+        pb.setParameter("destBounds", new Rectangle(0, 0, WIDTH, WIDTH));
+
+        RenderedOp op = JAI.create("Jiffle", pb);
+        RenderedImage result = op.getRendering();
+        assertEquals(2, result.getSampleModel().getNumBands());
+
+        RandomIter iter = RandomIterFactory.create(result, null);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(x * y, iter.getSampleDouble(x, y, 0), TOL);
+                assertEquals(x + y, iter.getSampleDouble(x, y, 1), TOL);
+            }
+        }
+    }
+
+    @Test
+    public void parallelTiles() throws Exception {
+        TileScheduler scheduler = JAI.getDefaultInstance().getTileScheduler();
+        int savedParallelism = scheduler.getParallelism();
+        scheduler.setParallelism(4);
+        
+        try {
+            ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+            
+            String script = "n = 0; foreach (i in -1:1) n += i * x() + y(); dest = n;";
+            pb.setParameter("script", script);
+            pb.setParameter("destName", "dest");
+            pb.setParameter("destBounds", new Rectangle(0, 0, WIDTH, WIDTH));
+            
+            RenderedOp op = JAI.create("Jiffle", pb);
+            
+            Point[] tileIndices = new Point[op.getNumXTiles() * op.getNumYTiles()];
+            int k = 0;
+            for (int ty = op.getMinTileY(); ty <= op.getMaxTileY(); ty++) {
+                for (int tx = op.getMinTileX(); tx <= op.getMaxTileX(); tx++) {
+                    tileIndices[k++] = new Point(tx, ty);
+                }
+            }
+            
+            // request all tiles at once so that they are computed concurrently
+            op.getTiles(tileIndices);
+            assertResult(op.getRendering(), script);
+            
+        } finally {
+            scheduler.setParallelism(savedParallelism);
+        }
+    }
+
+    @Test
+    public void mapRectsFromFootprint() throws Exception {
+        JiffleOpImage image = createSourceOpImage("dest = src[-1, 0] + src[1, 2];");
+
+        Rectangle destRect = new Rectangle(2, 2, 3, 3);
+        assertEquals(new Rectangle(1, 2, 5, 5), image.mapDestRect(destRect, 0));
+
+        // clipped to the source bounds
+        assertEquals(new Rectangle(0, 0, 3, 4),
+                image.mapDestRect(new Rectangle(0, 0, 2, 2), 0));
+
+        Rectangle srcRect = new Rectangle(4, 4, 2, 2);
+        assertEquals(new Rectangle(3, 2, 4, 4), image.mapSourceRect(srcRect, 0));
+    }
+
+    @Test
+    public void mapRectsSamePixel() throws Exception {
+        JiffleOpImage image = createSourceOpImage("dest = 2 * src;");
+
+        Rectangle r = new Rectangle(2, 3, 4, 5);
+        assertEquals(r, image.mapDestRect(r, 0));
+        assertEquals(r, image.mapSourceRect(r, 0));
+    }
+
+    @Test
+    public void mapRectsUnboundedFootprint() throws Exception {
+        JiffleOpImage image = createSourceOpImage("dest = src[$0, $0];");
+
+        Rectangle r = new Rectangle(2, 3, 1, 1);
+        assertEquals(image.getSourceImage(0).getBounds(), image.mapDestRect(r, 0));
+        assertEquals(image.getBounds(), image.mapSourceRect(r, 0));
+    }
+
+    private JiffleOpImage createSourceOpImage(String script) {
+        ParameterBlockJAI pb = new ParameterBlockJAI("Jiffle");
+        pb.setSource("source0", ImageUtils.createConstantImage(WIDTH, WIDTH, 0d));
+        pb.setParameter("script", script);
+        pb.setParameter("sourceNames", new String[] {"src"});
+
+        return (JiffleOpImage) JAI.create("Jiffle", pb).getRendering();
+    }
+
     private void assertResult(RenderedImage resultImage, String script) throws Exception {
         JiffleBuilder builder = new JiffleBuilder();
         builder.script(script).dest("dest", WIDTH, WIDTH).run();
@@ -59,6 +59,7 @@ tokens {
     CONSTANT;
     IMAGE_WRITE;
     LIST_NEW;
+    SUBEXPR;
     VAR_IMAGE;
     VAR_PIXEL_SCOPE;
     VAR_PROVIDED;
@@ -0,0 +1,450 @@
+/*
+ * Copyright 2011 Michael Bedward
+ * 
+ * This file is part of jai-tools.
+ *
+ * jai-tools is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ *
+ * jai-tools is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with jai-tools.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+ /**
+  * Optimizes expressions in the final AST. Expressions whose operands are
+  * all literals or named constants are folded into a single literal. This
+  * includes calls to non-volatile functions such as {@code sqrt(2)}.
+  * Then, pure subexpressions (those which do not depend on variables or 
+  * volatile functions) which involve image reads or function calls and 
+  * appear more than once in the script statements are wrapped in SUBEXPR 
+  * nodes so that the runtime class evaluates each of them at most once 
+  * per pixel.
+  * <p>
+  * Use the {@code optimize} method rather than {@code downup}.
+  *
+  * @author Michael Bedward
+  */
+
+tree grammar OptimizeExpressions;
+
+options {
+    tokenVocab = Jiffle;
+    ASTLabelType = CommonTree;
+    output = AST;
+    filter = true;
+}
+
+@header {
+package org.jaitools.jiffle.parser;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.runtime.JiffleFunctions;
+}
+
+@members {
+
+private static final JiffleFunctions FUNCTIONS = new JiffleFunctions();
+
+/**
+ * Folds constant expressions and then marks common subexpressions.
+ *
+ * @param tree the AST to optimize
+ * @return the optimized AST
+ */
+public CommonTree optimize(CommonTree tree) {
+    CommonTree result = (CommonTree) downup(tree);
+    markSubexpressions(result);
+    return result;
+}
+
+private CommonTree createLiteral(double value) {
+    return new CommonTree(new CommonToken(FLOAT_LITERAL, String.valueOf(value)));
+}
+
+private boolean isFinite(double value) {
+    return !(Double.isNaN(value) || Double.isInfinite(value));
+}
+
+/*
+ * Evaluates a non-volatile function with literal arguments. 
+ * Returns NaN if the function cannot be evaluated at compile time.
+ */
+private double evaluateFunction(String name, List<Double> args) {
+    List<String> argTypes = new ArrayList<String>();
+    Class<?>[] paramTypes = new Class<?>[args.size()];
+    for (int i = 0; i < args.size(); i++) {
+        argTypes.add("D");
+        paramTypes[i] = double.class;
+    }
+    
+    try {
+        FunctionInfo info = FunctionLookup.getInfo(name, argTypes);
+        if (info.isVolatile() || info.isProxy()) {
+            return Double.NaN;
+        }
+        
+        Object target = null;
+        Class<?> clazz = Math.class;
+        if (info.getProvider() == FunctionInfo.Provider.JIFFLE) {
+            target = FUNCTIONS;
+            clazz = JiffleFunctions.class;
+        }
+        
+        Method method = clazz.getMethod(info.getRuntimeName(), paramTypes);
+        Object result = method.invoke(target, args.toArray());
+        return result instanceof Number ? ((Number) result).doubleValue() : Double.NaN;
+        
+    } catch (Exception ex) {
+        return Double.NaN;
+    }
+}
+
+private double evaluateBinary(int op, double x, double y) {
+    switch (op) {
+        case PLUS: return x + y;
+        case MINUS: return x - y;
+        case TIMES: return x * y;
+        case DIV: return x / y;
+        case MOD: return x \% y;
+        case POW: return Math.pow(x, y);
+        case OR: return FUNCTIONS.OR(x, y);
+        case XOR: return FUNCTIONS.XOR(x, y);
+        case AND: return FUNCTIONS.AND(x, y);
+        case LOGICALEQ: return FUNCTIONS.EQ(x, y);
+        case NE: return FUNCTIONS.NE(x, y);
+        case GT: return FUNCTIONS.GT(x, y);
+        case GE: return FUNCTIONS.GE(x, y);
+        case LT: return FUNCTIONS.LT(x, y);
+        case LE: return FUNCTIONS.LE(x, y);
+        default: return Double.NaN;
+    }
+}
+
+private double evaluatePrefix(int op, double x) {
+    switch (op) {
+        case PLUS: return x;
+        case MINUS: return -x;
+        case NOT: return FUNCTIONS.NOT(x);
+        default: return Double.NaN;
+    }
+}
+
+/*
+ * Common subexpressions.
+ * 
+ * Candidates are pure expressions, ie. built only from literals, 
+ * constants, provided variables (e.g. x()), source image reads, 
+ * non-volatile functions and operators, which contain at least one 
+ * image read or function call. Their value cannot change during the
+ * evaluation of a pixel, so caching them is safe whatever the control
+ * flow of the script.
+ */
+
+private static class Occurrence {
+    final CommonTree node;
+    final String key;
+    final int size;
+    final List<Occurrence> descendants = new ArrayList<Occurrence>();
+
+    Occurrence(CommonTree node, int size) {
+        this.node = node;
+        this.key = node.toStringTree();
+        this.size = size;
+    }
+}
+
+/* Subtree size, or -1 if the subtree is not pure */
+private int pureSize(CommonTree node, boolean[] costly) {
+    switch (node.getType()) {
+        case INT_LITERAL:
+        case FLOAT_LITERAL:
+        case CONSTANT:
+        case VAR_PROVIDED:
+            return 1;
+
+        case VAR_SOURCE:
+            costly[0] = true;
+            return 1;
+
+        case FUNC_CALL:
+            if (!isPureFunction(node)) {
+                return -1;
+            }
+            costly[0] = true;
+            return pureChildrenSize(node, 1, costly);
+
+        case POW:
+        case IMAGE_POS:
+            costly[0] = true;
+            return pureChildrenSize(node, 0, costly);
+
+        case PREFIX:
+            switch (node.getChild(0).getType()) {
+                case PLUS:
+                case MINUS:
+                case NOT:
+                    return pureChildrenSize(node, 1, costly);
+                default:
+                    return -1;
+            }
+
+        case BAND_REF:
+        case PIXEL_REF:
+        case ABS_POS:
+        case REL_POS:
+        case EXPR_LIST:
+        case PAR:
+        case CON_CALL:
+        case PLUS:
+        case MINUS:
+        case TIMES:
+        case DIV:
+        case MOD:
+        case OR:
+        case XOR:
+        case AND:
+        case LOGICALEQ:
+        case NE:
+        case GT:
+        case GE:
+        case LT:
+        case LE:
+            return pureChildrenSize(node, 0, costly);
+
+        default:
+            return -1;
+    }
+}
+
+private int pureChildrenSize(CommonTree node, int first, boolean[] costly) {
+    int size = 1;
+    for (int i = first; i < node.getChildCount(); i++) {
+        int n = pureSize((CommonTree) node.getChild(i), costly);
+        if (n < 0) {
+            return -1;
+        }
+        size += n;
+    }
+    return size;
+}
+
+private boolean isPureFunction(CommonTree node) {
+    CommonTree args = (CommonTree) node.getChild(1);
+    List<String> argTypes = new ArrayList<String>();
+    for (int i = 0; i < args.getChildCount(); i++) {
+        argTypes.add("D");
+    }
+    try {
+        FunctionInfo info = FunctionLookup.getInfo(node.getChild(0).getText(), argTypes);
+        return !info.isVolatile() && "D".equals(info.getReturnType());
+    } catch (UndefinedFunctionException ex) {
+        // function with list args
+        return false;
+    }
+}
+
+/*
+ * Records candidate occurrences in a subtree. Returns the occurrences
+ * found at the top level of the subtree; nested occurrences are recorded 
+ * as descendants of their enclosing occurrence.
+ */
+private List<Occurrence> findCandidates(CommonTree node, List<Occurrence> all) {
+    List<Occurrence> found = new ArrayList<Occurrence>();
+    boolean[] costly = {false};
+    int size = pureSize(node, costly);
+    
+    Occurrence occ = null;
+    if (size > 0 && costly[0] && node.getType() != EXPR_LIST 
+            && node.getType() != BAND_REF && node.getType() != PIXEL_REF
+            && node.getType() != ABS_POS && node.getType() != REL_POS) {
+        occ = new Occurrence(node, size);
+        all.add(occ);
+        found.add(occ);
+    }
+    
+    // the first child of an image read is the image variable
+    final int first = node.getType() == IMAGE_POS ? 1 : 0;
+    for (int i = first; i < node.getChildCount(); i++) {
+        List<Occurrence> inner = findCandidates((CommonTree) node.getChild(i), all);
+        if (occ != null) {
+            for (Occurrence o : inner) {
+                occ.descendants.add(o);
+                occ.descendants.addAll(o.descendants);
+            }
+        } else {
+            found.addAll(inner);
+        }
+    }
+    return found;
+}
+
+/*
+ * Finds repeated candidates in script statements (not options or 
+ * declarations) and wraps each occurrence in a SUBEXPR node whose 
+ * text is the cache slot.
+ */
+private void markSubexpressions(CommonTree root) {
+    List<Occurrence> all = new ArrayList<Occurrence>();
+    
+    List<CommonTree> statements = new ArrayList<CommonTree>();
+    if (root.isNil()) {
+        for (int i = 0; i < root.getChildCount(); i++) {
+            statements.add((CommonTree) root.getChild(i));
+        }
+    } else {
+        statements.add(root);
+    }
+    
+    for (CommonTree stmt : statements) {
+        if (stmt.getType() != JIFFLE_OPTION && stmt.getType() != DECL) {
+            findCandidates(stmt, all);
+        }
+    }
+    
+    final Map<String, Integer> counts = CollectionFactory.map();
+    final Map<String, List<Occurrence>> byKey = CollectionFactory.orderedMap();
+    for (Occurrence occ : all) {
+        List<Occurrence> list = byKey.get(occ.key);
+        if (list == null) {
+            list = new ArrayList<Occurrence>();
+            byKey.put(occ.key, list);
+            counts.put(occ.key, 0);
+        }
+        list.add(occ);
+        counts.put(occ.key, counts.get(occ.key) + 1);
+    }
+    
+    // Decide on the largest subexpressions first. The extra occurrences 
+    // of a cached subexpression are never evaluated, so the subexpressions
+    // nested within them are discounted.
+    List<String> keys = new ArrayList<String>(byKey.keySet());
+    Collections.sort(keys, new Comparator<String>() {
+        public int compare(String k1, String k2) {
+            return byKey.get(k2).get(0).size - byKey.get(k1).get(0).size;
+        }
+    });
+    
+    Map<CommonTree, Integer> slots = new IdentityHashMap<CommonTree, Integer>();
+    List<String> cachedKeys = new ArrayList<String>();
+    for (String key : keys) {
+        if (counts.get(key) < 2) {
+            continue;
+        }
+        cachedKeys.add(key);
+        List<Occurrence> list = byKey.get(key);
+        for (Occurrence occ : list.subList(1, list.size())) {
+            for (Occurrence inner : occ.descendants) {
+                counts.put(inner.key, counts.get(inner.key) - 1);
+            }
+        }
+    }
+    
+    // number slots in order of first appearance
+    int slot = 0;
+    for (String key : byKey.keySet()) {
+        if (cachedKeys.contains(key)) {
+            for (Occurrence occ : byKey.get(key)) {
+                slots.put(occ.node, slot);
+            }
+            slot++ ;
+        }
+    }
+    
+    if (!slots.isEmpty()) {
+        wrapSubexpressions(root, slots);
+    }
+}
+
+private void wrapSubexpressions(CommonTree node, Map<CommonTree, Integer> slots) {
+    for (int i = 0; i < node.getChildCount(); i++) {
+        CommonTree child = (CommonTree) node.getChild(i);
+        wrapSubexpressions(child, slots);
+        
+        Integer slot = slots.get(child);
+        if (slot != null) {
+            CommonTree wrapper = new CommonTree(new CommonToken(SUBEXPR, slot.toString()));
+            wrapper.addChild(child);
+            node.setChild(i, wrapper);
+        }
+    }
+}
+
+}
+
+
+bottomup        : parenthesized
+                | prefixExpression
+                | binaryExpression
+                | functionCall
+                ;
+
+
+parenthesized   : ^(PAR n=number) -> {createLiteral($n.value)}
+                ;
+
+
+prefixExpression
+@init { double value = Double.NaN; }
+                : ^(PREFIX op=. n=number) 
+                  { isFinite(value = evaluatePrefix($op.getType(), $n.value)) }?
+                  -> {createLiteral(value)}
+                ;
+
+
+binaryExpression
+@init { double value = Double.NaN; }
+                : ^(op=binaryOp x=number y=number)
+                  { isFinite(value = evaluateBinary($op.start.getType(), $x.value, $y.value)) }?
+                  -> {createLiteral(value)}
+                ;
+
+
+binaryOp        : PLUS
+                | MINUS
+                | TIMES
+                | DIV
+                | MOD
+                | POW
+                | OR
+                | XOR
+                | AND
+                | LOGICALEQ
+                | NE
+                | GT
+                | GE
+                | LT
+                | LE
+                ;
+
+
+functionCall
+@init { 
+    double value = Double.NaN; 
+    List<Double> args = new ArrayList<Double>();
+}
+                : ^(FUNC_CALL ID ^(EXPR_LIST (n=number { args.add($n.value); })*))
+                  { isFinite(value = evaluateFunction($ID.text, args)) }?
+                  -> {createLiteral(value)}
+                ;
+
+
+number returns [double value]
+                : INT_LITERAL { $value = Double.parseDouble($INT_LITERAL.text); }
+                | FLOAT_LITERAL { $value = Double.parseDouble($FLOAT_LITERAL.text); }
+                | CONSTANT { $value = ConstantLookup.getValue($CONSTANT.text); } 
+                  { isFinite($value) }?
+                ;
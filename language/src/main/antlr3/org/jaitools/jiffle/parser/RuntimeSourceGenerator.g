@@ -45,18 +45,45 @@ import org.jaitools.jiffle.runtime.AbstractJiffleRuntime;
 
 private SymbolScopeStack varScope = new SymbolScopeStack();
 
-private String getConstantString(String name) {
-    String s = String.valueOf(ConstantLookup.getValue(name));
-    if ("NaN".equals(s)) {
-        return "Double.NaN";
-    }
-    return s;
-}
-
 private String getImageScopeVarExpr(String varName) {
     return AbstractJiffleRuntime.VAR_STRING.replace("_VAR_", varName);
 }
 
+/*
+ * Gets the value of a relative pixel offset expression if it is
+ * a (possibly signed or bracketed) integer value, or null otherwise.
+ */
+private Integer getConstantOffset(CommonTree node) {
+    switch (node.getType()) {
+        case INT_LITERAL:
+            return Integer.valueOf(node.getText());
+            
+        case FLOAT_LITERAL:
+            // integral values produced by constant folding
+            double d = Double.parseDouble(node.getText());
+            if (d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE) {
+                return Integer.valueOf((int) d);
+            }
+            return null;
+            
+        case PAR:
+            return getConstantOffset((CommonTree) node.getChild(0));
+            
+        case PREFIX:
+            Integer value = getConstantOffset((CommonTree) node.getChild(1));
+            if (value != null) {
+                switch (node.getChild(0).getType()) {
+                    case PLUS: return value;
+                    case MINUS: return -value;
+                }
+            }
+            return null;
+            
+        default:
+            return null;
+    }
+}
+
 }
 
 
@@ -72,7 +99,12 @@ generate [String script]
 
                 -> runtime(script={scriptLines}, pkgname={pkgName}, imports={imports},
                            name={className}, base={baseClassName}, 
-                           opts={$o}, fields={$v}, eval={$s})
+                           opts={$o}, params={getImageParamArgs()},
+                           fields={$v}, images={imageVarNames}, 
+                           nbrs={getNeighbourhoodArgs()}, footprints={getFootprintArgs()},
+                           cache={subexprSlots}, eval={$s},
+                           vector={getRowVectorData()}, writesvars={writesImageScopeVars()},
+                           destvalues={isIndirectDestValues()})
                 ;
 
 
@@ -129,7 +161,8 @@ simpleStatement : imageWrite -> {$imageWrite.st}
 
 
 imageWrite      : ^(IMAGE_WRITE VAR_DEST expression)
-                -> setdestvalue(var={$VAR_DEST.text}, expr={$expression.st})
+                -> setdestvalue(image={getImageVarIndex($VAR_DEST.text)}, expr={$expression.st},
+                                destvalues={isIndirectDestValues()})
                 ;
 
 
@@ -173,7 +206,7 @@ scope { boolean isNew; }
                 { 
                     $listAssignment::isNew = !varScope.isDefined($VAR_LIST.text, SymbolType.LIST); 
                     if ($listAssignment::isNew) {
-                        addImport("java.util.List", "java.util.ArrayList"); 
+                        addImport(DOUBLE_LIST_CLASS); 
                         varScope.addSymbol($VAR_LIST.text, SymbolType.LIST, ScopeType.PIXEL);
                     }
                 }
@@ -236,7 +269,6 @@ foreachLoop
                 | ^(FOREACH ID
                     {varScope.addSymbol($ID.text, SymbolType.LOOP_VAR, ScopeType.PIXEL);}
                      VAR_LIST s=statement)
-                { addImport("java.util.Iterator"); }
 
                 -> foreachlistvar(n={++varIndex}, var={$ID.text}, listvar={%{$VAR_LIST.text}}, stmt={$s.st})
                 
@@ -278,11 +310,16 @@ expression      : ^(FUNC_CALL ID el=expressionList)
 
                 | var -> {$var.st}
 
-                | VAR_SOURCE -> getsourcevalue(var={$VAR_SOURCE.text})
+                | VAR_SOURCE { addFootprintOffset($VAR_SOURCE.text, 0, 0); }
+                  -> getsourcevalue(image={getImageVarIndex($VAR_SOURCE.text)})
 
                 | CONSTANT -> {%{getConstantString($CONSTANT.text)}}
 
                 | literal -> {$literal.st}
+
+                | ^(SUBEXPR e=expression) 
+                { addSubexprSlot($SUBEXPR.text); }
+                -> subexpr(n={$SUBEXPR.text}, expr={$e.st})
                 ;
 
 
@@ -292,7 +329,7 @@ listOperation   : ^(APPEND VAR_LIST expression)
 
 
 listLiteral     : ^(DECLARED_LIST e=expressionList)
-                { addImport("java.util.Arrays", "java.util.ArrayList"); }
+                { addImport(DOUBLE_LIST_CLASS); }
                 -> listliteral(empty={$e.templates.isEmpty()}, exprs={$e.templates}) 
                 ;
 
@@ -301,7 +338,7 @@ var             : VAR_IMAGE_SCOPE -> {%{getImageScopeVarExpr($VAR_IMAGE_SCOPE.te
                 | VAR_PIXEL_SCOPE -> {%{$VAR_PIXEL_SCOPE.text}}
                 | VAR_PROVIDED -> {%{$VAR_PROVIDED.text}}
                 | VAR_LOOP -> {%{$VAR_LOOP.text}}
-                | VAR_LIST -> {%{"(List)" + $VAR_LIST.text}}
+                | VAR_LIST -> {%{$VAR_LIST.text}}
                 ;
 
 
@@ -355,8 +392,25 @@ literal         : INT_LITERAL -> {%{$INT_LITERAL.text + ".0"}}
                 ;
 
 
-imagePos        : ^(IMAGE_POS VAR_SOURCE b=bandSpecifier? p=pixelSpecifier?)
-                -> getsourcevalue(var={$VAR_SOURCE.text}, pixel={$p.st}, band={$b.st})
+imagePos
+@init {
+    boolean neighbour = false;
+}
+                : ^(IMAGE_POS VAR_SOURCE b=bandSpecifier? p=pixelSpecifier?)
+                {
+                    if (p != null && $p.dx != null && $p.dy != null) {
+                        addNeighbourOffset($VAR_SOURCE.text, $p.dx, $p.dy);
+                        neighbour = true;
+                    }
+                    
+                    if (p == null) {
+                        addFootprintOffset($VAR_SOURCE.text, 0, 0);
+                    } else {
+                        addFootprintOffset($VAR_SOURCE.text, $p.dx, $p.dy);
+                    }
+                }
+                -> {neighbour}? getneighbourvalue(image={getImageVarIndex($VAR_SOURCE.text)}, pixel={$p.st}, band={$b.st})
+                -> getsourcevalue(image={getImageVarIndex($VAR_SOURCE.text)}, pixel={$p.st}, band={$b.st})
                 ;
 
 
@@ -364,13 +418,21 @@ bandSpecifier   : ^(BAND_REF expression) -> {$expression.st}
                 ;
 
 
-pixelSpecifier  : ^(PIXEL_REF xpos=pixelPos["_x"] ypos=pixelPos["_y"]) -> pixel(x={xpos.st}, y={ypos.st})
+pixelSpecifier returns [Integer dx, Integer dy]
+                : ^(PIXEL_REF xpos=pixelPos["_x"] ypos=pixelPos["_y"]) 
+                { 
+                    $dx = $xpos.offset; 
+                    $dy = $ypos.offset; 
+                }
+                -> pixel(x={xpos.st}, y={ypos.st})
                 ;
 
 
-pixelPos[String var]
+pixelPos[String var] returns [Integer offset]
                 : ^(ABS_POS expression) -> {$expression.st}
-                | ^(REL_POS expression) -> binaryexpr(lhs={$var}, op={%{"+"}}, rhs={$expression.st})
+                | ^(REL_POS expression) 
+                { $offset = getConstantOffset($expression.start); }
+                -> binaryexpr(lhs={$var}, op={%{"+"}}, rhs={$expression.st})
                 ;
 
 
@@ -0,0 +1,84 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * A runtime compiler back-end which emits the bytecode of runtime classes
+ * directly from the final abstract syntax tree of the script, without
+ * generating or compiling Java source. To use it by default, set the
+ * {@code runtime.compiler} key in the Jiffle properties to the name of
+ * this class.
+ * <p>
+ * Scripts which use lists, and runtime base classes which do not extend
+ * {@code AbstractDirectRuntime} or {@code AbstractIndirectRuntime}, are
+ * not supported. These are compiled with {@link JaninoRuntimeCompiler}
+ * instead. Direct runtime classes compiled by this back-end evaluate each
+ * pixel in turn rather than using the vectorized row code, and read
+ * neighbouring pixels from source images without buffering image rows.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class BytecodeRuntimeCompiler implements RuntimeCompiler {
+
+    private static final Logger LOGGER = Logger.getLogger(BytecodeRuntimeCompiler.class.getName());
+
+    private final RuntimeCompiler fallback = new JaninoRuntimeCompiler();
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, byte[]> compile(RuntimeCompilation compilation, ClassLoader loader)
+            throws JiffleException {
+
+        try {
+            Class<?> baseClass = Class.forName(compilation.getBaseClassName(), false,
+                    loader == null ? Jiffle.class.getClassLoader() : loader);
+
+            byte[] bytes = new RuntimeClassGenerator(compilation, baseClass).generate();
+
+            Map<String, byte[]> result = CollectionFactory.orderedMap();
+            result.put(compilation.getClassName(), bytes);
+            return result;
+
+        } catch (ClassNotFoundException ex) {
+            throw new JiffleException("Runtime base class not found: "
+                    + compilation.getBaseClassName(), ex);
+
+        } catch (RuntimeClassGenerator.UnsupportedScriptException ex) {
+            LOGGER.log(Level.FINE, "Compiling runtime class with Janino: {0}", ex.getMessage());
+            return fallback.compile(compilation, loader);
+        }
+    }
+
+}
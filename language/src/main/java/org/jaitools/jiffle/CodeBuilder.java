@@ -0,0 +1,481 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.codehaus.janino.util.ClassFile;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * Assembles the bytecode of a method for {@link RuntimeClassGenerator}.
+ * Only the instructions needed for Jiffle runtime classes are provided.
+ * The builder tracks the operand stack depth and the number of local
+ * variable slots, and resolves branch targets when the method is finished.
+ * <p>
+ * Class files are written with the class file version used by Janino's
+ * {@code ClassFile} (JDK 1.1), which does not require stack map frames.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+class CodeBuilder {
+
+    static final int ACONST_NULL = 0x01;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int DALOAD = 0x31;
+    static final int AALOAD = 0x32;
+    static final int DASTORE = 0x52;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int DUP2 = 0x5c;
+    static final int DUP2_X1 = 0x5d;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DREM = 0x73;
+    static final int DNEG = 0x77;
+    static final int I2D = 0x87;
+    static final int L2D = 0x8a;
+    static final int F2D = 0x8d;
+    static final int D2I = 0x8e;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ICMPGE = 0xa2;
+    static final int IF_ICMPGT = 0xa3;
+    static final int GOTO = 0xa7;
+    static final int IRETURN = 0xac;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int NEWARRAY = 0xbc;
+    static final int ARRAYLENGTH = 0xbe;
+
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ISTORE = 0x36;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int IINC = 0x84;
+    private static final int WIDE = 0xc4;
+    private static final int T_DOUBLE = 7;
+
+    /** The largest method body allowed by the class file format. */
+    private static final int MAX_CODE_LENGTH = 0xffff;
+
+    /**
+     * A branch target. Labels are created with {@link CodeBuilder#newLabel()}.
+     */
+    static class Label {
+        private int pos = -1;
+        private int depth = -1;
+        private final List<int[]> fixups = CollectionFactory.list();
+    }
+
+    private final ClassFile classFile;
+    private final ClassFile.MethodInfo method;
+    private final List<Label> labels = CollectionFactory.list();
+
+    private byte[] code = new byte[256];
+    private int length;
+
+    private int depth;
+    private int maxDepth;
+    private int numLocals;
+
+
+    /**
+     * Creates a builder for a new method of the given class.
+     *
+     * @param classFile the class
+     * @param access method access flags
+     * @param name method name
+     * @param descriptor method descriptor
+     * @param numArgSlots local variable slots used by {@code this} and
+     *        the method arguments
+     */
+    CodeBuilder(ClassFile classFile, int access, String name, String descriptor, int numArgSlots) {
+        this.classFile = classFile;
+        this.method = classFile.addMethodInfo((short) access, name, descriptor);
+        this.numLocals = numArgSlots;
+    }
+
+    /**
+     * Allocates a local variable.
+     *
+     * @param size number of slots (2 for a double)
+     * @return the first slot
+     */
+    int newLocal(int size) {
+        int slot = numLocals;
+        numLocals += size;
+        return slot;
+    }
+
+    /**
+     * Adds an instruction without operands.
+     *
+     * @param opcode the instruction
+     * @param stackDelta change in operand stack depth
+     */
+    void op(int opcode, int stackDelta) {
+        emit(opcode);
+        adjust(stackDelta);
+    }
+
+    void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            emit(0x03 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            emit(BIPUSH);
+            emit(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            emit(SIPUSH);
+            emit2(value);
+        } else {
+            ldc(classFile.addConstantIntegerInfo(value));
+        }
+        adjust(1);
+    }
+
+    void dconst(double value) {
+        // -0.0 must be loaded from the constant pool
+        if (value == 0.0 && 1 / value > 0) {
+            emit(DCONST_0);
+        } else if (value == 1.0) {
+            emit(DCONST_1);
+        } else {
+            emit(LDC2_W);
+            emit2(classFile.addConstantDoubleInfo(value));
+        }
+        adjust(2);
+    }
+
+    void sconst(String value) {
+        ldc(classFile.addConstantStringInfo(value));
+        adjust(1);
+    }
+
+    private void ldc(short index) {
+        if ((index & 0xffff) <= 0xff) {
+            emit(LDC);
+            emit(index);
+        } else {
+            emit(LDC_W);
+            emit2(index);
+        }
+    }
+
+    void iload(int slot) {
+        local(ILOAD, slot);
+        adjust(1);
+    }
+
+    void istore(int slot) {
+        local(ISTORE, slot);
+        adjust(-1);
+    }
+
+    void dload(int slot) {
+        local(DLOAD, slot);
+        adjust(2);
+    }
+
+    void dstore(int slot) {
+        local(DSTORE, slot);
+        adjust(-2);
+    }
+
+    void aload(int slot) {
+        local(ALOAD, slot);
+        adjust(1);
+    }
+
+    void astore(int slot) {
+        local(ASTORE, slot);
+        adjust(-1);
+    }
+
+    void iinc(int slot, int increment) {
+        if (slot <= 0xff) {
+            emit(IINC);
+            emit(slot);
+            emit(increment);
+        } else {
+            emit(WIDE);
+            emit(IINC);
+            emit2(slot);
+            emit2(increment);
+        }
+    }
+
+    private void local(int opcode, int slot) {
+        if (slot <= 0xff) {
+            emit(opcode);
+            emit(slot);
+        } else {
+            emit(WIDE);
+            emit(opcode);
+            emit2(slot);
+        }
+    }
+
+    /**
+     * Adds a field access instruction.
+     *
+     * @param opcode GETFIELD, PUTFIELD or GETSTATIC
+     * @param owner descriptor of the class declaring or inheriting the field
+     * @param name field name
+     * @param type field descriptor
+     */
+    void field(int opcode, String owner, String name, String type) {
+        emit(opcode);
+        emit2(classFile.addConstantFieldrefInfo(owner, name, type));
+
+        int size = size(type.charAt(0));
+        switch (opcode) {
+            case GETFIELD: adjust(size - 1); break;
+            case PUTFIELD: adjust(-size - 1); break;
+            default: adjust(size);
+        }
+    }
+
+    /**
+     * Adds a method invocation instruction.
+     *
+     * @param opcode INVOKEVIRTUAL, INVOKESPECIAL or INVOKESTATIC
+     * @param owner descriptor of the class declaring or inheriting the method
+     * @param name method name
+     * @param descriptor method descriptor
+     */
+    void invoke(int opcode, String owner, String name, String descriptor) {
+        emit(opcode);
+        emit2(classFile.addConstantMethodrefInfo(owner, name, descriptor));
+
+        int delta = opcode == INVOKESTATIC ? 0 : -1;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            delta -= size(c);
+            while (descriptor.charAt(i) == '[') {
+                i++ ;
+            }
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+        }
+        adjust(delta + size(descriptor.charAt(i + 1)));
+    }
+
+    void newObject(String type) {
+        emit(NEW);
+        emit2(classFile.addConstantClassInfo(type));
+        adjust(1);
+    }
+
+    void newDoubleArray() {
+        emit(NEWARRAY);
+        emit(T_DOUBLE);
+    }
+
+    /**
+     * Adds a branch instruction.
+     *
+     * @param opcode IFEQ, IFNE, an IF_ICMP instruction or GOTO
+     * @param target the target
+     */
+    void jump(int opcode, Label target) {
+        switch (opcode) {
+            case IFEQ:
+            case IFNE:
+                adjust(-1);
+                break;
+
+            case GOTO:
+                break;
+
+            default:
+                adjust(-2);
+        }
+
+        target.fixups.add(new int[] {length, length + 1});
+        target.depth = depth;
+        emit(opcode);
+        emit2(0);
+    }
+
+    /**
+     * Places a label at the current position. The operand stack depth is
+     * taken from the branches to the label, since code following an
+     * unconditional branch is only reached through the label.
+     *
+     * @param label the label
+     */
+    void mark(Label label) {
+        label.pos = length;
+        if (label.depth >= 0) {
+            depth = label.depth;
+        }
+    }
+
+    /**
+     * Resolves branches and adds the code attribute to the method.
+     *
+     * @throws RuntimeClassGenerator.UnsupportedScriptException if the 
+     *         method is too large for the class file format
+     */
+    void finish() throws RuntimeClassGenerator.UnsupportedScriptException {
+        if (length > MAX_CODE_LENGTH) {
+            throw new RuntimeClassGenerator.UnsupportedScriptException("method too large");
+        }
+
+        for (Label label : labels) {
+            for (int[] fixup : label.fixups) {
+                int offset = label.pos - fixup[0];
+                if (label.pos < 0 || offset != (short) offset) {
+                    throw new RuntimeClassGenerator.UnsupportedScriptException(
+                            "branch out of range");
+                }
+                code[fixup[1]] = (byte) (offset >> 8);
+                code[fixup[1] + 1] = (byte) offset;
+            }
+        }
+
+        final int maxStack = maxDepth;
+        final int maxLocals = numLocals;
+        final byte[] bytes = code;
+        final int n = length;
+        method.addAttribute(new ClassFile.AttributeInfo(classFile.addConstantUtf8Info("Code")) {
+            @Override
+            protected void storeBody(DataOutputStream dos) throws IOException {
+                dos.writeShort(maxStack);
+                dos.writeShort(maxLocals);
+                dos.writeInt(n);
+                dos.write(bytes, 0, n);
+                dos.writeShort(0);  // exception table
+                dos.writeShort(0);  // attributes
+            }
+        });
+    }
+
+    /**
+     * Creates a branch target for this method.
+     *
+     * @return the new label
+     */
+    Label newLabel() {
+        Label label = new Label();
+        labels.add(label);
+        return label;
+    }
+
+    private void adjust(int delta) {
+        depth += delta;
+        maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private void emit(int b) {
+        if (length == code.length) {
+            byte[] bigger = new byte[2 * length];
+            System.arraycopy(code, 0, bigger, 0, length);
+            code = bigger;
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void emit2(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    private static int size(char descriptorChar) {
+        switch (descriptorChar) {
+            case 'V': return 0;
+            case 'D':
+            case 'J': return 2;
+            default: return 1;
+        }
+    }
+
+    /**
+     * Gets the descriptor of a type.
+     *
+     * @param type the type
+     * @return the descriptor
+     */
+    static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return "[" + descriptor(type.getComponentType());
+        }
+        if (type.isPrimitive()) {
+            if (type == double.class) return "D";
+            if (type == int.class) return "I";
+            if (type == long.class) return "J";
+            if (type == float.class) return "F";
+            if (type == boolean.class) return "Z";
+            if (type == void.class) return "V";
+            if (type == short.class) return "S";
+            if (type == byte.class) return "B";
+            return "C";
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * Gets the descriptor of a method.
+     *
+     * @param method the method
+     * @return the descriptor
+     */
+    static String descriptor(Method method) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> type : method.getParameterTypes()) {
+            sb.append(descriptor(type));
+        }
+        return sb.append(")").append(descriptor(method.getReturnType())).toString();
+    }
+}
@@ -0,0 +1,270 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.Arrays;
+
+/**
+ * Timings and sizes recorded by a {@link Jiffle} object while compiling 
+ * a script. Front-end phases (parsing to optimizing the AST) are recorded 
+ * by {@link Jiffle#compile()}; the source generation and bytecode phases 
+ * are recorded when a runtime class is compiled, which happens when a 
+ * runtime object is first requested and the class is not already in the
+ * {@link RuntimeClassCache}. If several runtime classes are compiled for
+ * the same script, the values for the most recent one are held.
+ * <p>
+ * Times are in nanoseconds. Phases which have not been run have a time
+ * of -1.
+ *
+ * @see Jiffle#getCompileStats()
+ * @see CompileStatsListener
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class CompileStats {
+    
+    /**
+     * Compilation phases.
+     */
+    public static enum Phase {
+        /** Lexing and parsing the script to the primary AST. */
+        PARSE(true),
+        
+        /** Reading the options block. */
+        OPTIONS(true),
+        
+        /** Tagging variables by type. */
+        TAG_VARS(true),
+        
+        /** Checking variable assignments. */
+        CHECK_ASSIGNMENTS(true),
+        
+        /** Transforming expressions. */
+        TRANSFORM_EXPRESSIONS(true),
+        
+        /** Checking function calls. */
+        CHECK_FUNCTION_CALLS(true),
+        
+        /** Folding constants and caching common sub-expressions. */
+        OPTIMIZE_EXPRESSIONS(true),
+        
+        /** Walking the final AST and rendering the runtime source. */
+        SOURCE_GENERATION(false),
+        
+        /** Compiling the runtime class to bytecode. */
+        BYTECODE_COMPILATION(false);
+        
+        private final boolean frontEnd;
+
+        private Phase(boolean frontEnd) {
+            this.frontEnd = frontEnd;
+        }
+        
+        /**
+         * Tests whether this phase is run by {@link Jiffle#compile()} 
+         * rather than when a runtime class is created.
+         * 
+         * @return {@code true} for front-end phases
+         */
+        public boolean isFrontEnd() {
+            return frontEnd;
+        }
+    }
+    
+    private final String scriptName;
+    private final long[] times;
+    
+    private int tokenCount;
+    private int primaryNodeCount;
+    private int finalNodeCount;
+    private int sourceLength;
+    private int bytecodeSize;
+
+    /**
+     * Creates a new object with no phases recorded.
+     * 
+     * @param scriptName name of the {@code Jiffle} object
+     */
+    CompileStats(String scriptName) {
+        this.scriptName = scriptName;
+        times = new long[Phase.values().length];
+        Arrays.fill(times, -1);
+    }
+    
+    /**
+     * Gets the name of the {@code Jiffle} object these statistics 
+     * were recorded for.
+     * 
+     * @return the name
+     */
+    public String getScriptName() {
+        return scriptName;
+    }
+
+    /**
+     * Gets the time taken by a phase.
+     * 
+     * @param phase the phase
+     * @return time in nanoseconds or -1 if the phase has not been run
+     */
+    public long getTime(Phase phase) {
+        return times[phase.ordinal()];
+    }
+    
+    /**
+     * Gets the total time taken by the front-end phases, which are 
+     * those run by {@link Jiffle#compile()}.
+     * 
+     * @return time in nanoseconds
+     */
+    public long getFrontEndTime() {
+        return sumTimes(true);
+    }
+    
+    /**
+     * Gets the total time taken to generate and compile the most 
+     * recent runtime class.
+     * 
+     * @return time in nanoseconds; 0 if no runtime class has been compiled
+     */
+    public long getBackEndTime() {
+        return sumTimes(false);
+    }
+    
+    /**
+     * Gets the total time taken by all phases which have been run.
+     * 
+     * @return time in nanoseconds
+     */
+    public long getTotalTime() {
+        return getFrontEndTime() + getBackEndTime();
+    }
+
+    /**
+     * Gets the number of tokens in the script, including hidden 
+     * tokens such as white-space and comments.
+     * 
+     * @return number of tokens
+     */
+    public int getTokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Gets the number of nodes in the AST produced by the parser.
+     * 
+     * @return number of nodes
+     */
+    public int getPrimaryNodeCount() {
+        return primaryNodeCount;
+    }
+
+    /**
+     * Gets the number of nodes in the final AST, after checking, 
+     * transformation and optimization.
+     * 
+     * @return number of nodes
+     */
+    public int getFinalNodeCount() {
+        return finalNodeCount;
+    }
+
+    /**
+     * Gets the length of the most recently generated runtime source.
+     * 
+     * @return number of characters; 0 if no source has been generated
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * Gets the total size of the bytecode for the most recently 
+     * compiled runtime class, including any nested classes.
+     * 
+     * @return size in bytes; 0 if no runtime class has been compiled
+     */
+    public int getBytecodeSize() {
+        return bytecodeSize;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CompileStats[").append(scriptName);
+        for (Phase phase : Phase.values()) {
+            long t = getTime(phase);
+            if (t >= 0) {
+                sb.append(", ").append(phase).append('=')
+                        .append(String.format("%.3fms", t / 1.0e6));
+            }
+        }
+        sb.append(", tokens=").append(tokenCount);
+        sb.append(", primaryNodes=").append(primaryNodeCount);
+        sb.append(", finalNodes=").append(finalNodeCount);
+        sb.append(", sourceLength=").append(sourceLength);
+        sb.append(", bytecodeSize=").append(bytecodeSize);
+        sb.append(']');
+        return sb.toString();
+    }
+    
+    void setTime(Phase phase, long nanos) {
+        times[phase.ordinal()] = nanos;
+    }
+
+    void setTokenCount(int tokenCount) {
+        this.tokenCount = tokenCount;
+    }
+
+    void setPrimaryNodeCount(int primaryNodeCount) {
+        this.primaryNodeCount = primaryNodeCount;
+    }
+
+    void setFinalNodeCount(int finalNodeCount) {
+        this.finalNodeCount = finalNodeCount;
+    }
+
+    void setSourceLength(int sourceLength) {
+        this.sourceLength = sourceLength;
+    }
+
+    void setBytecodeSize(int bytecodeSize) {
+        this.bytecodeSize = bytecodeSize;
+    }
+    
+    private long sumTimes(boolean frontEnd) {
+        long sum = 0;
+        for (Phase phase : Phase.values()) {
+            if (phase.isFrontEnd() == frontEnd && times[phase.ordinal()] > 0) {
+                sum += times[phase.ordinal()];
+            }
+        }
+        return sum;
+    }
+    
+}
@@ -0,0 +1,241 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+/**
+ * A {@link CompileStatsListener} which accumulates statistics across
+ * scripts: the number of times each phase has run with the total and 
+ * maximum time taken, and the largest script sizes seen. A global 
+ * instance, which receives statistics from all {@code Jiffle} objects, 
+ * is returned by {@link Jiffle#getGlobalCompileStats()}.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class CompileStatsAggregator implements CompileStatsListener {
+    
+    private static final int NUM_PHASES = CompileStats.Phase.values().length;
+    
+    private final long[] counts = new long[NUM_PHASES];
+    private final long[] totalTimes = new long[NUM_PHASES];
+    private final long[] maxTimes = new long[NUM_PHASES];
+    
+    private long scriptCount;
+    private long runtimeClassCount;
+    private int maxTokenCount;
+    private int maxNodeCount;
+    private int maxSourceLength;
+    private int maxBytecodeSize;
+    private long totalBytecodeSize;
+    private String slowestScriptName;
+    private long slowestScriptTime;
+
+    public synchronized void scriptCompiled(CompileStats stats) {
+        scriptCount++ ;
+        addTimes(stats, true);
+        
+        maxTokenCount = Math.max(maxTokenCount, stats.getTokenCount());
+        maxNodeCount = Math.max(maxNodeCount, stats.getPrimaryNodeCount());
+        
+        long t = stats.getFrontEndTime();
+        if (slowestScriptName == null || t > slowestScriptTime) {
+            slowestScriptName = stats.getScriptName();
+            slowestScriptTime = t;
+        }
+    }
+
+    public synchronized void runtimeClassCompiled(CompileStats stats) {
+        runtimeClassCount++ ;
+        addTimes(stats, false);
+        
+        maxSourceLength = Math.max(maxSourceLength, stats.getSourceLength());
+        maxBytecodeSize = Math.max(maxBytecodeSize, stats.getBytecodeSize());
+        totalBytecodeSize += stats.getBytecodeSize();
+    }
+    
+    /**
+     * Gets the number of times a phase has been run.
+     * 
+     * @param phase the phase
+     * @return number of runs
+     */
+    public synchronized long getCount(CompileStats.Phase phase) {
+        return counts[phase.ordinal()];
+    }
+    
+    /**
+     * Gets the total time taken by a phase.
+     * 
+     * @param phase the phase
+     * @return time in nanoseconds
+     */
+    public synchronized long getTotalTime(CompileStats.Phase phase) {
+        return totalTimes[phase.ordinal()];
+    }
+    
+    /**
+     * Gets the mean time taken by a phase.
+     * 
+     * @param phase the phase
+     * @return time in nanoseconds or 0 if the phase has not been run
+     */
+    public synchronized double getMeanTime(CompileStats.Phase phase) {
+        int i = phase.ordinal();
+        return counts[i] == 0 ? 0 : (double) totalTimes[i] / counts[i];
+    }
+    
+    /**
+     * Gets the longest time taken by a phase.
+     * 
+     * @param phase the phase
+     * @return time in nanoseconds
+     */
+    public synchronized long getMaxTime(CompileStats.Phase phase) {
+        return maxTimes[phase.ordinal()];
+    }
+
+    /**
+     * Gets the number of scripts compiled.
+     * 
+     * @return number of scripts
+     */
+    public synchronized long getScriptCount() {
+        return scriptCount;
+    }
+
+    /**
+     * Gets the number of runtime classes compiled. This does not include
+     * classes taken from the {@link RuntimeClassCache}.
+     * 
+     * @return number of runtime classes
+     */
+    public synchronized long getRuntimeClassCount() {
+        return runtimeClassCount;
+    }
+
+    /**
+     * Gets the largest number of tokens in a compiled script.
+     * 
+     * @return number of tokens
+     */
+    public synchronized int getMaxTokenCount() {
+        return maxTokenCount;
+    }
+
+    /**
+     * Gets the largest number of nodes in the primary AST of a 
+     * compiled script.
+     * 
+     * @return number of nodes
+     */
+    public synchronized int getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    /**
+     * Gets the length of the largest runtime source generated.
+     * 
+     * @return number of characters
+     */
+    public synchronized int getMaxSourceLength() {
+        return maxSourceLength;
+    }
+
+    /**
+     * Gets the size of the largest runtime class compiled.
+     * 
+     * @return size in bytes
+     */
+    public synchronized int getMaxBytecodeSize() {
+        return maxBytecodeSize;
+    }
+
+    /**
+     * Gets the total size of all runtime classes compiled. This can be 
+     * used to estimate the memory required by the {@link RuntimeClassCache}.
+     * 
+     * @return size in bytes
+     */
+    public synchronized long getTotalBytecodeSize() {
+        return totalBytecodeSize;
+    }
+    
+    /**
+     * Gets the name of the {@code Jiffle} object which took longest in
+     * the front-end phases.
+     * 
+     * @return the name or {@code null} if no scripts have been compiled
+     */
+    public synchronized String getSlowestScriptName() {
+        return slowestScriptName;
+    }
+    
+    /**
+     * Gets the front-end time of the script named by
+     * {@link #getSlowestScriptName()}.
+     * 
+     * @return time in nanoseconds
+     */
+    public synchronized long getSlowestScriptTime() {
+        return slowestScriptTime;
+    }
+    
+    /**
+     * Discards all accumulated statistics.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            counts[i] = 0;
+            totalTimes[i] = 0;
+            maxTimes[i] = 0;
+        }
+        scriptCount = 0;
+        runtimeClassCount = 0;
+        maxTokenCount = 0;
+        maxNodeCount = 0;
+        maxSourceLength = 0;
+        maxBytecodeSize = 0;
+        totalBytecodeSize = 0;
+        slowestScriptName = null;
+        slowestScriptTime = 0;
+    }
+    
+    private void addTimes(CompileStats stats, boolean frontEnd) {
+        for (CompileStats.Phase phase : CompileStats.Phase.values()) {
+            long t = stats.getTime(phase);
+            if (phase.isFrontEnd() == frontEnd && t >= 0) {
+                int i = phase.ordinal();
+                counts[i]++ ;
+                totalTimes[i] += t;
+                maxTimes[i] = Math.max(maxTimes[i], t);
+            }
+        }
+    }
+    
+}
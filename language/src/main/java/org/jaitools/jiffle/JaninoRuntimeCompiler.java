@@ -0,0 +1,102 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.DebuggingInformation;
+import org.codehaus.janino.IClassLoader;
+import org.codehaus.janino.Java;
+import org.codehaus.janino.Parser;
+import org.codehaus.janino.Scanner;
+import org.codehaus.janino.UnitCompiler;
+import org.codehaus.janino.util.ClassFile;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * The default runtime compiler back-end, which compiles the Java source
+ * rendered from the script with the Janino compiler.
+ * <p>
+ * Unlike Janino's {@code SimpleCompiler}, which resolves the runtime base
+ * class, Jiffle runtime classes and JDK classes afresh for each script, this
+ * class keeps the resolved classes from one compilation to the next when
+ * the Jiffle class loader is used. This makes compiling a runtime class 
+ * several times faster.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JaninoRuntimeCompiler implements RuntimeCompiler {
+    
+    private static final ClassLoader JIFFLE_LOADER = Jiffle.class.getClassLoader();
+    
+    private static final IClassLoader SHARED_ICLASS_LOADER = 
+            new ClassLoaderIClassLoader(JIFFLE_LOADER);
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, byte[]> compile(RuntimeCompilation compilation, ClassLoader loader) 
+            throws JiffleException {
+        
+        String source = compilation.getSource();
+        try {
+            Scanner scanner = new Scanner(null, new StringReader(source));
+            Java.CompilationUnit unit = new Parser(scanner).parseCompilationUnit();
+            
+            ClassFile[] classFiles;
+            if (loader == null || loader == JIFFLE_LOADER) {
+                // Janino's class loader objects are not thread-safe
+                synchronized (SHARED_ICLASS_LOADER) {
+                    classFiles = compileUnit(unit, SHARED_ICLASS_LOADER);
+                }
+            } else {
+                classFiles = compileUnit(unit, new ClassLoaderIClassLoader(loader));
+            }
+            
+            Map<String, byte[]> result = CollectionFactory.orderedMap();
+            for (ClassFile cf : classFiles) {
+                result.put(cf.getThisClassName(), cf.toByteArray());
+            }
+            return result;
+            
+        } catch (Exception ex) {
+            throw new JiffleException("Runtime source error", ex);
+        }
+    }
+
+    private ClassFile[] compileUnit(Java.CompilationUnit unit, IClassLoader iloader) 
+            throws Exception {
+        
+        UnitCompiler compiler = new UnitCompiler(unit, iloader);
+        return compiler.compileUnit(DebuggingInformation.DEFAULT_DEBUGGING_INFORMATION);
+    }
+
+}
@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.antlr.runtime.ANTLRStringStream;
@@ -39,8 +41,7 @@ import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.tree.CommonTree;
 import org.antlr.runtime.tree.CommonTreeNodeStream;
-
-import org.codehaus.janino.SimpleCompiler;
+import org.antlr.runtime.tree.Tree;
 
 import org.jaitools.CollectionFactory;
 import org.jaitools.jiffle.parser.CheckAssignments;
@@ -50,6 +51,7 @@ import org.jaitools.jiffle.parser.JiffleParser;
 import org.jaitools.jiffle.parser.JiffleParserException;
 import org.jaitools.jiffle.parser.Message;
 import org.jaitools.jiffle.parser.MessageTable;
+import org.jaitools.jiffle.parser.OptimizeExpressions;
 import org.jaitools.jiffle.parser.OptionsBlockReader;
 import org.jaitools.jiffle.parser.ParsingErrorReporter;
 import org.jaitools.jiffle.parser.RuntimeSourceGenerator;
@@ -169,6 +171,17 @@ public class Jiffle {
     /** Number of Jiffle instances */
     private static int refCount = 0;
     
+    /** Shared default back-end for compiling runtime source. */
+    private static RuntimeCompiler defaultRuntimeCompiler;
+    
+    /** Accumulates compile statistics from all instances. */
+    private static final CompileStatsAggregator globalCompileStats = 
+            new CompileStatsAggregator();
+    
+    /** Client listeners for compile statistics. */
+    private static final List<CompileStatsListener> compileStatsListeners = 
+            new CopyOnWriteArrayList<CompileStatsListener>();
+    
 
     /**
      * Used to specify the roles of images referenced in
@@ -197,6 +210,15 @@ public class Jiffle {
     private Map<String, ImageRole> imageParams;
     private MessageTable msgTable;
     
+    /** Back-end used to compile runtime classes to bytecode. */
+    private RuntimeCompiler runtimeCompiler;
+    
+    /** Runtime classes compiled for this script, keyed by base class. */
+    private Map<Class<? extends JiffleRuntime>, Class<? extends JiffleRuntime>> runtimeClasses;
+    
+    /** Timings and sizes recorded during compilation. */
+    private CompileStats compileStats;
+    
     /**
      * Creates a new instance.
      */
@@ -334,6 +356,7 @@ public class Jiffle {
     public final void setImageParams(Map<String, ImageRole> params) {
         imageParams.clear();
         imageParams.putAll(params);
+        runtimeClasses.clear();
     }
     
     /**
@@ -368,6 +391,34 @@ public class Jiffle {
         return name;
     }
     
+    /**
+     * Sets the back-end used to compile runtime classes to bytecode,
+     * replacing the default back-end set in the Jiffle properties. Runtime
+     * classes held by this object are discarded. Classes in the 
+     * {@link RuntimeClassCache} are keyed by the class of the back-end 
+     * which compiled them, so a class compiled by a different back-end 
+     * is never returned.
+     * 
+     * @param compiler the back-end or {@code null} to use the default
+     */
+    public void setRuntimeCompiler(RuntimeCompiler compiler) {
+        runtimeCompiler = compiler;
+        runtimeClasses.clear();
+    }
+    
+    /**
+     * Gets the back-end used to compile runtime classes to bytecode.
+     * 
+     * @return the back-end
+     * @throws JiffleException if the default back-end cannot be created
+     */
+    public RuntimeCompiler getRuntimeCompiler() throws JiffleException {
+        if (runtimeCompiler != null) {
+            return runtimeCompiler;
+        }
+        return getDefaultRuntimeCompiler();
+    }
+    
     /**
      * Compiles the script into Java source for the runtime class.
      * 
@@ -379,6 +430,7 @@ public class Jiffle {
         }
         
         clearCompiledObjects();
+        compileStats = new CompileStats(name);
         buildPrimaryAST();
         
         if (imageParams.isEmpty()) {
@@ -391,6 +443,63 @@ public class Jiffle {
         if (!transformAndCheckVars()) {
             throw new JiffleException(messagesToString());
         }
+        
+        compileStats.setFinalNodeCount(countNodes(finalAST));
+        
+        globalCompileStats.scriptCompiled(compileStats);
+        for (CompileStatsListener listener : compileStatsListeners) {
+            try {
+                listener.scriptCompiled(compileStats);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Compile stats listener failed", ex);
+            }
+        }
+    }
+    
+    /**
+     * Gets the timings and sizes recorded while compiling the script
+     * and, if a runtime class has since been compiled, while generating
+     * and compiling the runtime class.
+     * 
+     * @return the statistics or {@code null} if the script has not 
+     *         been compiled
+     */
+    public CompileStats getCompileStats() {
+        return isCompiled() ? compileStats : null;
+    }
+    
+    /**
+     * Gets the statistics accumulated from all {@code Jiffle} objects.
+     * 
+     * @return the global statistics
+     */
+    public static CompileStatsAggregator getGlobalCompileStats() {
+        return globalCompileStats;
+    }
+    
+    /**
+     * Adds a listener to receive compile statistics from all 
+     * {@code Jiffle} objects.
+     * 
+     * @param listener the listener
+     */
+    public static void addCompileStatsListener(CompileStatsListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        compileStatsListeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener previously added with 
+     * {@link #addCompileStatsListener(CompileStatsListener)}.
+     * 
+     * @param listener the listener
+     * @return {@code true} if the listener was removed; {@code false} if
+     *         it was not registered
+     */
+    public static boolean removeCompileStatsListener(CompileStatsListener listener) {
+        return compileStatsListeners.remove(listener);
     }
     
     /**
@@ -415,6 +524,10 @@ public class Jiffle {
      * <li>{@code evaluateAll(JiffleProgressListener listener}
      * </ul>
      * The {@code Jiffle} object must be compiled before calling this method.
+     * The runtime class is retained after the first call, so further calls
+     * cheaply return new runtime objects, each with its own state, without 
+     * regenerating source. An existing runtime object can also be copied
+     * with {@link JiffleRuntime#copy()}.
      * 
      * @return the runtime object
      * @throws JiffleException if the script has not been compiled or if errors
@@ -533,6 +646,7 @@ public class Jiffle {
         Jiffle.refCount++ ;
         name = JiffleProperties.get( JiffleProperties.NAME_KEY ) + refCount;
         imageParams = CollectionFactory.map();
+        runtimeClasses = CollectionFactory.map();
     }
     
     /**
@@ -544,6 +658,47 @@ public class Jiffle {
         tokens = null;
         errorReporter = null;
         msgTable = new MessageTable();
+        runtimeClasses.clear();
+        compileStats = null;
+    }
+    
+    /**
+     * Records the time taken by a compilation phase.
+     * 
+     * @param phase the phase
+     * @param start value of {@code System.nanoTime()} when the phase started
+     * 
+     * @return the current value of {@code System.nanoTime()}
+     */
+    private long recordPhase(CompileStats.Phase phase, long start) {
+        long now = System.nanoTime();
+        compileStats.setTime(phase, now - start);
+        return now;
+    }
+    
+    /**
+     * Notifies listeners that a runtime class has been compiled.
+     */
+    private void fireRuntimeClassCompiled() {
+        globalCompileStats.runtimeClassCompiled(compileStats);
+        for (CompileStatsListener listener : compileStatsListeners) {
+            try {
+                listener.runtimeClassCompiled(compileStats);
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Compile stats listener failed", ex);
+            }
+        }
+    }
+    
+    /**
+     * Counts the nodes in a tree.
+     */
+    private static int countNodes(Tree tree) {
+        int n = 1;
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            n += countNodes(tree.getChild(i));
+        }
+        return n;
     }
     
     private void reportMessages() throws JiffleException {
@@ -584,6 +739,7 @@ public class Jiffle {
      */
     private void buildPrimaryAST() throws JiffleException {
         try {
+            long start = System.nanoTime();
             ANTLRStringStream input = new ANTLRStringStream(theScript);
             JiffleLexer lexer = new JiffleLexer(input);
             tokens = new CommonTokenStream(lexer);
@@ -591,6 +747,10 @@ public class Jiffle {
             JiffleParser parser = new JiffleParser(tokens);
             primaryAST = (CommonTree) parser.prog().getTree();
             
+            recordPhase(CompileStats.Phase.PARSE, start);
+            compileStats.setTokenCount(tokens.size());
+            compileStats.setPrimaryNodeCount(countNodes(primaryAST));
+            
             loadScriptImageParameters(parser.getImageParams());
 
         } catch (RecognitionException ex) {
@@ -618,10 +778,12 @@ public class Jiffle {
     }
     
     private void checkOptions() {
+        long start = System.nanoTime();
         CommonTreeNodeStream nodes = new CommonTreeNodeStream(primaryAST);
         nodes.setTokenStream(tokens);
         OptionsBlockReader reader = new OptionsBlockReader(nodes, msgTable);
         reader.downup(primaryAST);
+        recordPhase(CompileStats.Phase.OPTIONS, start);
     }
 
     /**
@@ -634,11 +796,13 @@ public class Jiffle {
     private boolean transformAndCheckVars() throws JiffleException {
         try {
             CommonTree tree = primaryAST;
+            long start = System.nanoTime();
 
             CommonTreeNodeStream nodes = new CommonTreeNodeStream(tree);
             nodes.setTokenStream(tokens);
             TagVars tag = new TagVars(nodes, imageParams, msgTable);
             tree = (CommonTree) tag.start().getTree();
+            start = recordPhase(CompileStats.Phase.TAG_VARS, start);
             if (msgTable.hasErrors()) return false;
 
             nodes = new CommonTreeNodeStream(tree);
@@ -646,19 +810,28 @@ public class Jiffle {
 
             CheckAssignments assignments = new CheckAssignments(nodes, msgTable);
             assignments.start();
+            start = recordPhase(CompileStats.Phase.CHECK_ASSIGNMENTS, start);
             if (msgTable.hasErrors()) return false;
 
             nodes = new CommonTreeNodeStream(tree);
             nodes.setTokenStream(tokens);
             TransformExpressions trexpr = new TransformExpressions(nodes);
             tree = (CommonTree) trexpr.start().getTree();
+            start = recordPhase(CompileStats.Phase.TRANSFORM_EXPRESSIONS, start);
             
             nodes = new CommonTreeNodeStream(tree);
             nodes.setTokenStream(tokens);
             CheckFunctionCalls calls = new CheckFunctionCalls(nodes, msgTable);
             calls.downup(tree);
+            start = recordPhase(CompileStats.Phase.CHECK_FUNCTION_CALLS, start);
             if (msgTable.hasErrors()) return false;
-            
+
+            nodes = new CommonTreeNodeStream(tree);
+            nodes.setTokenStream(tokens);
+            OptimizeExpressions optimizer = new OptimizeExpressions(nodes);
+            tree = optimizer.optimize(tree);
+            recordPhase(CompileStats.Phase.OPTIMIZE_EXPRESSIONS, start);
+
             finalAST = tree;
             return true;
 
@@ -673,9 +846,12 @@ public class Jiffle {
     }
 
     /**
-     * Creates an instance of the runtime class. The Java source for the
-     * class is created if not already cached and then compiled using
-     * Janino's {@link SimpleCompiler}.
+     * Creates an instance of the runtime class. The class is retained by 
+     * this object once it has been created, so that further instances
+     * can be created cheaply. Otherwise the class is taken from the
+     * {@link RuntimeClassCache} if possible or, failing that, the class
+     * is compiled using this object's {@link RuntimeCompiler} and added
+     * to the cache.
      * 
      * @throws Exception 
      */
@@ -685,30 +861,23 @@ public class Jiffle {
             throw new JiffleException("The script has not been compiled");
         }
         
-        String runtimeSource = createRuntimeSource(model, baseClass.getName(), false);
+        Class<? extends JiffleRuntime> clazz = runtimeClasses.get(baseClass);
+        if (clazz == null) {
+            RuntimeClassCache.Key key = RuntimeClassCache.createKey(
+                    theScript, imageParams, model, baseClass, 
+                    getRuntimeCompiler().getClass());
 
-        try {
-            SimpleCompiler compiler = new SimpleCompiler();
-            compiler.cook(runtimeSource);
-            
-            StringBuilder sb = new StringBuilder();
-            sb.append(JiffleProperties.get(JiffleProperties.RUNTIME_PACKAGE_KEY)).append(".");
-            
-            switch (model) {
-                case DIRECT:
-                    sb.append(JiffleProperties.get(JiffleProperties.DIRECT_CLASS_KEY));
-                    break;
-                    
-                case INDIRECT:
-                    sb.append(JiffleProperties.get(JiffleProperties.INDIRECT_CLASS_KEY));
-                    break;
-                    
-                default:
-                    throw new IllegalArgumentException("Internal compiler error");
+            clazz = RuntimeClassCache.get(key);
+            if (clazz == null) {
+                clazz = compileRuntimeClass(model, baseClass);
+                RuntimeClassCache.put(key, clazz);
             }
             
-            Class<?> clazz = compiler.getClassLoader().loadClass(sb.toString());
-            JiffleRuntime runtime = (JiffleRuntime) clazz.newInstance();
+            runtimeClasses.put(baseClass, clazz);
+        }
+
+        try {
+            JiffleRuntime runtime = clazz.newInstance();
             runtime.setImageParams(imageParams);
             return runtime;
 
@@ -717,6 +886,158 @@ public class Jiffle {
         }
     }
     
+    /**
+     * Compiles the runtime class for this script to Java bytecode. This is
+     * intended for compiling scripts ahead of time: the class files can be
+     * saved (e.g. with {@link JiffleClassCompiler}) and later instantiated
+     * with {@link org.jaitools.jiffle.runtime.JiffleRuntimeLoader} without 
+     * the costs of parsing and compiling the script at run-time. The runtime
+     * class records this object's image parameters.
+     * <p>
+     * The {@code Jiffle} object must be compiled before calling this method.
+     * 
+     * @param model the {@link Jiffle.RuntimeModel}
+     * @param className package-qualified name for the runtime class
+     * 
+     * @return an ordered {@code Map} of class names (key) and bytecode 
+     *         (value) for the runtime class and any nested classes
+     * 
+     * @throws JiffleException if the script has not been compiled or if errors
+     *         occur in compiling the runtime class
+     */
+    public Map<String, byte[]> getRuntimeClassFiles(RuntimeModel model, String className)
+            throws JiffleException {
+        
+        String baseClassName;
+        switch (model) {
+            case DIRECT:
+                baseClassName = JiffleProperties.DEFAULT_DIRECT_BASE_CLASS.getName();
+                break;
+                
+            case INDIRECT:
+                baseClassName = JiffleProperties.DEFAULT_INDIRECT_BASE_CLASS.getName();
+                break;
+                
+            default:
+                throw new IllegalArgumentException("Invalid runtime class type: " + model);
+        }
+        
+        if (className == null) {
+            className = getDefaultRuntimeClassName(model);
+        } else {
+            int pos = className.lastIndexOf('.');
+            if (pos <= 0 || pos == className.length() - 1) {
+                throw new JiffleException("Not a package-qualified class name: " + className);
+            }
+        }
+        
+        Map<String, byte[]> classFiles = compileRuntime(
+                model, baseClassName, className, Jiffle.class.getClassLoader());
+        
+        fireRuntimeClassCompiled();
+        return classFiles;
+    }
+    
+    /**
+     * Compiles the runtime class with this object's {@link RuntimeCompiler}
+     * and loads the class.
+     * 
+     * @throws JiffleException on errors compiling the class
+     */
+    private Class<? extends JiffleRuntime> compileRuntimeClass(RuntimeModel model,
+            Class<? extends JiffleRuntime> baseClass) throws JiffleException {
+        
+        String className = getDefaultRuntimeClassName(model);
+        ClassLoader parent = baseClass.getClassLoader();
+        Map<String, byte[]> classFiles = compileRuntime(
+                model, baseClass.getName(), className, parent);
+
+        try {
+            ClassLoader loader = new RuntimeClassLoader(parent, classFiles);
+            Class<?> clazz = loader.loadClass(className);
+            Class<? extends JiffleRuntime> runtimeClass = clazz.asSubclass(JiffleRuntime.class);
+            
+            fireRuntimeClassCompiled();
+            return runtimeClass;
+
+        } catch (Exception ex) {
+            throw new JiffleException("Runtime source error", ex);
+        }
+    }
+    
+    /**
+     * Gets the package-qualified name of the runtime class for the given
+     * model as set in the Jiffle properties.
+     */
+    private String getDefaultRuntimeClassName(RuntimeModel model) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(JiffleProperties.get(JiffleProperties.RUNTIME_PACKAGE_KEY)).append(".");
+
+        switch (model) {
+            case DIRECT:
+                sb.append(JiffleProperties.get(JiffleProperties.DIRECT_CLASS_KEY));
+                break;
+
+            case INDIRECT:
+                sb.append(JiffleProperties.get(JiffleProperties.INDIRECT_CLASS_KEY));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Internal compiler error");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Compiles the runtime class with this object's {@link RuntimeCompiler},
+     * recording the time taken and bytecode size. Time spent generating
+     * Java source at the request of the back-end is recorded separately.
+     * 
+     * @throws JiffleException on errors compiling the class
+     */
+    private Map<String, byte[]> compileRuntime(RuntimeModel model, String baseClassName,
+            String className, ClassLoader loader) throws JiffleException {
+        
+        RuntimeCompilation compilation = new RuntimeCompilation(
+                this, finalAST, imageParams, model, baseClassName, className);
+        
+        long start = System.nanoTime();
+        Map<String, byte[]> classFiles = getRuntimeCompiler().compile(compilation, loader);
+        compileStats.setTime(CompileStats.Phase.BYTECODE_COMPILATION, 
+                System.nanoTime() - start - compilation.getSourceTime());
+        
+        int size = 0;
+        for (byte[] bytes : classFiles.values()) {
+            size += bytes.length;
+        }
+        compileStats.setBytecodeSize(size);
+        
+        return classFiles;
+    }
+    
+    /**
+     * Creates the default runtime compiler back-end, the class of which
+     * is set in the Jiffle properties.
+     * 
+     * @throws JiffleException if the back-end cannot be created
+     */
+    private static synchronized RuntimeCompiler getDefaultRuntimeCompiler() 
+            throws JiffleException {
+        
+        if (defaultRuntimeCompiler == null) {
+            String className = JiffleProperties.get(JiffleProperties.RUNTIME_COMPILER_KEY);
+            try {
+                Class<?> clazz = Class.forName(className.trim());
+                defaultRuntimeCompiler = (RuntimeCompiler) clazz.newInstance();
+            } catch (Exception ex) {
+                throw new JiffleException(
+                        "Unable to create runtime compiler " + className, ex);
+            }
+        }
+        
+        return defaultRuntimeCompiler;
+    }
+    
     /**
      * Creates the Java source code for the runtime class.
      * 
@@ -727,18 +1048,46 @@ public class Jiffle {
      */
     private String createRuntimeSource(RuntimeModel model,
             String baseClassName, boolean scriptInDocs) throws JiffleException {
+        return createRuntimeSource(model, baseClassName, null, scriptInDocs);
+    }
+    
+    /**
+     * Creates the Java source code for the runtime class.
+     * 
+     * @param className package-qualified name for the runtime class or 
+     *        {@code null} to use the default name
+     * @param scriptInDocs whether to include the Jiffle script in the class
+     *        javadocs
+     * 
+     * @throws JiffleException if an error occurs generating the source 
+     */
+    String createRuntimeSource(RuntimeModel model, String baseClassName,
+            String className, boolean scriptInDocs) throws JiffleException {
         
         if (!isCompiled()) {
             throw new JiffleException("This instance has not been compiled");
         }
 
+        long start = System.nanoTime();
         CommonTreeNodeStream nodes = new CommonTreeNodeStream(finalAST);
         nodes.setTokenStream(tokens);
         
         SourceGenerator generator = new RuntimeSourceGenerator(nodes);
         generator.setBaseClassName(baseClassName);
+        if (className != null) {
+            try {
+                generator.setClassName(className);
+            } catch (IllegalArgumentException ex) {
+                throw new JiffleException(ex.getMessage());
+            }
+        }
         generator.setRuntimeModel(model);
+        generator.setImageParams(imageParams);
         String s = scriptInDocs ? null : theScript;
-        return generator.getSource(s);
+        String source = generator.getSource(s);
+        
+        recordPhase(CompileStats.Phase.SOURCE_GENERATION, start);
+        compileStats.setSourceLength(source.length());
+        return source;
     }
 }
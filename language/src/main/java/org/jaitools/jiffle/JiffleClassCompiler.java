@@ -0,0 +1,260 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * Compiles Jiffle scripts ahead of time and writes the runtime classes
+ * as class files. Instances of the compiled classes can then be created with
+ * {@link org.jaitools.jiffle.runtime.JiffleRuntimeLoader}, avoiding the costs 
+ * of parsing the scripts and compiling runtime source when an application 
+ * starts, and the need for the Janino compiler at run-time.
+ * <p>
+ * Scripts compiled with this class must declare their image variables in an
+ * <i>images</i> block, or else image parameters must be supplied to the
+ * {@link #compile(String, Map, String)} method.
+ * <p>
+ * This class can be used from the command line or a build (e.g. via the
+ * Maven exec plugin):
+ * <pre>
+ * java org.jaitools.jiffle.JiffleClassCompiler [-d outputDir] [-p package] 
+ *     [-m direct|indirect] script.jfl ...
+ * </pre>
+ * The runtime class for each script file is named from the file name 
+ * (e.g. {@code slope-aspect.jfl} is compiled to {@code SlopeAspect}) and 
+ * is placed in the given package or, if none is given, in the Jiffle runtime 
+ * package. Class files are written into package directories below the 
+ * output directory, which defaults to the current directory.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleClassCompiler {
+    
+    private static final String CLASS_FILE_EXT = ".class";
+    
+    private final File outputDir;
+    private Jiffle.RuntimeModel model;
+    private String pkgName;
+
+    /**
+     * Creates a new compiler which writes class files below the given
+     * directory, using the direct runtime model and the Jiffle runtime
+     * package.
+     * 
+     * @param outputDir root directory for class files
+     */
+    public JiffleClassCompiler(File outputDir) {
+        if (outputDir == null) {
+            throw new IllegalArgumentException("outputDir must not be null");
+        }
+        
+        this.outputDir = outputDir;
+        this.model = Jiffle.RuntimeModel.DIRECT;
+        this.pkgName = JiffleProperties.get(JiffleProperties.RUNTIME_PACKAGE_KEY);
+    }
+    
+    /**
+     * Sets the runtime model for compiled classes.
+     * 
+     * @param model the runtime model
+     */
+    public void setRuntimeModel(Jiffle.RuntimeModel model) {
+        if (model == null) {
+            throw new IllegalArgumentException("model must not be null");
+        }
+        this.model = model;
+    }
+    
+    /**
+     * Sets the package for runtime classes named from script files.
+     * 
+     * @param pkgName package name
+     */
+    public void setPackageName(String pkgName) {
+        if (pkgName == null || pkgName.trim().length() == 0) {
+            throw new IllegalArgumentException("pkgName must not be null or empty");
+        }
+        this.pkgName = pkgName.trim();
+    }
+    
+    /**
+     * Compiles a script file. The script must declare its image 
+     * variables in an <i>images</i> block.
+     * 
+     * @param scriptFile the script file
+     * 
+     * @return the class files written
+     * 
+     * @throws JiffleException on errors compiling the script
+     * @throws IOException on errors writing class files
+     */
+    public List<File> compile(File scriptFile) throws JiffleException, IOException {
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        Jiffle jiffle = new Jiffle(scriptFile, params);
+        
+        String className = pkgName + "." + getClassName(scriptFile.getName());
+        return writeClassFiles(jiffle.getRuntimeClassFiles(model, className));
+    }
+    
+    /**
+     * Compiles a script.
+     * 
+     * @param script the script
+     * @param params image parameters (may be empty if the script has an 
+     *        <i>images</i> block)
+     * @param className package-qualified name for the runtime class
+     * 
+     * @return the class files written
+     * 
+     * @throws JiffleException on errors compiling the script
+     * @throws IOException on errors writing class files
+     */
+    public List<File> compile(String script, Map<String, Jiffle.ImageRole> params, 
+            String className) throws JiffleException, IOException {
+        
+        Jiffle jiffle = new Jiffle(script, params);
+        return writeClassFiles(jiffle.getRuntimeClassFiles(model, className));
+    }
+    
+    /**
+     * Creates a runtime class name from a script file name by removing
+     * the extension and converting the remainder to camel case.
+     * 
+     * @param fileName script file name
+     * 
+     * @return the class name
+     */
+    static String getClassName(String fileName) {
+        String baseName = fileName;
+        int pos = baseName.lastIndexOf('.');
+        if (pos > 0) {
+            baseName = baseName.substring(0, pos);
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        boolean upper = true;
+        for (int i = 0; i < baseName.length(); i++) {
+            char c = baseName.charAt(i);
+            if (Character.isJavaIdentifierPart(c) && c != '_' && c != '$') {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        
+        if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, "Jiffle");
+        }
+        
+        return sb.toString();
+    }
+    
+    private List<File> writeClassFiles(Map<String, byte[]> classFiles) throws IOException {
+        List<File> files = CollectionFactory.list();
+        
+        for (String className : classFiles.keySet()) {
+            File file = new File(outputDir, 
+                    className.replace('.', File.separatorChar) + CLASS_FILE_EXT);
+            
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(classFiles.get(className));
+            } finally {
+                out.close();
+            }
+            files.add(file);
+        }
+        
+        return files;
+    }
+    
+    /**
+     * Compiles script files named on the command line. 
+     * 
+     * @param args command line arguments
+     * 
+     * @throws Exception on errors compiling scripts or writing class files
+     */
+    public static void main(String[] args) throws Exception {
+        File outputDir = new File(".");
+        String pkgName = null;
+        Jiffle.RuntimeModel model = Jiffle.RuntimeModel.DIRECT;
+        List<File> scriptFiles = CollectionFactory.list();
+        
+        for (int i = 0; i < args.length; i++) {
+            if ("-d".equals(args[i]) && i < args.length - 1) {
+                outputDir = new File(args[++i]);
+            } else if ("-p".equals(args[i]) && i < args.length - 1) {
+                pkgName = args[++i];
+            } else if ("-m".equals(args[i]) && i < args.length - 1) {
+                model = Jiffle.RuntimeModel.valueOf(args[++i].toUpperCase());
+            } else if (args[i].startsWith("-")) {
+                usage();
+                return;
+            } else {
+                scriptFiles.add(new File(args[i]));
+            }
+        }
+        
+        if (scriptFiles.isEmpty()) {
+            usage();
+            return;
+        }
+        
+        JiffleClassCompiler compiler = new JiffleClassCompiler(outputDir);
+        compiler.setRuntimeModel(model);
+        if (pkgName != null) {
+            compiler.setPackageName(pkgName);
+        }
+        
+        for (File scriptFile : scriptFiles) {
+            for (File classFile : compiler.compile(scriptFile)) {
+                System.out.println(scriptFile + " -> " + classFile);
+            }
+        }
+    }
+    
+    private static void usage() {
+        System.err.println("Usage: java " + JiffleClassCompiler.class.getName()
+                + " [-d outputDir] [-p package] [-m direct|indirect] script.jfl ...");
+    }
+}
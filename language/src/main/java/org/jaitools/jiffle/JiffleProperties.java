@@ -79,6 +79,15 @@ public class JiffleProperties {
     /** Key: indirect runtime source generation templates. */
     public static final String INDIRECT_SOURCE_TEMPLATES_KEY = "indirect.source.templates";
 
+    /** Key: maximum number of compiled runtime classes to cache. */
+    public static final String RUNTIME_CACHE_SIZE_KEY = "runtime.cache.size";
+
+    /** Key: default runtime compiler back-end class (fully qualified name). */
+    public static final String RUNTIME_COMPILER_KEY = "runtime.compiler";
+
+    /** Key: whether to publish runtime and executor metrics as JMX MBeans. */
+    public static final String METRICS_JMX_KEY = "metrics.jmx";
+
     /** Default base class for direct runtime classes. */
     public static final Class<? extends JiffleRuntime> DEFAULT_DIRECT_BASE_CLASS;
 
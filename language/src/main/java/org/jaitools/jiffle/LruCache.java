@@ -0,0 +1,182 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map of limited size which discards its least recently used entry
+ * when full, and counts lookups which find (hits) or do not find (misses)
+ * an entry. This is used for the process-wide caches of compiled runtime
+ * classes, such as {@link RuntimeClassCache}. A maximum size of 0 
+ * disables the cache: nothing is added and every lookup is a miss.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class LruCache<K, V> {
+    
+    private int maxSize;
+    private long hitCount;
+    private long missCount;
+    
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param maxSize maximum number of entries; 0 disables the cache
+     * 
+     * @throws IllegalArgumentException if {@code maxSize} is negative
+     */
+    public LruCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+    
+    /**
+     * Gets a value and updates the hit or miss count.
+     * 
+     * @param key the key
+     * 
+     * @return the value or {@code null} if not found
+     */
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            missCount++ ;
+        } else {
+            hitCount++ ;
+        }
+        return value;
+    }
+    
+    /**
+     * Adds a value. If the cache is full, the least recently used 
+     * entry is discarded.
+     * 
+     * @param key the key
+     * @param value the value
+     */
+    public synchronized void put(K key, V value) {
+        if (maxSize > 0) {
+            map.put(key, value);
+        }
+    }
+    
+    /**
+     * Gets the number of lookups which found an entry.
+     * 
+     * @return number of hits
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * Gets the number of lookups which did not find an entry.
+     * 
+     * @return number of misses
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    /**
+     * Gets the proportion of lookups which found an entry.
+     * 
+     * @return hit rate between 0 and 1, or 0 if there have been no lookups
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+    
+    /**
+     * Resets the hit and miss counts to zero.
+     */
+    public synchronized void resetCounts() {
+        hitCount = 0;
+        missCount = 0;
+    }
+    
+    /**
+     * Gets the number of entries.
+     * 
+     * @return number of entries
+     */
+    public synchronized int getSize() {
+        return map.size();
+    }
+    
+    /**
+     * Gets the maximum number of entries that the cache will hold.
+     * 
+     * @return maximum size
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Sets the maximum number of entries that the cache will hold. If the 
+     * cache currently holds more entries, the least recently used are
+     * discarded.
+     * 
+     * @param size maximum size; 0 disables the cache
+     * 
+     * @throws IllegalArgumentException if {@code size} is negative
+     */
+    public synchronized void setMaxSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        maxSize = size;
+        
+        while (map.size() > maxSize) {
+            K eldest = map.keySet().iterator().next();
+            map.remove(eldest);
+        }
+    }
+    
+    /**
+     * Removes all entries. Hit and miss counts are not changed.
+     */
+    public synchronized void clear() {
+        map.clear();
+    }
+}
@@ -0,0 +1,239 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Level;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.runtime.JiffleRuntime;
+
+/**
+ * A process-wide cache of compiled runtime classes. Compiling a runtime 
+ * class (generating its source and passing it to the Janino compiler) is 
+ * much more expensive than creating an instance of it, so {@link Jiffle} 
+ * objects look here before compiling. 
+ * <p>
+ * Classes are keyed by the script (with leading and trailing whitespace 
+ * removed from each line, runs of whitespace within lines collapsed and 
+ * blank lines dropped), the image parameters, the runtime model, 
+ * the runtime base class and the class of the {@link RuntimeCompiler}
+ * which produced the bytecode. When the cache is full the least recently used 
+ * class is discarded. The maximum size defaults to the value of the
+ * {@code runtime.cache.size} property and can be changed with 
+ * {@link #setMaxSize(int)}; a size of 0 disables caching. The classes
+ * are held in an {@link LruCache}.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RuntimeClassCache {
+    
+    private static final LruCache<Key, Class<? extends JiffleRuntime>> cache = 
+            new LruCache<Key, Class<? extends JiffleRuntime>>(getDefaultMaxSize());
+    
+    private static int getDefaultMaxSize() {
+        String value = JiffleProperties.get(JiffleProperties.RUNTIME_CACHE_SIZE_KEY);
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (Exception ex) {
+            Jiffle.LOGGER.log(Level.WARNING, 
+                    "Invalid value for runtime class cache size: {0}", value);
+            return 0;
+        }
+    }
+
+    /**
+     * Key for cached classes.
+     */
+    static final class Key {
+        private final String script;
+        private final String imageParams;
+        private final Jiffle.RuntimeModel model;
+        private final Class<?> baseClass;
+        private final Class<?> compilerClass;
+
+        private Key(String script, Map<String, Jiffle.ImageRole> imageParams, 
+                Jiffle.RuntimeModel model, Class<?> baseClass, Class<?> compilerClass) {
+            
+            this.script = normalizeScript(script);
+            this.model = model;
+            this.baseClass = baseClass;
+            this.compilerClass = compilerClass;
+            
+            SortedMap<String, Jiffle.ImageRole> sorted = CollectionFactory.sortedMap();
+            sorted.putAll(imageParams);
+            this.imageParams = sorted.toString();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return model == other.model 
+                    && baseClass == other.baseClass
+                    && compilerClass == other.compilerClass
+                    && imageParams.equals(other.imageParams)
+                    && script.equals(other.script);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + script.hashCode();
+            hash = 31 * hash + imageParams.hashCode();
+            hash = 31 * hash + model.hashCode();
+            hash = 31 * hash + baseClass.hashCode();
+            hash = 31 * hash + compilerClass.hashCode();
+            return hash;
+        }
+    }
+    
+    /**
+     * Creates a key for a runtime class.
+     * 
+     * @param script the script
+     * @param imageParams image parameters used to compile the script
+     * @param model the runtime model
+     * @param baseClass the runtime base class
+     * @param compilerClass the class of the runtime compiler back-end
+     * 
+     * @return the key
+     */
+    static Key createKey(String script, Map<String, Jiffle.ImageRole> imageParams, 
+                Jiffle.RuntimeModel model, Class<?> baseClass, Class<?> compilerClass) {
+        return new Key(script, imageParams, model, baseClass, compilerClass);
+    }
+    
+    /**
+     * Gets a cached class and updates the hit or miss count.
+     * 
+     * @param key the key
+     * 
+     * @return the cached class or {@code null} if not found
+     */
+    static Class<? extends JiffleRuntime> get(Key key) {
+        return cache.get(key);
+    }
+    
+    /**
+     * Adds a class to the cache. If the cache is full, the least 
+     * recently used class is discarded.
+     * 
+     * @param key the key
+     * @param clazz the compiled runtime class
+     */
+    static void put(Key key, Class<? extends JiffleRuntime> clazz) {
+        cache.put(key, clazz);
+    }
+    
+    /**
+     * Gets the number of lookups which found a cached class.
+     * 
+     * @return number of hits
+     */
+    public static long getHitCount() {
+        return cache.getHitCount();
+    }
+    
+    /**
+     * Gets the number of lookups which did not find a cached class.
+     * 
+     * @return number of misses
+     */
+    public static long getMissCount() {
+        return cache.getMissCount();
+    }
+    
+    /**
+     * Resets the hit and miss counts to zero.
+     */
+    public static void resetCounts() {
+        cache.resetCounts();
+    }
+    
+    /**
+     * Gets the number of classes in the cache.
+     * 
+     * @return number of cached classes
+     */
+    public static int getSize() {
+        return cache.getSize();
+    }
+    
+    /**
+     * Gets the maximum number of classes that the cache will hold.
+     * 
+     * @return maximum size
+     */
+    public static int getMaxSize() {
+        return cache.getMaxSize();
+    }
+    
+    /**
+     * Sets the maximum number of classes that the cache will hold. If the 
+     * cache currently holds more classes, the least recently used are
+     * discarded.
+     * 
+     * @param size maximum size; 0 disables caching
+     * 
+     * @throws IllegalArgumentException if {@code size} is negative
+     */
+    public static void setMaxSize(int size) {
+        cache.setMaxSize(size);
+    }
+    
+    /**
+     * Removes all classes from the cache. Hit and miss counts are not
+     * changed.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+    
+    /**
+     * Normalizes a script for use as a key: leading and trailing whitespace
+     * is removed from each line, runs of whitespace within lines are 
+     * replaced by a single space and blank lines are dropped. Line breaks
+     * are kept because they end comments.
+     */
+    private static String normalizeScript(String script) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : script.split("[\\r\\n]+")) {
+            String s = line.trim();
+            if (s.length() > 0) {
+                sb.append(s.replaceAll("\\s+", " ")).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,1433 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.runtime.tree.Tree;
+import org.codehaus.janino.util.ClassFile;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.parser.ConstantLookup;
+import org.jaitools.jiffle.parser.FunctionInfo;
+import org.jaitools.jiffle.parser.FunctionLookup;
+import org.jaitools.jiffle.parser.JiffleParser;
+import org.jaitools.jiffle.parser.UndefinedFunctionException;
+import org.jaitools.jiffle.runtime.AbstractDirectRuntime;
+import org.jaitools.jiffle.runtime.AbstractIndirectRuntime;
+import org.jaitools.jiffle.runtime.AbstractJiffleRuntime;
+import org.jaitools.jiffle.runtime.JiffleFunctions;
+
+/**
+ * Walks the final AST of a script and emits the bytecode of the runtime
+ * class directly, for {@link BytecodeRuntimeCompiler}. The class has the
+ * same members and behaviour as one compiled from the source generated
+ * with the runtime templates ({@code DirectRuntime.stg} and
+ * {@code IndirectRuntime.stg}), with these differences:
+ * <ul>
+ * <li>source images are always read with {@code readFromImage}, so
+ *     direct runtime classes do not buffer image neighbourhoods
+ * <li>direct runtime classes evaluate rows pixel by pixel rather than
+ *     with the row vector code
+ * </ul>
+ * Scripts which use lists, options other than {@code outside} with a
+ * numeric value, or runtime base classes which do not extend
+ * {@link AbstractDirectRuntime} or {@link AbstractIndirectRuntime} are
+ * not supported.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+class RuntimeClassGenerator {
+
+    /**
+     * Thrown when the script or runtime base class is not supported.
+     */
+    static class UnsupportedScriptException extends Exception {
+        UnsupportedScriptException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+    private static final String DOUBLE = "Ljava/lang/Double;";
+    private static final String MATH = "Ljava/lang/Math;";
+    private static final String HASH_MAP = "Ljava/util/HashMap;";
+    private static final String IMAGE_ROLE = CodeBuilder.descriptor(Jiffle.ImageRole.class);
+    private static final String FUNCTIONS = CodeBuilder.descriptor(JiffleFunctions.class);
+    private static final String VAR = CodeBuilder.descriptor(AbstractJiffleRuntime.ImageScopeVar.class);
+
+    private final String className;
+    private final String superClass;
+    private final Class<?> baseClass;
+    private final boolean direct;
+    private final Map<String, Jiffle.ImageRole> imageParams;
+
+    private final List<Tree> options = CollectionFactory.list();
+    private final List<Tree> fields = CollectionFactory.list();
+    private final List<String> fieldNames = CollectionFactory.list();
+    private final List<Tree> statements = CollectionFactory.list();
+
+    /* Image variable names in slot order and read footprints (see AbstractSourceGenerator) */
+    private final List<String> imageVarNames = CollectionFactory.list();
+    private final Map<String, int[]> footprints = CollectionFactory.orderedMap();
+
+    private final Set<String> pixelVarNames = CollectionFactory.orderedSet();
+    private final Set<String> subexprNames = CollectionFactory.orderedSet();
+
+    /* State for the method being generated */
+    private CodeBuilder code;
+    private int xSlot;
+    private int ySlot;
+    private int sgnSlot;
+    private final Map<String, Integer> pixelVars = CollectionFactory.map();
+    private final Map<String, Integer> subexprs = CollectionFactory.map();
+    private final LinkedList<LoopVar> loopVars = new LinkedList<LoopVar>();
+    private final LinkedList<CodeBuilder.Label> loopExits = new LinkedList<CodeBuilder.Label>();
+
+    private static class LoopVar {
+        final String name;
+        final int slot;
+        final boolean isInt;
+
+        LoopVar(String name, int slot, boolean isInt) {
+            this.name = name;
+            this.slot = slot;
+            this.isInt = isInt;
+        }
+    }
+
+
+    /**
+     * Creates a new generator.
+     *
+     * @param compilation the runtime class to generate
+     * @param baseClass the runtime base class
+     *
+     * @throws UnsupportedScriptException if the base class is not supported
+     */
+    RuntimeClassGenerator(RuntimeCompilation compilation, Class<?> baseClass)
+            throws UnsupportedScriptException {
+
+        switch (compilation.getRuntimeModel()) {
+            case DIRECT:
+                direct = true;
+                if (!AbstractDirectRuntime.class.isAssignableFrom(baseClass)) {
+                    throw new UnsupportedScriptException("base class " + baseClass.getName());
+                }
+                break;
+
+            case INDIRECT:
+                direct = false;
+                if (!AbstractIndirectRuntime.class.isAssignableFrom(baseClass)) {
+                    throw new UnsupportedScriptException("base class " + baseClass.getName());
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Internal compiler error");
+        }
+
+        this.baseClass = baseClass;
+        this.className = "L" + compilation.getClassName().replace('.', '/') + ";";
+        this.superClass = CodeBuilder.descriptor(baseClass);
+        this.imageParams = compilation.getImageParams();
+
+        Tree root = compilation.getTree();
+        if (root.isNil()) {
+            for (int i = 0; i < root.getChildCount(); i++) {
+                addTopLevelNode(root.getChild(i));
+            }
+        } else {
+            addTopLevelNode(root);
+        }
+    }
+
+    private void addTopLevelNode(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.JIFFLE_OPTION:
+                options.add(node);
+                break;
+
+            case JiffleParser.DECL:
+                if (node.getChild(0).getType() == JiffleParser.VAR_IMAGE_SCOPE) {
+                    fields.add(node);
+                    fieldNames.add(node.getChild(0).getText());
+                    if (node.getChildCount() > 1) {
+                        findImages(node.getChild(1));
+                    }
+                }
+                break;
+
+            default:
+                statements.add(node);
+                findImages(node);
+                findLocals(node);
+        }
+    }
+
+    /**
+     * Generates the runtime class.
+     *
+     * @return the class file bytes
+     * @throws UnsupportedScriptException if the script is not supported
+     */
+    byte[] generate() throws UnsupportedScriptException {
+        ClassFile cf = new ClassFile((short) (ACC_PUBLIC | ACC_SUPER),
+                className, superClass, new String[0]);
+
+        constructor(cf);
+        initOptionVars(cf);
+        getDefaultValue(cf);
+
+        if (direct) {
+            evaluate(cf);
+            evaluateRow(cf);
+            if (writesImageScopeVars()) {
+                notSplittable(cf);
+            }
+        } else {
+            evaluateDestinations(cf);
+        }
+
+        return cf.toByteArray();
+    }
+
+
+    ////////////////////////////////////////////////////////////
+    // Analysis of the AST
+
+    /*
+     * Allocates image slots and records source image footprints in the
+     * same order as the source generator.
+     */
+    private void findImages(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.IMAGE_WRITE:
+                findImages(node.getChild(1));
+                getImageVarIndex(node.getChild(0).getText());
+                return;
+
+            case JiffleParser.IMAGE_POS: {
+                Tree pixel = null;
+                for (int i = 1; i < node.getChildCount(); i++) {
+                    Tree child = node.getChild(i);
+                    findImages(child);
+                    if (child.getType() == JiffleParser.PIXEL_REF) {
+                        pixel = child;
+                    }
+                }
+
+                String varName = node.getChild(0).getText();
+                if (pixel == null) {
+                    addFootprintOffset(varName, 0, 0);
+                } else {
+                    addFootprintOffset(varName,
+                            getRelativeOffset(pixel.getChild(0)),
+                            getRelativeOffset(pixel.getChild(1)));
+                }
+                getImageVarIndex(varName);
+                return;
+            }
+
+            case JiffleParser.VAR_SOURCE:
+                addFootprintOffset(node.getText(), 0, 0);
+                getImageVarIndex(node.getText());
+                return;
+
+            default:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    findImages(node.getChild(i));
+                }
+        }
+    }
+
+    private int getImageVarIndex(String varName) {
+        int index = imageVarNames.indexOf(varName);
+        if (index < 0) {
+            index = imageVarNames.size();
+            imageVarNames.add(varName);
+        }
+        return index;
+    }
+
+    private void addFootprintOffset(String varName, Integer dx, Integer dy) {
+        int[] extent = footprints.get(varName);
+        if (dx == null || dy == null) {
+            footprints.put(varName, new int[] {
+                Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE});
+
+        } else if (extent == null) {
+            footprints.put(varName, new int[] {dx, dx, dy, dy});
+
+        } else {
+            extent[0] = Math.min(extent[0], dx);
+            extent[1] = Math.max(extent[1], dx);
+            extent[2] = Math.min(extent[2], dy);
+            extent[3] = Math.max(extent[3], dy);
+        }
+    }
+
+    /*
+     * Gets the offset of a pixel position if it is relative and
+     * constant, or null otherwise.
+     */
+    private Integer getRelativeOffset(Tree pos) {
+        return pos.getType() == JiffleParser.REL_POS ? getConstantOffset(pos.getChild(0)) : null;
+    }
+
+    private Integer getConstantOffset(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.INT_LITERAL:
+                return Integer.valueOf(node.getText());
+
+            case JiffleParser.FLOAT_LITERAL:
+                double d = Double.parseDouble(node.getText());
+                if (d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE) {
+                    return Integer.valueOf((int) d);
+                }
+                return null;
+
+            case JiffleParser.PAR:
+                return getConstantOffset(node.getChild(0));
+
+            case JiffleParser.PREFIX:
+                Integer value = getConstantOffset(node.getChild(1));
+                if (value != null) {
+                    switch (node.getChild(0).getType()) {
+                        case JiffleParser.PLUS: return value;
+                        case JiffleParser.MINUS: return -value;
+                    }
+                }
+                return null;
+
+            default:
+                return null;
+        }
+    }
+
+    /*
+     * Finds the pixel-scope variables and the subexpression cache slots
+     * which become local variables of the evaluation methods.
+     */
+    private void findLocals(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.VAR_PIXEL_SCOPE:
+                pixelVarNames.add(node.getText());
+                break;
+
+            case JiffleParser.SUBEXPR:
+                subexprNames.add(node.getText());
+                break;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            findLocals(node.getChild(i));
+        }
+    }
+
+    /*
+     * Tests whether the script statements assign to image-scope variables,
+     * as for the generated source (see AbstractSourceGenerator).
+     */
+    private boolean writesImageScopeVars() {
+        for (Tree node : statements) {
+            if (writesImageScopeVars(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean writesImageScopeVars(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.EQ:
+            case JiffleParser.TIMESEQ:
+            case JiffleParser.DIVEQ:
+            case JiffleParser.MODEQ:
+            case JiffleParser.PLUSEQ:
+            case JiffleParser.MINUSEQ:
+                if (node.getChild(0).getType() == JiffleParser.VAR_IMAGE_SCOPE) {
+                    return true;
+                }
+                break;
+
+            case JiffleParser.PREFIX:
+            case JiffleParser.POSTFIX:
+                int op = node.getChild(0).getType();
+                if ((op == JiffleParser.INCR || op == JiffleParser.DECR)
+                        && node.getChild(1).getType() == JiffleParser.VAR_IMAGE_SCOPE) {
+                    return true;
+                }
+                break;
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (writesImageScopeVars(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    ////////////////////////////////////////////////////////////
+    // Methods of the runtime class
+
+    private void beginMethod(ClassFile cf, int access, String name, String descriptor,
+            int numArgSlots) {
+
+        code = new CodeBuilder(cf, access, name, descriptor, numArgSlots);
+        xSlot = -1;
+        ySlot = -1;
+        sgnSlot = code.newLocal(1);
+        pixelVars.clear();
+        subexprs.clear();
+    }
+
+    /*
+     * Allocates pixel-scope variables and subexpression cache slots. The
+     * variables are set to zero so that the class passes verification;
+     * the script always assigns a variable before reading it.
+     */
+    private void initLocals() {
+        for (String varName : pixelVarNames) {
+            int slot = code.newLocal(2);
+            code.dconst(0);
+            code.dstore(slot);
+            pixelVars.put(varName, slot);
+        }
+
+        for (String n : subexprNames) {
+            // value followed by the flag which is set when it is cached
+            int slot = code.newLocal(3);
+            code.dconst(0);
+            code.dstore(slot);
+            subexprs.put(n, slot);
+        }
+        clearSubexprs();
+    }
+
+    /*
+     * Clears the subexpression cache before evaluating a pixel.
+     */
+    private void clearSubexprs() {
+        for (int slot : subexprs.values()) {
+            code.iconst(0);
+            code.istore(slot + 2);
+        }
+    }
+
+    private void constructor(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PUBLIC, "<init>", "()V", 1);
+        code.aload(0);
+        code.invoke(CodeBuilder.INVOKESPECIAL, superClass, "<init>", "()V");
+
+        if (!imageParams.isEmpty()) {
+            int params = code.newLocal(1);
+            code.newObject(HASH_MAP);
+            code.op(CodeBuilder.DUP, 1);
+            code.invoke(CodeBuilder.INVOKESPECIAL, HASH_MAP, "<init>", "()V");
+            code.astore(params);
+
+            for (String varName : imageParams.keySet()) {
+                code.aload(params);
+                code.sconst(varName);
+                code.field(CodeBuilder.GETSTATIC, IMAGE_ROLE,
+                        imageParams.get(varName).name(), IMAGE_ROLE);
+                code.invoke(CodeBuilder.INVOKEVIRTUAL, HASH_MAP, "put",
+                        "(" + OBJECT + OBJECT + ")" + OBJECT);
+                code.op(CodeBuilder.POP, -1);
+            }
+
+            code.aload(0);
+            code.aload(params);
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "setImageParams", "(Ljava/util/Map;)V");
+        }
+
+        for (String varName : imageVarNames) {
+            code.aload(0);
+            code.sconst(varName);
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "registerImageVar", "(" + STRING + ")I");
+            code.op(CodeBuilder.POP, -1);
+        }
+
+        for (String varName : footprints.keySet()) {
+            code.aload(0);
+            code.iconst(getImageVarIndex(varName));
+            for (int offset : footprints.get(varName)) {
+                code.iconst(offset);
+            }
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "registerSourceFootprint", "(IIIII)V");
+        }
+
+        for (Tree field : fields) {
+            code.aload(0);
+            code.sconst(field.getChild(0).getText());
+            code.iconst(field.getChildCount() > 1 ? 1 : 0);
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "registerVar", "(" + STRING + "Z)V");
+        }
+
+        code.op(CodeBuilder.RETURN, 0);
+        code.finish();
+    }
+
+    private void initOptionVars(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PROTECTED, "initOptionVars", "()V", 1);
+
+        for (Tree option : options) {
+            // the only option (see OptionLookup) sets the value returned
+            // for reads outside the bounds of source images
+            if (!"outside".equalsIgnoreCase(option.getChild(0).getText())) {
+                throw new UnsupportedScriptException("option " + option.getChild(0).getText());
+            }
+
+            double value;
+            Tree valueNode = option.getChild(1);
+            switch (valueNode.getType()) {
+                case JiffleParser.INT_LITERAL:
+                case JiffleParser.FLOAT_LITERAL:
+                    value = Double.parseDouble(valueNode.getText());
+                    break;
+
+                case JiffleParser.CONSTANT:
+                    value = ConstantLookup.getValue(valueNode.getText());
+                    break;
+
+                default:
+                    throw new UnsupportedScriptException("option value " + valueNode.getText());
+            }
+
+            code.aload(0);
+            code.iconst(1);
+            code.field(CodeBuilder.PUTFIELD, superClass, "_outsideValueSet", "Z");
+            code.aload(0);
+            code.dconst(value);
+            code.field(CodeBuilder.PUTFIELD, superClass, "_outsideValue", "D");
+        }
+
+        code.op(CodeBuilder.RETURN, 0);
+        code.finish();
+    }
+
+    private void getDefaultValue(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PROTECTED, "getDefaultValue", "(I)" + DOUBLE, 2);
+
+        for (int i = 0; i < fields.size(); i++) {
+            Tree field = fields.get(i);
+            if (field.getChildCount() > 1) {
+                CodeBuilder.Label next = code.newLabel();
+                code.iload(1);
+                code.iconst(i);
+                code.jump(CodeBuilder.IF_ICMPNE, next);
+                expression(field.getChild(1));
+                code.invoke(CodeBuilder.INVOKESTATIC, DOUBLE, "valueOf", "(D)" + DOUBLE);
+                code.op(CodeBuilder.ARETURN, -1);
+                code.mark(next);
+            }
+        }
+
+        code.op(CodeBuilder.ACONST_NULL, 1);
+        code.op(CodeBuilder.ARETURN, -1);
+        code.finish();
+    }
+
+    private void evaluate(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PUBLIC, "evaluate", "(DD)V", 5);
+        xSlot = 1;
+        ySlot = 3;
+
+        CodeBuilder.Label worldSet = code.newLabel();
+        code.aload(0);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "isWorldSet", "()Z");
+        code.jump(CodeBuilder.IFNE, worldSet);
+        code.aload(0);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "setDefaultBounds", "()V");
+        code.mark(worldSet);
+
+        evaluationBody();
+    }
+
+    private void evaluateDestinations(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PROTECTED, "evaluateDestinations", "(DD)V", 5);
+        xSlot = 1;
+        ySlot = 3;
+        evaluationBody();
+    }
+
+    private void evaluationBody() throws UnsupportedScriptException {
+        CodeBuilder.Label initialized = code.newLabel();
+        code.aload(0);
+        code.field(CodeBuilder.GETFIELD, superClass, "_imageScopeVarsInitialized", "Z");
+        code.jump(CodeBuilder.IFNE, initialized);
+        code.aload(0);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "initImageScopeVars", "()V");
+        code.mark(initialized);
+
+        initLocals();
+        for (Tree node : statements) {
+            statement(node);
+        }
+
+        code.op(CodeBuilder.RETURN, 0);
+        code.finish();
+    }
+
+    /*
+     * Evaluates a span of pixels in a row as the generated evaluateRow
+     * method does (see DirectRuntime.stg).
+     */
+    private void evaluateRow(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PROTECTED, "evaluateRow", "(III)V", 4);
+        ySlot = code.newLocal(2);
+        xSlot = code.newLocal(2);
+        int col = code.newLocal(1);
+
+        code.aload(0);
+        code.iload(1);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "getWorldY", "(I)D");
+        code.dstore(ySlot);
+        initLocals();
+
+        CodeBuilder.Label top = code.newLabel();
+        CodeBuilder.Label exit = code.newLabel();
+        code.iload(2);
+        code.istore(col);
+        code.mark(top);
+        code.iload(col);
+        code.iload(3);
+        code.jump(CodeBuilder.IF_ICMPGE, exit);
+
+        code.aload(0);
+        code.iload(col);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "getWorldX", "(I)D");
+        code.dstore(xSlot);
+        clearSubexprs();
+        for (Tree node : statements) {
+            statement(node);
+        }
+
+        code.iinc(col, 1);
+        code.jump(CodeBuilder.GOTO, top);
+        code.mark(exit);
+        code.op(CodeBuilder.RETURN, 0);
+        code.finish();
+    }
+
+    private void notSplittable(ClassFile cf) throws UnsupportedScriptException {
+        beginMethod(cf, ACC_PROTECTED, "isTileSplittable", "()Z", 1);
+        code.iconst(0);
+        code.op(CodeBuilder.IRETURN, -1);
+        code.finish();
+    }
+
+
+    ////////////////////////////////////////////////////////////
+    // Statements
+
+    private void statement(Tree node) throws UnsupportedScriptException {
+        switch (node.getType()) {
+            case JiffleParser.BLOCK:
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    statement(node.getChild(i));
+                }
+                break;
+
+            case JiffleParser.IMAGE_WRITE:
+                imageWrite(node);
+                break;
+
+            case JiffleParser.EQ:
+            case JiffleParser.TIMESEQ:
+            case JiffleParser.DIVEQ:
+            case JiffleParser.MODEQ:
+            case JiffleParser.PLUSEQ:
+            case JiffleParser.MINUSEQ:
+                assignment(node);
+                break;
+
+            case JiffleParser.WHILE:
+            case JiffleParser.UNTIL:
+                conditionalLoop(node);
+                break;
+
+            case JiffleParser.FOREACH:
+                foreachLoop(node);
+                break;
+
+            case JiffleParser.BREAKIF:
+                signInt(node.getChild(0));
+                code.iconst(1);
+                code.jump(CodeBuilder.IF_ICMPEQ, getLoopExit());
+                break;
+
+            case JiffleParser.BREAK:
+                code.jump(CodeBuilder.GOTO, getLoopExit());
+                break;
+
+            case JiffleParser.IF:
+                ifStatement(node);
+                break;
+
+            default:
+                expression(node);
+                code.op(CodeBuilder.POP2, -2);
+        }
+    }
+
+    private void imageWrite(Tree node) throws UnsupportedScriptException {
+        int image = getImageVarIndex(node.getChild(0).getText());
+
+        if (direct) {
+            code.aload(0);
+            code.iconst(image);
+            code.dload(getXSlot());
+            code.dload(getYSlot());
+            code.iconst(0);
+            expression(node.getChild(1));
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "writeToImage", "(IDDID)V");
+
+        } else {
+            code.aload(0);
+            code.field(CodeBuilder.GETFIELD, superClass, "_destValues", "[D");
+            code.iconst(image);
+            expression(node.getChild(1));
+            code.op(CodeBuilder.DASTORE, -4);
+        }
+    }
+
+    private void assignment(Tree node) throws UnsupportedScriptException {
+        Tree target = node.getChild(0);
+        Tree value = node.getChild(1);
+        boolean compound = node.getType() != JiffleParser.EQ;
+
+        switch (target.getType()) {
+            case JiffleParser.VAR_PIXEL_SCOPE: {
+                int slot = getPixelVarSlot(target);
+                if (compound) {
+                    code.dload(slot);
+                    expression(value);
+                    code.op(getCompoundOp(node), -2);
+                } else {
+                    expression(value);
+                }
+                code.dstore(slot);
+                break;
+            }
+
+            case JiffleParser.VAR_IMAGE_SCOPE:
+                imageScopeVar(target);
+                if (compound) {
+                    code.op(CodeBuilder.DUP, 1);
+                    code.field(CodeBuilder.GETFIELD, VAR, "value", "D");
+                    expression(value);
+                    code.op(getCompoundOp(node), -2);
+                } else {
+                    expression(value);
+                }
+                code.field(CodeBuilder.PUTFIELD, VAR, "value", "D");
+                break;
+
+            default:
+                throw new UnsupportedScriptException("assignment to " + target.getText());
+        }
+    }
+
+    private int getCompoundOp(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.TIMESEQ: return CodeBuilder.DMUL;
+            case JiffleParser.DIVEQ: return CodeBuilder.DDIV;
+            case JiffleParser.MODEQ: return CodeBuilder.DREM;
+            case JiffleParser.PLUSEQ: return CodeBuilder.DADD;
+            case JiffleParser.MINUSEQ: return CodeBuilder.DSUB;
+            default:
+                throw new IllegalArgumentException("Internal compiler error");
+        }
+    }
+
+    private void conditionalLoop(Tree node) throws UnsupportedScriptException {
+        CodeBuilder.Label top = code.newLabel();
+        CodeBuilder.Label exit = code.newLabel();
+
+        code.mark(top);
+        signInt(node.getChild(0));
+        code.iconst(1);
+        code.jump(node.getType() == JiffleParser.WHILE ?
+                CodeBuilder.IF_ICMPNE : CodeBuilder.IF_ICMPEQ, exit);
+
+        loopExits.addFirst(exit);
+        statement(node.getChild(1));
+        loopExits.removeFirst();
+
+        code.jump(CodeBuilder.GOTO, top);
+        code.mark(exit);
+    }
+
+    private void foreachLoop(Tree node) throws UnsupportedScriptException {
+        String varName = node.getChild(0).getText();
+        Tree list = node.getChild(1);
+        Tree body = node.getChild(2);
+
+        CodeBuilder.Label top = code.newLabel();
+        CodeBuilder.Label exit = code.newLabel();
+
+        switch (list.getType()) {
+            case JiffleParser.SEQUENCE: {
+                int var = code.newLocal(1);
+                int hi = code.newLocal(1);
+                expression(list.getChild(0));
+                code.op(CodeBuilder.D2I, -1);
+                code.istore(var);
+                expression(list.getChild(1));
+                code.op(CodeBuilder.D2I, -1);
+                code.istore(hi);
+
+                code.mark(top);
+                code.iload(var);
+                code.iload(hi);
+                code.jump(CodeBuilder.IF_ICMPGT, exit);
+                loopBody(new LoopVar(varName, var, true), body, exit);
+                code.iinc(var, 1);
+                break;
+            }
+
+            case JiffleParser.DECLARED_LIST: {
+                Tree exprList = list.getChild(0);
+                int values = code.newLocal(1);
+                int index = code.newLocal(1);
+                int var = code.newLocal(2);
+
+                code.iconst(exprList.getChildCount());
+                code.newDoubleArray();
+                code.astore(values);
+                for (int i = 0; i < exprList.getChildCount(); i++) {
+                    code.aload(values);
+                    code.iconst(i);
+                    expression(exprList.getChild(i));
+                    code.op(CodeBuilder.DASTORE, -4);
+                }
+                code.iconst(0);
+                code.istore(index);
+
+                code.mark(top);
+                code.iload(index);
+                code.aload(values);
+                code.op(CodeBuilder.ARRAYLENGTH, 0);
+                code.jump(CodeBuilder.IF_ICMPGE, exit);
+                code.aload(values);
+                code.iload(index);
+                code.op(CodeBuilder.DALOAD, 0);
+                code.dstore(var);
+                loopBody(new LoopVar(varName, var, false), body, exit);
+                code.iinc(index, 1);
+                break;
+            }
+
+            default:
+                throw new UnsupportedScriptException("foreach over list variable");
+        }
+
+        code.jump(CodeBuilder.GOTO, top);
+        code.mark(exit);
+    }
+
+    private void loopBody(LoopVar var, Tree body, CodeBuilder.Label exit)
+            throws UnsupportedScriptException {
+
+        loopVars.addFirst(var);
+        loopExits.addFirst(exit);
+        statement(body);
+        loopExits.removeFirst();
+        loopVars.removeFirst();
+    }
+
+    private CodeBuilder.Label getLoopExit() throws UnsupportedScriptException {
+        if (loopExits.isEmpty()) {
+            throw new UnsupportedScriptException("break outside loop");
+        }
+        return loopExits.getFirst();
+    }
+
+    private void ifStatement(Tree node) throws UnsupportedScriptException {
+        CodeBuilder.Label otherwise = code.newLabel();
+
+        storeSign(node.getChild(0));
+        code.iconst(JiffleFunctions.SIGN_NAN);
+        code.jump(CodeBuilder.IF_ICMPEQ, otherwise);
+        code.iload(sgnSlot);
+        code.jump(CodeBuilder.IFEQ, otherwise);
+        statement(node.getChild(1));
+
+        if (node.getChildCount() > 2) {
+            CodeBuilder.Label end = code.newLabel();
+            code.jump(CodeBuilder.GOTO, end);
+            code.mark(otherwise);
+            statement(node.getChild(2));
+            code.mark(end);
+        } else {
+            code.mark(otherwise);
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////
+    // Expressions: each leaves a double value on the operand stack
+
+    private void expression(Tree node) throws UnsupportedScriptException {
+        switch (node.getType()) {
+            case JiffleParser.FUNC_CALL:
+                functionCall(node.getChild(0).getText(), children(node.getChild(1)));
+                break;
+
+            case JiffleParser.CON_CALL:
+                conCall(children(node.getChild(0)));
+                break;
+
+            case JiffleParser.IMAGE_POS:
+                imagePos(node);
+                break;
+
+            case JiffleParser.VAR_SOURCE:
+                readFromImage(node.getText(), null, null);
+                break;
+
+            case JiffleParser.POW:
+                expression(node.getChild(0));
+                expression(node.getChild(1));
+                code.invoke(CodeBuilder.INVOKESTATIC, MATH, "pow", "(DD)D");
+                break;
+
+            case JiffleParser.OR:
+                functionCall("OR", children(node));
+                break;
+
+            case JiffleParser.XOR:
+                functionCall("XOR", children(node));
+                break;
+
+            case JiffleParser.AND:
+                functionCall("AND", children(node));
+                break;
+
+            case JiffleParser.LOGICALEQ:
+                functionCall("EQ", children(node));
+                break;
+
+            case JiffleParser.NE:
+                functionCall("NE", children(node));
+                break;
+
+            case JiffleParser.GT:
+                functionCall("GT", children(node));
+                break;
+
+            case JiffleParser.GE:
+                functionCall("GE", children(node));
+                break;
+
+            case JiffleParser.LT:
+                functionCall("LT", children(node));
+                break;
+
+            case JiffleParser.LE:
+                functionCall("LE", children(node));
+                break;
+
+            case JiffleParser.TIMES:
+                arithmetic(node, CodeBuilder.DMUL);
+                break;
+
+            case JiffleParser.DIV:
+                arithmetic(node, CodeBuilder.DDIV);
+                break;
+
+            case JiffleParser.MOD:
+                arithmetic(node, CodeBuilder.DREM);
+                break;
+
+            case JiffleParser.PLUS:
+                arithmetic(node, CodeBuilder.DADD);
+                break;
+
+            case JiffleParser.MINUS:
+                arithmetic(node, CodeBuilder.DSUB);
+                break;
+
+            case JiffleParser.PREFIX:
+                prefix(node);
+                break;
+
+            case JiffleParser.POSTFIX:
+                incDec(node, false);
+                break;
+
+            case JiffleParser.PAR:
+                expression(node.getChild(0));
+                break;
+
+            case JiffleParser.SUBEXPR:
+                subexpr(node);
+                break;
+
+            case JiffleParser.VAR_IMAGE_SCOPE:
+                imageScopeVar(node);
+                code.field(CodeBuilder.GETFIELD, VAR, "value", "D");
+                break;
+
+            case JiffleParser.VAR_PIXEL_SCOPE:
+                code.dload(getPixelVarSlot(node));
+                break;
+
+            case JiffleParser.VAR_LOOP:
+                loopVar(node);
+                break;
+
+            case JiffleParser.VAR_PROVIDED:
+                provided(node.getText());
+                break;
+
+            case JiffleParser.CONSTANT:
+                code.dconst(ConstantLookup.getValue(node.getText()));
+                break;
+
+            case JiffleParser.INT_LITERAL:
+            case JiffleParser.FLOAT_LITERAL:
+                code.dconst(Double.parseDouble(node.getText()));
+                break;
+
+            default:
+                throw new UnsupportedScriptException("expression " + node.getText());
+        }
+    }
+
+    private List<Tree> children(Tree node) {
+        List<Tree> list = CollectionFactory.list();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            list.add(node.getChild(i));
+        }
+        return list;
+    }
+
+    /*
+     * Evaluates a repeated subexpression at most once per pixel (see
+     * OptimizeExpressions).
+     */
+    private void subexpr(Tree node) throws UnsupportedScriptException {
+        Integer slot = subexprs.get(node.getText());
+        if (slot == null) {
+            throw new UnsupportedScriptException("subexpression outside evaluation");
+        }
+
+        CodeBuilder.Label evaluate = code.newLabel();
+        CodeBuilder.Label end = code.newLabel();
+        code.iload(slot + 2);
+        code.jump(CodeBuilder.IFEQ, evaluate);
+        code.dload(slot);
+        code.jump(CodeBuilder.GOTO, end);
+
+        code.mark(evaluate);
+        expression(node.getChild(0));
+        code.op(CodeBuilder.DUP2, 2);
+        code.dstore(slot);
+        code.iconst(1);
+        code.istore(slot + 2);
+        code.mark(end);
+    }
+
+    private void arithmetic(Tree node, int opcode) throws UnsupportedScriptException {
+        expression(node.getChild(0));
+        expression(node.getChild(1));
+        code.op(opcode, -2);
+    }
+
+    private void prefix(Tree node) throws UnsupportedScriptException {
+        switch (node.getChild(0).getType()) {
+            case JiffleParser.NOT:
+                functionCall("NOT", children(node).subList(1, 2));
+                break;
+
+            case JiffleParser.PLUS:
+                expression(node.getChild(1));
+                break;
+
+            case JiffleParser.MINUS:
+                expression(node.getChild(1));
+                code.op(CodeBuilder.DNEG, 0);
+                break;
+
+            default:
+                incDec(node, true);
+        }
+    }
+
+    /*
+     * Increments or decrements a variable, leaving the new value (prefix)
+     * or old value (postfix) on the stack.
+     */
+    private void incDec(Tree node, boolean prefix) throws UnsupportedScriptException {
+        int opcode = node.getChild(0).getType() == JiffleParser.INCR ?
+                CodeBuilder.DADD : CodeBuilder.DSUB;
+        Tree var = node.getChild(1);
+
+        switch (var.getType()) {
+            case JiffleParser.VAR_PIXEL_SCOPE: {
+                int slot = getPixelVarSlot(var);
+                code.dload(slot);
+                if (!prefix) {
+                    code.op(CodeBuilder.DUP2, 2);
+                }
+                code.dconst(1);
+                code.op(opcode, -2);
+                if (prefix) {
+                    code.op(CodeBuilder.DUP2, 2);
+                }
+                code.dstore(slot);
+                break;
+            }
+
+            case JiffleParser.VAR_IMAGE_SCOPE:
+                imageScopeVar(var);
+                code.op(CodeBuilder.DUP, 1);
+                code.field(CodeBuilder.GETFIELD, VAR, "value", "D");
+                if (!prefix) {
+                    code.op(CodeBuilder.DUP2_X1, 2);
+                }
+                code.dconst(1);
+                code.op(opcode, -2);
+                if (prefix) {
+                    code.op(CodeBuilder.DUP2_X1, 2);
+                }
+                code.field(CodeBuilder.PUTFIELD, VAR, "value", "D");
+                break;
+
+            default:
+                throw new UnsupportedScriptException("increment of " + var.getText());
+        }
+    }
+
+    private void functionCall(String name, List<Tree> args) throws UnsupportedScriptException {
+        String[] argTypes = new String[args.size()];
+        Arrays.fill(argTypes, "D");
+
+        FunctionInfo info;
+        try {
+            info = FunctionLookup.getInfo(name, Arrays.asList(argTypes));
+        } catch (UndefinedFunctionException ex) {
+            // also the case for functions taking list arguments
+            throw new UnsupportedScriptException("function " + name);
+        }
+
+        if (info.isProxy()) {
+            provided(info.getRuntimeName());
+            return;
+        }
+
+        Class<?>[] paramTypes = new Class<?>[args.size()];
+        Arrays.fill(paramTypes, double.class);
+
+        Class<?> provider = info.getProvider() == FunctionInfo.Provider.MATH ?
+                Math.class : JiffleFunctions.class;
+        Method method;
+        try {
+            method = provider.getMethod(info.getRuntimeName(), paramTypes);
+        } catch (NoSuchMethodException ex) {
+            throw new UnsupportedScriptException("function " + name);
+        }
+
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        if (!isStatic) {
+            code.aload(0);
+            code.field(CodeBuilder.GETFIELD, superClass, "_FN", FUNCTIONS);
+        }
+        for (Tree arg : args) {
+            expression(arg);
+        }
+        code.invoke(isStatic ? CodeBuilder.INVOKESTATIC : CodeBuilder.INVOKEVIRTUAL,
+                CodeBuilder.descriptor(provider), method.getName(),
+                CodeBuilder.descriptor(method));
+        toDouble(method.getReturnType());
+    }
+
+    /*
+     * The conditional function con(...) with lazy evaluation of the
+     * alternatives (see the con templates in Runtime.stg).
+     */
+    private void conCall(List<Tree> args) throws UnsupportedScriptException {
+        if (args.isEmpty() || args.size() > 4) {
+            throw new UnsupportedScriptException("con with " + args.size() + " args");
+        }
+
+        CodeBuilder.Label notNaN = code.newLabel();
+        CodeBuilder.Label end = code.newLabel();
+
+        storeSign(args.get(0));
+        code.iconst(JiffleFunctions.SIGN_NAN);
+        code.jump(CodeBuilder.IF_ICMPNE, notNaN);
+        code.dconst(Double.NaN);
+        code.jump(CodeBuilder.GOTO, end);
+        code.mark(notNaN);
+
+        CodeBuilder.Label other = code.newLabel();
+        switch (args.size()) {
+            case 1:
+            case 2:
+            case 3:
+                code.iload(sgnSlot);
+                code.jump(CodeBuilder.IFEQ, other);
+                if (args.size() == 1) {
+                    code.dconst(1);
+                } else {
+                    expression(args.get(1));
+                }
+                code.jump(CodeBuilder.GOTO, end);
+                code.mark(other);
+                if (args.size() == 3) {
+                    expression(args.get(2));
+                } else {
+                    code.dconst(0);
+                }
+                break;
+
+            case 4:
+                CodeBuilder.Label negative = code.newLabel();
+                code.iload(sgnSlot);
+                code.iconst(1);
+                code.jump(CodeBuilder.IF_ICMPNE, other);
+                expression(args.get(1));
+                code.jump(CodeBuilder.GOTO, end);
+                code.mark(other);
+                code.iload(sgnSlot);
+                code.jump(CodeBuilder.IFNE, negative);
+                expression(args.get(2));
+                code.jump(CodeBuilder.GOTO, end);
+                code.mark(negative);
+                expression(args.get(3));
+                break;
+        }
+
+        code.mark(end);
+    }
+
+    /*
+     * Leaves the sign of an expression, as given by JiffleFunctions.signInt,
+     * on the stack.
+     */
+    private void signInt(Tree node) throws UnsupportedScriptException {
+        code.aload(0);
+        code.field(CodeBuilder.GETFIELD, superClass, "_FN", FUNCTIONS);
+        expression(node);
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, FUNCTIONS, "signInt", "(D)I");
+    }
+
+    /*
+     * As signInt, also storing the sign in the local variable used
+     * by conditionals.
+     */
+    private void storeSign(Tree node) throws UnsupportedScriptException {
+        signInt(node);
+        code.op(CodeBuilder.DUP, 1);
+        code.istore(sgnSlot);
+    }
+
+    private void imagePos(Tree node) throws UnsupportedScriptException {
+        Tree band = null;
+        Tree pixel = null;
+        for (int i = 1; i < node.getChildCount(); i++) {
+            Tree child = node.getChild(i);
+            switch (child.getType()) {
+                case JiffleParser.BAND_REF:
+                    band = child.getChild(0);
+                    break;
+
+                case JiffleParser.PIXEL_REF:
+                    pixel = child;
+                    break;
+            }
+        }
+
+        readFromImage(node.getChild(0).getText(), band, pixel);
+    }
+
+    private void readFromImage(String varName, Tree band, Tree pixel)
+            throws UnsupportedScriptException {
+
+        code.aload(0);
+        code.iconst(getImageVarIndex(varName));
+        if (pixel == null) {
+            code.dload(getXSlot());
+            code.dload(getYSlot());
+        } else {
+            pixelPos(pixel.getChild(0), getXSlot());
+            pixelPos(pixel.getChild(1), getYSlot());
+        }
+
+        if (band == null) {
+            code.iconst(0);
+        } else {
+            expression(band);
+            code.op(CodeBuilder.D2I, -1);
+        }
+        code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, "readFromImage", "(IDDI)D");
+    }
+
+    private void pixelPos(Tree pos, int slot) throws UnsupportedScriptException {
+        if (pos.getType() == JiffleParser.REL_POS) {
+            code.dload(slot);
+            expression(pos.getChild(0));
+            code.op(CodeBuilder.DADD, -2);
+        } else {
+            expression(pos.getChild(0));
+        }
+    }
+
+    /*
+     * Loads the object holding the value of an image-scope variable.
+     */
+    private void imageScopeVar(Tree node) throws UnsupportedScriptException {
+        int index = fieldNames.indexOf(node.getText());
+        if (index < 0) {
+            throw new UnsupportedScriptException("variable " + node.getText());
+        }
+
+        code.aload(0);
+        code.field(CodeBuilder.GETFIELD, superClass, "_vars", "[" + VAR);
+        code.iconst(index);
+        code.op(CodeBuilder.AALOAD, -1);
+    }
+
+    private int getPixelVarSlot(Tree node) throws UnsupportedScriptException {
+        Integer slot = pixelVars.get(node.getText());
+        if (slot == null) {
+            throw new UnsupportedScriptException("variable " + node.getText());
+        }
+        return slot;
+    }
+
+    private void loopVar(Tree node) throws UnsupportedScriptException {
+        for (LoopVar var : loopVars) {
+            if (var.name.equals(node.getText())) {
+                if (var.isInt) {
+                    code.iload(var.slot);
+                    code.op(CodeBuilder.I2D, 1);
+                } else {
+                    code.dload(var.slot);
+                }
+                return;
+            }
+        }
+        throw new UnsupportedScriptException("variable " + node.getText());
+    }
+
+    private int getXSlot() throws UnsupportedScriptException {
+        if (xSlot < 0) {
+            throw new UnsupportedScriptException("pixel position outside evaluation");
+        }
+        return xSlot;
+    }
+
+    private int getYSlot() throws UnsupportedScriptException {
+        if (ySlot < 0) {
+            throw new UnsupportedScriptException("pixel position outside evaluation");
+        }
+        return ySlot;
+    }
+
+    /*
+     * Loads the value of a proxy function such as x() or width(), given
+     * its runtime source (see FunctionLookup.properties), which is either
+     * the pixel position or a call to a no-argument method of the runtime
+     * class, optionally with a cast to double.
+     */
+    private void provided(String runtimeExpr) throws UnsupportedScriptException {
+        String expr = runtimeExpr.trim();
+        if (expr.startsWith("(double)")) {
+            expr = expr.substring("(double)".length()).trim();
+        }
+
+        if ("_x".equals(expr)) {
+            code.dload(getXSlot());
+
+        } else if ("_y".equals(expr)) {
+            code.dload(getYSlot());
+
+        } else if (expr.endsWith("()")) {
+            Method method = findMethod(expr.substring(0, expr.length() - 2));
+            code.aload(0);
+            code.invoke(CodeBuilder.INVOKEVIRTUAL, superClass, method.getName(),
+                    CodeBuilder.descriptor(method));
+            toDouble(method.getReturnType());
+
+        } else {
+            throw new UnsupportedScriptException("expression " + runtimeExpr);
+        }
+    }
+
+    private Method findMethod(String name) throws UnsupportedScriptException {
+        for (Class<?> c = baseClass; c != null; c = c.getSuperclass()) {
+            try {
+                Method method = c.getDeclaredMethod(name);
+                int mods = method.getModifiers();
+                if (!Modifier.isStatic(mods) && !Modifier.isPrivate(mods)) {
+                    return method;
+                }
+                break;
+
+            } catch (NoSuchMethodException ex) {
+                // try the superclass
+            }
+        }
+        throw new UnsupportedScriptException("method " + name);
+    }
+
+    /*
+     * Converts the primitive value on the stack to double.
+     */
+    private void toDouble(Class<?> type) throws UnsupportedScriptException {
+        if (type == double.class) {
+            return;
+        }
+        if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+            code.op(CodeBuilder.I2D, 1);
+        } else if (type == long.class) {
+            code.op(CodeBuilder.L2D, 0);
+        } else if (type == float.class) {
+            code.op(CodeBuilder.F2D, 1);
+        } else {
+            throw new UnsupportedScriptException("return type " + type.getName());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * Describes a runtime class to be compiled by a {@link RuntimeCompiler}:
+ * the final abstract syntax tree (AST) of a compiled script together with
+ * its image parameters, the runtime model, the base class and the name for
+ * the new class.
+ * <p>
+ * Back-ends which emit bytecode directly work from the AST. Back-ends
+ * which compile Java source get it from {@link #getSource()}, which
+ * renders the source from the AST on first request; the source is
+ * not generated otherwise.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public final class RuntimeCompilation {
+
+    private final Jiffle jiffle;
+    private final CommonTree tree;
+    private final Map<String, Jiffle.ImageRole> imageParams;
+    private final Jiffle.RuntimeModel model;
+    private final String baseClassName;
+    private final String className;
+
+    private String source;
+    private long sourceTime;
+
+    /**
+     * Creates a new instance. Called by {@link Jiffle}.
+     *
+     * @param jiffle the compiled {@code Jiffle} object
+     * @param tree the final AST of the script
+     * @param imageParams image parameters
+     * @param model the runtime model
+     * @param baseClassName name of the runtime base class
+     * @param className package-qualified name of the runtime class
+     */
+    RuntimeCompilation(Jiffle jiffle, CommonTree tree,
+            Map<String, Jiffle.ImageRole> imageParams, Jiffle.RuntimeModel model,
+            String baseClassName, String className) {
+
+        this.jiffle = jiffle;
+        this.tree = tree;
+        this.imageParams = CollectionFactory.sortedMap();
+        this.imageParams.putAll(imageParams);
+        this.model = model;
+        this.baseClassName = baseClassName;
+        this.className = className;
+    }
+
+    /**
+     * Gets the final AST of the script. This is the tree which the Jiffle
+     * source generator walks and it must not be modified.
+     *
+     * @return the AST
+     */
+    public CommonTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Gets the image parameters of the script.
+     *
+     * @return an unmodifiable map of image variable names and roles, in
+     *         order of name
+     */
+    public Map<String, Jiffle.ImageRole> getImageParams() {
+        return Collections.unmodifiableMap(imageParams);
+    }
+
+    /**
+     * Gets the runtime model.
+     *
+     * @return the model
+     */
+    public Jiffle.RuntimeModel getRuntimeModel() {
+        return model;
+    }
+
+    /**
+     * Gets the name of the class which the runtime class extends.
+     *
+     * @return package-qualified name of the base class
+     */
+    public String getBaseClassName() {
+        return baseClassName;
+    }
+
+    /**
+     * Gets the name of the runtime class.
+     *
+     * @return package-qualified name of the runtime class
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Gets the Java source of the runtime class, rendering it from the AST
+     * the first time this method is called.
+     *
+     * @return the source
+     * @throws JiffleException on errors generating the source
+     */
+    public String getSource() throws JiffleException {
+        if (source == null) {
+            long start = System.nanoTime();
+            source = jiffle.createRuntimeSource(model, baseClassName, className, false);
+            sourceTime = System.nanoTime() - start;
+        }
+        return source;
+    }
+
+    /**
+     * Gets the time spent generating the Java source.
+     *
+     * @return time in nanoseconds; 0 if the source was not requested
+     */
+    long getSourceTime() {
+        return sourceTime;
+    }
+}
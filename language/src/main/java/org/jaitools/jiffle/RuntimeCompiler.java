@@ -0,0 +1,67 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.Map;
+
+/**
+ * Defines methods for back-ends which compile Jiffle runtime classes to
+ * bytecode. A back-end is given the final abstract syntax tree of the
+ * script, from which it can emit bytecode directly, or can request the
+ * Java source rendered from the tree (see {@link RuntimeCompilation}).
+ * The back-end used by default is set with the {@code runtime.compiler}
+ * key in the Jiffle properties and can be changed for a given
+ * {@link Jiffle} object with {@link Jiffle#setRuntimeCompiler(RuntimeCompiler)}.
+ * <p>
+ * Implementations must be thread-safe because a single instance is shared
+ * by all {@code Jiffle} objects which use the default back-end.
+ *
+ * @see JaninoRuntimeCompiler
+ * @see BytecodeRuntimeCompiler
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public interface RuntimeCompiler {
+
+    /**
+     * Compiles a runtime class.
+     *
+     * @param compilation the script AST, image parameters, runtime model
+     *        and class names for the runtime class
+     * @param loader the class loader which provides the runtime base class
+     *        and other classes referred to by the runtime class
+     *
+     * @return an ordered {@code Map} of class names (key) and bytecode
+     *         (value) for the runtime class and any nested classes
+     *
+     * @throws JiffleException on errors compiling the class
+     */
+    Map<String, byte[]> compile(RuntimeCompilation compilation, ClassLoader loader)
+            throws JiffleException;
+
+}
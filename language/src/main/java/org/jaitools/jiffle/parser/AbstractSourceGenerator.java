@@ -29,12 +29,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.RecognitionException;
 import org.antlr.runtime.RecognizerSharedState;
 import org.antlr.runtime.RuleReturnScope;
 import org.antlr.runtime.Token;
+import org.antlr.runtime.tree.Tree;
 import org.antlr.runtime.tree.TreeNodeStream;
 import org.antlr.stringtemplate.StringTemplateGroup;
 
@@ -43,6 +45,9 @@ import org.jaitools.jiffle.Jiffle;
 import org.jaitools.jiffle.JiffleException;
 import org.jaitools.jiffle.JiffleProperties;
 import org.jaitools.jiffle.parser.CommentFinder;
+import org.jaitools.jiffle.runtime.AbstractDirectRuntime;
+import org.jaitools.jiffle.runtime.AbstractIndirectRuntime;
+import org.jaitools.jiffle.runtime.DoubleList;
 
 /**
  * Base class for tree parsers that generate Jiffle runtime source.
@@ -57,6 +62,9 @@ import org.jaitools.jiffle.parser.CommentFinder;
  */
 public abstract class AbstractSourceGenerator extends ErrorHandlingTreeParser implements SourceGenerator {
     
+    /** The runtime class used for list variables and literals. */
+    protected static final String DOUBLE_LIST_CLASS = DoubleList.class.getName();
+    
     /** The runtime model to generate source for. */
     protected Jiffle.RuntimeModel model;
 
@@ -72,9 +80,46 @@ public abstract class AbstractSourceGenerator extends ErrorHandlingTreeParser im
     /** The name of the base class for the runtime class. */
     protected String baseClassName;
     
+    /** Whether the runtime class name has been set by the client. */
+    private boolean classNameSet = false;
+    
+    /** Image parameters: variable names and roles. */
+    protected Map<String, Jiffle.ImageRole> imageParams = CollectionFactory.sortedMap();
+    
     /** A counter used in naming variables inserted into the runtime source. */
     protected int varIndex = 0;
     
+    /** 
+     * Image variable names. The position of each name in the list is the 
+     * index (slot) used to refer to the image in the runtime source.
+     */
+    protected List<String> imageVarNames = CollectionFactory.list();
+    
+    /**
+     * Extents of the constant relative pixel offsets used to read each
+     * source image, keyed by image variable name. Each extent is an
+     * array: {min x offset, max x offset, min y offset, max y offset}.
+     */
+    protected Map<String, int[]> neighbourhoods = CollectionFactory.orderedMap();
+    
+    /**
+     * Extents of all pixel offsets used to read each source image (the
+     * read footprint), keyed by image variable name, in the same form as
+     * {@link #neighbourhoods}. Reads of the pixel being evaluated have
+     * offset 0, 0. Reads at absolute or non-constant positions make the
+     * extent unbounded.
+     */
+    protected Map<String, int[]> footprints = CollectionFactory.orderedMap();
+    
+    /** 
+     * Slots of the cached subexpressions (SUBEXPR nodes in the AST)
+     * found in the script.
+     */
+    protected List<String> subexprSlots = CollectionFactory.list();
+    
+    /* Set on first call to isIndirectDestValues. */
+    private Boolean indirectDestValues;
+    
 
     /**
      * Constructor called by ANTLR.
@@ -109,6 +154,10 @@ public abstract class AbstractSourceGenerator extends ErrorHandlingTreeParser im
      */    
     public void setRuntimeModel(Jiffle.RuntimeModel model) {
         this.model = model;
+        if (classNameSet) {
+            return;
+        }
+        
         switch (model) {
             case DIRECT:
                 className = JiffleProperties.get(JiffleProperties.DIRECT_CLASS_KEY);
@@ -130,6 +179,29 @@ public abstract class AbstractSourceGenerator extends ErrorHandlingTreeParser im
         this.baseClassName = baseClassName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setClassName(String qualifiedName) {
+        int pos = qualifiedName == null ? -1 : qualifiedName.lastIndexOf('.');
+        if (pos <= 0 || pos == qualifiedName.length() - 1) {
+            throw new IllegalArgumentException(
+                    "Not a package-qualified class name: " + qualifiedName);
+        }
+        
+        pkgName = qualifiedName.substring(0, pos);
+        className = qualifiedName.substring(pos + 1);
+        classNameSet = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setImageParams(Map<String, Jiffle.ImageRole> params) {
+        imageParams.clear();
+        imageParams.putAll(params);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -251,6 +323,263 @@ public abstract class AbstractSourceGenerator extends ErrorHandlingTreeParser im
     }
     
     
+    /**
+     * Gets the runtime source for a named constant.
+     * 
+     * @param name constant name
+     * @return the runtime source
+     */
+    protected String getConstantString(String name) {
+        String s = String.valueOf(ConstantLookup.getValue(name));
+        if ("NaN".equals(s)) {
+            return "Double.NaN";
+        }
+        return s;
+    }
+    
+    /**
+     * Tests whether the script assigns values to image-scope variables 
+     * (those declared in the init block) in its main statements. Such 
+     * scripts depend on the order in which pixels are processed, so the 
+     * generated runtime class reports that its processing area cannot be
+     * split into independently evaluated tiles. This is only checked when
+     * the runtime base class extends {@link AbstractDirectRuntime}.
+     * 
+     * @return {@code true} if image-scope variables are assigned to
+     */
+    protected boolean writesImageScopeVars() {
+        if (model != Jiffle.RuntimeModel.DIRECT || !isDirectRuntimeBaseClass()) {
+            return false;
+        }
+        return writesImageScopeVars((Tree) input.getTreeSource());
+    }
+    
+    private boolean writesImageScopeVars(Tree node) {
+        switch (node.getType()) {
+            case JiffleParser.DECL:
+                // initial values are set before processing starts
+                return false;
+                
+            case JiffleParser.EQ:
+            case JiffleParser.TIMESEQ:
+            case JiffleParser.DIVEQ:
+            case JiffleParser.MODEQ:
+            case JiffleParser.PLUSEQ:
+            case JiffleParser.MINUSEQ:
+                if (node.getChild(0).getType() == JiffleParser.VAR_IMAGE_SCOPE) {
+                    return true;
+                }
+                break;
+                
+            case JiffleParser.PREFIX:
+            case JiffleParser.POSTFIX:
+                int op = node.getChild(0).getType();
+                if ((op == JiffleParser.INCR || op == JiffleParser.DECR) 
+                        && node.getChild(1).getType() == JiffleParser.VAR_IMAGE_SCOPE) {
+                    return true;
+                }
+                break;
+        }
+        
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (writesImageScopeVars(node.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Gets the data for the templates which generate code to evaluate the 
+     * script a row at a time, if the runtime base class extends 
+     * {@link AbstractDirectRuntime} (which provides the row reading and writing
+     * methods) and the script qualifies (see {@link RowVectorizer}). This must
+     * be called after the script statements have been processed so that
+     * image slots are set.
+     * 
+     * @return template data or {@code null} if the script does not qualify
+     */
+    protected Map<String, Object> getRowVectorData() {
+        if (model != Jiffle.RuntimeModel.DIRECT || !isDirectRuntimeBaseClass()) {
+            return null;
+        }
+        return new RowVectorizer(this).vectorize((Tree) input.getTreeSource());
+    }
+    
+    /**
+     * Tests whether the generated indirect runtime class should store 
+     * destination values in the {@code _destValues} array provided by
+     * {@link AbstractIndirectRuntime}, allowing scripts with more than one
+     * destination variable to be evaluated in a single pass. Otherwise, 
+     * the {@code evaluate} method returns the destination value directly,
+     * as required for custom base classes.
+     * 
+     * @return {@code true} if the runtime base class extends 
+     *         {@code AbstractIndirectRuntime}
+     */
+    protected boolean isIndirectDestValues() {
+        if (indirectDestValues == null) {
+            indirectDestValues = model == Jiffle.RuntimeModel.INDIRECT 
+                    && isBaseClass(AbstractIndirectRuntime.class);
+        }
+        return indirectDestValues;
+    }
+    
+    private boolean isDirectRuntimeBaseClass() {
+        return isBaseClass(AbstractDirectRuntime.class);
+    }
+    
+    private boolean isBaseClass(Class<?> superClass) {
+        if (superClass.getName().equals(baseClassName)) {
+            return true;
+        }
+        
+        try {
+            Class<?> clazz = Class.forName(baseClassName, false, 
+                    Thread.currentThread().getContextClassLoader());
+            return superClass.isAssignableFrom(clazz);
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the index (slot) used to refer to an image variable in the
+     * runtime source. Slots are allocated in the order that image variables
+     * are first encountered.
+     * 
+     * @param varName image variable name
+     * 
+     * @return the image slot
+     */
+    protected int getImageVarIndex(String varName) {
+        int index = imageVarNames.indexOf(varName);
+        if (index < 0) {
+            index = imageVarNames.size();
+            imageVarNames.add(varName);
+        }
+        return index;
+    }
+    
+    /**
+     * Records a constant relative pixel offset used to read a source image. 
+     * The runtime class uses the extent of these offsets to size a buffer
+     * of image rows for neighbourhood reads.
+     * 
+     * @param varName source image variable name
+     * @param dx X offset
+     * @param dy Y offset
+     */
+    protected void addNeighbourOffset(String varName, int dx, int dy) {
+        int[] extent = neighbourhoods.get(varName);
+        if (extent == null) {
+            neighbourhoods.put(varName, new int[] {dx, dx, dy, dy});
+        } else {
+            extent[0] = Math.min(extent[0], dx);
+            extent[1] = Math.max(extent[1], dx);
+            extent[2] = Math.min(extent[2], dy);
+            extent[3] = Math.max(extent[3], dy);
+        }
+    }
+    
+    /**
+     * Records a read of a source image for its footprint. 
+     * 
+     * @param varName source image variable name
+     * @param dx X offset or {@code null} if not a constant relative offset
+     * @param dy Y offset or {@code null} if not a constant relative offset
+     */
+    protected void addFootprintOffset(String varName, Integer dx, Integer dy) {
+        int[] extent = footprints.get(varName);
+        if (dx == null || dy == null) {
+            footprints.put(varName, new int[] {
+                Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE});
+            
+        } else if (extent == null) {
+            footprints.put(varName, new int[] {dx, dx, dy, dy});
+            
+        } else {
+            extent[0] = Math.min(extent[0], dx);
+            extent[1] = Math.max(extent[1], dx);
+            extent[2] = Math.min(extent[2], dy);
+            extent[3] = Math.max(extent[3], dy);
+        }
+    }
+    
+    /**
+     * Gets the arguments for the runtime source statements which register
+     * source image read footprints: image slot followed by the offset extent.
+     * Unbounded extents are given as {@code Integer.MIN_VALUE} and 
+     * {@code Integer.MAX_VALUE}.
+     * 
+     * @return list of argument strings (may be empty)
+     */
+    protected List<String> getFootprintArgs() {
+        List<String> args = CollectionFactory.list();
+        for (String varName : footprints.keySet()) {
+            int[] extent = footprints.get(varName);
+            args.add(String.format("%d, %s, %s, %s, %s", 
+                    getImageVarIndex(varName), 
+                    intLiteral(extent[0]), intLiteral(extent[1]), 
+                    intLiteral(extent[2]), intLiteral(extent[3])));
+        }
+        return args;
+    }
+    
+    private String intLiteral(int value) {
+        switch (value) {
+            case Integer.MIN_VALUE: return "Integer.MIN_VALUE";
+            case Integer.MAX_VALUE: return "Integer.MAX_VALUE";
+            default: return String.valueOf(value);
+        }
+    }
+    
+    /**
+     * Gets the arguments for the runtime source statements which register
+     * source image neighbourhoods: image slot followed by the offset extent.
+     * 
+     * @return list of argument strings (may be empty)
+     */
+    protected List<String> getNeighbourhoodArgs() {
+        List<String> args = CollectionFactory.list();
+        for (String varName : neighbourhoods.keySet()) {
+            int[] extent = neighbourhoods.get(varName);
+            args.add(String.format("%d, %d, %d, %d, %d", 
+                    getImageVarIndex(varName), 
+                    extent[0], extent[1], extent[2], extent[3]));
+        }
+        return args;
+    }
+    
+    /**
+     * Gets the arguments for the runtime source statements which record
+     * the image parameters: quoted variable name followed by role.
+     * 
+     * @return list of argument strings (may be empty)
+     */
+    protected List<String> getImageParamArgs() {
+        List<String> args = CollectionFactory.list();
+        for (String varName : imageParams.keySet()) {
+            args.add(String.format("\"%s\", %s.%s",
+                    varName,
+                    Jiffle.ImageRole.class.getName().replace('$', '.'),
+                    imageParams.get(varName).name()));
+        }
+        return args;
+    }
+    
+    /**
+     * Records the slot of a cached subexpression. The runtime class 
+     * declares a cache variable for each slot.
+     * 
+     * @param slot the slot
+     */
+    protected void addSubexprSlot(String slot) {
+        if (!subexprSlots.contains(slot)) {
+            subexprSlots.add(slot);
+        }
+    }
+    
     /**
      * Adds the given imports to those that will be included in the
      * runtime source.
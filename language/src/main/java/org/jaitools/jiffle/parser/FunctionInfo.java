@@ -123,6 +123,25 @@ public class FunctionInfo {
         return jiffleName;
     }
 
+    /**
+     * Gets the Java name of the function (without provider) used in 
+     * runtime class source.
+     *
+     * @return runtime name
+     */
+    public String getRuntimeName() {
+        return runtimeName;
+    }
+    
+    /**
+     * Gets the provider of the function.
+     *
+     * @return the provider
+     */
+    public Provider getProvider() {
+        return provider;
+    }
+
     /**
      * Gets the Java source for the function provider and name used
      * in the runtime class.
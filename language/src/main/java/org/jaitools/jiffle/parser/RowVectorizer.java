@@ -0,0 +1,317 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.parser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
+
+import org.jaitools.CollectionFactory;
+
+/**
+ * Examines the final AST of a script to see if it can be evaluated a row
+ * at a time, with each statement applied to all pixels in a row before the 
+ * next, and if so prepares the data for the source templates which generate
+ * the row evaluation code. The statement expressions are evaluated in simple
+ * loops over primitive arrays which the JVM can compile to vector instructions.
+ * <p>
+ * A script qualifies if it has no image-scope variables and each statement is
+ * either a write to a destination image or an assignment to a pixel-scope 
+ * variable, with expressions made up of:
+ * <ul>
+ * <li>literals and constants
+ * <li>source image values at the current pixel (band 0)
+ * <li>pixel-scope variables
+ * <li>arithmetic, comparison and logical operators
+ * <li>non-volatile functions taking scalar arguments, and proxy functions
+ *     such as {@code x()}
+ * </ul>
+ * Scripts with loops, conditional statements, lists, neighbourhood 
+ * references or explicit bands are evaluated pixel by pixel as before.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+class RowVectorizer {
+    
+    /** Prefix for array variable names in generated code. */
+    private static final String VAR_PREFIX = "_v_";
+    
+    private final AbstractSourceGenerator generator;
+    private final List<Integer> sources = CollectionFactory.list();
+    private final List<String> locals = CollectionFactory.list();
+    private final List<Map<String, Object>> stmts = CollectionFactory.list();
+    private boolean usesX;
+    
+    /**
+     * Thrown internally when the script does not qualify.
+     */
+    private static class NotVectorizableException extends Exception {}
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param generator the source generator (used for image slots and 
+     *        runtime function expressions)
+     */
+    RowVectorizer(AbstractSourceGenerator generator) {
+        this.generator = generator;
+    }
+    
+    /**
+     * Examines a script AST and, if the script qualifies, gets the data for 
+     * the row evaluation templates as a {@code Map} with keys:
+     * <ul>
+     * <li>{@code sources}: slots of source images read by the script
+     * <li>{@code locals}: pixel-scope variables with buffer numbers
+     * <li>{@code stmts}: statements, each with either an {@code image} slot
+     *     or a {@code var} name and the {@code expr} source
+     * <li>{@code result}: buffer number for values written to images
+     * <li>{@code usesx}: whether the X ordinate is used
+     * </ul>
+     * 
+     * @param root root node of the final AST
+     * 
+     * @return template data or {@code null} if the script does not qualify
+     */
+    Map<String, Object> vectorize(Tree root) {
+        List<Tree> nodes = CollectionFactory.list();
+        if (root.isNil()) {
+            for (int i = 0; i < root.getChildCount(); i++) {
+                nodes.add(root.getChild(i));
+            }
+        } else {
+            nodes.add(root);
+        }
+        
+        try {
+            for (Tree node : nodes) {
+                statement(node);
+            }
+        } catch (NotVectorizableException ex) {
+            return null;
+        }
+        
+        if (stmts.isEmpty()) {
+            return null;
+        }
+        
+        List<Map<String, Object>> localInfo = CollectionFactory.list();
+        for (int i = 0; i < locals.size(); i++) {
+            Map<String, Object> info = CollectionFactory.map();
+            info.put("name", VAR_PREFIX + locals.get(i));
+            info.put("buffer", i);
+            localInfo.add(info);
+        }
+        
+        Map<String, Object> data = CollectionFactory.map();
+        data.put("sources", sources);
+        data.put("locals", localInfo);
+        data.put("stmts", stmts);
+        data.put("result", locals.size());
+        data.put("usesx", usesX);
+        return data;
+    }
+    
+    private void statement(Tree node) throws NotVectorizableException {
+        switch (node.getType()) {
+            case JiffleParser.JIFFLE_OPTION:
+                return;
+                
+            case JiffleParser.DECL:
+                int declType = node.getChild(0).getType();
+                if (declType != JiffleParser.VAR_DEST && declType != JiffleParser.VAR_SOURCE) {
+                    throw new NotVectorizableException();
+                }
+                return;
+                
+            case JiffleParser.IMAGE_WRITE: {
+                Map<String, Object> stmt = CollectionFactory.map();
+                stmt.put("image", generator.getImageVarIndex(node.getChild(0).getText()));
+                stmt.put("expr", expression(node.getChild(1)));
+                stmts.add(stmt);
+                return;
+            }
+                
+            case JiffleParser.EQ: {
+                Tree lhs = node.getChild(0);
+                if (lhs.getType() != JiffleParser.VAR_PIXEL_SCOPE) {
+                    throw new NotVectorizableException();
+                }
+                
+                String expr = expression(node.getChild(1));
+                String name = lhs.getText();
+                if (!locals.contains(name)) {
+                    locals.add(name);
+                }
+                
+                Map<String, Object> stmt = CollectionFactory.map();
+                stmt.put("var", VAR_PREFIX + name);
+                stmt.put("expr", expr);
+                stmts.add(stmt);
+                return;
+            }
+                
+            default:
+                throw new NotVectorizableException();
+        }
+    }
+    
+    private String expression(Tree node) throws NotVectorizableException {
+        switch (node.getType()) {
+            case JiffleParser.INT_LITERAL:
+                return node.getText() + ".0";
+                
+            case JiffleParser.FLOAT_LITERAL:
+                return node.getText();
+                
+            case JiffleParser.CONSTANT:
+                return generator.getConstantString(node.getText());
+                
+            case JiffleParser.VAR_SOURCE: {
+                int slot = generator.getImageVarIndex(node.getText());
+                if (!sources.contains(slot)) {
+                    sources.add(slot);
+                }
+                return "_src" + slot + "[_i]";
+            }
+                
+            case JiffleParser.VAR_PIXEL_SCOPE:
+                if (!locals.contains(node.getText())) {
+                    throw new NotVectorizableException();
+                }
+                return VAR_PREFIX + node.getText() + "[_i]";
+                
+            case JiffleParser.VAR_PROVIDED:
+                if (node.getText().contains("_x")) {
+                    usesX = true;
+                }
+                return node.getText();
+                
+            case JiffleParser.SUBEXPR:
+                return expression(node.getChild(0));
+                
+            case JiffleParser.PAR:
+                return "(" + expression(node.getChild(0)) + ")";
+                
+            case JiffleParser.PREFIX: {
+                String expr = expression(node.getChild(1));
+                switch (node.getChild(0).getType()) {
+                    case JiffleParser.PLUS:
+                        return expr;
+                        
+                    case JiffleParser.MINUS:
+                        return "(-" + expr + ")";
+                        
+                    case JiffleParser.NOT:
+                        return call("NOT", expr);
+                        
+                    default:
+                        throw new NotVectorizableException();
+                }
+            }
+                
+            case JiffleParser.TIMES:
+            case JiffleParser.DIV:
+            case JiffleParser.MOD:
+            case JiffleParser.PLUS:
+            case JiffleParser.MINUS:
+                return expression(node.getChild(0)) + " " + node.getText() + " " 
+                        + expression(node.getChild(1));
+                
+            case JiffleParser.POW:
+                return "Math.pow(" + expression(node.getChild(0)) + ", " 
+                        + expression(node.getChild(1)) + ")";
+                
+            case JiffleParser.OR:
+                return call("OR", node);
+            case JiffleParser.XOR:
+                return call("XOR", node);
+            case JiffleParser.AND:
+                return call("AND", node);
+            case JiffleParser.LOGICALEQ:
+                return call("EQ", node);
+            case JiffleParser.NE:
+                return call("NE", node);
+            case JiffleParser.GT:
+                return call("GT", node);
+            case JiffleParser.GE:
+                return call("GE", node);
+            case JiffleParser.LT:
+                return call("LT", node);
+            case JiffleParser.LE:
+                return call("LE", node);
+                
+            case JiffleParser.FUNC_CALL:
+                return functionCall(node);
+                
+            default:
+                throw new NotVectorizableException();
+        }
+    }
+    
+    private String call(String name, Tree node) throws NotVectorizableException {
+        return call(name, expression(node.getChild(0)), expression(node.getChild(1)));
+    }
+    
+    private String call(String name, String ...args) throws NotVectorizableException {
+        String[] argTypes = new String[args.length];
+        Arrays.fill(argTypes, "D");
+        
+        try {
+            FunctionInfo info = FunctionLookup.getInfo(name, Arrays.asList(argTypes));
+            if (info.isVolatile() || !"D".equals(info.getReturnType())) {
+                throw new NotVectorizableException();
+            }
+            
+            StringBuilder sb = new StringBuilder(info.getRuntimeExpr());
+            sb.append('(');
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(args[i]);
+            }
+            return sb.append(')').toString();
+            
+        } catch (UndefinedFunctionException ex) {
+            throw new NotVectorizableException();
+        }
+    }
+    
+    private String functionCall(Tree node) throws NotVectorizableException {
+        Tree exprList = node.getChild(1);
+        String[] args = new String[exprList.getChildCount()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = expression(exprList.getChild(i));
+        }
+        return call(node.getChild(0).getText(), args);
+    }
+}
@@ -25,6 +25,8 @@
 
 package org.jaitools.jiffle.parser;
 
+import java.util.Map;
+
 import org.jaitools.jiffle.Jiffle;
 import org.jaitools.jiffle.JiffleException;
 
@@ -51,6 +53,26 @@ public interface SourceGenerator {
      * @param baseClassName base class name
      */
     void setBaseClassName(String baseClassName);
+    
+    /**
+     * Sets the package-qualified name of the runtime class. If this is not
+     * called, the package and class name are taken from the Jiffle properties
+     * according to the runtime model.
+     * 
+     * @param qualifiedName runtime class name including package
+     * 
+     * @throws IllegalArgumentException if the name does not include a package
+     */
+    void setClassName(String qualifiedName);
+    
+    /**
+     * Sets the image parameters. These are recorded in the runtime class
+     * so that instances created without a {@link Jiffle} object (e.g.
+     * from class files compiled ahead of time) know their image variables.
+     * 
+     * @param params image variable names and roles
+     */
+    void setImageParams(Map<String, Jiffle.ImageRole> params);
 
     /**
      * Returns the source for the runtime class. The runtime model and base class
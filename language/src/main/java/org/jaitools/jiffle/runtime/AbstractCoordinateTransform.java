@@ -0,0 +1,72 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Point;
+
+/**
+ * Base class for {@code CoordinateTransform} implementations which can
+ * convert single ordinates without creating or modifying any objects.
+ * The default methods here go through {@link #worldToImage(double, double, Point)};
+ * sub-classes should override them with a direct calculation.
+ * <p>
+ * The runtime classes use these methods, via
+ * {@link CoordinateTransforms#worldToImageX(CoordinateTransform, double, double)}
+ * and {@link CoordinateTransforms#worldToImageY(CoordinateTransform, double, double)},
+ * for every image read and write.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public abstract class AbstractCoordinateTransform implements CoordinateTransform {
+
+    /**
+     * Converts from world to image coordinates and returns the image X 
+     * ordinate.
+     * 
+     * @param x world X ordinate
+     * @param y world Y ordinate
+     * 
+     * @return image X ordinate
+     */
+    public int worldToImageX(double x, double y) {
+        return worldToImage(x, y, null).x;
+    }
+    
+    /**
+     * Converts from world to image coordinates and returns the image Y 
+     * ordinate.
+     * 
+     * @param x world X ordinate
+     * @param y world Y ordinate
+     * 
+     * @return image Y ordinate
+     */
+    public int worldToImageY(double x, double y) {
+        return worldToImage(x, y, null).y;
+    }
+}
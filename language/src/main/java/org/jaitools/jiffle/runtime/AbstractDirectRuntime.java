@@ -25,17 +25,23 @@
 
 package org.jaitools.jiffle.runtime;
 
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-import javax.media.jai.iterator.WritableRandomIter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jaitools.jiffle.JiffleException;
 
@@ -50,8 +56,12 @@ import org.jaitools.jiffle.JiffleException;
  */
 public abstract class AbstractDirectRuntime extends AbstractJiffleRuntime implements JiffleDirectRuntime {
 
-    private static final double EPS = 1.0e-10d;
-    
+    /** 
+     * Tile size used to divide the processing area for parallel
+     * evaluation when there is no destination image.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
     /* 
      * Note: not using generics here because they are not
      * supported by the Janino compiler.
@@ -66,15 +76,51 @@ public abstract class AbstractDirectRuntime extends AbstractJiffleRuntime implem
     
     /** 
      * Maps source image variable names ({@link String}) to image
-     * iterators ({@link RandomIter}).
+     * accessors ({@link ImageTileAccessor}).
      */
     protected Map readers = new LinkedHashMap();
     
     /**
      * Maps destination image variable names ({@link String} to
-     * image iterators ({@link WritableRandomIter}).
+     * image accessors ({@link ImageTileAccessor}).
      */
     protected Map writers = new LinkedHashMap();
+    
+    /** Images indexed by image slot. */
+    protected RenderedImage[] imageTable = new RenderedImage[0];
+    
+    /** Source image accessors indexed by image slot. */
+    protected ImageTileAccessor[] readerTable = new ImageTileAccessor[0];
+    
+    /** Destination image accessors indexed by image slot. */
+    protected ImageTileAccessor[] writerTable = new ImageTileAccessor[0];
+    
+    /* 
+     * Source image neighbourhoods indexed by image slot: extents of
+     * constant relative offsets (registered by the runtime class), 
+     * row buffers (created on first use) and flags for images which 
+     * cannot be buffered.
+     */
+    private int[][] neighbourhoodTable = new int[0][];
+    private NeighbourhoodBuffer[] bufferTable = new NeighbourhoodBuffer[0];
+    private boolean[] unbufferedTable = new boolean[0];
+    
+    /* 
+     * Row buffers for generated code which evaluates the script a row 
+     * at a time: source image values indexed by image slot, and buffers
+     * for intermediate results indexed by buffer number.
+     */
+    private double[][] sourceRowTable = new double[0][];
+    private double[][] rowBufferTable = new double[0][];
+    
+    /*
+     * Counts of image access since they were last added to the
+     * RuntimeMetrics totals. Plain fields are used because a runtime
+     * object is only used by one thread at a time.
+     */
+    private long sourceReadCount;
+    private long destWriteCount;
+    private long outsideHitCount;
 
     /**
      * Creates a new instance and initializes script-option variables.
@@ -113,9 +159,15 @@ public abstract class AbstractDirectRuntime extends AbstractJiffleRuntime implem
     private void doSetDestinationImage(String varName, WritableRenderedImage image, 
             CoordinateTransform tr) throws WorldNotSetException {
         
+        ImageTileAccessor accessor = new ImageTileAccessor(image);
         images.put(varName, image);
-        writers.put(varName, RandomIterFactory.createWritable(image, null));
+        writers.put(varName, accessor);
         setTransform(varName, tr);
+        
+        int index = getImageVarIndex(varName);
+        growImageTables();
+        imageTable[index] = image;
+        writerTable[index] = accessor;
     }
     
     /**
@@ -147,13 +199,50 @@ public abstract class AbstractDirectRuntime extends AbstractJiffleRuntime implem
     private void doSetSourceImage(String varName, RenderedImage image, CoordinateTransform tr)
             throws WorldNotSetException {
         
+        ImageTileAccessor accessor = new ImageTileAccessor(image);
         images.put(varName, image);
-        readers.put(varName, RandomIterFactory.create(image, null));
+        readers.put(varName, accessor);
         setTransform(varName, tr);
+        
+        int index = getImageVarIndex(varName);
+        growImageTables();
+        imageTable[index] = image;
+        readerTable[index] = accessor;
+        
+        if (index < bufferTable.length) {
+            bufferTable[index] = null;
+            unbufferedTable[index] = false;
+        }
+    }
+    
+    /**
+     * Ensures that the image tables have an element for each 
+     * registered image slot.
+     */
+    private void growImageTables() {
+        final int n = getNumImageVars();
+        if (imageTable.length < n) {
+            RenderedImage[] images = new RenderedImage[n];
+            System.arraycopy(imageTable, 0, images, 0, imageTable.length);
+            imageTable = images;
+            
+            ImageTileAccessor[] readers = new ImageTileAccessor[n];
+            System.arraycopy(readerTable, 0, readers, 0, readerTable.length);
+            readerTable = readers;
+            
+            ImageTileAccessor[] writers = new ImageTileAccessor[n];
+            System.arraycopy(writerTable, 0, writers, 0, writerTable.length);
+            writerTable = writers;
+        }
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The processing area is traversed with integer row and column
+     * counters. World positions are calculated from these rather than
+     * being accumulated, and each row is passed to the generated
+     * {@link #evaluateRow(int)} method.
      */
     public void evaluateAll(JiffleProgressListener pl) {
         JiffleProgressListener listener = pl == null ? new NullProgressListener() : pl;
@@ -161,80 +250,795 @@ public abstract class AbstractDirectRuntime extends AbstractJiffleRuntime implem
         if (!isWorldSet()) {
             setDefaultBounds();
         }
+        if (!_imageScopeVarsInitialized) {
+            initImageScopeVars();
+        }
+        clearNeighbourhoodBuffers();
 
         final long numPixels = getNumPixels();
         listener.setTaskSize(numPixels);
         
+        final int numRows = getNumRows();
+        final int numCols = getNumCols();
+        
         long count = 0;
         long sinceLastUpdate = 0;
         final long updateInterval = listener.getUpdateInterval();
         
-        final double minX = getMinX();
-        final double maxX = getMaxX();
-        final double resX = getXRes();
+        final long startTime = System.nanoTime();
+        listener.start();
+        for (int row = 0; row < numRows; row++) {
+            evaluateRow(row);
+            
+            count += numCols;
+            sinceLastUpdate += numCols;
+            if (sinceLastUpdate >= updateInterval) {
+                listener.update( count );
+                sinceLastUpdate = 0;
+            }
+        }
+        releaseTiles();
+        
+        publishMetrics();
+        RuntimeMetrics.getInstance().recordTask(numPixels, System.nanoTime() - startTime);
+        listener.finish();
+    }
+    
+    /**
+     * Evaluates the script for each pixel in a row of the processing area.
+     * This method is overridden in generated runtime classes with code that
+     * evaluates the script inline, without the per-pixel checks done by
+     * {@link #evaluate(double, double)}. It assumes that the processing area 
+     * has been set and image-scope variables have been initialized, which is 
+     * done by {@link #evaluateAll(JiffleProgressListener)}.
+     * <p>
+     * This default implementation simply calls {@code evaluate} for each
+     * pixel in the row.
+     * 
+     * @param row row index (0 is the first row of the processing area)
+     */
+    protected void evaluateRow(int row) {
+        evaluateRow(row, 0, getNumCols());
+    }
+    
+    /**
+     * Evaluates the script for a span of pixels in a row of the processing
+     * area. This method is overridden in generated runtime classes. It has
+     * the same assumptions as {@link #evaluateRow(int)}.
+     * <p>
+     * This default implementation simply calls {@code evaluate} for each
+     * pixel in the span.
+     * 
+     * @param row row index (0 is the first row of the processing area)
+     * @param startCol first column (inclusive)
+     * @param endCol last column (exclusive)
+     */
+    protected void evaluateRow(int row, int startCol, int endCol) {
+        final double y = getWorldY(row);
+        for (int col = startCol; col < endCol; col++) {
+            evaluate(getWorldX(col), y);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The processing area is divided into tiles which are aligned with the
+     * tile grid of the first destination image or, if there is no
+     * destination image, are {@value #DEFAULT_TILE_SIZE} pixels square.
+     * Tiles are evaluated by the calling thread and up to 
+     * {@code parallelism - 1} helper threads. Each helper thread uses its 
+     * own copy of this runtime object, so that image-scope variables, 
+     * iterators and other state are not shared. Copies are created with the
+     * no-argument constructor of the runtime class. If the processing area
+     * cannot be split (see {@link #isTileSplittable()}) the script is
+     * evaluated by the calling thread alone.
+     */
+    public void evaluateAll(JiffleProgressListener pl, int parallelism) {
+        if (parallelism <= 1 || !isTileSplittable()) {
+            evaluateAll(pl);
+            return;
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism - 1);
+        try {
+            evaluateTiles(pl, executor, parallelism - 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Tests whether the processing area can be divided into tiles which are
+     * evaluated independently, in any order, with results identical to 
+     * those of {@link #evaluateAll(JiffleProgressListener)}. This is the 
+     * case unless the script assigns values to image-scope variables, for 
+     * which generated runtime classes override this method, or an image has
+     * been set as both a source and a destination.
+     * 
+     * @return {@code true} if tiles can be evaluated independently
+     */
+    protected boolean isTileSplittable() {
+        return isRowEvaluationSafe();
+    }
+    
+    /**
+     * Evaluates the processing area as tiles. The calling thread evaluates
+     * tiles itself and also passes up to {@code maxHelpers} tasks to 
+     * {@code helpers}, each of which evaluates tiles with a copy of this
+     * runtime object until none are left. The method returns when all tiles
+     * have been evaluated, so helper tasks which never run, or start after
+     * the work is done, do not hold it up. Progress is aggregated and passed
+     * to the listener.
+     * <p>
+     * This is used by {@link #evaluateAll(JiffleProgressListener, int)} and
+     * by {@link JiffleExecutor} to split jobs across its threads. Callers 
+     * should check {@link #isTileSplittable()} first.
+     * 
+     * @param pl progress listener (may be {@code null})
+     * @param helpers executor for helper tasks
+     * @param maxHelpers maximum number of helper tasks
+     * 
+     * @throws JiffleRuntimeException if an error occurred evaluating a tile
+     *         or the calling thread was interrupted
+     */
+    void evaluateTiles(JiffleProgressListener pl, Executor helpers, int maxHelpers) {
+        JiffleProgressListener listener = pl == null ? new NullProgressListener() : pl;
+        
+        if (!isWorldSet()) {
+            setDefaultBounds();
+        }
+        if (!_imageScopeVarsInitialized) {
+            initImageScopeVars();
+        }
+        clearNeighbourhoodBuffers();
+        
+        final Queue<Rectangle> tiles = new ConcurrentLinkedQueue<Rectangle>(getTiles());
+        final int numTiles = tiles.size();
+        final int numHelpers = Math.min(maxHelpers, numTiles - 1);
         
-        final double minY = getMinY();
-        final double maxY = getMaxY();
-        final double resY = getYRes();
+        listener.setTaskSize(getNumPixels());
+        final ProgressCounter counter = new ProgressCounter(listener);
+        final CountDownLatch remaining = new CountDownLatch(numTiles);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
         
+        final long startTime = System.nanoTime();
         listener.start();
-        for (double y = minY; y < maxY - EPS; y += resY) {
-            for (double x = minX; x < maxX - EPS; x += resX) {
-                evaluate(x, y);
-                
-                count++ ;
-                sinceLastUpdate++;
-                if (sinceLastUpdate >= updateInterval) {
-                    listener.update( count );
-                    sinceLastUpdate = 0;
-                }
+        
+        for (int i = 0; i < numHelpers; i++) {
+            final AbstractDirectRuntime worker = copyForWorker();
+            try {
+                helpers.execute(new Runnable() {
+                    public void run() {
+                        worker.evaluateTiles(tiles, counter, remaining, failure);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // the calling thread will evaluate the remaining tiles
+                break;
+            }
+        }
+        
+        evaluateTiles(tiles, counter, remaining, failure);
+        
+        try {
+            remaining.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new JiffleRuntimeException("Interrupted while evaluating tiles", ex);
+        }
+        
+        Throwable cause = failure.get();
+        if (cause != null) {
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new JiffleRuntimeException("Error evaluating tile", cause);
         }
+        
+        RuntimeMetrics.getInstance().recordTask(getNumPixels(), System.nanoTime() - startTime);
         listener.finish();
     }
     
+    /**
+     * Takes tiles from the shared queue and evaluates them until the queue 
+     * is empty. Once an error has been recorded, remaining tiles are 
+     * removed without being evaluated.
+     */
+    private void evaluateTiles(Queue<Rectangle> tiles, ProgressCounter counter,
+            CountDownLatch remaining, AtomicReference<Throwable> failure) {
+        try {
+            Rectangle tile;
+            while ((tile = tiles.poll()) != null) {
+                try {
+                    if (failure.get() == null) {
+                        final int endRow = tile.y + tile.height;
+                        final int endCol = tile.x + tile.width;
+                        for (int row = tile.y; row < endRow; row++) {
+                            evaluateRow(row, tile.x, endCol);
+                        }
+                        counter.add((long) tile.width * tile.height);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    remaining.countDown();
+                }
+            }
+        } finally {
+            releaseTiles();
+            publishMetrics();
+        }
+    }
+    
+    /**
+     * Divides the processing area into tiles for parallel evaluation.
+     * Tile bounds are expressed as processing area column and row indices.
+     * 
+     * @return list of tiles
+     */
+    private List<Rectangle> getTiles() {
+        int destIndex = -1;
+        for (int i = 0; i < writerTable.length; i++) {
+            if (writerTable[i] != null) {
+                destIndex = i;
+                break;
+            }
+        }
+        
+        final int numCols = getNumCols();
+        final int numRows = getNumRows();
+        
+        int[] colBreaks;
+        int[] rowBreaks;
+        
+        if (destIndex >= 0) {
+            RenderedImage img = imageTable[destIndex];
+            CoordinateTransform tr = getTransform(destIndex);
+            
+            int[] tileX = new int[numCols];
+            for (int col = 0; col < numCols; col++) {
+                int imgX = CoordinateTransforms.worldToImageX(tr, getWorldX(col), getMinY());
+                tileX[col] = ImageTileAccessor.tileIndex(imgX, img.getTileGridXOffset(), img.getTileWidth());
+            }
+            colBreaks = getBreaks(tileX);
+            
+            int[] tileY = new int[numRows];
+            for (int row = 0; row < numRows; row++) {
+                int imgY = CoordinateTransforms.worldToImageY(tr, getMinX(), getWorldY(row));
+                tileY[row] = ImageTileAccessor.tileIndex(imgY, img.getTileGridYOffset(), img.getTileHeight());
+            }
+            rowBreaks = getBreaks(tileY);
+            
+        } else {
+            colBreaks = getBreaks(numCols, DEFAULT_TILE_SIZE);
+            rowBreaks = getBreaks(numRows, DEFAULT_TILE_SIZE);
+        }
+        
+        List<Rectangle> tiles = new ArrayList<Rectangle>();
+        for (int j = 0; j < rowBreaks.length - 1; j++) {
+            for (int i = 0; i < colBreaks.length - 1; i++) {
+                tiles.add(new Rectangle(colBreaks[i], rowBreaks[j],
+                        colBreaks[i + 1] - colBreaks[i], rowBreaks[j + 1] - rowBreaks[j]));
+            }
+        }
+        
+        return tiles;
+    }
+    
+    /**
+     * Gets the positions at which tile indices change, plus the 
+     * start and end positions.
+     */
+    private static int[] getBreaks(int[] tileIndices) {
+        List<Integer> breaks = new ArrayList<Integer>();
+        breaks.add(0);
+        for (int i = 1; i < tileIndices.length; i++) {
+            if (tileIndices[i] != tileIndices[i - 1]) {
+                breaks.add(i);
+            }
+        }
+        breaks.add(tileIndices.length);
+        
+        int[] result = new int[breaks.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = breaks.get(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Gets evenly spaced break positions.
+     */
+    private static int[] getBreaks(int length, int spacing) {
+        int n = (length + spacing - 1) / spacing;
+        int[] result = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            result[i] = i * spacing;
+        }
+        result[n] = length;
+        return result;
+    }
+    
+    /**
+     * Creates a copy of this runtime object, with its own image
+     * accessors, for use by a worker thread.
+     * 
+     * @return the new runtime object
+     */
+    private AbstractDirectRuntime copyForWorker() {
+        AbstractDirectRuntime copy;
+        try {
+            copy = getClass().newInstance();
+        } catch (Exception ex) {
+            throw new JiffleRuntimeException(
+                    "Unable to create a copy of the runtime object", ex);
+        }
+        
+        copyStateTo(copy);
+        
+        copy.images.putAll(images);
+        copy.imageTable = new RenderedImage[imageTable.length];
+        copy.readerTable = new ImageTileAccessor[imageTable.length];
+        copy.writerTable = new ImageTileAccessor[imageTable.length];
+        
+        for (int i = 0; i < imageTable.length; i++) {
+            String varName = getImageVarName(i);
+            copy.imageTable[i] = imageTable[i];
+            
+            if (readerTable[i] != null) {
+                ImageTileAccessor accessor = new ImageTileAccessor(imageTable[i]);
+                copy.readerTable[i] = accessor;
+                copy.readers.put(varName, accessor);
+            }
+            if (writerTable[i] != null) {
+                ImageTileAccessor accessor = new ImageTileAccessor(
+                        (WritableRenderedImage) imageTable[i]);
+                copy.writerTable[i] = accessor;
+                copy.writers.put(varName, accessor);
+            }
+        }
+        
+        return copy;
+    }
+    
+    /**
+     * Aggregates progress from worker threads and passes it to 
+     * a progress listener at the listener's update interval.
+     */
+    private static class ProgressCounter {
+        private final JiffleProgressListener listener;
+        private final long updateInterval;
+        private long count;
+        private long sinceLastUpdate;
+        
+        ProgressCounter(JiffleProgressListener listener) {
+            this.listener = listener;
+            this.updateInterval = listener.getUpdateInterval();
+        }
+        
+        synchronized void add(long numPixels) {
+            count += numPixels;
+            sinceLastUpdate += numPixels;
+            if (sinceLastUpdate >= updateInterval) {
+                listener.update( count );
+                sinceLastUpdate = 0;
+            }
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
     public double readFromImage(String srcImageName, double x, double y, int band) {
-        boolean inside = true;
-        RenderedImage img = (RenderedImage) images.get(srcImageName);
-        CoordinateTransform tr = getTransform(srcImageName);
+        return readFromImage(getImageVarIndex(srcImageName), x, y, band);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public double readFromImage(int srcImageIndex, double x, double y, int band) {
+        ImageTileAccessor reader = readerTable[srcImageIndex];
+        CoordinateTransform tr = getTransform(srcImageIndex);
         
-        Point imgPos = tr.worldToImage(x, y, null);
+        final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+        final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
         
-        int xx = imgPos.x - img.getMinX();
-        if (xx < 0 || xx >= img.getWidth()) {
-            inside = false;
-        } else {
-            int yy = imgPos.y - img.getMinY();
-            if (yy < 0 || yy >= img.getHeight()) {
-                inside = false;
+        sourceReadCount++ ;
+        if (!reader.contains(imgX, imgY)) {
+            if (_outsideValueSet) {
+                outsideHitCount++ ;
+                return _outsideValue;
+            } else {
+                throw new JiffleRuntimeException( String.format(
+                        "Position %.4f %.4f is outside bounds of image: %s", 
+                        x, y, getImageVarName(srcImageIndex)));
             }
         }
         
-        if (!inside) {
+        return reader.getSample(imgX, imgY, band);
+    }
+    
+    /**
+     * Registers the extent of constant relative pixel offsets used by the 
+     * script to read a source image. This is called from the constructor 
+     * of runtime classes. Reads of the image at such offsets are done with
+     * {@link #readFromNeighbourhood(int, double, double, int)} which keeps
+     * a buffer of the image rows spanned by the offsets.
+     * 
+     * @param imageIndex source image slot
+     * @param minDX minimum X offset
+     * @param maxDX maximum X offset
+     * @param minDY minimum Y offset
+     * @param maxDY maximum Y offset
+     */
+    protected void registerNeighbourhood(int imageIndex, 
+            int minDX, int maxDX, int minDY, int maxDY) {
+        
+        if (neighbourhoodTable.length <= imageIndex) {
+            final int n = imageIndex + 1;
+            
+            int[][] extents = new int[n][];
+            System.arraycopy(neighbourhoodTable, 0, extents, 0, neighbourhoodTable.length);
+            neighbourhoodTable = extents;
+            
+            bufferTable = new NeighbourhoodBuffer[n];
+            unbufferedTable = new boolean[n];
+        }
+        
+        neighbourhoodTable[imageIndex] = new int[] {minDX, maxDX, minDY, maxDY};
+    }
+    
+    /**
+     * Discards neighbourhood buffers, and the flags for images which could
+     * not be buffered, left from a previous run. Buffers hold copies of 
+     * source rows, and the processing area or source data may have changed
+     * since they were filled.
+     */
+    private void clearNeighbourhoodBuffers() {
+        Arrays.fill(bufferTable, null);
+        Arrays.fill(unbufferedTable, false);
+    }
+    
+    /**
+     * Reads a value from a source image at a constant offset from the 
+     * pixel being evaluated. The result is the same as that of 
+     * {@link #readFromImage(int, double, double, int)} but sample values
+     * are taken from a buffer of image rows, so that each pixel is 
+     * only read from the image once while the processing area is 
+     * traversed row by row. Images for which a neighbourhood has not
+     * been registered, or whose coordinate transform does not map 
+     * world rows to image rows, are read directly.
+     * 
+     * @param srcImageIndex source image slot
+     * @param x source X ordinate in world units
+     * @param y source Y ordinate in world units
+     * @param band source band
+     * 
+     * @return image value
+     */
+    protected double readFromNeighbourhood(int srcImageIndex, double x, double y, int band) {
+        NeighbourhoodBuffer buffer = null;
+        if (srcImageIndex < bufferTable.length) {
+            buffer = bufferTable[srcImageIndex];
+            if (buffer == null && !unbufferedTable[srcImageIndex]) {
+                buffer = createNeighbourhoodBuffer(srcImageIndex);
+            }
+        }
+        
+        if (buffer == null) {
+            return readFromImage(srcImageIndex, x, y, band);
+        }
+        
+        CoordinateTransform tr = getTransform(srcImageIndex);
+        final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+        final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
+        
+        sourceReadCount++ ;
+        if (!buffer.contains(imgX, imgY)) {
             if (_outsideValueSet) {
+                outsideHitCount++ ;
                 return _outsideValue;
             } else {
                 throw new JiffleRuntimeException( String.format(
                         "Position %.4f %.4f is outside bounds of image: %s", 
-                        x, y, srcImageName));
+                        x, y, getImageVarName(srcImageIndex)));
             }
         }
         
-        RandomIter iter = (RandomIter) readers.get(srcImageName);
-        return iter.getSampleDouble(imgPos.x, imgPos.y, band);
+        return buffer.getSample(imgX, imgY, band);
+    }
+    
+    /**
+     * Creates a row buffer for a source image neighbourhood. The number of
+     * rows is the span of image rows covered by the registered offsets 
+     * (plus one for rounding). If the image cannot be buffered, because 
+     * it has not been set, no neighbourhood was registered for it, it is
+     * also being written to or its transform maps a world row to more 
+     * than one image row, it is flagged and {@code null} is returned.
+     */
+    private NeighbourhoodBuffer createNeighbourhoodBuffer(int index) {
+        final int[] extent = neighbourhoodTable[index];
+        final ImageTileAccessor reader = 
+                index < readerTable.length ? readerTable[index] : null;
+        
+        if (extent == null || reader == null) {
+            unbufferedTable[index] = true;
+            return null;
+        }
+        
+        if (!isRowEvaluationSafe() || isDestinationImage(index)) {
+            unbufferedTable[index] = true;
+            return null;
+        }
+        
+        CoordinateTransform tr = getTransform(index);
+        final double x0 = getMinX();
+        final double y0 = getMinY();
+        
+        if (CoordinateTransforms.worldToImageY(tr, x0, y0) != 
+                CoordinateTransforms.worldToImageY(tr, getMaxX(), y0)) {
+            unbufferedTable[index] = true;
+            return null;
+        }
+        
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+        for (int i = 0; i < 2; i++) {
+            for (int j = 2; j < 4; j++) {
+                int row = CoordinateTransforms.worldToImageY(tr, x0 + extent[i], y0 + extent[j]);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+            }
+        }
+        
+        NeighbourhoodBuffer buffer = new NeighbourhoodBuffer(reader, maxRow - minRow + 2);
+        bufferTable[index] = buffer;
+        return buffer;
+    }
+    
+    /**
+     * Tests whether the image in the given slot has also been set as
+     * a destination. Values buffered from such an image would become
+     * stale as soon as the pixels they were read from are written.
+     */
+    private boolean isDestinationImage(int index) {
+        final RenderedImage image = imageTable[index];
+        for (int i = 0; i < writerTable.length; i++) {
+            if (writerTable[i] != null && imageTable[i] == image) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /**
      * {@inheritDoc}
      */
     public void writeToImage(String destImageName, double x, double y, int band, double value) {
-        WritableRandomIter iter = (WritableRandomIter) writers.get(destImageName);
-        CoordinateTransform tr = getTransform(destImageName);
-        Point imgPos = tr.worldToImage(x, y, null);
-        iter.setSample(imgPos.x, imgPos.y, band, value);
+        writeToImage(getImageVarIndex(destImageName), x, y, band, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void writeToImage(int destImageIndex, double x, double y, int band, double value) {
+        ImageTileAccessor writer = writerTable[destImageIndex];
+        CoordinateTransform tr = getTransform(destImageIndex);
+        
+        final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+        final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
+        
+        if (!writer.contains(imgX, imgY)) {
+            throw new JiffleRuntimeException( String.format(
+                    "Position %.4f %.4f is outside bounds of image: %s", 
+                    x, y, getImageVarName(destImageIndex)));
+        }
+        
+        destWriteCount++ ;
+        writer.setSample(imgX, imgY, band, value);
+    }
+    
+    /**
+     * Tests whether the script can be evaluated a row at a time by 
+     * generated code which reads all source values for a row before writing
+     * any destination values. This is the case unless an image has been set
+     * as both a source and a destination, in which case the generated code
+     * falls back to evaluating each pixel in turn.
+     * 
+     * @return {@code true} if row evaluation is safe
+     */
+    protected boolean isRowEvaluationSafe() {
+        for (int i = 0; i < readerTable.length; i++) {
+            if (readerTable[i] != null) {
+                for (int j = 0; j < writerTable.length; j++) {
+                    if (writerTable[j] != null && imageTable[i] == imageTable[j]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Reads band 0 values from a source image for a span of pixels in a row 
+     * of the processing area. This is called by generated code which 
+     * evaluates the script a row at a time. Where successive pixels map to
+     * successive image positions the values are read in bulk.
+     * 
+     * @param srcImageIndex index of the source image
+     * @param row row index (0 is the first row of the processing area)
+     * @param startCol first column (inclusive)
+     * @param endCol last column (exclusive)
+     * 
+     * @return array holding the values at positions {@code 0} to 
+     *         {@code endCol - startCol - 1}; this is reused by subsequent 
+     *         calls for the same image
+     * 
+     * @throws JiffleRuntimeException if a position is outside the image
+     *         and the <i>outside</i> option is not set
+     */
+    protected double[] readRow(int srcImageIndex, int row, int startCol, int endCol) {
+        final int n = endCol - startCol;
+        
+        if (sourceRowTable.length <= srcImageIndex) {
+            double[][] rows = new double[srcImageIndex + 1][];
+            System.arraycopy(sourceRowTable, 0, rows, 0, sourceRowTable.length);
+            sourceRowTable = rows;
+        }
+        double[] values = sourceRowTable[srcImageIndex];
+        if (values == null || values.length < n) {
+            values = new double[n];
+            sourceRowTable[srcImageIndex] = values;
+        }
+        
+        final ImageTileAccessor reader = readerTable[srcImageIndex];
+        final CoordinateTransform tr = getTransform(srcImageIndex);
+        final double y = getWorldY(row);
+        sourceReadCount += n;
+        
+        int i = 0;
+        while (i < n) {
+            final double x = getWorldX(startCol + i);
+            final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+            final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
+            
+            if (!reader.contains(imgX, imgY)) {
+                if (_outsideValueSet) {
+                    outsideHitCount++ ;
+                    values[i++] = _outsideValue;
+                    continue;
+                } else {
+                    throw new JiffleRuntimeException( String.format(
+                            "Position %.4f %.4f is outside bounds of image: %s", 
+                            x, y, getImageVarName(srcImageIndex)));
+                }
+            }
+            
+            int len = 1;
+            while (i + len < n && reader.contains(imgX + len, imgY)) {
+                final double xx = getWorldX(startCol + i + len);
+                if (CoordinateTransforms.worldToImageX(tr, xx, y) != imgX + len || 
+                        CoordinateTransforms.worldToImageY(tr, xx, y) != imgY) {
+                    break;
+                }
+                len++ ;
+            }
+            
+            reader.getSamples(imgX, imgY, len, 0, values, i);
+            i += len;
+        }
+        
+        return values;
+    }
+    
+    /**
+     * Writes band 0 values to a destination image for a span of pixels in 
+     * a row of the processing area. This is called by generated code which 
+     * evaluates the script a row at a time. Where successive pixels map to
+     * successive image positions the values are written in bulk.
+     * 
+     * @param destImageIndex index of the destination image
+     * @param row row index (0 is the first row of the processing area)
+     * @param startCol first column (inclusive)
+     * @param endCol last column (exclusive)
+     * @param values values to write, at positions {@code 0} to 
+     *        {@code endCol - startCol - 1}
+     * 
+     * @throws JiffleRuntimeException if a position is outside the image
+     */
+    protected void writeRow(int destImageIndex, int row, int startCol, int endCol, 
+            double[] values) {
+        
+        final int n = endCol - startCol;
+        final ImageTileAccessor writer = writerTable[destImageIndex];
+        final CoordinateTransform tr = getTransform(destImageIndex);
+        final double y = getWorldY(row);
+        destWriteCount += n;
+        
+        int i = 0;
+        while (i < n) {
+            final double x = getWorldX(startCol + i);
+            final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+            final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
+            
+            if (!writer.contains(imgX, imgY)) {
+                throw new JiffleRuntimeException( String.format(
+                        "Position %.4f %.4f is outside bounds of image: %s", 
+                        x, y, getImageVarName(destImageIndex)));
+            }
+            
+            int len = 1;
+            while (i + len < n && writer.contains(imgX + len, imgY)) {
+                final double xx = getWorldX(startCol + i + len);
+                if (CoordinateTransforms.worldToImageX(tr, xx, y) != imgX + len || 
+                        CoordinateTransforms.worldToImageY(tr, xx, y) != imgY) {
+                    break;
+                }
+                len++ ;
+            }
+            
+            writer.setSamples(imgX, imgY, len, 0, values, i);
+            i += len;
+        }
+    }
+    
+    /**
+     * Adds the counts of source reads, destination writes and outside-value
+     * hits made by this object since the last call to the 
+     * {@link RuntimeMetrics} totals. This is called when 
+     * {@code evaluateAll} completes.
+     */
+    protected void publishMetrics() {
+        RuntimeMetrics.getInstance().addCounts(sourceReadCount, destWriteCount, outsideHitCount);
+        sourceReadCount = 0;
+        destWriteCount = 0;
+        outsideHitCount = 0;
+    }
+    
+    /**
+     * Gets a buffer for intermediate results in generated code which 
+     * evaluates the script a row at a time. The buffer is reused by
+     * subsequent calls with the same buffer number.
+     * 
+     * @param bufferIndex buffer number
+     * @param length minimum buffer length
+     * 
+     * @return the buffer
+     */
+    protected double[] getRowBuffer(int bufferIndex, int length) {
+        if (rowBufferTable.length <= bufferIndex) {
+            double[][] buffers = new double[bufferIndex + 1][];
+            System.arraycopy(rowBufferTable, 0, buffers, 0, rowBufferTable.length);
+            rowBufferTable = buffers;
+        }
+        
+        double[] buffer = rowBufferTable[bufferIndex];
+        if (buffer == null || buffer.length < length) {
+            buffer = new double[length];
+            rowBufferTable[bufferIndex] = buffer;
+        }
+        return buffer;
+    }
+    
+    /**
+     * Releases the tiles currently held by image accessors. This returns
+     * writable tiles to destination images. It is called at the end of 
+     * {@code evaluateAll} and may also be called by clients after
+     * a series of calls to {@link #evaluate(double, double)}.
+     */
+    public void releaseTiles() {
+        for (int i = 0; i < readerTable.length; i++) {
+            if (readerTable[i] != null) {
+                readerTable[i].release();
+            }
+            if (writerTable[i] != null) {
+                writerTable[i].release();
+            }
+        }
     }
 
     /**
@@ -25,7 +25,11 @@
 
 package org.jaitools.jiffle.runtime;
 
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.jaitools.jiffle.JiffleException;
@@ -34,6 +38,10 @@ import org.jaitools.jiffle.JiffleException;
 /**
  * The default abstract base class for runtime classes that implement
  * indirect evaluation.
+ * <p>
+ * Each call to {@link #evaluateBlock} is recorded as a task in the 
+ * {@link RuntimeMetrics} totals, together with the counts of source reads,
+ * destination values and outside-value hits made while evaluating it.
  *
  * @author Michael Bedward
  * @since 0.1
@@ -46,7 +54,29 @@ public abstract class AbstractIndirectRuntime extends AbstractJiffleRuntime impl
      * supported by the Janino compiler.
      */
     List sourceImageNames = new ArrayList();
-    String destImageName;
+    List destImageNames = new ArrayList();
+    
+    /* Source rasters for the block being evaluated, indexed by image slot. */
+    private Raster[] rasterTable = new Raster[0];
+    
+    /* Slots of the destination images, in band order. Set lazily. */
+    private int[] destSlots;
+    
+    /**
+     * Destination values for the pixel being evaluated, indexed by image
+     * slot. These are set by the generated {@link #evaluateDestinations} 
+     * method.
+     */
+    protected double[] _destValues = new double[0];
+    
+    /*
+     * Counts of image access since they were last added to the
+     * RuntimeMetrics totals. Plain fields are used because a runtime
+     * object is only used by one thread at a time.
+     */
+    private long sourceReadCount;
+    private long destWriteCount;
+    private long outsideHitCount;
 
     /**
      * Creates a new instance and initializes script-option variables.
@@ -77,7 +107,10 @@ public abstract class AbstractIndirectRuntime extends AbstractJiffleRuntime impl
     private void doSetDestinationImage(String varName, CoordinateTransform tr)
             throws WorldNotSetException {
         
-        destImageName = varName;
+        if (!destImageNames.contains(varName)) {
+            destImageNames.add(varName);
+            destSlots = null;
+        }
         setTransform(varName, tr);
     }
 
@@ -108,4 +141,289 @@ public abstract class AbstractIndirectRuntime extends AbstractJiffleRuntime impl
         setTransform(varName, tr);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the script has more than one destination variable, all of them
+     * are evaluated and the value of the first destination image is 
+     * returned. Use {@link #evaluateBlock} to retrieve all values.
+     */
+    public double evaluate(double x, double y) {
+        int[] slots = getDestSlots();
+        evaluatePixel(x, y);
+        return _destValues[slots[0]];
+    }
+    
+    /**
+     * Evaluates the script for the given world position, storing the
+     * value of each destination variable in {@link #_destValues}. 
+     * Destinations not written by the script for this position are 
+     * left as {@code Double.NaN}.
+     * 
+     * @param x world position X ordinate
+     * @param y world position Y ordinate
+     */
+    protected abstract void evaluateDestinations(double x, double y);
+    
+    private void evaluatePixel(double x, double y) {
+        if (_destValues.length != getNumImageVars()) {
+            _destValues = new double[getNumImageVars()];
+        }
+        Arrays.fill(_destValues, Double.NaN);
+        evaluateDestinations(x, y);
+    }
+    
+    /**
+     * Gets the slots of the destination images in band order. These are the 
+     * images set with {@code setDestinationImage}, in the order they were set
+     * or, if none were set, the script's destination variables in the order
+     * they first appear in the script.
+     * 
+     * @return destination image slots
+     * 
+     * @throws JiffleRuntimeException if there are no destination images
+     */
+    protected int[] getDestSlots() {
+        if (destSlots == null) {
+            int[] slots;
+            if (destImageNames.isEmpty()) {
+                String[] names = getDestinationVarNames();
+                int[] found = new int[names.length];
+                int n = 0;
+                for (int i = 0; i < names.length; i++) {
+                    int slot = getImageVarIndex(names[i]);
+                    if (slot >= 0) {
+                        found[n++] = slot;
+                    }
+                }
+                slots = new int[n];
+                System.arraycopy(found, 0, slots, 0, n);
+                Arrays.sort(slots);
+                
+            } else {
+                slots = new int[destImageNames.size()];
+                for (int i = 0; i < slots.length; i++) {
+                    String name = (String) destImageNames.get(i);
+                    slots[i] = getImageVarIndex(name);
+                    if (slots[i] < 0) {
+                        throw new JiffleRuntimeException(
+                                "Not a destination image variable: " + name);
+                    }
+                }
+            }
+            
+            if (slots.length == 0) {
+                throw new JiffleRuntimeException("No destination images defined");
+            }
+            destSlots = slots;
+        }
+        
+        return destSlots;
+    }
+
+    /**
+     * Evaluates the script for a block of destination pixels, reading source
+     * values from rasters which have already been fetched for the block. 
+     * The destination pixel coordinates are used as world positions, as is
+     * the case when the processing area is defined in destination image 
+     * space with unit resolution. Source values are read from the rasters
+     * using each source image's coordinate transform. 
+     * <p>
+     * Source positions outside the bounds of a raster take the value of the
+     * <i>outside</i> option if set; otherwise an exception is thrown, so the
+     * rasters should cover all positions read by the script for the block.
+     * <p>
+     * Each row of the block is passed to {@link #evaluateRow}. The rasters
+     * are only referenced by this object for the duration of the call.
+     * 
+     * @param sources source rasters, in the order in which the source 
+     *        images were set with {@code setSourceImage}; an element may be
+     *        {@code null} if no data from that source is available for 
+     *        the block, in which case reads take the <i>outside</i> value
+     * @param dest raster to receive the results, with one band for each
+     *        destination image; all bands are written in a single pass
+     * @param destRect the block of destination pixels to evaluate
+     * 
+     * @throws JiffleRuntimeException if the number of rasters does not match
+     *         the number of source images, or a position outside a raster is
+     *         read and the <i>outside</i> option is not set
+     */
+    public void evaluateBlock(Raster[] sources, WritableRaster dest, Rectangle destRect) {
+        final int numDest = getDestSlots().length;
+        if (dest.getNumBands() < numDest) {
+            throw new JiffleRuntimeException(String.format(
+                    "Destination raster has %d bands but there are %d destination images", 
+                    dest.getNumBands(), numDest));
+        }
+        
+        final int numSources = sources == null ? 0 : sources.length;
+        if (numSources != sourceImageNames.size()) {
+            throw new JiffleRuntimeException(String.format(
+                    "Expected %d source rasters but got %d", 
+                    sourceImageNames.size(), numSources));
+        }
+        
+        if (!_imageScopeVarsInitialized) {
+            initImageScopeVars();
+        }
+        
+        rasterTable = new Raster[getNumImageVars()];
+        for (int i = 0; i < numSources; i++) {
+            rasterTable[getImageVarIndex((String) sourceImageNames.get(i))] = sources[i];
+        }
+        
+        final long startTime = System.nanoTime();
+        try {
+            final int endX = destRect.x + destRect.width;
+            final int endY = destRect.y + destRect.height;
+            for (int y = destRect.y; y < endY; y++) {
+                evaluateRow(dest, y, destRect.x, endX);
+            }
+            
+        } finally {
+            rasterTable = new Raster[0];
+        }
+        
+        publishMetrics();
+        RuntimeMetrics.getInstance().recordTask(
+                (long) destRect.width * destRect.height, System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Evaluates the script for a span of pixels in a row of a block and 
+     * writes the results to the destination raster, one band per destination
+     * image. This is called by {@link #evaluateBlock} after the source 
+     * rasters have been set.
+     * 
+     * @param dest raster to receive the results
+     * @param y row (Y ordinate)
+     * @param startX first X ordinate (inclusive)
+     * @param endX last X ordinate (exclusive)
+     */
+    protected void evaluateRow(WritableRaster dest, int y, int startX, int endX) {
+        final int[] slots = getDestSlots();
+        final int w = endX - startX;
+        final double[][] rows = new double[slots.length][w];
+        
+        for (int i = 0; i < w; i++) {
+            evaluatePixel(startX + i, y);
+            for (int b = 0; b < slots.length; b++) {
+                rows[b][i] = _destValues[slots[b]];
+            }
+        }
+        
+        for (int b = 0; b < slots.length; b++) {
+            dest.setSamples(startX, y, w, 1, b, rows[b]);
+        }
+        destWriteCount += (long) w * slots.length;
+    }
+
+    /**
+     * Gets a value from a source image as a double. This is called by the
+     * generated runtime code while a block is being evaluated with
+     * {@link #evaluateBlock}.
+     * 
+     * @param srcImageName the source image
+     * @param x source X ordinate in world units
+     * @param y source Y ordinate in world units
+     * @param band source band
+     * 
+     * @return image value
+     */
+    public double readFromImage(String srcImageName, double x, double y, int band) {
+        return readFromImage(getImageVarIndex(srcImageName), x, y, band);
+    }
+
+    /**
+     * Gets a value from a source image as a double. This is equivalent
+     * to {@link #readFromImage(String, double, double, int)} but identifies
+     * the image by its slot, which is how generated runtime code refers 
+     * to images.
+     * 
+     * @param srcImageIndex slot of the source image
+     * @param x source X ordinate in world units
+     * @param y source Y ordinate in world units
+     * @param band source band
+     * 
+     * @return image value
+     */
+    public double readFromImage(int srcImageIndex, double x, double y, int band) {
+        Raster raster = srcImageIndex < rasterTable.length ? rasterTable[srcImageIndex] : null;
+        sourceReadCount++ ;
+        if (raster == null && srcImageIndex < rasterTable.length && _outsideValueSet) {
+            // no source data for this block, e.g. because the block is 
+            // beyond the source bounds
+            outsideHitCount++ ;
+            return _outsideValue;
+        }
+        
+        if (raster == null) {
+            throw new JiffleRuntimeException(
+                    "No source data for image " + getImageVarName(srcImageIndex) 
+                    + ": source values can only be read by evaluateBlock");
+        }
+        
+        CoordinateTransform tr = getTransform(srcImageIndex);
+        final int imgX = CoordinateTransforms.worldToImageX(tr, x, y);
+        final int imgY = CoordinateTransforms.worldToImageY(tr, x, y);
+        
+        if (imgX < raster.getMinX() || imgX >= raster.getMinX() + raster.getWidth() ||
+            imgY < raster.getMinY() || imgY >= raster.getMinY() + raster.getHeight()) {
+            
+            if (_outsideValueSet) {
+                outsideHitCount++ ;
+                return _outsideValue;
+            } else {
+                throw new JiffleRuntimeException( String.format(
+                        "Position %.4f %.4f is outside bounds of image: %s", 
+                        x, y, getImageVarName(srcImageIndex)));
+            }
+        }
+        
+        return raster.getSampleDouble(imgX, imgY, band);
+    }
+    
+    /**
+     * Adds the counts of source reads, destination values and outside-value
+     * hits made by this object since the last call to the 
+     * {@link RuntimeMetrics} totals. This is called when 
+     * {@code evaluateBlock} completes.
+     */
+    protected void publishMetrics() {
+        RuntimeMetrics.getInstance().addCounts(sourceReadCount, destWriteCount, outsideHitCount);
+        sourceReadCount = 0;
+        destWriteCount = 0;
+        outsideHitCount = 0;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also copies the names of the source and destination images.
+     */
+    @Override
+    protected void copyStateTo(AbstractJiffleRuntime other) {
+        super.copyStateTo(other);
+        
+        if (other instanceof AbstractIndirectRuntime) {
+            AbstractIndirectRuntime indirect = (AbstractIndirectRuntime) other;
+            indirect.sourceImageNames = new ArrayList(sourceImageNames);
+            indirect.destImageNames = new ArrayList(destImageNames);
+            indirect.destSlots = null;
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also removes the names of the source and destination images.
+     */
+    @Override
+    protected void clearCopiedState() {
+        super.clearCopiedState();
+        sourceImageNames.clear();
+        destImageNames.clear();
+        destSlots = null;
+    }
+
 }
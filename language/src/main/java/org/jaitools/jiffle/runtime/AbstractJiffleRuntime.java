@@ -24,8 +24,10 @@
  */   
 package org.jaitools.jiffle.runtime;
 
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -66,6 +68,10 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
     /** Number of pixels calculated from bounds and pixel dimensions. */
     private long _numPixels;
     
+    /* Number of pixel columns and rows in the processing area */
+    private int _numCols;
+    private int _numRows;
+    
     private class TransformInfo {
         CoordinateTransform transform;
         boolean isDefault;
@@ -77,8 +83,20 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
      */
     private CoordinateTransform _defaultTransform = new IdentityCoordinateTransform();
     
-    /** World to image coordinate transforms with image name as key. */
-    private Map<String, TransformInfo> _transformLookup;
+    /** 
+     * Image variable names. The position of a name in this array is the
+     * image index (slot) used by runtime source to refer to the image.
+     */
+    private String[] _imageVarNames = new String[0];
+    
+    /** World to image coordinate transforms indexed by image slot. */
+    private TransformInfo[] _transforms = new TransformInfo[0];
+    
+    /** 
+     * Source image read footprints indexed by image slot. Each is an
+     * array: {min x offset, max x offset, min y offset, max y offset}.
+     */
+    private int[][] _footprints = new int[0][];
 
     /** 
      * Holds information about an image-scope variable. 
@@ -136,9 +154,12 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
     protected double _outsideValue;
 
     /** 
-     * A stack of integer values used in the evaluation of if statements.
+     * The sign code for a {@code Double.NaN} conditional value. Generated
+     * code compares the result of {@link JiffleFunctions#signInt(double)}
+     * with this constant. It is public because the Janino compiler does
+     * not allow generated classes to access protected static fields.
      */
-    protected IntegerStack _stk;
+    public static final int SIGN_NAN = JiffleFunctions.SIGN_NAN;
     
     /** 
      * Provides runtime function support.
@@ -147,13 +168,11 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
 
     /**
      * Creates a new instance of this class and initializes its 
-     * {@link JiffleFunctions} and {@link IntegerStack} objects.
+     * {@link JiffleFunctions} object.
      */
     public AbstractJiffleRuntime() {
         _FN = new JiffleFunctions();
-        _stk = new IntegerStack();
         
-        _transformLookup = new HashMap<String, TransformInfo>();
         _xres = Double.NaN;
         _yres = Double.NaN;
     }
@@ -170,6 +189,23 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
         }
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    public JiffleRuntime copy() {
+        AbstractJiffleRuntime copy;
+        try {
+            copy = getClass().newInstance();
+        } catch (Exception ex) {
+            throw new JiffleRuntimeException(
+                    "Unable to create a copy of the runtime object", ex);
+        }
+        
+        copyStateTo(copy);
+        copy.clearCopiedState();
+        return copy;
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -327,6 +363,122 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
         return _numPixels;
     }
     
+    /**
+     * Gets the number of pixel columns in the processing area.
+     * 
+     * @return number of columns
+     * @throws IllegalStateException if the processing area has not been set
+     */
+    protected int getNumCols() {
+        if (!_worldSet) {
+            throw new IllegalStateException("Processing area has not been set");
+        }
+        return _numCols;
+    }
+    
+    /**
+     * Gets the number of pixel rows in the processing area.
+     * 
+     * @return number of rows
+     * @throws IllegalStateException if the processing area has not been set
+     */
+    protected int getNumRows() {
+        if (!_worldSet) {
+            throw new IllegalStateException("Processing area has not been set");
+        }
+        return _numRows;
+    }
+    
+    /**
+     * Gets the world X ordinate of a pixel column in the processing area.
+     * The value is calculated directly from the column index, rather than
+     * by accumulating pixel widths, so that there is no floating point drift
+     * across the processing area.
+     * 
+     * @param col column index (0 is the first column)
+     * @return world X ordinate
+     */
+    protected double getWorldX(int col) {
+        return _worldBounds.getMinX() + col * _xres;
+    }
+    
+    /**
+     * Gets the world Y ordinate of a pixel row in the processing area.
+     * See {@link #getWorldX(int)} for details.
+     * 
+     * @param row row index (0 is the first row)
+     * @return world Y ordinate
+     */
+    protected double getWorldY(int row) {
+        return _worldBounds.getMinY() + row * _yres;
+    }
+    
+    /**
+     * Copies the processing area, image variables and their transforms,
+     * image-scope variable values and option values from this object
+     * to another instance of the same runtime class. This is used to 
+     * create runtime objects with their own state for use by separate
+     * threads.
+     * 
+     * @param other the runtime object to receive the copied state
+     */
+    protected void copyStateTo(AbstractJiffleRuntime other) {
+        if (_imageParams != null) {
+            other.setImageParams(_imageParams);
+        }
+        
+        other._worldBounds = _worldBounds;
+        other._xres = _xres;
+        other._yres = _yres;
+        other._numCols = _numCols;
+        other._numRows = _numRows;
+        other._numPixels = _numPixels;
+        other._worldSet = _worldSet;
+        
+        other._defaultTransform = _defaultTransform;
+        other._imageVarNames = new String[_imageVarNames.length];
+        System.arraycopy(_imageVarNames, 0, other._imageVarNames, 0, _imageVarNames.length);
+        
+        other._transforms = new TransformInfo[_transforms.length];
+        for (int i = 0; i < _transforms.length; i++) {
+            if (_transforms[i] != null) {
+                TransformInfo info = new TransformInfo();
+                info.transform = _transforms[i].transform;
+                info.isDefault = _transforms[i].isDefault;
+                other._transforms[i] = info;
+            }
+        }
+        
+        other._vars = new ImageScopeVar[_vars.length];
+        for (int i = 0; i < _numVars; i++) {
+            ImageScopeVar var = new ImageScopeVar(_vars[i].name, _vars[i].hasDefaultValue);
+            var.isSet = _vars[i].isSet;
+            var.value = _vars[i].value;
+            other._vars[i] = var;
+        }
+        other._numVars = _numVars;
+        other._imageScopeVarsInitialized = _imageScopeVarsInitialized;
+        
+        other._outsideValueSet = _outsideValueSet;
+        other._outsideValue = _outsideValue;
+    }
+    
+    /**
+     * Clears the state, copied by {@link #copyStateTo(AbstractJiffleRuntime)},
+     * which a copy made with {@link #copy()} does not share with the original:
+     * image-scope variables are returned to their initial values and
+     * image transforms are removed. Image slots are kept. Sub-classes which
+     * copy image associations should override this method to remove them.
+     */
+    protected void clearCopiedState() {
+        Arrays.fill(_transforms, null);
+        
+        for (int i = 0; i < _numVars; i++) {
+            _vars[i].isSet = false;
+        }
+        _imageScopeVarsInitialized = false;
+    }
+    
     /**
      * Sets a coordinate transform to use with the image represented by
      * {@code imageVarName}.
@@ -354,7 +506,8 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
             info.isDefault = false;
         }
         
-        _transformLookup.put(imageVarName, info);
+        int index = registerImageVar(imageVarName);
+        _transforms[index] = info;
     }
 
     /**
@@ -373,17 +526,13 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
         }
         _defaultTransform = tr;
         
-        for (String name : _transformLookup.keySet()) {
-            TransformInfo info = _transformLookup.get(name);
-            if (info.isDefault) {
+        for (TransformInfo info : _transforms) {
+            if (info != null && info.isDefault) {
                 info.transform = _defaultTransform;
-                _transformLookup.put(name, info);
             }
         }
     }
     
-    
-    
     /**
      * Gets the coordinate transform to use with the image represented by
      * {@code imageVarName}.
@@ -393,7 +542,140 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
      * @return the coordinate transform
      */
     protected CoordinateTransform getTransform(String imageVarName) {
-        return _transformLookup.get(imageVarName).transform;
+        return getTransform(getImageVarIndex(imageVarName));
+    }
+
+    /**
+     * Gets the coordinate transform to use with the image in the 
+     * given slot.
+     * 
+     * @param index image slot
+     * 
+     * @return the coordinate transform
+     */
+    protected CoordinateTransform getTransform(int index) {
+        return _transforms[index].transform;
+    }
+    
+    /**
+     * Registers an image variable and returns its index (slot). 
+     * Runtime source refers to images by slot rather than by name to 
+     * avoid a lookup for each pixel read or write. If the variable is 
+     * already registered its existing slot is returned.
+     * 
+     * @param name image variable name
+     * 
+     * @return the image slot
+     */
+    protected int registerImageVar(String name) {
+        int index = getImageVarIndex(name);
+        if (index < 0) {
+            index = _imageVarNames.length;
+            
+            String[] names = new String[index + 1];
+            System.arraycopy(_imageVarNames, 0, names, 0, index);
+            names[index] = name;
+            _imageVarNames = names;
+            
+            TransformInfo[] transforms = new TransformInfo[index + 1];
+            System.arraycopy(_transforms, 0, transforms, 0, index);
+            _transforms = transforms;
+        }
+        
+        return index;
+    }
+    
+    /**
+     * Gets the index (slot) of an image variable.
+     * 
+     * @param name image variable name
+     * 
+     * @return the slot or -1 if the variable is not registered
+     */
+    protected int getImageVarIndex(String name) {
+        for (int i = 0; i < _imageVarNames.length; i++) {
+            if (_imageVarNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Gets the name of the image variable in the given slot.
+     * 
+     * @param index image slot
+     * 
+     * @return the variable name
+     */
+    protected String getImageVarName(int index) {
+        return _imageVarNames[index];
+    }
+    
+    /**
+     * Gets the number of registered image variables.
+     * 
+     * @return number of image slots
+     */
+    protected int getNumImageVars() {
+        return _imageVarNames.length;
+    }
+    
+    /**
+     * Registers the extent of the pixel offsets, relative to the pixel
+     * being evaluated, at which the script reads a source image. This is
+     * called from the constructor of runtime classes. An unbounded extent,
+     * for reads at absolute or non-constant positions, is given as
+     * {@code Integer.MIN_VALUE} and {@code Integer.MAX_VALUE}.
+     * 
+     * @param imageIndex source image slot
+     * @param minDX minimum X offset
+     * @param maxDX maximum X offset
+     * @param minDY minimum Y offset
+     * @param maxDY maximum Y offset
+     */
+    protected void registerSourceFootprint(int imageIndex, 
+            int minDX, int maxDX, int minDY, int maxDY) {
+        
+        if (_footprints.length <= imageIndex) {
+            int[][] footprints = new int[imageIndex + 1][];
+            System.arraycopy(_footprints, 0, footprints, 0, _footprints.length);
+            _footprints = footprints;
+        }
+        
+        _footprints[imageIndex] = new int[] {minDX, maxDX, minDY, maxDY};
+    }
+    
+    /**
+     * Gets the read footprint of a source image: the rectangle of pixel 
+     * offsets, relative to the pixel being evaluated, at which the script 
+     * reads the image. For example, a script which only reads the source
+     * pixel at the position being evaluated has the footprint 
+     * {@code (0, 0, 1, 1)}, while one which reads a 3x3 neighbourhood has 
+     * the footprint {@code (-1, -1, 3, 3)}. 
+     * 
+     * @param varName source image variable name
+     * 
+     * @return the footprint; an empty rectangle if the script does not read
+     *         the image; or {@code null} if the footprint is unbounded 
+     *         because the script reads the image at absolute or 
+     *         non-constant positions
+     */
+    public Rectangle getSourceFootprint(String varName) {
+        int index = getImageVarIndex(varName);
+        int[] extent = index >= 0 && index < _footprints.length ? _footprints[index] : null;
+        
+        if (extent == null) {
+            return new Rectangle();
+        }
+        
+        if (extent[0] == Integer.MIN_VALUE || extent[1] == Integer.MAX_VALUE ||
+            extent[2] == Integer.MIN_VALUE || extent[3] == Integer.MAX_VALUE) {
+            return null;
+        }
+        
+        return new Rectangle(extent[0], extent[2], 
+                extent[1] - extent[0] + 1, extent[3] - extent[2] + 1);
     }
 
     /**
@@ -520,6 +802,10 @@ public abstract class AbstractJiffleRuntime implements JiffleRuntime {
         _xres = xres;
         _yres = yres;
         
+        _numCols = (int) Math.ceil(bounds.getWidth() / xres - EPS);
+        _numRows = (int) Math.ceil(bounds.getHeight() / yres - EPS);
+        _numPixels = (long) _numCols * _numRows;
+        
         _worldSet = true;
     }
     
@@ -27,7 +27,6 @@ package org.jaitools.jiffle.runtime;
 
 import java.awt.Point;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Point2D;
 
 /**
  * Wraps an AffineTransform object for use as a Jiffle {@link CoordinateTransform}.
@@ -36,9 +35,11 @@ import java.awt.geom.Point2D;
  * @since 0.1
  * @version $Id$
  */
-public class AffineCoordinateTransform implements CoordinateTransform {
+public class AffineCoordinateTransform extends AbstractCoordinateTransform {
     private final AffineTransform affine;
-    private Point2D p2D;
+    
+    /* Matrix elements cached for the primitive transform methods */
+    private final double m00, m01, m02, m10, m11, m12;
 
     /**
      * Creates a new instance to wrap the given {@code AffineTransform}. If
@@ -49,24 +50,46 @@ public class AffineCoordinateTransform implements CoordinateTransform {
      */
     public AffineCoordinateTransform(AffineTransform affine) {
         this.affine = affine == null ? new AffineTransform() : new AffineTransform(affine);
-        p2D = new Point2D.Double();
+        
+        m00 = this.affine.getScaleX();
+        m01 = this.affine.getShearX();
+        m02 = this.affine.getTranslateX();
+        m10 = this.affine.getShearY();
+        m11 = this.affine.getScaleY();
+        m12 = this.affine.getTranslateY();
     }
 
     /**
      * {@inheritDoc}
      */
     public Point worldToImage(double x, double y, Point p) {
-        p2D.setLocation(x, y);
-        affine.transform(p2D, p2D);
+        int xi = worldToImageX(x, y);
+        int yi = worldToImageY(x, y);
         
         if (p != null) {
-            p.x = (int) Math.round(p2D.getX());
-            p.y = (int) Math.round(p2D.getY());
+            p.x = xi;
+            p.y = yi;
         } else {
-            p = new Point((int) Math.round(p2D.getX()), (int) Math.round(p2D.getY()));
+            p = new Point(xi, yi);
         }
         
         return p;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageX(double x, double y) {
+        return (int) Math.round(m00 * x + m01 * y + m02);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageY(double x, double y) {
+        return (int) Math.round(m10 * x + m11 * y + m12);
+    }
     
 }
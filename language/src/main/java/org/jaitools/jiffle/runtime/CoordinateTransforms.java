@@ -56,7 +56,7 @@ public class CoordinateTransforms {
      * @return a new transform instance
      */
     public static CoordinateTransform scale(double xscale, double yscale) {
-        return new AffineCoordinateTransform(AffineTransform.getScaleInstance(xscale, yscale));
+        return getTransform(AffineTransform.getScaleInstance(xscale, yscale));
     }
     
     /**
@@ -68,7 +68,7 @@ public class CoordinateTransforms {
      * @return a new transform instance
      */
     public static CoordinateTransform translation(double dx, double dy) {
-        return new AffineCoordinateTransform(AffineTransform.getTranslateInstance(dx, dy));
+        return getTransform(AffineTransform.getTranslateInstance(dx, dy));
     }
 
     /**
@@ -158,6 +158,74 @@ public class CoordinateTransforms {
         }
         
         
-        return new AffineCoordinateTransform(new AffineTransform(xscale, 0, 0, yscale, xoff, yoff));
+        return getTransform(new AffineTransform(xscale, 0, 0, yscale, xoff, yoff));
+    }
+    
+    /**
+     * Gets a transform equivalent to the given {@code AffineTransform}. 
+     * If {@code affine} is an identity transform, or only involves
+     * scaling and translation, a specialized transform object is returned
+     * which is faster than a general {@link AffineCoordinateTransform}.
+     * 
+     * @param affine the affine transform
+     * 
+     * @return a new transform instance
+     * 
+     * @throws IllegalArgumentException if {@code affine} is {@code null}
+     */
+    public static CoordinateTransform getTransform(AffineTransform affine) {
+        if (affine == null) {
+            throw new IllegalArgumentException("affine must not be null");
+        }
+        
+        if (affine.isIdentity()) {
+            return new IdentityCoordinateTransform();
+        }
+        
+        if (affine.getShearX() == 0 && affine.getShearY() == 0) {
+            return new ScaleTranslateCoordinateTransform(
+                    affine.getScaleX(), affine.getScaleY(),
+                    affine.getTranslateX(), affine.getTranslateY());
+        }
+        
+        return new AffineCoordinateTransform(affine);
+    }
+    
+    /**
+     * Converts from world to image coordinates with the given transform and
+     * returns the image X ordinate. If {@code tr} is an
+     * {@link AbstractCoordinateTransform} this does not create any objects;
+     * otherwise it calls {@link CoordinateTransform#worldToImage(double, double, java.awt.Point)}.
+     * 
+     * @param tr the transform
+     * @param x world X ordinate
+     * @param y world Y ordinate
+     * 
+     * @return image X ordinate
+     */
+    public static int worldToImageX(CoordinateTransform tr, double x, double y) {
+        if (tr instanceof AbstractCoordinateTransform) {
+            return ((AbstractCoordinateTransform) tr).worldToImageX(x, y);
+        }
+        return tr.worldToImage(x, y, null).x;
+    }
+    
+    /**
+     * Converts from world to image coordinates with the given transform and
+     * returns the image Y ordinate. If {@code tr} is an
+     * {@link AbstractCoordinateTransform} this does not create any objects;
+     * otherwise it calls {@link CoordinateTransform#worldToImage(double, double, java.awt.Point)}.
+     * 
+     * @param tr the transform
+     * @param x world X ordinate
+     * @param y world Y ordinate
+     * 
+     * @return image Y ordinate
+     */
+    public static int worldToImageY(CoordinateTransform tr, double x, double y) {
+        if (tr instanceof AbstractCoordinateTransform) {
+            return ((AbstractCoordinateTransform) tr).worldToImageY(x, y);
+        }
+        return tr.worldToImage(x, y, null).y;
     }
 }
@@ -0,0 +1,223 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+/**
+ * A growable list of primitive {@code double} values. This is the runtime
+ * type of Jiffle list variables and list literals. It avoids the boxing
+ * and unboxing which would be involved in using a {@code java.util.List}
+ * of {@code Double} values.
+ * <p>
+ * Only the methods needed by runtime classes and {@link JiffleFunctions}
+ * are provided.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class DoubleList {
+    
+    private static final int DEFAULT_CAPACITY = 10;
+    
+    private double[] data;
+    private int size;
+
+    /**
+     * Creates a new, empty list.
+     */
+    public DoubleList() {
+        data = new double[DEFAULT_CAPACITY];
+        size = 0;
+    }
+    
+    /**
+     * Creates a new list containing the given values. The array is used
+     * directly as the initial storage for the list rather than being copied,
+     * so the caller should not modify it subsequently.
+     * 
+     * @param values initial values
+     */
+    public DoubleList(double[] values) {
+        data = values;
+        size = values.length;
+    }
+    
+    /**
+     * Creates a new list as a copy of an existing list.
+     * 
+     * @param other the list to copy
+     */
+    public DoubleList(DoubleList other) {
+        data = new double[Math.max(other.size, DEFAULT_CAPACITY)];
+        System.arraycopy(other.data, 0, data, 0, other.size);
+        size = other.size;
+    }
+    
+    /**
+     * Gets the number of values in the list.
+     * 
+     * @return list size
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Tests if the list is empty.
+     * 
+     * @return {@code true} if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Gets a value.
+     * 
+     * @param index position in the list
+     * @return the value
+     * @throws IndexOutOfBoundsException if {@code index} is out of range
+     */
+    public double get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return data[index];
+    }
+    
+    /**
+     * Appends a value to the end of the list.
+     * 
+     * @param value the value
+     * @return {@code true} (for consistency with {@code java.util.List})
+     */
+    public boolean add(double value) {
+        ensureCapacity(size + 1);
+        data[size++] = value;
+        return true;
+    }
+    
+    /**
+     * Appends all values from another list to the end of this list.
+     * 
+     * @param other the list to append
+     * @return {@code true} if this list was changed
+     */
+    public boolean addAll(DoubleList other) {
+        final int n = other.size;
+        ensureCapacity(size + n);
+        System.arraycopy(other.data, 0, data, size, n);
+        size += n;
+        return n > 0;
+    }
+    
+    /**
+     * Removes all values from the list.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copies the values in this list to a new array.
+     * 
+     * @return a new array
+     */
+    public double[] toArray() {
+        double[] values = new double[size];
+        System.arraycopy(data, 0, values, 0, size);
+        return values;
+    }
+
+    /**
+     * Tests if another object is a {@code DoubleList} with the same values
+     * as this list.
+     * 
+     * @param obj the other object
+     * @return {@code true} if equal
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DoubleList)) {
+            return false;
+        }
+        
+        DoubleList other = (DoubleList) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Double.doubleToLongBits(data[i]) != Double.doubleToLongBits(other.data[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes a hash code from the values in the list.
+     * 
+     * @return hash code
+     */
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToLongBits(data[i]);
+            hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the list values in the same format as {@code java.util.List}.
+     * 
+     * @return values as a string
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(data[i]);
+        }
+        return sb.append("]").toString();
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            int newCapacity = Math.max(capacity, data.length * 3 / 2 + 1);
+            double[] temp = new double[newCapacity];
+            System.arraycopy(data, 0, temp, 0, size);
+            data = temp;
+        }
+    }
+}
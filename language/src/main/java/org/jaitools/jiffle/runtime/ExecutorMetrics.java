@@ -0,0 +1,158 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Task metrics for a {@link JiffleExecutor}: queue depth, running tasks,
+ * completed and failed counts and a histogram of task run times. An 
+ * executor publishes its metrics as an MBean, named 
+ * {@code org.jaitools.jiffle:type=JiffleExecutor,name=executor-N}, when
+ * {@link JiffleExecutor#publishMetrics()} is called and JMX publication
+ * is enabled in the Jiffle properties. The MBean is removed when the 
+ * executor has shut down.
+ * <p>
+ * All methods are thread-safe.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ExecutorMetrics implements ExecutorMetricsMBean {
+    
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong startedSinceReset = new AtomicLong();
+    private final AtomicLong queueNanos = new AtomicLong();
+    
+    private final LatencyHistogram taskTimes = new LatencyHistogram();
+    
+    /**
+     * Records submission of a task.
+     */
+    void taskSubmitted() {
+        submitted.incrementAndGet();
+    }
+    
+    /**
+     * Records the start of a task.
+     * 
+     * @param submitNanos value of {@code System.nanoTime()} when the task
+     *        was submitted
+     * 
+     * @return value of {@code System.nanoTime()} at the start of the task
+     */
+    long taskStarted(long submitNanos) {
+        long now = System.nanoTime();
+        started.incrementAndGet();
+        startedSinceReset.incrementAndGet();
+        queueNanos.addAndGet(now - submitNanos);
+        return now;
+    }
+    
+    /**
+     * Records the end of a task.
+     * 
+     * @param startNanos value returned by {@link #taskStarted(long)}
+     * @param success whether the task completed successfully
+     */
+    void taskFinished(long startNanos, boolean success) {
+        taskTimes.record(System.nanoTime() - startNanos);
+        if (success) {
+            completed.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Gets the histogram of task run times.
+     * 
+     * @return the histogram
+     */
+    public LatencyHistogram getTaskTimes() {
+        return taskTimes;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getQueueDepth() {
+        return Math.max(0, submitted.get() - started.get());
+    }
+
+    public long getActiveCount() {
+        return Math.max(0, started.get() - completed.get() - failed.get());
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public double getMeanQueueTime() {
+        long n = startedSinceReset.get();
+        return n == 0 ? 0 : queueNanos.get() / 1.0e6 / n;
+    }
+
+    public double getMeanTaskTime() {
+        return taskTimes.getMean();
+    }
+
+    public double getMaxTaskTime() {
+        return taskTimes.getMax();
+    }
+
+    public double getMedianTaskTime() {
+        return taskTimes.getPercentile(50);
+    }
+
+    public double get95thPercentileTaskTime() {
+        return taskTimes.getPercentile(95);
+    }
+
+    public long[] getTaskTimeBucketBounds() {
+        return taskTimes.getBucketBounds();
+    }
+
+    public long[] getTaskTimeHistogram() {
+        return taskTimes.getCounts();
+    }
+
+    public void reset() {
+        taskTimes.reset();
+        startedSinceReset.set(0);
+        queueNanos.set(0);
+    }
+    
+}
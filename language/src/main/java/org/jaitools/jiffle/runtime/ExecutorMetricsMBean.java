@@ -0,0 +1,129 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+/**
+ * Management interface for {@link ExecutorMetrics}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public interface ExecutorMetricsMBean {
+    
+    /**
+     * Gets the number of tasks submitted.
+     * 
+     * @return number of tasks
+     */
+    long getSubmittedCount();
+    
+    /**
+     * Gets the number of tasks waiting for a thread.
+     * 
+     * @return number of tasks
+     */
+    long getQueueDepth();
+    
+    /**
+     * Gets the number of tasks currently running.
+     * 
+     * @return number of tasks
+     */
+    long getActiveCount();
+    
+    /**
+     * Gets the number of tasks completed successfully.
+     * 
+     * @return number of tasks
+     */
+    long getCompletedCount();
+    
+    /**
+     * Gets the number of tasks which failed.
+     * 
+     * @return number of tasks
+     */
+    long getFailedCount();
+    
+    /**
+     * Gets the mean time that tasks waited in the queue before starting.
+     * 
+     * @return time in milliseconds
+     */
+    double getMeanQueueTime();
+    
+    /**
+     * Gets the mean run time of finished tasks.
+     * 
+     * @return time in milliseconds
+     */
+    double getMeanTaskTime();
+    
+    /**
+     * Gets the longest run time of a finished task.
+     * 
+     * @return time in milliseconds
+     */
+    double getMaxTaskTime();
+    
+    /**
+     * Gets the approximate median run time of finished tasks.
+     * 
+     * @return time in milliseconds
+     */
+    double getMedianTaskTime();
+    
+    /**
+     * Gets the approximate 95th percentile run time of finished tasks.
+     * 
+     * @return time in milliseconds
+     */
+    double get95thPercentileTaskTime();
+    
+    /**
+     * Gets the upper bounds of the task run time histogram buckets.
+     * 
+     * @return bounds in milliseconds
+     * @see LatencyHistogram#getBucketBounds()
+     */
+    long[] getTaskTimeBucketBounds();
+    
+    /**
+     * Gets the task run time histogram counts.
+     * 
+     * @return counts
+     * @see LatencyHistogram#getCounts()
+     */
+    long[] getTaskTimeHistogram();
+    
+    /**
+     * Discards recorded queue and run times. Task counts are cumulative
+     * and are not affected.
+     */
+    void reset();
+    
+}
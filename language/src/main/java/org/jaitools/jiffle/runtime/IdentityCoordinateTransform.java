@@ -37,7 +37,7 @@ import java.awt.Point;
  * @since 0.1
  * @version $Id$
  */
-public class IdentityCoordinateTransform implements CoordinateTransform {
+public class IdentityCoordinateTransform extends AbstractCoordinateTransform {
     
     /**
      * {@inheritDoc}
@@ -52,4 +52,20 @@ public class IdentityCoordinateTransform implements CoordinateTransform {
         }
         return p;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageX(double x, double y) {
+        return (int) Math.round(x);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageY(double x, double y) {
+        return (int) Math.round(y);
+    }
 }
@@ -0,0 +1,558 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.awt.image.WritableRenderedImage;
+
+/**
+ * Provides read or write access to image samples for direct runtime objects.
+ * The tile containing the most recently accessed pixel is cached, and
+ * the image is only asked for another tile when a pixel position falls
+ * outside the cached tile. Where the tile has a {@link ComponentSampleModel}
+ * (which includes pixel interleaved and banded layouts) samples are read 
+ * and written directly in the data bank arrays. Otherwise the tile 
+ * {@code Raster} methods are used.
+ * <p>
+ * An instance is not thread-safe: each runtime object creates its own.
+ * When writing, the current tile is held as a writable tile of the image 
+ * until {@link #release()} is called or another tile is accessed.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ImageTileAccessor {
+    
+    private final RenderedImage image;
+    private final WritableRenderedImage writableImage;
+    
+    /* Image bounds (max values are exclusive) */
+    private final int minX, minY, maxX, maxY;
+    
+    /* Tile grid */
+    private final int tileWidth, tileHeight, tileGridXOffset, tileGridYOffset;
+    
+    /* Current tile index and bounds (max values are exclusive) */
+    private boolean haveTile;
+    private int tileX, tileY;
+    private int tileMinX, tileMinY, tileMaxX, tileMaxY;
+    
+    private Raster raster;
+    private WritableRaster writableRaster;
+    
+    /* Fields used for direct access to the tile data arrays */
+    private boolean direct;
+    private int dataType;
+    private int smTranslateX, smTranslateY;
+    private int pixelStride, scanlineStride;
+    private int[] bandOffsets;
+    private byte[][] byteData;
+    private short[][] shortData;
+    private int[][] intData;
+    private float[][] floatData;
+    private double[][] doubleData;
+
+    /**
+     * Creates a new instance to read samples from an image.
+     * 
+     * @param image the source image
+     */
+    public ImageTileAccessor(RenderedImage image) {
+        this(image, null);
+    }
+    
+    /**
+     * Creates a new instance to write samples to an image.
+     * 
+     * @param image the destination image
+     */
+    public ImageTileAccessor(WritableRenderedImage image) {
+        this(image, image);
+    }
+    
+    private ImageTileAccessor(RenderedImage image, WritableRenderedImage writableImage) {
+        this.image = image;
+        this.writableImage = writableImage;
+        
+        minX = image.getMinX();
+        minY = image.getMinY();
+        maxX = minX + image.getWidth();
+        maxY = minY + image.getHeight();
+        
+        tileWidth = image.getTileWidth();
+        tileHeight = image.getTileHeight();
+        tileGridXOffset = image.getTileGridXOffset();
+        tileGridYOffset = image.getTileGridYOffset();
+    }
+
+    /**
+     * Gets the image.
+     * 
+     * @return the image
+     */
+    public RenderedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * Tests if a pixel position lies within the image bounds.
+     * 
+     * @param x image X ordinate
+     * @param y image Y ordinate
+     * 
+     * @return {@code true} if the position is inside the image
+     */
+    public boolean contains(int x, int y) {
+        return x >= minX && x < maxX && y >= minY && y < maxY;
+    }
+    
+    /**
+     * Gets a sample value. The position must be within the image bounds.
+     * 
+     * @param x image X ordinate
+     * @param y image Y ordinate
+     * @param band image band
+     * 
+     * @return the sample value
+     */
+    public double getSample(int x, int y, int band) {
+        if (!haveTile || x < tileMinX || x >= tileMaxX || y < tileMinY || y >= tileMaxY) {
+            setTile(x, y);
+        }
+        
+        if (direct) {
+            final int i = (y - smTranslateY) * scanlineStride 
+                    + (x - smTranslateX) * pixelStride + bandOffsets[band];
+            
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    return byteData[band][i] & 0xff;
+                    
+                case DataBuffer.TYPE_USHORT:
+                    return shortData[band][i] & 0xffff;
+                    
+                case DataBuffer.TYPE_SHORT:
+                    return shortData[band][i];
+                    
+                case DataBuffer.TYPE_INT:
+                    return intData[band][i];
+                    
+                case DataBuffer.TYPE_FLOAT:
+                    return floatData[band][i];
+                    
+                default:
+                    return doubleData[band][i];
+            }
+        }
+        
+        return raster.getSampleDouble(x, y, band);
+    }
+    
+    /**
+     * Sets a sample value. The position must be within the image bounds.
+     * Values are converted to the image data type in the same way as
+     * {@link WritableRaster#setSample(int, int, int, double)}.
+     * 
+     * @param x image X ordinate
+     * @param y image Y ordinate
+     * @param band image band
+     * @param value the value to write
+     * 
+     * @throws IllegalStateException if this accessor was created for
+     *         reading only
+     */
+    public void setSample(int x, int y, int band, double value) {
+        if (writableImage == null) {
+            throw new IllegalStateException("Image is not writable");
+        }
+        
+        if (!haveTile || x < tileMinX || x >= tileMaxX || y < tileMinY || y >= tileMaxY) {
+            setTile(x, y);
+        }
+        
+        if (direct) {
+            final int i = (y - smTranslateY) * scanlineStride 
+                    + (x - smTranslateX) * pixelStride + bandOffsets[band];
+            
+            switch (dataType) {
+                case DataBuffer.TYPE_BYTE:
+                    byteData[band][i] = (byte) (int) value;
+                    break;
+                    
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    shortData[band][i] = (short) (int) value;
+                    break;
+                    
+                case DataBuffer.TYPE_INT:
+                    intData[band][i] = (int) value;
+                    break;
+                    
+                case DataBuffer.TYPE_FLOAT:
+                    floatData[band][i] = (float) value;
+                    break;
+                    
+                default:
+                    doubleData[band][i] = value;
+            }
+            
+        } else {
+            writableRaster.setSample(x, y, band, value);
+        }
+    }
+    
+    /**
+     * Gets sample values for a run of pixels in an image row. The run must 
+     * lie within the image bounds but may span several tiles.
+     * 
+     * @param x image X ordinate of the first pixel
+     * @param y image Y ordinate
+     * @param n number of pixels
+     * @param band image band
+     * @param dest array to receive the values
+     * @param destOffset position in {@code dest} for the first value
+     */
+    public void getSamples(int x, int y, int n, int band, double[] dest, int destOffset) {
+        int pos = x;
+        int k = destOffset;
+        final int end = x + n;
+        
+        while (pos < end) {
+            if (!haveTile || pos < tileMinX || pos >= tileMaxX || y < tileMinY || y >= tileMaxY) {
+                setTile(pos, y);
+            }
+            
+            final int runEnd = Math.min(end, tileMaxX);
+            if (direct) {
+                int i = (y - smTranslateY) * scanlineStride 
+                        + (pos - smTranslateX) * pixelStride + bandOffsets[band];
+                
+                switch (dataType) {
+                    case DataBuffer.TYPE_BYTE: {
+                        final byte[] data = byteData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i] & 0xff;
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_USHORT: {
+                        final short[] data = shortData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i] & 0xffff;
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_SHORT: {
+                        final short[] data = shortData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i];
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_INT: {
+                        final int[] data = intData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i];
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_FLOAT: {
+                        final float[] data = floatData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i];
+                        }
+                        break;
+                    }
+                        
+                    default: {
+                        final double[] data = doubleData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            dest[k++] = data[i];
+                        }
+                    }
+                }
+                
+            } else {
+                for (int xx = pos; xx < runEnd; xx++) {
+                    dest[k++] = raster.getSampleDouble(xx, y, band);
+                }
+            }
+            
+            pos = runEnd;
+        }
+    }
+    
+    /**
+     * Sets sample values for a run of pixels in an image row. The run must 
+     * lie within the image bounds but may span several tiles. Values are 
+     * converted as for {@link #setSample(int, int, int, double)}.
+     * 
+     * @param x image X ordinate of the first pixel
+     * @param y image Y ordinate
+     * @param n number of pixels
+     * @param band image band
+     * @param values the values to write
+     * @param offset position in {@code values} of the first value
+     * 
+     * @throws IllegalStateException if this accessor was created for
+     *         reading only
+     */
+    public void setSamples(int x, int y, int n, int band, double[] values, int offset) {
+        if (writableImage == null) {
+            throw new IllegalStateException("Image is not writable");
+        }
+        
+        int pos = x;
+        int k = offset;
+        final int end = x + n;
+        
+        while (pos < end) {
+            if (!haveTile || pos < tileMinX || pos >= tileMaxX || y < tileMinY || y >= tileMaxY) {
+                setTile(pos, y);
+            }
+            
+            final int runEnd = Math.min(end, tileMaxX);
+            if (direct) {
+                int i = (y - smTranslateY) * scanlineStride 
+                        + (pos - smTranslateX) * pixelStride + bandOffsets[band];
+                
+                switch (dataType) {
+                    case DataBuffer.TYPE_BYTE: {
+                        final byte[] data = byteData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            data[i] = (byte) (int) values[k++];
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_USHORT:
+                    case DataBuffer.TYPE_SHORT: {
+                        final short[] data = shortData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            data[i] = (short) (int) values[k++];
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_INT: {
+                        final int[] data = intData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            data[i] = (int) values[k++];
+                        }
+                        break;
+                    }
+                        
+                    case DataBuffer.TYPE_FLOAT: {
+                        final float[] data = floatData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            data[i] = (float) values[k++];
+                        }
+                        break;
+                    }
+                        
+                    default: {
+                        final double[] data = doubleData[band];
+                        for (int xx = pos; xx < runEnd; xx++, i += pixelStride) {
+                            data[i] = values[k++];
+                        }
+                    }
+                }
+                
+            } else {
+                for (int xx = pos; xx < runEnd; xx++) {
+                    writableRaster.setSample(xx, y, band, values[k++]);
+                }
+            }
+            
+            pos = runEnd;
+        }
+    }
+    
+    /**
+     * Releases the current tile. For a writable image this returns the
+     * tile to the image. The accessor can still be used after this method
+     * is called.
+     */
+    public void release() {
+        if (haveTile && writableImage != null) {
+            writableImage.releaseWritableTile(tileX, tileY);
+        }
+        
+        haveTile = false;
+        raster = null;
+        writableRaster = null;
+        byteData = null;
+        shortData = null;
+        intData = null;
+        floatData = null;
+        doubleData = null;
+    }
+    
+    /**
+     * Gets the tile index for an image ordinate.
+     * 
+     * @param pos image ordinate
+     * @param gridOffset tile grid offset
+     * @param tileSize tile width or height
+     * 
+     * @return the tile index
+     */
+    static int tileIndex(int pos, int gridOffset, int tileSize) {
+        int d = pos - gridOffset;
+        return d >= 0 ? d / tileSize : -((tileSize - 1 - d) / tileSize);
+    }
+    
+    /**
+     * Makes the tile containing the given position current.
+     */
+    private void setTile(int x, int y) {
+        release();
+        
+        tileX = tileIndex(x, tileGridXOffset, tileWidth);
+        tileY = tileIndex(y, tileGridYOffset, tileHeight);
+        
+        if (writableImage != null) {
+            writableRaster = writableImage.getWritableTile(tileX, tileY);
+            raster = writableRaster;
+        } else {
+            raster = image.getTile(tileX, tileY);
+        }
+        haveTile = true;
+        
+        tileMinX = raster.getMinX();
+        tileMinY = raster.getMinY();
+        tileMaxX = tileMinX + raster.getWidth();
+        tileMaxY = tileMinY + raster.getHeight();
+        
+        direct = initDirectAccess();
+    }
+    
+    /**
+     * Sets up direct access to the data arrays of the current tile if
+     * its layout allows this.
+     * 
+     * @return {@code true} if direct access is possible
+     */
+    private boolean initDirectAccess() {
+        SampleModel sm = raster.getSampleModel();
+        if (!(sm instanceof ComponentSampleModel)) {
+            return false;
+        }
+        
+        ComponentSampleModel csm = (ComponentSampleModel) sm;
+        DataBuffer db = raster.getDataBuffer();
+        dataType = db.getDataType();
+        if (dataType != csm.getDataType()) {
+            return false;
+        }
+        
+        final int numBands = csm.getNumBands();
+        final int[] banks = csm.getBankIndices();
+        final int[] offsets = csm.getBandOffsets();
+        final int[] dbOffsets = db.getOffsets();
+        
+        bandOffsets = new int[numBands];
+        for (int b = 0; b < numBands; b++) {
+            bandOffsets[b] = offsets[b] + dbOffsets[banks[b]];
+        }
+        
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                if (!(db instanceof DataBufferByte)) return false;
+                byteData = new byte[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    byteData[b] = ((DataBufferByte) db).getData(banks[b]);
+                }
+                break;
+                
+            case DataBuffer.TYPE_USHORT:
+                if (!(db instanceof DataBufferUShort)) return false;
+                shortData = new short[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    shortData[b] = ((DataBufferUShort) db).getData(banks[b]);
+                }
+                break;
+                
+            case DataBuffer.TYPE_SHORT:
+                if (!(db instanceof DataBufferShort)) return false;
+                shortData = new short[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    shortData[b] = ((DataBufferShort) db).getData(banks[b]);
+                }
+                break;
+                
+            case DataBuffer.TYPE_INT:
+                if (!(db instanceof DataBufferInt)) return false;
+                intData = new int[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    intData[b] = ((DataBufferInt) db).getData(banks[b]);
+                }
+                break;
+                
+            case DataBuffer.TYPE_FLOAT:
+                if (!(db instanceof DataBufferFloat)) return false;
+                floatData = new float[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    floatData[b] = ((DataBufferFloat) db).getData(banks[b]);
+                }
+                break;
+                
+            case DataBuffer.TYPE_DOUBLE:
+                if (!(db instanceof DataBufferDouble)) return false;
+                doubleData = new double[numBands][];
+                for (int b = 0; b < numBands; b++) {
+                    doubleData[b] = ((DataBufferDouble) db).getData(banks[b]);
+                }
+                break;
+                
+            default:
+                return false;
+        }
+        
+        smTranslateX = raster.getSampleModelTranslateX();
+        smTranslateY = raster.getSampleModelTranslateY();
+        pixelStride = csm.getPixelStride();
+        scanlineStride = csm.getScanlineStride();
+        
+        return true;
+    }
+}
@@ -30,10 +30,15 @@ package org.jaitools.jiffle.runtime;
  * This class is here to avoid using generic collections (which the Janino compiler
  * does not support) or littering the runtime source code with casts.
  * 
+ * @deprecated No longer used by runtime classes, which now evaluate
+ *             conditionals with primitive sign codes 
+ *             (see {@link JiffleFunctions#signInt(double)}).
+ * 
  * @author Michael Bedward
  * @since 0.1
  * @version $Id$
  */
+@Deprecated
 public class IntegerStack {
     /** Initial size of stack and grow increment */
     public static final int CHUNK_SIZE = 1000;
@@ -131,6 +131,20 @@ public interface JiffleDirectRuntime extends JiffleRuntime {
      */
     void evaluateAll(JiffleProgressListener pl);
     
+    /**
+     * Evaluates the script for all pixel locations within the world bounds
+     * using up to {@code parallelism} threads. The processing area is divided
+     * into tiles which are evaluated independently, so this method should 
+     * only be used with scripts which do not modify image-scope variables
+     * and for which the result at each pixel does not depend on the order
+     * of evaluation. If {@code parallelism} is less than 2 this method is
+     * equivalent to {@link #evaluateAll(JiffleProgressListener)}.
+     * 
+     * @param pl an optional progress listener (may be {@code null}
+     * @param parallelism maximum number of threads to use
+     */
+    void evaluateAll(JiffleProgressListener pl, int parallelism);
+    
     /**
      * Gets a value from a source image for a given world position and
      * image band.
@@ -144,6 +158,21 @@ public interface JiffleDirectRuntime extends JiffleRuntime {
      */
     double readFromImage(String srcImageName, double x, double y, int band);
     
+    /**
+     * Gets a value from a source image for a given world position and
+     * image band. This version takes the index (slot) of the image, as
+     * assigned when the runtime class was generated, and is the method
+     * called by runtime source code.
+     * 
+     * @param srcImageIndex index of the source image
+     * @param x source X ordinate in world units
+     * @param y source Y ordinate in world units
+     * @param band source band
+     * 
+     * @return image value
+     */
+    double readFromImage(int srcImageIndex, double x, double y, int band);
+    
     /**
      * Writes a value to a destination image for a given world position and
      * image band.
@@ -157,6 +186,21 @@ public interface JiffleDirectRuntime extends JiffleRuntime {
      */
     void writeToImage(String destImageName, double x, double y, int band, double value);
 
+    /**
+     * Writes a value to a destination image for a given world position and
+     * image band. This version takes the index (slot) of the image, as
+     * assigned when the runtime class was generated, and is the method
+     * called by runtime source code.
+     * 
+     * @param destImageIndex index of the destination image
+     * @param x destination X ordinate in world units
+     * @param y destination Y ordinate in world units
+     * @param band destination band
+     * 
+     * @param value the value to write
+     */
+    void writeToImage(int destImageIndex, double x, double y, int band, double value);
+
     /**
      * Gets the images used by this object and returns them as a {@code Map}
      * with variable names as keys and images as values.
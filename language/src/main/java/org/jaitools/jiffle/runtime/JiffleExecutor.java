@@ -26,19 +26,26 @@
 package org.jaitools.jiffle.runtime;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.jaitools.DaemonThreadFactory;
-
 
 /**
  * A multi-threaded, event-driven executor service for Jiffle scripts. Jiffle
@@ -111,8 +118,27 @@ import org.jaitools.DaemonThreadFactory;
  * }
  * </code></pre>
  * 
- * Once the application has finished with th executor it should call one of
- * the shutdown methods which terminate the task and polling threads.
+ * Listeners are notified on the thread which ran the task as soon as it
+ * finishes. Alternatively, {@link #submitTask(JiffleDirectRuntime, JiffleProgressListener)}
+ * returns a {@code Future} for the result of an individual task.
+ * <p>
+ * An executor created with a maximum number of concurrent tasks holds 
+ * waiting tasks in a queue ordered by priority, so that tasks submitted
+ * with a higher priority (e.g. interactive requests) start ahead of
+ * waiting tasks with a lower priority (e.g. batch jobs). Tasks with equal
+ * priority start in the order they were submitted. The queue can also be
+ * bounded to limit the number of runtime objects, and the images they
+ * refer to, held by the executor at any time. When the queue is full the
+ * {@code submit} methods block until space is available, while 
+ * {@code trySubmitTask} gives up after a time-out period.
+ * <p>
+ * Once the application has finished with the executor it must call one of
+ * the shutdown methods which terminate the task threads. This also 
+ * removes the executor's metrics MBean, if it was published.
+ * <p>
+ * Task counts and run times are available from {@link #getMetrics()}. They
+ * can also be published as a JMX MBean by calling {@link #publishMetrics()}
+ * (see {@link ExecutorMetrics}).
  * 
  * @author Michael Bedward
  * @since 0.1
@@ -130,25 +156,47 @@ import org.jaitools.DaemonThreadFactory;
     /** 
      * The default interval for polling tasks to check for
      * completion (20 mS)
+     * 
+     * @deprecated task completion is now notified directly and 
+     *             the polling interval is not used
      */
+    @Deprecated
     public static final long DEFAULT_POLLING_INTERVAL = 20L;
 
     private long pollingInterval = DEFAULT_POLLING_INTERVAL;
     
+    /** Priority used for tasks submitted without an explicit priority. */
+    public static final int DEFAULT_PRIORITY = 0;
+    
     /* Provides unique job ID values across all executor instances. */
     private static final AtomicInteger jobID = new AtomicInteger(0);
+    
+    /* Orders queued tasks with equal priority. */
+    private static final AtomicLong taskSequence = new AtomicLong(0);
+    
+    /* Provides unique names for executor MBeans. */
+    private static final AtomicInteger executorID = new AtomicInteger(0);
 
     private final Object _lock = new Object();
     
     private final ExecutorService taskService;
-    private final ScheduledExecutorService pollingService;
-    private final ScheduledExecutorService shutdownService;
-    private final ExecutorCompletionService<JiffleExecutorResult> completionService;
+    
+    /* Limits the number of queued and running tasks (null if unbounded). */
+    private final Semaphore taskSlots;
+    
+    /* Maximum number of threads used to evaluate a split task. */
+    private final int maxThreads;
+    private volatile boolean tileSplitting;
     
     private final List<JiffleEventListener> listeners;
     
-    private boolean isPolling;
-    private int numTasksRunning;
+    private final ExecutorMetrics metrics;
+    private final String metricsName;
+    
+    private boolean taskSubmitted;
+    private boolean shutdownRequested;
+    private volatile boolean discardResults;
+    private final AtomicInteger numTasksRunning;
     
     /* Used by constructors when setting up the task service. */
     private static enum ThreadPoolType {
@@ -163,18 +211,42 @@ import org.jaitools.DaemonThreadFactory;
      * which recycles existing threads where possible.
      */
     public JiffleExecutor() {
-        this(ThreadPoolType.CACHED, -1);
+        this(ThreadPoolType.CACHED, -1, -1);
     }
     
     
     /**
      * Creates an executor that can have, at most,{@code maxTasks} 
      * running concurrently, with further tasks being placed in a queue.
+     * There is no limit on the number of tasks in the queue.
      * 
      * @param maxTasks the maximum number of concurrent tasks
      */
     public JiffleExecutor(int maxTasks) {
-        this(ThreadPoolType.FIXED, maxTasks);
+        this(ThreadPoolType.FIXED, maxTasks, -1);
+    }
+    
+    /**
+     * Creates an executor that can have, at most, {@code maxTasks} 
+     * running concurrently and {@code maxQueued} further tasks waiting
+     * in a queue. When the queue is full, {@code submit} methods block
+     * until a task finishes.
+     * 
+     * @param maxTasks the maximum number of concurrent tasks
+     * @param maxQueued the maximum number of waiting tasks
+     * 
+     * @throws IllegalArgumentException if {@code maxTasks} is less than 1
+     *         or {@code maxQueued} is negative
+     */
+    public JiffleExecutor(int maxTasks, int maxQueued) {
+        this(ThreadPoolType.FIXED, maxTasks, checkMaxQueued(maxQueued));
+    }
+    
+    private static int checkMaxQueued(int maxQueued) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative");
+        }
+        return maxQueued;
     }
     
     /**
@@ -184,50 +256,123 @@ import org.jaitools.DaemonThreadFactory;
      * 
      * @param maxJobs maximum number of concurrent jobs (ignored if
      *        {@code type} is not {@code FIXED}
+     * 
+     * @param maxQueued maximum number of waiting jobs; negative for no 
+     *        limit (ignored if {@code type} is not {@code FIXED}
      */
-    private JiffleExecutor(ThreadPoolType type, int maxJobs) {
+    private JiffleExecutor(ThreadPoolType type, int maxJobs, int maxQueued) {
         switch (type) {
             case CACHED:
                 taskService = Executors.newCachedThreadPool();
+                taskSlots = null;
+                maxThreads = Runtime.getRuntime().availableProcessors();
                 break;
                 
             case FIXED:
-                taskService = Executors.newFixedThreadPool(maxJobs);
+                if (maxJobs < 1) {
+                    throw new IllegalArgumentException("maxTasks must be at least 1");
+                }
+                taskService = new ThreadPoolExecutor(maxJobs, maxJobs, 
+                        0L, TimeUnit.MILLISECONDS, 
+                        new PriorityBlockingQueue<Runnable>());
+                
+                taskSlots = maxQueued < 0 ? null : new Semaphore(maxJobs + maxQueued, true);
+                maxThreads = maxJobs;
                 break;
                 
             default:
                 throw new IllegalArgumentException("Bad arg to private JiffleExecutor constructor");
         }
         
-        completionService = new ExecutorCompletionService<JiffleExecutorResult>(taskService);
-        
-        pollingService = Executors.newSingleThreadScheduledExecutor(
-                new DaemonThreadFactory(Thread.NORM_PRIORITY, "executor-poll"));
+        listeners = new CopyOnWriteArrayList<JiffleEventListener>();
+        numTasksRunning = new AtomicInteger(0);
         
-        shutdownService = Executors.newSingleThreadScheduledExecutor(
-                new DaemonThreadFactory(Thread.NORM_PRIORITY, "executor-shutdown"));
-        
-        listeners = new ArrayList<JiffleEventListener>();
-        
-        isPolling = false;
+        metrics = new ExecutorMetrics();
+        metricsName = "org.jaitools.jiffle:type=JiffleExecutor,name=executor-" 
+                + executorID.getAndIncrement();
+    }
+    
+    /**
+     * Publishes the task metrics for this executor as a JMX MBean, if JMX
+     * publication is enabled in the Jiffle properties. Metrics are not
+     * published unless this method is called. The MBean is removed when
+     * the executor has shut down, so an executor which publishes its
+     * metrics must be shut down when it is no longer required.
+     * 
+     * @return {@code true} if the MBean was registered
+     * 
+     * @throws IllegalStateException if the executor has been shut down
+     */
+    public boolean publishMetrics() {
+        synchronized (_lock) {
+            if (shutdownRequested) {
+                throw new IllegalStateException("The executor has been shut down");
+            }
+            return MetricsSupport.register(metrics, metricsName);
+        }
+    }
+    
+    /**
+     * Gets the task metrics for this executor.
+     * 
+     * @return the metrics
+     */
+    public ExecutorMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Sets whether eligible tasks are split into tiles which are evaluated 
+     * by several of the executor's threads. A task is eligible if its 
+     * runtime extends {@link AbstractDirectRuntime} and its processing area
+     * can be evaluated as independent tiles (i.e. the script does not 
+     * assign to image-scope variables and no image is both a source and a 
+     * destination). The thread running the task evaluates tiles itself and
+     * submits helper tasks, with the same priority, which take tiles from
+     * the same queue, so a large task on an otherwise idle executor 
+     * finishes sooner while waiting tasks are not starved. Progress is 
+     * aggregated for the task's progress listener and event listeners 
+     * receive a single event for the task. 
+     * <p>
+     * Up to one thread per processor is used for each task with the default
+     * executor, or up to the maximum number of concurrent tasks for an 
+     * executor created with that limit. Splitting is off by default.
+     * 
+     * @param split {@code true} to split eligible tasks
+     */
+    public void setTileSplitting(boolean split) {
+        tileSplitting = split;
+    }
+    
+    /**
+     * Tests whether eligible tasks are split into tiles.
+     * 
+     * @return {@code true} if tile splitting is enabled
+     * @see #setTileSplitting(boolean)
+     */
+    public boolean isTileSplitting() {
+        return tileSplitting;
     }
     
     /**
-     * Sets the polling interval for task completion. JiffleExecutor uses a 
-     * separate thread to poll tasks for completion (either success
-     * or failure) at a fixed interval. The interval can only be changed 
-     * prior to submitting the first task. After that, any calls to this
-     * method will result in a warning message being logged and the new
-     * value being ignored.
+     * Sets the polling interval for task completion. Previously, 
+     * JiffleExecutor used a separate thread to poll tasks for completion. 
+     * Listeners are now notified directly when each task finishes, so the
+     * value is recorded but has no effect. As before, the interval can only
+     * be changed prior to submitting the first task. After that, any calls
+     * to this method will result in a warning message being logged and the
+     * new value being ignored.
      * 
      * @param millis interval between task polling in milliseconds; values
      *        less than 1 are ignored
      * 
      * @see #DEFAULT_POLLING_INTERVAL
+     * @deprecated the polling interval is no longer used
      */
+    @Deprecated
     public void setPollingInterval(long millis) {
         synchronized (_lock) {
-            if (isPolling) {
+            if (taskSubmitted) {
                 if (LOGGER.isLoggable(Level.WARNING)) {
                     LOGGER.log(Level.WARNING,
                             "Request to change polling interval ignored");
@@ -246,7 +391,9 @@ import org.jaitools.DaemonThreadFactory;
      * Gets the interval in milliseconds for polling task completion.
      * 
      * @return polling interval
+     * @deprecated the polling interval is no longer used
      */
+    @Deprecated
     public long getPollingInterval() {
         synchronized (_lock) {
             return pollingInterval;
@@ -255,16 +402,16 @@ import org.jaitools.DaemonThreadFactory;
             
     
     /**
-     * Adds an event listener.
+     * Adds an event listener. Listeners are called on the thread which ran 
+     * the task as soon as it finishes, so they should return quickly and
+     * must be thread-safe if more than one task can run at a time.
      * 
      * @param listener the listener
      * 
      * @see JiffleEvent
      */
     public void addEventListener(JiffleEventListener listener) {
-        synchronized(_lock) {
-            listeners.add(listener);
-        }
+        listeners.add(listener);
     }
     
     /**
@@ -276,9 +423,7 @@ import org.jaitools.DaemonThreadFactory;
      *         {@code false} if it was not registered with this executor
      */
     public boolean removeEventListener(JiffleEventListener listener) {
-        synchronized(_lock) {
-            return listeners.remove(listener);
-        }
+        return listeners.remove(listener);
     }
     
     /**
@@ -290,16 +435,16 @@ import org.jaitools.DaemonThreadFactory;
      *         {@code false} otherwise
      */
     public boolean isListening(JiffleEventListener listener) {
-        synchronized(_lock) {
-            return listeners.contains(listener);
-        }
+        return listeners.contains(listener);
     }
     
     /**
      * Submits an {@code JiffleDirectRuntime} object for execution. Depending 
      * on existing tasks and the number of threads available to the executor 
      * there could be a delay before the task starts. Clients can receive 
-     * notification via an optional progress listener.
+     * notification via an optional progress listener. If the executor has 
+     * a bounded queue which is full, this method blocks until space is 
+     * available.
      * <p>
      * 
      * @param runtime the run-time instance to execute
@@ -310,31 +455,208 @@ import org.jaitools.DaemonThreadFactory;
      */
     public int submit(JiffleDirectRuntime runtime,
             JiffleProgressListener progressListener) {
+        
+        return submit(runtime, progressListener, DEFAULT_PRIORITY);
+    }
+    
+    /**
+     * Submits an {@code JiffleDirectRuntime} object for execution with the 
+     * given priority. Waiting tasks with higher priority values are started
+     * first. If the executor has a bounded queue which is full, this method
+     * blocks until space is available.
+     * 
+     * @param runtime the run-time instance to execute
+     * 
+     * @param progressListener an optional progress listener (may be {@code null})
+     * 
+     * @param priority task priority
+     * 
+     * @return the job ID that can be used to query progress
+     */
+    public int submit(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener, int priority) {
+        
+        return submitBlocking(runtime, progressListener, priority).getTaskID();
+    }
+    
+    /**
+     * Submits an {@code JiffleDirectRuntime} object for execution and returns
+     * a {@code Future} for the result. This is an alternative to 
+     * {@link #submit(JiffleDirectRuntime, JiffleProgressListener)} for clients
+     * which prefer to wait for, or cancel, individual tasks. Event listeners 
+     * are notified as usual when the task finishes.
+     * 
+     * @param runtime the run-time instance to execute
+     * 
+     * @param progressListener an optional progress listener (may be {@code null})
+     * 
+     * @return the future result; its {@code get} method returns the task 
+     *         result, whether the task completed or failed
+     */
+    public Future<JiffleExecutorResult> submitTask(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener) {
+        
+        return submitTask(runtime, progressListener, DEFAULT_PRIORITY);
+    }
+    
+    /**
+     * Submits an {@code JiffleDirectRuntime} object for execution with the 
+     * given priority and returns a {@code Future} for the result. If the 
+     * executor has a bounded queue which is full, this method blocks until
+     * space is available.
+     * 
+     * @param runtime the run-time instance to execute
+     * 
+     * @param progressListener an optional progress listener (may be {@code null})
+     * 
+     * @param priority task priority
+     * 
+     * @return the future result
+     */
+    public Future<JiffleExecutorResult> submitTask(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener, int priority) {
+        
+        return submitBlocking(runtime, progressListener, priority);
+    }
+    
+    /**
+     * Submits an {@code JiffleDirectRuntime} object for execution if space
+     * becomes available in the queue within the given time. If the executor
+     * does not have a bounded queue the task is always accepted. Pass a 
+     * time-out of 0 to reject the task immediately when the queue is full.
+     * 
+     * @param runtime the run-time instance to execute
+     * 
+     * @param progressListener an optional progress listener (may be {@code null})
+     * 
+     * @param priority task priority
+     * 
+     * @param timeOut maximum time to wait for space in the queue
+     * 
+     * @param unit time unit
+     * 
+     * @return the future result or {@code null} if the task was not accepted
+     * 
+     * @throws InterruptedException if the calling thread was interrupted
+     *         while waiting
+     */
+    public Future<JiffleExecutorResult> trySubmitTask(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener, int priority,
+            long timeOut, TimeUnit unit) throws InterruptedException {
+        
+        checkNotShutdown();
+        if (taskSlots != null && !taskSlots.tryAcquire(timeOut, unit)) {
+            return null;
+        }
+        
+        return doSubmit(runtime, progressListener, priority);
+    }
+    
+    /**
+     * Submits a group of {@code JiffleDirectRuntime} objects for execution 
+     * with the same priority and returns a single handle for their results. 
+     * If the executor has a bounded queue, this method blocks as required 
+     * while the tasks are being submitted.
+     * 
+     * @param runtimes the run-time instances to execute
+     * 
+     * @param progressListener an optional progress listener shared by all
+     *        tasks (may be {@code null})
+     * 
+     * @param priority task priority
+     * 
+     * @return a handle for the batch
+     */
+    public JiffleExecutorBatch submitAll(Collection<? extends JiffleDirectRuntime> runtimes,
+            JiffleProgressListener progressListener, int priority) {
+        
+        List<Future<JiffleExecutorResult>> futures = 
+                new ArrayList<Future<JiffleExecutorResult>>(runtimes.size());
+        List<Integer> ids = new ArrayList<Integer>(runtimes.size());
+        
+        for (JiffleDirectRuntime runtime : runtimes) {
+            TaskFuture future = submitBlocking(runtime, progressListener, priority);
+            futures.add(future);
+            ids.add(future.getTaskID());
+        }
+        
+        return new JiffleExecutorBatch(futures, ids);
+    }
+    
+    private TaskFuture submitBlocking(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener, int priority) {
+        
+        checkNotShutdown();
+        if (taskSlots != null) {
+            taskSlots.acquireUninterruptibly();
+        }
+        
+        return doSubmit(runtime, progressListener, priority);
+    }
+    
+    private void checkNotShutdown() {
+        if (taskService.isShutdown()) {
+            throw new IllegalStateException("Submitting task after executor shutdown");
+        }
+    }
+    
+    /*
+     * Submits a task. The caller must already hold a queue slot if the 
+     * executor is bounded.
+     */
+    private TaskFuture doSubmit(JiffleDirectRuntime runtime,
+            JiffleProgressListener progressListener, int priority) {
 
         synchronized (_lock) {
             if (taskService.isShutdown()) {
+                if (taskSlots != null) {
+                    taskSlots.release();
+                }
                 throw new IllegalStateException("Submitting task after executor shutdown");
             }
 
-            startPolling();
+            taskSubmitted = true;
             int id = jobID.getAndIncrement();
 
             if (LOGGER.isLoggable(Level.INFO)) {
                 LOGGER.log(Level.INFO, TASK_SUBMITTED_MSG, id);
             }
 
-            numTasksRunning++ ;
+            numTasksRunning.incrementAndGet();
+            metrics.taskSubmitted();
 
-            completionService.submit(new JiffleExecutorTask(
-                    this,
-                    id,
-                    runtime,
-                    progressListener));
+            JiffleExecutorTask task = 
+                    new JiffleExecutorTask(this, id, runtime, progressListener);
+            
+            if (tileSplitting && maxThreads > 1) {
+                task.setTileHelpers(getHelperExecutor(priority), maxThreads - 1);
+            }
+            
+            TaskFuture future = new TaskFuture(task, priority);
+            
+            try {
+                taskService.execute(future);
+            } catch (RejectedExecutionException ex) {
+                taskFinished();
+                throw new IllegalStateException("Submitting task after executor shutdown");
+            }
 
-            return id;
+            return future;
         }
     }
     
+    /*
+     * Gets an executor which queues helper tasks for a split task 
+     * with the given priority.
+     */
+    private Executor getHelperExecutor(final int priority) {
+        return new Executor() {
+            public void execute(Runnable helper) {
+                taskService.execute(new HelperFuture(helper, priority));
+            }
+        };
+    }
+    
     /**
      * Requests that the executor shutdown after completing any tasks
      * already submitted. Control returns immediately to the client.
@@ -342,7 +664,11 @@ import org.jaitools.DaemonThreadFactory;
     public void shutdown() {
         synchronized(_lock) {
             taskService.shutdown();
-            stopPolling(false);
+            shutdownRequested = true;
+        }
+        
+        if (numTasksRunning.get() == 0) {
+            MetricsSupport.unregister(metricsName);
         }
     }
     
@@ -359,77 +685,82 @@ import org.jaitools.DaemonThreadFactory;
      *         the time-out period elapsed or the thread was interrupted
      */
     public boolean shutdownAndWait(long timeOut, TimeUnit unit) {
-        synchronized (_lock) {
-            boolean success = false;
-            taskService.shutdown();
-            stopPolling(false);
-            
-            try {
-                success = taskService.awaitTermination(timeOut, unit);
-                
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
-            }
+        shutdown();
+
+        try {
+            return taskService.awaitTermination(timeOut, unit);
 
-            return success;
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
         }
     }
     
     /**
-     * Attempts to shutdown the executor immediately.
+     * Attempts to shutdown the executor immediately. Running tasks are
+     * interrupted, waiting tasks are discarded and listeners are not 
+     * notified of any further results.
      */
     public void shutdownNow() {
-        taskService.shutdownNow();
-        stopPolling(true);
-    }
+        discardResults = true;
+        synchronized(_lock) {
+            shutdownRequested = true;
+        }
         
-    /**
-     * Starts the polling service if it is not already running.
-     */
-    private void startPolling() {
-        if (!isPolling) {
-            pollingService.scheduleWithFixedDelay(new PollingTask(),
-                    pollingInterval, pollingInterval, TimeUnit.MILLISECONDS);
-            isPolling = true;
+        // cancel waiting tasks so that their slots are released
+        for (Runnable r : taskService.shutdownNow()) {
+            ((Future<?>) r).cancel(false);
         }
+        MetricsSupport.unregister(metricsName);
     }
     
     /**
-     * Stops the polling service.
-     * 
-     * @param immediate whether to stop the service immediately or wait
-     *        for any running tasks to complete
+     * Called when a task has finished, or could not be started, to 
+     * update the count of running tasks and release its queue slot.
      */
-    private void stopPolling(boolean immediate) {
-        if (immediate) {
-            pollingService.shutdown();
-            return;
+    private void taskFinished() {
+        if (taskSlots != null) {
+            taskSlots.release();
         }
-
-        shutdownService.scheduleAtFixedRate(new Runnable() {
-            public void run() {
-                if (numTasksRunning == 0) {
-                    pollingService.shutdown();
-                    shutdownService.shutdown();
-                }
+        
+        if (numTasksRunning.decrementAndGet() == 0) {
+            boolean unregister;
+            synchronized (_lock) {
+                unregister = shutdownRequested;
+            }
+            if (unregister) {
+                MetricsSupport.unregister(metricsName);
             }
-        }, pollingInterval, pollingInterval, TimeUnit.MILLISECONDS);
+        }
     }
     
-    private class PollingTask implements Runnable {
-        public void run() {
+    /**
+     * Runs a task and notifies listeners directly when it finishes.
+     */
+    private class TaskFuture extends QueuedFuture<JiffleExecutorResult> {
+        private final JiffleExecutorTask task;
+        
+        TaskFuture(JiffleExecutorTask task, int priority) {
+            super(task, priority);
+            this.task = task;
+        }
+        
+        int getTaskID() {
+            return task.getTaskID();
+        }
+
+        @Override
+        protected void done() {
             try {
-                Future<JiffleExecutorResult> future = completionService.poll();
-                if (future != null) {
-                    JiffleExecutorResult result = future.get();
-                    numTasksRunning-- ;
+                if (!discardResults) {
+                    JiffleExecutorResult result = isCancelled() ? 
+                            task.getFailedResult() : get();
                     
                     if (result.isCompleted()) {
                         if (LOGGER.isLoggable(Level.INFO)) {
                             LOGGER.log(Level.INFO, TASK_SUCCESS_MSG, result.getTaskID());
                         }
                         notifySuccess(result);
-                        
+
                     } else {
                         if (LOGGER.isLoggable(Level.INFO)) {
                             LOGGER.log(Level.INFO, TASK_FAILURE_MSG, result.getTaskID());
@@ -437,22 +768,76 @@ import org.jaitools.DaemonThreadFactory;
                         notifyFailure(result);
                     }
                 }
-
-            } catch (Exception ex) {
-                throw new RuntimeException(ex);
+                
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "Unexpected error running task " + getTaskID(), ex);
+                
+            } finally {
+                taskFinished();
             }
         }
 
         private void notifySuccess(JiffleExecutorResult result) {
             for (JiffleEventListener listener : listeners) {
-                listener.onCompletionEvent(new JiffleEvent(result));
+                try {
+                    listener.onCompletionEvent(new JiffleEvent(result));
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Event listener failed", ex);
+                }
             }
         }
 
         private void notifyFailure(JiffleExecutorResult result) {
             for (JiffleEventListener listener : listeners) {
-                listener.onFailureEvent(new JiffleEvent(result));
+                try {
+                    listener.onFailureEvent(new JiffleEvent(result));
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Event listener failed", ex);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Base class for tasks placed in the executor's queue. Tasks are 
+     * ordered by descending priority, then by submission order.
+     */
+    private static abstract class QueuedFuture<V> extends FutureTask<V> 
+            implements Comparable<QueuedFuture<?>> {
+        
+        private final int priority;
+        private final long sequence;
+        
+        QueuedFuture(Callable<V> callable, int priority) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = taskSequence.getAndIncrement();
+        }
+        
+        QueuedFuture(Runnable runnable, int priority) {
+            super(runnable, null);
+            this.priority = priority;
+            this.sequence = taskSequence.getAndIncrement();
+        }
+        
+        public int compareTo(QueuedFuture<?> other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
             }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+    
+    /**
+     * Runs a helper for a task which has been split into tiles. Helpers 
+     * do not count as separate tasks and do not notify listeners.
+     */
+    private static class HelperFuture extends QueuedFuture<Object> {
+        HelperFuture(Runnable helper, int priority) {
+            super(helper, priority);
         }
     }
     
@@ -0,0 +1,186 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * A handle for a group of tasks submitted together with 
+ * {@link JiffleExecutor#submitAll}. The {@code get} methods wait for all
+ * of the tasks and return their results in submission order. Cancelling
+ * the batch cancels each task which has not yet finished.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleExecutorBatch implements Future<List<JiffleExecutorResult>> {
+    
+    private final List<Future<JiffleExecutorResult>> futures;
+    private final List<Integer> taskIDs;
+
+    /**
+     * Creates a new batch.
+     * 
+     * @param futures futures for the individual tasks
+     * @param taskIDs job IDs allocated to the tasks
+     */
+    JiffleExecutorBatch(List<Future<JiffleExecutorResult>> futures, List<Integer> taskIDs) {
+        this.futures = new ArrayList<Future<JiffleExecutorResult>>(futures);
+        this.taskIDs = Collections.unmodifiableList(new ArrayList<Integer>(taskIDs));
+    }
+    
+    /**
+     * Gets the job IDs of the tasks in this batch, in submission order.
+     * 
+     * @return an unmodifiable list of job IDs
+     */
+    public List<Integer> getTaskIDs() {
+        return taskIDs;
+    }
+    
+    /**
+     * Gets the number of tasks in this batch.
+     * 
+     * @return number of tasks
+     */
+    public int size() {
+        return futures.size();
+    }
+
+    /**
+     * Attempts to cancel all tasks in the batch.
+     * 
+     * @param mayInterruptIfRunning whether running tasks should be interrupted
+     * 
+     * @return {@code true} if at least one task was cancelled
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = false;
+        for (Future<JiffleExecutorResult> f : futures) {
+            cancelled |= f.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Checks if all tasks in the batch were cancelled.
+     * 
+     * @return {@code true} if every task was cancelled
+     */
+    public boolean isCancelled() {
+        for (Future<JiffleExecutorResult> f : futures) {
+            if (!f.isCancelled()) {
+                return false;
+            }
+        }
+        return !futures.isEmpty();
+    }
+
+    /**
+     * Checks if all tasks in the batch have finished.
+     * 
+     * @return {@code true} if every task has completed, failed or been cancelled
+     */
+    public boolean isDone() {
+        for (Future<JiffleExecutorResult> f : futures) {
+            if (!f.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Gets the number of tasks which have finished.
+     * 
+     * @return number of finished tasks
+     */
+    public int getNumDone() {
+        int n = 0;
+        for (Future<JiffleExecutorResult> f : futures) {
+            if (f.isDone()) {
+                n++ ;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Waits for all tasks to finish and returns their results.
+     * 
+     * @return results in submission order
+     * 
+     * @throws InterruptedException if the calling thread was interrupted
+     * @throws ExecutionException if a task threw an unexpected exception
+     */
+    public List<JiffleExecutorResult> get() 
+            throws InterruptedException, ExecutionException {
+        
+        List<JiffleExecutorResult> results = 
+                new ArrayList<JiffleExecutorResult>(futures.size());
+        
+        for (Future<JiffleExecutorResult> f : futures) {
+            results.add(f.get());
+        }
+        return results;
+    }
+
+    /**
+     * Waits, at most for the given time, for all tasks to finish and 
+     * returns their results.
+     * 
+     * @param timeout maximum time to wait for the whole batch
+     * @param unit time unit
+     * 
+     * @return results in submission order
+     * 
+     * @throws InterruptedException if the calling thread was interrupted
+     * @throws ExecutionException if a task threw an unexpected exception
+     * @throws TimeoutException if the time-out period elapsed
+     */
+    public List<JiffleExecutorResult> get(long timeout, TimeUnit unit) 
+            throws InterruptedException, ExecutionException, TimeoutException {
+        
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<JiffleExecutorResult> results = 
+                new ArrayList<JiffleExecutorResult>(futures.size());
+        
+        for (Future<JiffleExecutorResult> f : futures) {
+            long remaining = deadline - System.nanoTime();
+            results.add(f.get(Math.max(0L, remaining), TimeUnit.NANOSECONDS));
+        }
+        return results;
+    }
+
+}
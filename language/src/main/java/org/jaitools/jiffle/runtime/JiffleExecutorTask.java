@@ -26,6 +26,7 @@
 package org.jaitools.jiffle.runtime;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -41,6 +42,10 @@ public class JiffleExecutorTask implements Callable<JiffleExecutorResult> {
     private final int id;
     private final JiffleDirectRuntime runtime;
     private final JiffleProgressListener progressListener;
+    private final long submitTime;
+    
+    private Executor tileHelpers;
+    private int maxTileHelpers;
     
     private boolean completed;
 
@@ -64,6 +69,7 @@ public class JiffleExecutorTask implements Callable<JiffleExecutorResult> {
         this.id = id;
         this.runtime = runtime;
         this.progressListener = progressListener;
+        this.submitTime = System.nanoTime();
         
         completed = false;
     }
@@ -76,17 +82,63 @@ public class JiffleExecutorTask implements Callable<JiffleExecutorResult> {
      *         the images, and the job completion status
      */
     public JiffleExecutorResult call() {
+        ExecutorMetrics metrics = executor.getMetrics();
+        long startTime = metrics.taskStarted(submitTime);
+        
         boolean gotEx = false;
         try {
-            runtime.evaluateAll(progressListener);
+            if (isSplit()) {
+                ((AbstractDirectRuntime) runtime).evaluateTiles(
+                        progressListener, tileHelpers, maxTileHelpers);
+            } else {
+                runtime.evaluateAll(progressListener);
+            }
             
         } catch (Exception ex) {
             gotEx = true;
         }
 
         completed = !gotEx;
+        metrics.taskFinished(startTime, completed);
         return new JiffleExecutorResult(id, runtime, completed);
     }
+    
+    /**
+     * Sets the executor for helper tasks, allowing this task to be split
+     * into tiles evaluated by several threads if the runtime supports it.
+     * 
+     * @param helpers executor for helper tasks
+     * @param maxHelpers maximum number of helper tasks
+     */
+    void setTileHelpers(Executor helpers, int maxHelpers) {
+        this.tileHelpers = helpers;
+        this.maxTileHelpers = maxHelpers;
+    }
+    
+    private boolean isSplit() {
+        return tileHelpers != null
+                && runtime instanceof AbstractDirectRuntime
+                && ((AbstractDirectRuntime) runtime).isTileSplittable();
+    }
+    
+    /**
+     * Gets the job ID allocated to this task.
+     * 
+     * @return the job ID
+     */
+    int getTaskID() {
+        return id;
+    }
+    
+    /**
+     * Creates a result object for this task marked as failed. Used by the
+     * executor when the task is cancelled before it can run.
+     * 
+     * @return a failure result
+     */
+    JiffleExecutorResult getFailedResult() {
+        return new JiffleExecutorResult(id, runtime, false);
+    }
 
 }
 
@@ -25,13 +25,11 @@
 
 package org.jaitools.jiffle.runtime;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
 
-import org.jaitools.numeric.SampleStats;
-
 import static org.jaitools.numeric.CompareOp.acompare;
+import static org.jaitools.numeric.CompareOp.aequal;
 import static org.jaitools.numeric.CompareOp.isZero;
 
 /**
@@ -44,6 +42,12 @@ import static org.jaitools.numeric.CompareOp.isZero;
  */
 public class JiffleFunctions {
     
+    /** 
+     * The value returned by {@link #signInt(double)} when its argument 
+     * is {@code Double.NaN}.
+     */
+    public static final int SIGN_NAN = Integer.MIN_VALUE;
+    
     private Random rr = new Random();
     
     /**
@@ -72,6 +76,23 @@ public class JiffleFunctions {
         }
         return null;
     }
+
+    /**
+     * Return the sign of {@code x} as a primitive integer. This method 
+     * is used by Jiffle to implement its {@code con} functions and 
+     * {@code if} statements.
+     * 
+     * @param x test value
+     * 
+     * @return -1 if x is negative; 0 if x is 0; 1 if x is positive; 
+     *         or {@link #SIGN_NAN} if x is NaN
+     */
+    public int signInt(double x) {
+        if (!Double.isNaN(x)) {
+            return acompare(x, 0);
+        }
+        return SIGN_NAN;
+    }
     
     /**
      * Tests if x is infinite (equal to Double.POSITIVE_INFINITY or 
@@ -123,8 +144,18 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the maximum value
      */
-    public double max(List values) {
-        return SampleStats.max(listToArray(values), true);
+    public double max(DoubleList values) {
+        double[] v = nonNullValues(values);
+        if (v.length == 0) {
+            return Double.NaN;
+        }
+        double max = v[0];
+        for (int i = 1; i < v.length; i++) {
+            if (v[i] > max) {
+                max = v[i];
+            }
+        }
+        return max;
     }
     
     /**
@@ -134,8 +165,18 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the mean value
      */
-    public double mean(List values) {
-        return SampleStats.mean(listToArray(values), true);
+    public double mean(DoubleList values) {
+        double sum = 0;
+        int n = 0;
+        final int N = values.size();
+        for (int i = 0; i < N; i++) {
+            double x = values.get(i);
+            if (!Double.isNaN(x)) {
+                sum += x;
+                n++ ;
+            }
+        }
+        return n > 0 ? sum / n : Double.NaN;
     }
     
     /**
@@ -145,8 +186,17 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the median value
      */
-    public double median(List values) {
-        return SampleStats.median(listToArray(values), true);
+    public double median(DoubleList values) {
+        double[] v = nonNullValues(values);
+        final int n = v.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(v);
+        if (n % 2 == 0) {
+            return (v[n / 2 - 1] + v[n / 2]) / 2;
+        }
+        return v[n / 2];
     }
     
     /**
@@ -156,8 +206,18 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the minimum value
      */
-    public double min(List values) {
-        return SampleStats.min(listToArray(values), true);
+    public double min(DoubleList values) {
+        double[] v = nonNullValues(values);
+        if (v.length == 0) {
+            return Double.NaN;
+        }
+        double min = v[0];
+        for (int i = 1; i < v.length; i++) {
+            if (v[i] < min) {
+                min = v[i];
+            }
+        }
+        return min;
     }
     
     /**
@@ -167,8 +227,45 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the modal value
      */
-    public double mode(List values) {
-        return SampleStats.mode(listToArray(values), true);
+    public double mode(DoubleList values) {
+        double[] v = nonNullValues(values);
+        final int n = v.length;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(v);
+        
+        // find the maximum run length of (approximately) equal values
+        int maxCount = 0;
+        int count = 1;
+        for (int i = 1; i <= n; i++) {
+            if (i < n && aequal(v[i - 1], v[i])) {
+                count++ ;
+            } else {
+                maxCount = Math.max(maxCount, count);
+                count = 1;
+            }
+        }
+        
+        // collect the values with the maximum run length
+        double[] modes = new double[n];
+        int numModes = 0;
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || !aequal(v[i - 1], v[i])) {
+                if (i - start == maxCount) {
+                    modes[numModes++] = v[start];
+                }
+                start = i;
+            }
+        }
+        
+        // if there are several modes return the middle (or lower middle) one
+        int index = numModes / 2;
+        if (numModes % 2 == 0) {
+            index-- ;
+        }
+        return modes[index];
     }
     
     /**
@@ -209,8 +306,21 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the range of the input values
      */
-    public double range(List values) {
-        return SampleStats.range(listToArray(values), true);
+    public double range(DoubleList values) {
+        double[] v = nonNullValues(values);
+        if (v.length == 0) {
+            return Double.NaN;
+        }
+        double min = v[0];
+        double max = v[0];
+        for (int i = 1; i < v.length; i++) {
+            if (v[i] < min) {
+                min = v[i];
+            } else if (v[i] > max) {
+                max = v[i];
+            }
+        }
+        return max - min;
     }
     
     /**
@@ -232,8 +342,9 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the standard deviation of the input values
      */
-    public double sdev(List values) {
-        return SampleStats.range(listToArray(values), true);
+    public double sdev(DoubleList values) {
+        double var = variance(values);
+        return Double.isNaN(var) ? Double.NaN : Math.sqrt(var);
     }
     
     
@@ -244,8 +355,16 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the sum of the input values
      */
-    public double sum(List values) {
-        return SampleStats.sum(listToArray(values), true);
+    public double sum(DoubleList values) {
+        double sum = 0;
+        final int N = values.size();
+        for (int i = 0; i < N; i++) {
+            double x = values.get(i);
+            if (!Double.isNaN(x)) {
+                sum += x;
+            }
+        }
+        return sum;
     }
 
     /**
@@ -255,8 +374,30 @@ public class JiffleFunctions {
      * @param values the input values
      * @return the variance of the input values
      */
-    public double variance(List values) {
-        return SampleStats.variance(listToArray(values), true);
+    public double variance(DoubleList values) {
+        final int N = values.size();
+        if (N < 2) {
+            return Double.NaN;
+        }
+        
+        // Welford's method
+        double mean = 0;
+        double m2 = 0;
+        int n = 0;
+        for (int i = 0; i < N; i++) {
+            double x = values.get(i);
+            if (!Double.isNaN(x)) {
+                n++ ;
+                double delta = x - mean;
+                mean += delta / n;
+                m2 += delta * (x - mean);
+            }
+        }
+        
+        if (n > 1) {
+            return m2 / (n - 1);
+        }
+        return n == 1 ? 0 : Double.NaN;
     }
     
     /**
@@ -426,8 +567,8 @@ public class JiffleFunctions {
      * @param list the list
      * @return a new list
      */
-    public List concatDL(double x, List list) {
-        List copy = new ArrayList(list);
+    public DoubleList concatDL(double x, DoubleList list) {
+        DoubleList copy = new DoubleList(list);
         copy.add(x);
         return copy;
     }
@@ -439,8 +580,8 @@ public class JiffleFunctions {
      * @param x the value
      * @return a new list
      */
-    public List concatLD(List list, double x) {
-        List copy = new ArrayList(list);
+    public DoubleList concatLD(DoubleList list, double x) {
+        DoubleList copy = new DoubleList(list);
         copy.add(x);
         return copy;
     }
@@ -452,25 +593,36 @@ public class JiffleFunctions {
      * @param list2 the second list
      * @return a new list
      */
-    public List concatLL(List list1, List list2) {
-        List copy = new ArrayList(list1);
+    public DoubleList concatLL(DoubleList list1, DoubleList list2) {
+        DoubleList copy = new DoubleList(list1);
         copy.addAll(list2);
         return copy;
     }
     
     /**
-     * Convert a list to a double array.
+     * Copies the non-null (ie. not {@code Double.NaN}) values
+     * from a list to a new array.
      * 
      * @param values input list
      * @return a new array
      */
-    private Double[] listToArray(List values) {
+    private double[] nonNullValues(DoubleList values) {
         final int N = values.size();
-        Double[] dvalues = new Double[values.size()];
+        double[] temp = new double[N];
+        int n = 0;
         for (int i = 0; i < N; i++) {
-            dvalues[i] = ((Number)values.get(i)).doubleValue();
+            double x = values.get(i);
+            if (!Double.isNaN(x)) {
+                temp[n++] = x;
+            }
+        }
+        
+        if (n == N) {
+            return temp;
         }
-        return dvalues;
+        double[] result = new double[n];
+        System.arraycopy(temp, 0, result, 0, n);
+        return result;
     }
     
 }
@@ -30,9 +30,11 @@ import org.jaitools.jiffle.JiffleException;
 
 /**
  * Defines methods implemented by runtime classes adopting the indirect 
- * evaluation model. In this model, there is only a single destination image
- * and the {@link #evaluate(double, double)} method passes values back to the caller 
- * rather than writing them to the destination image directly.
+ * evaluation model. In this model, destination values are passed back to the
+ * caller rather than written to the destination images directly: either the
+ * value of the first destination by the {@link #evaluate(double, double)} method,
+ * or the values of all destinations, as bands of a raster, by the 
+ * {@link AbstractIndirectRuntime#evaluateBlock} method.
  *
  * @author Michael Bedward
  * @since 0.1
@@ -40,8 +42,13 @@ import org.jaitools.jiffle.JiffleException;
  */
 public interface JiffleIndirectRuntime extends JiffleRuntime {
     /**
-     * Specifies the name of the script variable which represents the destination
-     * image and defines the coordinate transform.
+     * Specifies the name of the script variable which represents a destination
+     * image and defines the coordinate transform. This method may be called
+     * for each of several destination images, which are then assigned to
+     * bands of the destination raster by {@link AbstractIndirectRuntime#evaluateBlock}
+     * in the order they were set. If no destination image is set, the script's 
+     * destination variables are used in the order they first appear
+     * in the script.
      * The transform defines how to convert from processing area coordinates
      * to image (pixel) coordinates. If {@code tr} is {@code null} the default
      * identify transform will be used.
@@ -102,7 +109,8 @@ public interface JiffleIndirectRuntime extends JiffleRuntime {
     void setSourceImage(String varName);
 
     /**
-     * Evaluates the script for the given world position.
+     * Evaluates the script for the given world position. If the script
+     * has more than one destination image, the value of the first is returned.
      * 
      * @param x world position X ordinate
      * @param y world position Y ordinate
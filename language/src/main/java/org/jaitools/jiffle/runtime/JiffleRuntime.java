@@ -195,6 +195,24 @@ public interface JiffleRuntime {
      */
     void setImageParams(Map<String, ImageRole> imageParams);
     
+    /**
+     * Creates a new runtime object of the same class as this object. This
+     * is much cheaper than requesting a new runtime object from the 
+     * {@link org.jaitools.jiffle.Jiffle} instance because the script does not
+     * have to be compiled again. It is intended for use with worker threads
+     * or jobs, each of which needs its own runtime object.
+     * <p>
+     * The new object has the same image parameters, processing area and
+     * default coordinate transform as this object. It has its own
+     * image-scope variables, set to their initial values, and no
+     * images associated with it.
+     * 
+     * @return the new runtime object
+     * 
+     * @throws JiffleRuntimeException if the new object cannot be created
+     */
+    JiffleRuntime copy();
+    
     /**
      * Gets the variable names associated with source images.
      * 
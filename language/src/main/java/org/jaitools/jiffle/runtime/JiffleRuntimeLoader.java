@@ -0,0 +1,118 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import org.jaitools.jiffle.JiffleException;
+
+/**
+ * Creates runtime objects from classes that were compiled ahead of time,
+ * e.g. with {@link org.jaitools.jiffle.JiffleClassCompiler}. The classes 
+ * record their image parameters, so no {@link org.jaitools.jiffle.Jiffle}
+ * object or script compilation is required.
+ * <pre><code>
+ * JiffleDirectRuntime runtime = JiffleRuntimeLoader.newInstance(
+ *         "com.example.scripts.SlopeAspect", JiffleDirectRuntime.class);
+ * </code></pre>
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleRuntimeLoader {
+    
+    /**
+     * Creates an instance of the named runtime class, loaded with the 
+     * context class loader of the current thread.
+     * 
+     * @param className package-qualified name of the runtime class
+     * 
+     * @return the runtime object
+     * 
+     * @throws JiffleException if the class cannot be found or instantiated
+     */
+    public static JiffleRuntime newInstance(String className) throws JiffleException {
+        return newInstance(className, JiffleRuntime.class);
+    }
+    
+    /**
+     * Creates an instance of the named runtime class, loaded with the 
+     * context class loader of the current thread.
+     * 
+     * @param <T> the runtime type
+     * @param className package-qualified name of the runtime class
+     * @param type the required runtime type, e.g. {@code JiffleDirectRuntime.class}
+     * 
+     * @return the runtime object
+     * 
+     * @throws JiffleException if the class cannot be found or instantiated, or
+     *         is not of the required type
+     */
+    public static <T extends JiffleRuntime> T newInstance(String className, Class<T> type) 
+            throws JiffleException {
+        
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = JiffleRuntimeLoader.class.getClassLoader();
+        }
+        return newInstance(className, type, loader);
+    }
+    
+    /**
+     * Creates an instance of the named runtime class, loaded with the 
+     * given class loader.
+     * 
+     * @param <T> the runtime type
+     * @param className package-qualified name of the runtime class
+     * @param type the required runtime type, e.g. {@code JiffleDirectRuntime.class}
+     * @param loader the class loader
+     * 
+     * @return the runtime object
+     * 
+     * @throws JiffleException if the class cannot be found or instantiated, or
+     *         is not of the required type
+     */
+    public static <T extends JiffleRuntime> T newInstance(String className, Class<T> type,
+            ClassLoader loader) throws JiffleException {
+        
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className, true, loader);
+        } catch (ClassNotFoundException ex) {
+            throw new JiffleException("Runtime class not found: " + className, ex);
+        }
+        
+        if (!type.isAssignableFrom(clazz)) {
+            throw new JiffleException(className + " is not a " + type.getName());
+        }
+        
+        try {
+            return type.cast(clazz.newInstance());
+        } catch (Exception ex) {
+            throw new JiffleException("Unable to create an instance of " + className, ex);
+        }
+    }
+    
+}
@@ -0,0 +1,177 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with fixed buckets on a roughly logarithmic 
+ * scale from 1 millisecond to 1 minute. Recording a value is lock-free.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class LatencyHistogram {
+    
+    /* Upper bounds (inclusive) of buckets in milliseconds */
+    private static final long[] BOUNDS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 
+        1000, 2000, 5000, 10000, 30000, 60000
+    };
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Records a duration.
+     * 
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        final long millis = nanos / 1000000L;
+        
+        int i = 0;
+        while (i < BOUNDS.length && millis >= BOUNDS[i]) {
+            i++ ;
+        }
+        counts.incrementAndGet(i);
+        total.addAndGet(nanos);
+        
+        long m;
+        while (nanos > (m = max.get())) {
+            if (max.compareAndSet(m, nanos)) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * Gets the upper bounds of the buckets. Bucket {@code i} holds 
+     * durations less than {@code bounds[i]} milliseconds and not less
+     * than those of the previous bucket. The final bucket, which has no
+     * entry in the array, holds durations of {@code bounds[n-1]} 
+     * milliseconds or longer.
+     * 
+     * @return bucket bounds in milliseconds
+     */
+    public long[] getBucketBounds() {
+        return BOUNDS.clone();
+    }
+    
+    /**
+     * Gets the number of durations in each bucket.
+     * 
+     * @return bucket counts (one more than the number of bounds)
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the number of durations recorded.
+     * 
+     * @return the count
+     */
+    public long getCount() {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+    
+    /**
+     * Gets the mean duration.
+     * 
+     * @return mean in milliseconds or 0 if no durations have been recorded
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : total.get() / 1.0e6 / n;
+    }
+    
+    /**
+     * Gets the longest duration recorded.
+     * 
+     * @return maximum in milliseconds
+     */
+    public double getMax() {
+        return max.get() / 1.0e6;
+    }
+    
+    /**
+     * Gets an approximate percentile from the bucket counts. The 
+     * result is the upper bound of the bucket in which the percentile
+     * falls or, for the final bucket, the maximum duration.
+     * 
+     * @param p percentile in the range (0, 100]
+     * 
+     * @return duration in milliseconds or 0 if no durations have been recorded
+     */
+    public double getPercentile(double p) {
+        if (p <= 0 || p > 100) {
+            throw new IllegalArgumentException("percentile must be in the range (0, 100]");
+        }
+        
+        long[] c = getCounts();
+        long n = 0;
+        for (long x : c) {
+            n += x;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        
+        long target = (long) Math.ceil(n * p / 100);
+        long cum = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cum += c[i];
+            if (cum >= target) {
+                return Math.min(BOUNDS[i], getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    /**
+     * Discards all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+    
+}
@@ -0,0 +1,103 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.jaitools.jiffle.JiffleProperties;
+
+/**
+ * Publishes metrics MBeans with the platform MBean server. Publication 
+ * is controlled by the {@code metrics.jmx} property. Failures are logged
+ * rather than thrown since metrics are not essential.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+class MetricsSupport {
+    
+    private static final Logger LOGGER = Logger.getLogger(MetricsSupport.class.getName());
+    
+    private static final boolean JMX_ENABLED = Boolean.valueOf(
+            String.valueOf(JiffleProperties.get(JiffleProperties.METRICS_JMX_KEY)).trim());
+    
+    /**
+     * Registers an MBean, replacing any existing MBean with the same name.
+     * 
+     * @param mbean the MBean
+     * @param name object name
+     * 
+     * @return {@code true} if the MBean was registered
+     */
+    static boolean register(Object mbean, String name) {
+        if (!JMX_ENABLED) {
+            return false;
+        }
+        
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName(name);
+            if (server.isRegistered(objName)) {
+                server.unregisterMBean(objName);
+            }
+            server.registerMBean(mbean, objName);
+            return true;
+            
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Unable to register MBean " + name, ex);
+            return false;
+        }
+    }
+    
+    /**
+     * Unregisters an MBean if it is registered.
+     * 
+     * @param name object name
+     */
+    static void unregister(String name) {
+        if (!JMX_ENABLED) {
+            return;
+        }
+        
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName(name);
+            if (server.isRegistered(objName)) {
+                server.unregisterMBean(objName);
+            }
+            
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "Unable to unregister MBean " + name, ex);
+        }
+    }
+    
+}
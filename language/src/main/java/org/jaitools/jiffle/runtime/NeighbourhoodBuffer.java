@@ -0,0 +1,162 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.Arrays;
+
+/**
+ * A rolling buffer of source image rows used by direct runtime objects
+ * for scripts which read pixel neighbourhoods (e.g. {@code src[-1, 1]}).
+ * Each buffered row holds sample values for all bands. Rows are stored in
+ * slots indexed by image Y ordinate modulo the number of slots, so that
+ * when the processing area is traversed row by row each image row is 
+ * read from the image once and subsequent neighbourhood reads are array 
+ * lookups. Rows are filled lazily, in blocks of {@value #BLOCK_SIZE} 
+ * columns, so that a runtime evaluating a tile of the processing area 
+ * only reads the part of each row that it needs.
+ * <p>
+ * The buffer is only a cache: positions are always converted from world 
+ * to image coordinates by the caller, so results are the same as reading
+ * the image directly, whatever the coordinate transform.
+ * <p>
+ * An instance is not thread-safe: each runtime object creates its own.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+class NeighbourhoodBuffer {
+    
+    /** Number of columns read into a row at a time. */
+    static final int BLOCK_SIZE = 64;
+    private static final int BLOCK_SHIFT = 6;
+    
+    private final ImageTileAccessor reader;
+    private final int minX, minY, width, numBands;
+    private final int numSlots;
+    
+    /* Buffered data, image row held by each slot and loaded blocks */
+    private final double[][] data;
+    private final int[] slotRow;
+    private final boolean[][] loaded;
+
+    /**
+     * Creates a new buffer.
+     * 
+     * @param reader accessor for the source image
+     * @param numRows number of image rows to hold (values less than 1 
+     *        are treated as 1; values greater than the image height are
+     *        treated as the image height)
+     */
+    NeighbourhoodBuffer(ImageTileAccessor reader, int numRows) {
+        this.reader = reader;
+        
+        minX = reader.getImage().getMinX();
+        minY = reader.getImage().getMinY();
+        width = reader.getImage().getWidth();
+        numBands = reader.getImage().getSampleModel().getNumBands();
+        numSlots = Math.max(1, Math.min(numRows, reader.getImage().getHeight()));
+        
+        int numBlocks = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        data = new double[numSlots][];
+        slotRow = new int[numSlots];
+        loaded = new boolean[numSlots][numBlocks];
+        Arrays.fill(slotRow, Integer.MIN_VALUE);
+    }
+    
+    /**
+     * Gets the number of image rows held by this buffer.
+     * 
+     * @return number of rows
+     */
+    int getNumRows() {
+        return numSlots;
+    }
+    
+    /**
+     * Tests if a pixel position lies within the image bounds.
+     * 
+     * @param x image X ordinate
+     * @param y image Y ordinate
+     * 
+     * @return {@code true} if the position is inside the image
+     */
+    boolean contains(int x, int y) {
+        return reader.contains(x, y);
+    }
+    
+    /**
+     * Gets a sample value. The position is assumed to be inside
+     * the image bounds.
+     * 
+     * @param x image X ordinate
+     * @param y image Y ordinate
+     * @param band image band
+     * 
+     * @return the sample value
+     */
+    double getSample(int x, int y, int band) {
+        if (band < 0 || band >= numBands) {
+            // let the accessor report the error
+            return reader.getSample(x, y, band);
+        }
+        
+        final int slot = (y - minY) % numSlots;
+        if (slotRow[slot] != y) {
+            slotRow[slot] = y;
+            Arrays.fill(loaded[slot], false);
+        }
+        
+        final int col = x - minX;
+        final int block = col >> BLOCK_SHIFT;
+        if (!loaded[slot][block]) {
+            loadBlock(slot, y, block);
+        }
+        
+        return data[slot][col * numBands + band];
+    }
+
+    /**
+     * Reads a block of columns of an image row into a slot.
+     */
+    private void loadBlock(int slot, int y, int block) {
+        if (data[slot] == null) {
+            data[slot] = new double[width * numBands];
+        }
+        
+        final double[] row = data[slot];
+        final int startCol = block << BLOCK_SHIFT;
+        final int endCol = Math.min(width, startCol + BLOCK_SIZE);
+        
+        int k = startCol * numBands;
+        for (int col = startCol; col < endCol; col++) {
+            for (int b = 0; b < numBands; b++) {
+                row[k++] = reader.getSample(minX + col, y, b);
+            }
+        }
+        loaded[slot][block] = true;
+    }
+}
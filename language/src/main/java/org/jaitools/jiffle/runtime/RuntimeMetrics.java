@@ -0,0 +1,171 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide metrics for runtime objects. Each runtime object
+ * counts its own source reads, destination writes and outside-value hits
+ * in plain fields, which cost little more than an increment in the inner 
+ * loop, and adds them to these totals when {@code evaluateAll} (direct 
+ * runtimes) or {@code evaluateBlock} (indirect runtimes) returns. 
+ * Task times are measured once per call. The single instance is 
+ * published as the MBean {@value #OBJECT_NAME} if JMX publication is 
+ * enabled in the Jiffle properties.
+ * <p>
+ * All methods are thread-safe.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RuntimeMetrics implements RuntimeMetricsMBean {
+    
+    /** Object name used to publish the metrics MBean. */
+    public static final String OBJECT_NAME = "org.jaitools.jiffle:type=RuntimeMetrics";
+    
+    private static final RuntimeMetrics INSTANCE = new RuntimeMetrics();
+    
+    static {
+        MetricsSupport.register(INSTANCE, OBJECT_NAME);
+    }
+    
+    private volatile boolean enabled = true;
+    
+    private final AtomicLong taskCount = new AtomicLong();
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong sourceReads = new AtomicLong();
+    private final AtomicLong destWrites = new AtomicLong();
+    private final AtomicLong outsideHits = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    /**
+     * Gets the process-wide instance.
+     * 
+     * @return the instance
+     */
+    public static RuntimeMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private RuntimeMetrics() {
+    }
+    
+    /**
+     * Records a completed task.
+     * 
+     * @param numPixels number of pixels evaluated
+     * @param nanos time taken in nanoseconds
+     */
+    void recordTask(long numPixels, long nanos) {
+        if (enabled) {
+            taskCount.incrementAndGet();
+            pixels.addAndGet(numPixels);
+            totalNanos.addAndGet(nanos);
+            
+            long max;
+            while (nanos > (max = maxNanos.get())) {
+                if (maxNanos.compareAndSet(max, nanos)) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Adds counts accumulated by a runtime object.
+     * 
+     * @param reads number of source reads
+     * @param writes number of destination writes
+     * @param outside number of outside-value hits
+     */
+    void addCounts(long reads, long writes, long outside) {
+        if (enabled) {
+            if (reads > 0) sourceReads.addAndGet(reads);
+            if (writes > 0) destWrites.addAndGet(writes);
+            if (outside > 0) outsideHits.addAndGet(outside);
+        }
+    }
+
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    public long getPixelsEvaluated() {
+        return pixels.get();
+    }
+
+    public double getPixelsPerSecond() {
+        long nanos = totalNanos.get();
+        return nanos == 0 ? 0 : pixels.get() * 1.0e9 / nanos;
+    }
+
+    public long getSourceReads() {
+        return sourceReads.get();
+    }
+
+    public long getDestinationWrites() {
+        return destWrites.get();
+    }
+
+    public long getOutsideValueHits() {
+        return outsideHits.get();
+    }
+
+    public double getTotalTaskTime() {
+        return totalNanos.get() / 1.0e6;
+    }
+
+    public double getMeanTaskTime() {
+        long n = taskCount.get();
+        return n == 0 ? 0 : totalNanos.get() / 1.0e6 / n;
+    }
+
+    public double getMaxTaskTime() {
+        return maxNanos.get() / 1.0e6;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void reset() {
+        taskCount.set(0);
+        pixels.set(0);
+        sourceReads.set(0);
+        destWrites.set(0);
+        outsideHits.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+    
+}
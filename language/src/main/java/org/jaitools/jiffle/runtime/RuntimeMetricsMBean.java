@@ -0,0 +1,121 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+/**
+ * Management interface for {@link RuntimeMetrics}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public interface RuntimeMetricsMBean {
+    
+    /**
+     * Gets the number of completed {@code evaluateAll} and
+     * {@code evaluateBlock} calls.
+     * 
+     * @return number of tasks
+     */
+    long getTaskCount();
+    
+    /**
+     * Gets the number of pixels evaluated by completed tasks.
+     * 
+     * @return number of pixels
+     */
+    long getPixelsEvaluated();
+    
+    /**
+     * Gets the mean evaluation rate over all completed tasks.
+     * 
+     * @return pixels per second
+     */
+    double getPixelsPerSecond();
+    
+    /**
+     * Gets the number of values read from source images.
+     * 
+     * @return number of reads
+     */
+    long getSourceReads();
+    
+    /**
+     * Gets the number of values written to destination images.
+     * 
+     * @return number of writes
+     */
+    long getDestinationWrites();
+    
+    /**
+     * Gets the number of source reads which were outside the image 
+     * bounds and returned the <i>outside</i> option value.
+     * 
+     * @return number of reads
+     */
+    long getOutsideValueHits();
+    
+    /**
+     * Gets the total time spent in completed tasks.
+     * 
+     * @return time in milliseconds
+     */
+    double getTotalTaskTime();
+    
+    /**
+     * Gets the mean time per completed task.
+     * 
+     * @return time in milliseconds
+     */
+    double getMeanTaskTime();
+    
+    /**
+     * Gets the longest time taken by a completed task.
+     * 
+     * @return time in milliseconds
+     */
+    double getMaxTaskTime();
+    
+    /**
+     * Tests whether metrics are being recorded.
+     * 
+     * @return {@code true} if enabled
+     */
+    boolean isEnabled();
+    
+    /**
+     * Turns recording of metrics on or off.
+     * 
+     * @param enabled whether to record metrics
+     */
+    void setEnabled(boolean enabled);
+    
+    /**
+     * Sets all values to zero.
+     */
+    void reset();
+    
+}
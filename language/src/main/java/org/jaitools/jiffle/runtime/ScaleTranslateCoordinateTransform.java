@@ -0,0 +1,92 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Point;
+
+/**
+ * A {@code CoordinateTransform} which applies independent scale and 
+ * translation to each axis. This is the form of most world to image 
+ * transforms and is a little faster than the equivalent 
+ * {@link AffineCoordinateTransform}. Instances are created by
+ * {@link CoordinateTransforms}.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ScaleTranslateCoordinateTransform extends AbstractCoordinateTransform {
+    private final double xscale;
+    private final double yscale;
+    private final double dx;
+    private final double dy;
+
+    /**
+     * Creates a new instance. Image coordinates are calculated as
+     * {@code xscale * x + dx} and {@code yscale * y + dy}.
+     * 
+     * @param xscale scale on the X axis
+     * @param yscale scale on the Y axis
+     * @param dx translation in the X direction
+     * @param dy translation in the Y direction
+     */
+    public ScaleTranslateCoordinateTransform(double xscale, double yscale, double dx, double dy) {
+        this.xscale = xscale;
+        this.yscale = yscale;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Point worldToImage(double x, double y, Point p) {
+        if (p != null) {
+            p.x = worldToImageX(x, y);
+            p.y = worldToImageY(x, y);
+        } else {
+            p = new Point(worldToImageX(x, y), worldToImageY(x, y));
+        }
+        return p;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageX(double x, double y) {
+        return (int) Math.round(xscale * x + dx);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int worldToImageY(double x, double y) {
+        return (int) Math.round(yscale * y + dy);
+    }
+    
+}
@@ -0,0 +1,219 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compile statistics.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class CompileStatsTest {
+    
+    private static final String SCRIPT = "n = 0; foreach (i in 1:3) { n += i * src; } dest = n;" ;
+    
+    private int defaultMaxSize;
+    private Map<String, Jiffle.ImageRole> imageParams;
+    private RecordingListener listener;
+    
+    private static class RecordingListener implements CompileStatsListener {
+        List<CompileStats> scripts = CollectionFactory.list();
+        List<CompileStats> runtimeClasses = CollectionFactory.list();
+
+        public void scriptCompiled(CompileStats stats) {
+            scripts.add(stats);
+        }
+
+        public void runtimeClassCompiled(CompileStats stats) {
+            runtimeClasses.add(stats);
+        }
+    }
+    
+    @Before
+    public void setup() {
+        defaultMaxSize = RuntimeClassCache.getMaxSize();
+        RuntimeClassCache.setMaxSize(0);
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+        imageParams.put("src", Jiffle.ImageRole.SOURCE);
+        
+        listener = new RecordingListener();
+        Jiffle.addCompileStatsListener(listener);
+    }
+    
+    @After
+    public void cleanup() {
+        Jiffle.removeCompileStatsListener(listener);
+        RuntimeClassCache.setMaxSize(defaultMaxSize);
+    }
+    
+    @Test
+    public void frontEndPhases() throws Exception {
+        System.out.println("   front-end phases recorded by compile");
+        
+        Jiffle jiffle = new Jiffle(SCRIPT, imageParams);
+        CompileStats stats = jiffle.getCompileStats();
+        
+        assertNotNull(stats);
+        assertEquals(jiffle.getName(), stats.getScriptName());
+        for (CompileStats.Phase phase : CompileStats.Phase.values()) {
+            if (phase.isFrontEnd()) {
+                assertTrue(phase.toString(), stats.getTime(phase) >= 0);
+            } else {
+                assertEquals(phase.toString(), -1, stats.getTime(phase));
+            }
+        }
+        
+        assertTrue(stats.getTokenCount() > 0);
+        assertTrue(stats.getPrimaryNodeCount() > 0);
+        assertTrue(stats.getFinalNodeCount() > 0);
+        assertEquals(0, stats.getSourceLength());
+        assertEquals(0, stats.getBytecodeSize());
+        assertEquals(0, stats.getBackEndTime());
+        
+        assertEquals(1, listener.scripts.size());
+        assertSame(stats, listener.scripts.get(0));
+        assertTrue(listener.runtimeClasses.isEmpty());
+    }
+    
+    @Test
+    public void backEndPhases() throws Exception {
+        System.out.println("   back-end phases recorded for runtime class");
+        
+        Jiffle jiffle = new Jiffle(SCRIPT, imageParams);
+        jiffle.getRuntimeInstance();
+        CompileStats stats = jiffle.getCompileStats();
+        
+        assertTrue(stats.getTime(CompileStats.Phase.SOURCE_GENERATION) >= 0);
+        assertTrue(stats.getTime(CompileStats.Phase.BYTECODE_COMPILATION) >= 0);
+        assertEquals(jiffle.getRuntimeSource(false).length(), stats.getSourceLength());
+        assertTrue(stats.getBytecodeSize() > 0);
+        assertEquals(stats.getFrontEndTime() + stats.getBackEndTime(), stats.getTotalTime());
+        
+        assertEquals(1, listener.runtimeClasses.size());
+        
+        // the runtime class is retained so this does not compile again
+        jiffle.getRuntimeInstance();
+        assertEquals(1, listener.runtimeClasses.size());
+    }
+    
+    @Test
+    public void sizesIncreaseWithScript() throws Exception {
+        System.out.println("   sizes increase with script");
+        
+        CompileStats small = new Jiffle("dest = src;", imageParams).getCompileStats();
+        CompileStats large = new Jiffle(SCRIPT, imageParams).getCompileStats();
+        
+        assertTrue(large.getTokenCount() > small.getTokenCount());
+        assertTrue(large.getPrimaryNodeCount() > small.getPrimaryNodeCount());
+        assertTrue(large.getFinalNodeCount() > small.getFinalNodeCount());
+    }
+    
+    @Test
+    public void noStatsBeforeCompile() throws Exception {
+        System.out.println("   no stats before compile");
+        
+        Jiffle jiffle = new Jiffle();
+        jiffle.setScript(SCRIPT);
+        assertNull(jiffle.getCompileStats());
+    }
+    
+    @Test
+    public void failedCompileNotReported() throws Exception {
+        System.out.println("   failed compile not reported to listeners");
+        
+        try {
+            new Jiffle("dest = foo;", imageParams);
+            fail("Expected a JiffleException");
+        } catch (JiffleException ex) {
+            // expected
+        }
+        assertTrue(listener.scripts.isEmpty());
+    }
+    
+    @Test
+    public void aggregator() throws Exception {
+        System.out.println("   aggregated stats");
+        
+        CompileStatsAggregator agg = new CompileStatsAggregator();
+        Jiffle.addCompileStatsListener(agg);
+        try {
+            Jiffle small = new Jiffle("dest = src;", imageParams);
+            small.getRuntimeInstance();
+            Jiffle large = new Jiffle(SCRIPT, imageParams);
+            large.getRuntimeInstance();
+            
+            assertEquals(2, agg.getScriptCount());
+            assertEquals(2, agg.getRuntimeClassCount());
+            assertEquals(2, agg.getCount(CompileStats.Phase.PARSE));
+            assertEquals(2, agg.getCount(CompileStats.Phase.BYTECODE_COMPILATION));
+            
+            CompileStats s = small.getCompileStats();
+            CompileStats l = large.getCompileStats();
+            
+            assertEquals(s.getTime(CompileStats.Phase.PARSE) + l.getTime(CompileStats.Phase.PARSE),
+                    agg.getTotalTime(CompileStats.Phase.PARSE));
+            assertEquals(Math.max(s.getTime(CompileStats.Phase.PARSE), l.getTime(CompileStats.Phase.PARSE)),
+                    agg.getMaxTime(CompileStats.Phase.PARSE));
+            
+            assertEquals(l.getTokenCount(), agg.getMaxTokenCount());
+            assertEquals(s.getBytecodeSize() + l.getBytecodeSize(), agg.getTotalBytecodeSize());
+            assertEquals(Math.max(s.getBytecodeSize(), l.getBytecodeSize()), agg.getMaxBytecodeSize());
+            assertNotNull(agg.getSlowestScriptName());
+            
+            agg.reset();
+            assertEquals(0, agg.getScriptCount());
+            assertEquals(0, agg.getTotalTime(CompileStats.Phase.PARSE));
+            assertNull(agg.getSlowestScriptName());
+            
+        } finally {
+            Jiffle.removeCompileStatsListener(agg);
+        }
+    }
+    
+    @Test
+    public void globalAggregator() throws Exception {
+        System.out.println("   global aggregated stats");
+        
+        CompileStatsAggregator global = Jiffle.getGlobalCompileStats();
+        long count = global.getScriptCount();
+        new Jiffle("dest = src;", imageParams);
+        assertTrue(global.getScriptCount() > count);
+    }
+    
+}
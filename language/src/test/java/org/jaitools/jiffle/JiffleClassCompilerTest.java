@@ -0,0 +1,199 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.awt.image.WritableRenderedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.runtime.JiffleDirectRuntime;
+import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
+import org.jaitools.jiffle.runtime.JiffleRuntime;
+import org.jaitools.jiffle.runtime.JiffleRuntimeLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compiling runtime classes ahead of time and loading them.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class JiffleClassCompilerTest {
+    
+    private static final String PKG_NAME = "org.jaitools.jiffle.aottest";
+    
+    private File outputDir;
+    
+    @Before
+    public void setup() throws Exception {
+        outputDir = File.createTempFile("jiffle", "classes");
+        outputDir.delete();
+        outputDir.mkdir();
+    }
+    
+    @After
+    public void cleanup() {
+        deleteDir(outputDir);
+    }
+    
+    @Test
+    public void classNameFromFileName() {
+        System.out.println("   class names from script file names");
+        
+        assertEquals("SlopeAspect", JiffleClassCompiler.getClassName("slope-aspect.jfl"));
+        assertEquals("LifeToroid", JiffleClassCompiler.getClassName("life_toroid.jfl"));
+        assertEquals("Constant", JiffleClassCompiler.getClassName("constant"));
+        assertEquals("Jiffle3x3", JiffleClassCompiler.getClassName("3x3.jfl"));
+    }
+    
+    @Test
+    public void compileAndLoadDirect() throws Exception {
+        System.out.println("   compile and load direct runtime class");
+        
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("src", Jiffle.ImageRole.SOURCE);
+        params.put("dest", Jiffle.ImageRole.DEST);
+        
+        JiffleClassCompiler compiler = new JiffleClassCompiler(outputDir);
+        List<File> files = compiler.compile("dest = src * 2;", params, PKG_NAME + ".Doubler");
+        
+        File expected = new File(outputDir, 
+                PKG_NAME.replace('.', File.separatorChar) + File.separator + "Doubler.class");
+        assertTrue(files.contains(expected));
+        assertTrue(expected.isFile());
+        
+        JiffleDirectRuntime runtime = JiffleRuntimeLoader.newInstance(
+                PKG_NAME + ".Doubler", JiffleDirectRuntime.class, createLoader());
+        
+        assertEquals(Arrays.asList("src"), Arrays.asList(runtime.getSourceVarNames()));
+        assertEquals(Arrays.asList("dest"), Arrays.asList(runtime.getDestinationVarNames()));
+        
+        WritableRenderedImage src = ImageUtils.createConstantImage(5, 5, 21d);
+        WritableRenderedImage dest = ImageUtils.createConstantImage(5, 5, 0d);
+        runtime.setSourceImage("src", src);
+        runtime.setDestinationImage("dest", dest);
+        runtime.evaluateAll(null);
+        
+        assertEquals(42.0, dest.getData().getSampleDouble(4, 4, 0), 1.0e-8);
+    }
+    
+    @Test
+    public void compileScriptFileIndirect() throws Exception {
+        System.out.println("   compile script file to indirect runtime class");
+        
+        File scriptFile = new File(outputDir, "x-plus-y.jfl");
+        Writer writer = new FileWriter(scriptFile);
+        writer.write("images { dest = write; }\ndest = x() + y();\n");
+        writer.close();
+        
+        JiffleClassCompiler compiler = new JiffleClassCompiler(outputDir);
+        compiler.setRuntimeModel(Jiffle.RuntimeModel.INDIRECT);
+        compiler.setPackageName(PKG_NAME);
+        compiler.compile(scriptFile);
+        
+        JiffleIndirectRuntime runtime = JiffleRuntimeLoader.newInstance(
+                PKG_NAME + ".XPlusY", JiffleIndirectRuntime.class, createLoader());
+        
+        runtime.setDestinationImage("dest");
+        assertEquals(5.0, runtime.evaluate(2, 3), 1.0e-8);
+    }
+    
+    @Test
+    public void commandLine() throws Exception {
+        System.out.println("   compile from command line");
+        
+        File scriptFile = new File(outputDir, "constant.jfl");
+        Writer writer = new FileWriter(scriptFile);
+        writer.write("images { dest = write; }\ndest = 42;\n");
+        writer.close();
+        
+        JiffleClassCompiler.main(new String[] {
+            "-d", outputDir.getPath(), "-p", PKG_NAME, scriptFile.getPath()
+        });
+        
+        JiffleRuntime runtime = JiffleRuntimeLoader.newInstance(
+                PKG_NAME + ".Constant", JiffleRuntime.class, createLoader());
+        assertTrue(runtime instanceof JiffleDirectRuntime);
+    }
+    
+    @Test(expected=JiffleException.class)
+    public void classNotFound() throws Exception {
+        System.out.println("   loading missing class");
+        JiffleRuntimeLoader.newInstance(PKG_NAME + ".DoesNotExist");
+    }
+    
+    @Test(expected=JiffleException.class)
+    public void wrongRuntimeType() throws Exception {
+        System.out.println("   loading class with wrong runtime type");
+        
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        
+        JiffleClassCompiler compiler = new JiffleClassCompiler(outputDir);
+        compiler.compile("dest = 1;", params, PKG_NAME + ".One");
+        
+        JiffleRuntimeLoader.newInstance(
+                PKG_NAME + ".One", JiffleIndirectRuntime.class, createLoader());
+    }
+    
+    @Test(expected=JiffleException.class)
+    public void unqualifiedClassName() throws Exception {
+        System.out.println("   class name without package");
+        
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        
+        new JiffleClassCompiler(outputDir).compile("dest = 1;", params, "One");
+    }
+    
+    private ClassLoader createLoader() throws Exception {
+        return new URLClassLoader(new URL[] { outputDir.toURI().toURL() },
+                getClass().getClassLoader());
+    }
+    
+    private void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteDir(f);
+            }
+        }
+        dir.delete();
+    }
+}
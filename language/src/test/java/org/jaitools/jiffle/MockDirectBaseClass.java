@@ -71,14 +71,26 @@ public abstract class MockDirectBaseClass
         throw new UnsupportedOperationException("Should not be called");
     }
 
+    public void evaluateAll(JiffleProgressListener ignored, int parallelism) {
+        throw new UnsupportedOperationException("Should not be called");
+    }
+
     public double readFromImage(String srcImageName, double x, double y, int band) {
         throw new UnsupportedOperationException("Should not be called");
     }
 
+    public double readFromImage(int srcImageIndex, double x, double y, int band) {
+        throw new UnsupportedOperationException("Should not be called");
+    }
+
     public void writeToImage(String destImageName, double x, double y, int band, double value) {
         throw new UnsupportedOperationException("Should not be called");
     }
 
+    public void writeToImage(int destImageIndex, double x, double y, int band, double value) {
+        throw new UnsupportedOperationException("Should not be called");
+    }
+
     public Map<String, RenderedImage> getImages() {
         throw new UnsupportedOperationException("Should not be called");
     }
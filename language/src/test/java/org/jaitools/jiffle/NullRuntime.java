@@ -96,6 +96,10 @@ public class NullRuntime implements JiffleRuntime {
 
     public void setImageParams(Map<String, ImageRole> imageParams) {}
 
+    public JiffleRuntime copy() {
+        return new NullRuntime();
+    }
+
     public String[] getSourceVarNames() {
         return new String[0];
     }
@@ -0,0 +1,202 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.awt.image.WritableRenderedImage;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.runtime.JiffleDirectRuntime;
+import org.jaitools.jiffle.runtime.JiffleIndirectRuntime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the process-wide cache of compiled runtime classes.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RuntimeClassCacheTest {
+    
+    private int defaultMaxSize;
+    private Map<String, Jiffle.ImageRole> imageParams;
+    
+    @Before
+    public void setup() {
+        defaultMaxSize = RuntimeClassCache.getMaxSize();
+        RuntimeClassCache.clear();
+        RuntimeClassCache.resetCounts();
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+    }
+    
+    @After
+    public void cleanup() {
+        RuntimeClassCache.setMaxSize(defaultMaxSize);
+    }
+    
+    @Test
+    public void sameScriptUsesCachedClass() throws Exception {
+        System.out.println("   same script uses cached class");
+        
+        JiffleDirectRuntime r1 = new Jiffle("dest = 42;", imageParams).getRuntimeInstance();
+        JiffleDirectRuntime r2 = new Jiffle("dest = 42;", imageParams).getRuntimeInstance();
+        
+        assertSame(r1.getClass(), r2.getClass());
+        assertNotSame(r1, r2);
+        assertEquals(1, RuntimeClassCache.getMissCount());
+        assertEquals(1, RuntimeClassCache.getHitCount());
+        assertEquals(1, RuntimeClassCache.getSize());
+    }
+    
+    @Test
+    public void whitespaceIgnored() throws Exception {
+        System.out.println("   script whitespace is normalized");
+        
+        Class<?> c1 = new Jiffle("dest = 42;", imageParams).getRuntimeInstance().getClass();
+        Class<?> c2 = new Jiffle("  dest  =\t42;\n\n", imageParams).getRuntimeInstance().getClass();
+        
+        assertSame(c1, c2);
+        assertEquals(1, RuntimeClassCache.getHitCount());
+    }
+    
+    @Test
+    public void lineBreaksKept() throws Exception {
+        System.out.println("   script line breaks are significant");
+        
+        Class<?> c1 = new Jiffle("dest = 1; // comment \n dest = 2;", imageParams)
+                .getRuntimeInstance().getClass();
+        Class<?> c2 = new Jiffle("dest = 1; // comment dest = 2;", imageParams)
+                .getRuntimeInstance().getClass();
+        
+        assertNotSame(c1, c2);
+        assertEquals(0, RuntimeClassCache.getHitCount());
+    }
+    
+    @Test
+    public void differentImageParams() throws Exception {
+        System.out.println("   different image params are cached separately");
+        
+        Map<String, Jiffle.ImageRole> otherParams = CollectionFactory.map();
+        otherParams.put("dest", Jiffle.ImageRole.DEST);
+        otherParams.put("src", Jiffle.ImageRole.SOURCE);
+        
+        new Jiffle("dest = 42;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 42;", otherParams).getRuntimeInstance();
+        
+        assertEquals(2, RuntimeClassCache.getMissCount());
+        assertEquals(2, RuntimeClassCache.getSize());
+    }
+    
+    @Test
+    public void differentRuntimeModels() throws Exception {
+        System.out.println("   different runtime models are cached separately");
+        
+        Jiffle jiffle = new Jiffle("dest = 42;", imageParams);
+        Object direct = jiffle.getRuntimeInstance(Jiffle.RuntimeModel.DIRECT);
+        Object indirect = jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        
+        assertTrue(direct instanceof JiffleDirectRuntime);
+        assertTrue(indirect instanceof JiffleIndirectRuntime);
+        assertEquals(2, RuntimeClassCache.getMissCount());
+    }
+    
+    @Test
+    public void leastRecentlyUsedDiscarded() throws Exception {
+        System.out.println("   least recently used class is discarded");
+        
+        RuntimeClassCache.setMaxSize(2);
+        
+        new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 2;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 3;", imageParams).getRuntimeInstance();
+        assertEquals(2, RuntimeClassCache.getSize());
+        
+        RuntimeClassCache.resetCounts();
+        new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        assertEquals(1, RuntimeClassCache.getHitCount());
+        new Jiffle("dest = 2;", imageParams).getRuntimeInstance();
+        assertEquals(1, RuntimeClassCache.getMissCount());
+    }
+    
+    @Test
+    public void reducingMaxSize() throws Exception {
+        System.out.println("   reducing max size discards classes");
+        
+        new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 2;", imageParams).getRuntimeInstance();
+        new Jiffle("dest = 3;", imageParams).getRuntimeInstance();
+        
+        RuntimeClassCache.setMaxSize(1);
+        assertEquals(1, RuntimeClassCache.getSize());
+    }
+    
+    @Test
+    public void cachingDisabled() throws Exception {
+        System.out.println("   caching disabled with max size 0");
+        
+        RuntimeClassCache.setMaxSize(0);
+        Class<?> c1 = new Jiffle("dest = 42;", imageParams).getRuntimeInstance().getClass();
+        Class<?> c2 = new Jiffle("dest = 42;", imageParams).getRuntimeInstance().getClass();
+        
+        assertNotSame(c1, c2);
+        assertEquals(0, RuntimeClassCache.getSize());
+        assertEquals(0, RuntimeClassCache.getHitCount());
+    }
+    
+    @Test
+    public void instancesFromCachedClassAreIndependent() throws Exception {
+        System.out.println("   runtime instances from a cached class are independent");
+        
+        String script = "options { outside = 0; } init { n = 0; } n += 1; dest = n;" ;
+        JiffleDirectRuntime r1 = new Jiffle(script, imageParams).getRuntimeInstance();
+        JiffleDirectRuntime r2 = new Jiffle(script, imageParams).getRuntimeInstance();
+        
+        WritableRenderedImage img1 = ImageUtils.createConstantImage(5, 5, 0d);
+        WritableRenderedImage img2 = ImageUtils.createConstantImage(5, 5, 0d);
+        r1.setDestinationImage("dest", img1);
+        r2.setDestinationImage("dest", img2);
+        r1.evaluateAll(null);
+        r2.evaluateAll(null);
+        
+        assertEquals(25, img1.getData().getSample(4, 4, 0));
+        assertEquals(25, img2.getData().getSample(4, 4, 0));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void negativeMaxSize() {
+        System.out.println("   negative max size");
+        RuntimeClassCache.setMaxSize(-1);
+    }
+}
@@ -0,0 +1,327 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.media.jai.TiledImage;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.runtime.AbstractIndirectRuntime;
+import org.jaitools.jiffle.runtime.JiffleDirectRuntime;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for runtime compiler back-ends.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RuntimeCompilerTest {
+    
+    private static final int WIDTH = 10;
+    private static final double TOL = 1.0e-8;
+    
+    private int defaultMaxSize;
+    private Map<String, Jiffle.ImageRole> imageParams;
+    
+    /**
+     * A back-end which delegates to Janino and counts compilations.
+     */
+    private static class CountingCompiler implements RuntimeCompiler {
+        int count = 0;
+        
+        public Map<String, byte[]> compile(RuntimeCompilation compilation, ClassLoader loader) 
+                throws JiffleException {
+            count++ ;
+            return new JaninoRuntimeCompiler().compile(compilation, loader);
+        }
+    }
+    
+    @Before
+    public void setup() {
+        defaultMaxSize = RuntimeClassCache.getMaxSize();
+        RuntimeClassCache.setMaxSize(0);
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+    }
+    
+    @After
+    public void cleanup() {
+        RuntimeClassCache.setMaxSize(defaultMaxSize);
+    }
+    
+    @Test
+    public void defaultCompiler() throws Exception {
+        System.out.println("   default runtime compiler");
+        
+        Jiffle jiffle = new Jiffle("dest = 42;", imageParams);
+        assertTrue(jiffle.getRuntimeCompiler() instanceof JaninoRuntimeCompiler);
+        assertSame(jiffle.getRuntimeCompiler(), 
+                new Jiffle("dest = 1;", imageParams).getRuntimeCompiler());
+    }
+    
+    @Test
+    public void customCompiler() throws Exception {
+        System.out.println("   custom runtime compiler");
+        
+        CountingCompiler compiler = new CountingCompiler();
+        Jiffle jiffle = new Jiffle("dest = 42;", imageParams);
+        jiffle.setRuntimeCompiler(compiler);
+        
+        jiffle.getRuntimeInstance();
+        jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        assertEquals(2, compiler.count);
+        
+        jiffle.getRuntimeInstance();
+        assertEquals(2, compiler.count);
+    }
+    
+    @Test
+    public void cachedClassFromOtherCompilerNotUsed() throws Exception {
+        System.out.println("   cached class compiled by another back-end is not used");
+        RuntimeClassCache.setMaxSize(10);
+        RuntimeClassCache.clear();
+        
+        String script = "dest = 42;" ;
+        new Jiffle(script, imageParams).getRuntimeInstance();
+        
+        CountingCompiler compiler = new CountingCompiler();
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        jiffle.setRuntimeCompiler(compiler);
+        jiffle.getRuntimeInstance();
+        assertEquals(1, compiler.count);
+        
+        // a class compiled by the same type of back-end is shared
+        Jiffle other = new Jiffle(script, imageParams);
+        other.setRuntimeCompiler(new CountingCompiler());
+        assertSame(jiffle.getRuntimeInstance().getClass(), 
+                other.getRuntimeInstance().getClass());
+        
+        RuntimeClassCache.clear();
+    }
+    
+    @Test
+    public void separateClassLoaders() throws Exception {
+        System.out.println("   each runtime class has its own class loader");
+        
+        Class<?> c1 = new Jiffle("dest = 1;", imageParams).getRuntimeInstance().getClass();
+        Class<?> c2 = new Jiffle("dest = 1;", imageParams).getRuntimeInstance().getClass();
+        
+        assertNotSame(c1, c2);
+        assertNotSame(c1.getClassLoader(), c2.getClassLoader());
+    }
+    
+    @Test
+    public void concurrentCompilation() throws Exception {
+        System.out.println("   compiling scripts concurrently");
+        
+        final int numScripts = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<JiffleDirectRuntime>> futures = CollectionFactory.list();
+        
+        for (int i = 0; i < numScripts; i++) {
+            final String script = String.format("dest = %d + x();", i);
+            futures.add(executor.submit(new Callable<JiffleDirectRuntime>() {
+                public JiffleDirectRuntime call() throws Exception {
+                    return new Jiffle(script, imageParams).getRuntimeInstance();
+                }
+            }));
+        }
+        
+        for (Future<JiffleDirectRuntime> f : futures) {
+            assertNotNull(f.get());
+        }
+        executor.shutdown();
+    }
+    
+    @Test
+    public void bytecodeArithmetic() throws Exception {
+        System.out.println("   bytecode back-end: arithmetic and functions");
+        assertSameDirectResults(
+                "dest = src * 2 + sqrt(src) - src % 3 + 2 ^ 3 + abs(-src) "
+                + "+ round(src / 3) + log(src + 1, 10) + M_PI - (src ^| 1) + !(src > 3);");
+    }
+    
+    @Test
+    public void bytecodeControlFlow() throws Exception {
+        System.out.println("   bytecode back-end: conditionals and loops");
+        assertSameDirectResults(
+                "n = 0; \n"
+                + "foreach (i in 1:3) n += i * src; \n"
+                + "foreach (v in [x(), y(), 2]) { n -= v; } \n"
+                + "k = 0; \n"
+                + "while (k < 5) { k++; breakif(k > src); } \n"
+                + "until (k > 8) k += 2; \n"
+                + "if (src > 50 && x() != y()) { n = -n; } else { n += con(src % 3 - 1, 1, 2, 3); } \n"
+                + "dest = n + k + con(src > 20) + con(src < 30, src) + con(src < 40, 1, src / 2) "
+                + "+ (src > 5 ? 1 : 2);");
+    }
+    
+    @Test
+    public void bytecodeIncrements() throws Exception {
+        System.out.println("   bytecode back-end: increment and decrement");
+        assertSameDirectResults(
+                "n = src; m = n++ + ++n - n-- * --n; n *= 2 + 1; dest = m + -n;");
+    }
+    
+    @Test
+    public void bytecodeSubexpressions() throws Exception {
+        System.out.println("   bytecode back-end: repeated subexpressions");
+        assertSameDirectResults(
+                "dest = con(src > 50, sqrt(src) * 2, sqrt(src) + log(src + 1));");
+    }
+    
+    @Test
+    public void bytecodeImageScopeVarsAndOptions() throws Exception {
+        System.out.println("   bytecode back-end: image-scope variables, options and neighbours");
+        String script = "options { outside = 42; } \n"
+                + "init { total = 0; scale = width() / 2; } \n"
+                + "total += src[-1, 0] + src[1, 1]; \n"
+                + "dest = total / scale + src[$(x() / 2), 1] + xres() + height();";
+        
+        assertSameDirectResults(script);
+        assertSameIndirectResults(script);
+    }
+    
+    @Test
+    public void bytecodeIndirect() throws Exception {
+        System.out.println("   bytecode back-end: indirect runtime");
+        assertSameIndirectResults(
+                "options { outside = 0; } \n"
+                + "n = 0; foreach (dy in -1:1) n += src[0, dy]; \n"
+                + "dest = con(n > 30, n, -n) + x() * y();");
+    }
+    
+    @Test
+    public void bytecodeFallsBackForLists() throws Exception {
+        System.out.println("   bytecode back-end falls back to Janino for lists");
+        Jiffle jiffle = new Jiffle(
+                "values = [src, 2]; n = 0; foreach (v in values) n += v; dest = n;",
+                getSourceDestParams());
+        jiffle.setRuntimeCompiler(new BytecodeRuntimeCompiler());
+        
+        TiledImage dest = evaluateDirect(jiffle);
+        assertTrue(jiffle.getCompileStats().getTime(CompileStats.Phase.SOURCE_GENERATION) >= 0);
+        assertEquals(7.0, dest.getSampleDouble(5, 0, 0), TOL);
+    }
+    
+    /*
+     * Compiles the script with the Janino and bytecode back-ends and checks
+     * that the direct runtime objects give the same results.
+     */
+    private void assertSameDirectResults(String script) throws Exception {
+        Jiffle expected = new Jiffle(script, getSourceDestParams());
+        expected.setRuntimeCompiler(new JaninoRuntimeCompiler());
+        
+        Jiffle jiffle = new Jiffle(script, getSourceDestParams());
+        jiffle.setRuntimeCompiler(new BytecodeRuntimeCompiler());
+        
+        assertImagesEqual(evaluateDirect(expected), evaluateDirect(jiffle));
+        assertEquals(-1, jiffle.getCompileStats().getTime(CompileStats.Phase.SOURCE_GENERATION));
+    }
+    
+    /*
+     * As assertSameDirectResults but for indirect runtime objects.
+     */
+    private void assertSameIndirectResults(String script) throws Exception {
+        Jiffle expected = new Jiffle(script, getSourceDestParams());
+        expected.setRuntimeCompiler(new JaninoRuntimeCompiler());
+        
+        Jiffle jiffle = new Jiffle(script, getSourceDestParams());
+        jiffle.setRuntimeCompiler(new BytecodeRuntimeCompiler());
+        
+        assertImagesEqual(evaluateIndirect(expected), evaluateIndirect(jiffle));
+        assertEquals(-1, jiffle.getCompileStats().getTime(CompileStats.Phase.SOURCE_GENERATION));
+    }
+    
+    private Map<String, Jiffle.ImageRole> getSourceDestParams() {
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        params.put("src", Jiffle.ImageRole.SOURCE);
+        return params;
+    }
+    
+    private TiledImage createSourceImage() {
+        TiledImage img = ImageUtils.createConstantImage(WIDTH, WIDTH, 0.0);
+        int k = 0;
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setSample(x, y, 0, k++);
+            }
+        }
+        return img;
+    }
+    
+    private TiledImage evaluateDirect(Jiffle jiffle) throws Exception {
+        JiffleDirectRuntime runtime = jiffle.getRuntimeInstance();
+        runtime.setSourceImage("src", createSourceImage());
+        
+        TiledImage dest = ImageUtils.createConstantImage(WIDTH, WIDTH, 0.0);
+        runtime.setDestinationImage("dest", dest);
+        runtime.evaluateAll(null);
+        return dest;
+    }
+    
+    private TiledImage evaluateIndirect(Jiffle jiffle) throws Exception {
+        AbstractIndirectRuntime runtime = 
+                (AbstractIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        runtime.setSourceImage("src");
+        runtime.setDestinationImage("dest");
+        runtime.setWorldByResolution(new Rectangle(0, 0, WIDTH, WIDTH), 1, 1);
+        
+        Rectangle block = new Rectangle(0, 0, WIDTH, WIDTH);
+        TiledImage dest = ImageUtils.createConstantImage(WIDTH, WIDTH, 0.0);
+        runtime.evaluateBlock(new Raster[] {createSourceImage().getData(block)}, 
+                dest.getWritableTile(0, 0), block);
+        return dest;
+    }
+    
+    private void assertImagesEqual(RenderedImage expected, RenderedImage result) {
+        Raster r0 = expected.getData();
+        Raster r1 = result.getData();
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(r0.getSampleDouble(x, y, 0), r1.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+}
@@ -123,4 +123,20 @@ public class ConStatementsTest extends RuntimeTestBase {
         assertImage(src1, dest, e);
     }
     
+    @Test
+    public void nestedConInConditionAndAlternatives() throws Exception {
+        String script = "dest = con(con(src > 50, 1, -1), con(src > 75, 2, 3), 4, con(src, 5, null));" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+
+            public double eval(double val) {
+                if (val > 50) {
+                    return val > 75 ? 2 : 3;
+                }
+                return val != 0 ? 5 : Double.NaN;
+            }
+        });
+    }
+    
 }
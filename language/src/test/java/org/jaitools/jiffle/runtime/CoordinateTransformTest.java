@@ -144,6 +144,61 @@ public class CoordinateTransformTest {
         assertPoint(0, 100, tr.worldToImage(100, 100, null));
     }
     
+    @Test
+    public void primitiveMethods() throws Exception {
+        System.out.println("   worldToImageX and worldToImageY");
+        
+        AffineTransform affine = AffineTransform.getRotateInstance(Math.PI/2, 50, 50);
+        AbstractCoordinateTransform tr = new AffineCoordinateTransform(affine);
+        
+        assertEquals(100, tr.worldToImageX(0, 0));
+        assertEquals(0, tr.worldToImageY(0, 0));
+        assertEquals(0, tr.worldToImageX(100, 100));
+        assertEquals(100, tr.worldToImageY(100, 100));
+        
+        CoordinateTransform scale = CoordinateTransforms.scale(0.1, 0.2);
+        assertEquals(10, CoordinateTransforms.worldToImageX(scale, 100, 100));
+        assertEquals(20, CoordinateTransforms.worldToImageY(scale, 100, 100));
+    }
+    
+    @Test
+    public void primitiveMethodsOtherTransform() throws Exception {
+        System.out.println("   worldToImageX and worldToImageY with other transform");
+        
+        // a transform which only implements the interface
+        CoordinateTransform tr = new CoordinateTransform() {
+            public Point worldToImage(double x, double y, Point p) {
+                if (p == null) {
+                    p = new Point();
+                }
+                p.x = (int) Math.round(x / 2);
+                p.y = (int) Math.round(y / 4);
+                return p;
+            }
+        };
+        
+        assertEquals(50, CoordinateTransforms.worldToImageX(tr, 100, 100));
+        assertEquals(25, CoordinateTransforms.worldToImageY(tr, 100, 100));
+    }
+    
+    @Test
+    public void specializedTransforms() throws Exception {
+        System.out.println("   specialized transforms from helper");
+        
+        assertTrue(CoordinateTransforms.getTransform(new AffineTransform()) 
+                instanceof IdentityCoordinateTransform);
+        
+        assertTrue(CoordinateTransforms.translation(10, -10)
+                instanceof ScaleTranslateCoordinateTransform);
+        
+        assertTrue(CoordinateTransforms.scale(0.1, 0.2)
+                instanceof ScaleTranslateCoordinateTransform);
+        
+        AffineTransform affine = AffineTransform.getRotateInstance(Math.PI/2, 50, 50);
+        assertTrue(CoordinateTransforms.getTransform(affine)
+                instanceof AffineCoordinateTransform);
+    }
+    
     private void assertPoint(int expectedX, int expectedY, Point pt) {
         assertEquals(expectedX, pt.x);
         assertEquals(expectedY, pt.y);
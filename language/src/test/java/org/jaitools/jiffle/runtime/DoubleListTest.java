@@ -0,0 +1,131 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the DoubleList class and the stats functions 
+ * which work with it.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class DoubleListTest {
+    
+    private static final double TOL = 1.0e-8;
+    
+    private final JiffleFunctions fn = new JiffleFunctions();
+    
+    @Test
+    public void addAndGrow() throws Exception {
+        System.out.println("   DoubleList add and grow");
+        
+        DoubleList list = new DoubleList();
+        assertTrue(list.isEmpty());
+        
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertEquals(100, list.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, list.get(i), TOL);
+        }
+    }
+    
+    @Test
+    public void concat() throws Exception {
+        System.out.println("   DoubleList concat functions");
+        
+        DoubleList list1 = new DoubleList(new double[] {1, 2});
+        DoubleList list2 = new DoubleList(new double[] {3});
+        
+        assertEquals(new DoubleList(new double[] {1, 2, 3}), fn.concatLL(list1, list2));
+        assertEquals(new DoubleList(new double[] {1, 2, 0}), fn.concatLD(list1, 0));
+        
+        // inputs should not be modified
+        assertEquals(2, list1.size());
+        assertEquals(1, list2.size());
+    }
+    
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void getOutOfRange() throws Exception {
+        System.out.println("   DoubleList get out of range");
+        new DoubleList(new double[] {1, 2}).get(2);
+    }
+    
+    @Test
+    public void statsIgnoreNaN() throws Exception {
+        System.out.println("   stats functions with null values");
+        
+        DoubleList list = new DoubleList(new double[] {4, Double.NaN, 1, 3, 2, 2, Double.NaN});
+        
+        assertEquals(4, fn.max(list), TOL);
+        assertEquals(1, fn.min(list), TOL);
+        assertEquals(3, fn.range(list), TOL);
+        assertEquals(12, fn.sum(list), TOL);
+        assertEquals(2.4, fn.mean(list), TOL);
+        assertEquals(2, fn.median(list), TOL);
+        assertEquals(2, fn.mode(list), TOL);
+        assertEquals(1.3, fn.variance(list), TOL);
+        assertEquals(Math.sqrt(1.3), fn.sdev(list), TOL);
+    }
+    
+    @Test
+    public void statsEmptyList() throws Exception {
+        System.out.println("   stats functions with empty list");
+        
+        DoubleList list = new DoubleList();
+        assertTrue(Double.isNaN(fn.max(list)));
+        assertTrue(Double.isNaN(fn.mean(list)));
+        assertTrue(Double.isNaN(fn.median(list)));
+        assertTrue(Double.isNaN(fn.mode(list)));
+        assertEquals(0, fn.sum(list), TOL);
+    }
+    
+    @Test
+    public void medianEvenNumberOfValues() throws Exception {
+        System.out.println("   median of even number of values");
+        
+        DoubleList list = new DoubleList(new double[] {4, 1, 3, 2});
+        assertEquals(2.5, fn.median(list), TOL);
+    }
+    
+    @Test
+    public void modeWithTies() throws Exception {
+        System.out.println("   mode with tied values");
+        
+        // modes are 1, 3 and 5: middle one is returned
+        DoubleList list = new DoubleList(new double[] {5, 1, 3, 5, 1, 3, 2});
+        assertEquals(3, fn.mode(list), TOL);
+
+        // modes are 1 and 3: lower middle one is returned
+        list = new DoubleList(new double[] {1, 3, 1, 3, 2});
+        assertEquals(1, fn.mode(list), TOL);
+    }
+}
@@ -0,0 +1,180 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for direct notification of task completion by {@link JiffleExecutor}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ExecutorCallbackTest {
+    
+    private JiffleExecutor executor;
+
+    @Before
+    public void setup() {
+        executor = new JiffleExecutor();
+    }
+    
+    @After
+    public void cleanup() {
+        executor.shutdownAndWait(1, TimeUnit.SECONDS);
+    }
+    
+    @Test
+    public void futureReturnsResult() throws Exception {
+        System.out.println("   future returned by submitTask gives task result");
+        
+        Future<JiffleExecutorResult> future = 
+                executor.submitTask(new MockJiffleRuntime(10, 1), null);
+        
+        JiffleExecutorResult result = future.get(2, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertTrue(result.isCompleted());
+    }
+    
+    @Test
+    public void futureReturnsFailedResult() throws Exception {
+        System.out.println("   future returned by submitTask gives failed result");
+        
+        Future<JiffleExecutorResult> future = 
+                executor.submitTask(new FailingRuntime(), null);
+        
+        JiffleExecutorResult result = future.get(2, TimeUnit.SECONDS);
+        assertFalse(result.isCompleted());
+    }
+    
+    @Test
+    public void manyShortTasksNotified() throws Exception {
+        System.out.println("   listener notified of many short tasks");
+        
+        final int numTasks = 200;
+        WaitingListener listener = new WaitingListener();
+        listener.setNumTasks(numTasks);
+        executor.addEventListener(listener);
+        
+        for (int i = 0; i < numTasks; i++) {
+            executor.submit(new MockJiffleRuntime(1, 0), null);
+        }
+        
+        if (!listener.await(2, TimeUnit.SECONDS)) {
+            fail("Listener time-out period elapsed");
+        }
+        
+        List<JiffleExecutorResult> results = listener.getResults();
+        assertEquals(numTasks, results.size());
+        for (JiffleExecutorResult result : results) {
+            assertTrue(result.isCompleted());
+        }
+    }
+    
+    @Test
+    public void failureNotified() throws Exception {
+        System.out.println("   listener notified of task failure");
+        
+        final AtomicInteger failures = new AtomicInteger();
+        WaitingListener listener = new WaitingListener() {
+            @Override
+            public void onFailureEvent(JiffleEvent ev) {
+                failures.incrementAndGet();
+                super.onFailureEvent(ev);
+            }
+        };
+        listener.setNumTasks(1);
+        executor.addEventListener(listener);
+        
+        executor.submit(new FailingRuntime(), null);
+        
+        if (!listener.await(2, TimeUnit.SECONDS)) {
+            fail("Listener time-out period elapsed");
+        }
+        assertEquals(1, failures.get());
+    }
+    
+    @Test
+    public void listenerExceptionDoesNotBlockOthers() throws Exception {
+        System.out.println("   exception in one listener does not block others");
+        
+        executor.addEventListener(new JiffleEventListener() {
+            public void onCompletionEvent(JiffleEvent ev) {
+                throw new IllegalStateException("Deliberate listener error");
+            }
+
+            public void onFailureEvent(JiffleEvent ev) {
+                throw new IllegalStateException("Deliberate listener error");
+            }
+        });
+        
+        WaitingListener listener = new WaitingListener();
+        listener.setNumTasks(2);
+        executor.addEventListener(listener);
+        
+        executor.submit(new MockJiffleRuntime(10, 0), null);
+        executor.submit(new MockJiffleRuntime(10, 0), null);
+        
+        if (!listener.await(2, TimeUnit.SECONDS)) {
+            fail("Listener time-out period elapsed");
+        }
+        assertEquals(2, listener.getResults().size());
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void submitAfterShutdown() throws Exception {
+        System.out.println("   submit after shutdown throws exception");
+        
+        executor.shutdown();
+        executor.submit(new MockJiffleRuntime(10, 0), null);
+    }
+    
+    
+    /**
+     * A runtime which fails when evaluated.
+     */
+    private static class FailingRuntime extends MockJiffleRuntime {
+        FailingRuntime() {
+            super(10, 0);
+        }
+
+        @Override
+        public void evaluate(double x, double y) {
+            throw new JiffleRuntimeException("Deliberate failure");
+        }
+    }
+    
+}
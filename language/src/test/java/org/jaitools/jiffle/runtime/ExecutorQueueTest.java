@@ -0,0 +1,208 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Tests for queue bounds, priorities and batch submission in 
+ * {@link JiffleExecutor}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ExecutorQueueTest {
+    
+    private JiffleExecutor executor;
+    
+    @After
+    public void cleanup() {
+        if (executor != null) {
+            executor.shutdownAndWait(2, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    public void higherPriorityRunsFirst() throws Exception {
+        System.out.println("   waiting task with higher priority runs first");
+        
+        executor = new JiffleExecutor(1);
+        OrderListener listener = new OrderListener(4);
+        executor.addEventListener(listener);
+        
+        // occupy the single thread while the other tasks are queued
+        executor.submit(new MockJiffleRuntime(10, 10), null);
+        
+        int low1 = executor.submit(new MockJiffleRuntime(1, 0), null, -1);
+        int low2 = executor.submit(new MockJiffleRuntime(1, 0), null, -1);
+        int high = executor.submit(new MockJiffleRuntime(1, 0), null, 1);
+        
+        assertTrue(listener.await(2, TimeUnit.SECONDS));
+        
+        List<Integer> order = listener.getOrder();
+        assertEquals(Integer.valueOf(high), order.get(1));
+        assertEquals(Integer.valueOf(low1), order.get(2));
+        assertEquals(Integer.valueOf(low2), order.get(3));
+    }
+    
+    @Test
+    public void equalPriorityInSubmissionOrder() throws Exception {
+        System.out.println("   waiting tasks with equal priority run in submission order");
+        
+        executor = new JiffleExecutor(1);
+        OrderListener listener = new OrderListener(6);
+        executor.addEventListener(listener);
+        
+        List<Integer> expected = new ArrayList<Integer>();
+        expected.add(executor.submit(new MockJiffleRuntime(10, 10), null));
+        for (int i = 0; i < 5; i++) {
+            expected.add(executor.submit(new MockJiffleRuntime(1, 0), null));
+        }
+        
+        assertTrue(listener.await(2, TimeUnit.SECONDS));
+        assertEquals(expected, listener.getOrder());
+    }
+    
+    @Test
+    public void trySubmitRejectedWhenQueueFull() throws Exception {
+        System.out.println("   trySubmitTask rejects task when queue is full");
+        
+        executor = new JiffleExecutor(1, 1);
+        executor.submit(new MockJiffleRuntime(10, 10), null);
+        executor.submit(new MockJiffleRuntime(1, 0), null);
+        
+        Future<JiffleExecutorResult> future = executor.trySubmitTask(
+                new MockJiffleRuntime(1, 0), null, JiffleExecutor.DEFAULT_PRIORITY,
+                0, TimeUnit.MILLISECONDS);
+        
+        assertNull(future);
+    }
+    
+    @Test
+    public void trySubmitAcceptedWhenSpaceAvailable() throws Exception {
+        System.out.println("   trySubmitTask waits for space in queue");
+        
+        executor = new JiffleExecutor(1, 0);
+        executor.submit(new MockJiffleRuntime(5, 10), null);
+        
+        Future<JiffleExecutorResult> future = executor.trySubmitTask(
+                new MockJiffleRuntime(1, 0), null, JiffleExecutor.DEFAULT_PRIORITY,
+                2, TimeUnit.SECONDS);
+        
+        assertNotNull(future);
+        assertTrue(future.get(2, TimeUnit.SECONDS).isCompleted());
+    }
+    
+    @Test
+    public void submitBlocksWhenQueueFull() throws Exception {
+        System.out.println("   submit blocks when queue is full");
+        
+        final long taskTime = 100;
+        executor = new JiffleExecutor(1, 0);
+        executor.submit(new MockJiffleRuntime(10, taskTime / 10), null);
+
+        long t0 = System.currentTimeMillis();
+        Future<JiffleExecutorResult> future = 
+                executor.submitTask(new MockJiffleRuntime(1, 0), null);
+        long elapsed = System.currentTimeMillis() - t0;
+        
+        assertTrue("elapsed " + elapsed, elapsed >= taskTime / 2);
+        assertTrue(future.get(2, TimeUnit.SECONDS).isCompleted());
+    }
+    
+    @Test
+    public void submitAll() throws Exception {
+        System.out.println("   submitAll returns results for all tasks");
+        
+        executor = new JiffleExecutor(2, 1);
+        List<JiffleDirectRuntime> runtimes = new ArrayList<JiffleDirectRuntime>();
+        for (int i = 0; i < 10; i++) {
+            runtimes.add(new MockJiffleRuntime(2, 1));
+        }
+        
+        JiffleExecutorBatch batch = executor.submitAll(runtimes, null, 
+                JiffleExecutor.DEFAULT_PRIORITY);
+        
+        assertEquals(runtimes.size(), batch.size());
+        
+        List<JiffleExecutorResult> results = batch.get(2, TimeUnit.SECONDS);
+        assertTrue(batch.isDone());
+        assertEquals(runtimes.size(), results.size());
+        
+        for (int i = 0; i < results.size(); i++) {
+            JiffleExecutorResult result = results.get(i);
+            assertTrue(result.isCompleted());
+            assertEquals(batch.getTaskIDs().get(i).intValue(), result.getTaskID());
+            assertSame(runtimes.get(i), result.getRuntime());
+        }
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void negativeQueueBound() throws Exception {
+        System.out.println("   negative queue bound throws exception");
+        new JiffleExecutor(1, -1);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void invalidMaxTasks() throws Exception {
+        System.out.println("   max tasks less than 1 throws exception");
+        new JiffleExecutor(0, 1);
+    }
+    
+    
+    /**
+     * Records the order in which tasks finish.
+     */
+    private static class OrderListener extends WaitingListener {
+        private final List<Integer> order = 
+                Collections.synchronizedList(new ArrayList<Integer>());
+        
+        OrderListener(int numTasks) {
+            setNumTasks(numTasks);
+        }
+        
+        List<Integer> getOrder() {
+            return order;
+        }
+
+        @Override
+        public void onCompletionEvent(JiffleEvent ev) {
+            order.add(ev.getResult().getTaskID());
+            super.onCompletionEvent(ev);
+        }
+    }
+    
+}
@@ -0,0 +1,202 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.RenderedImage;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for splitting tasks into tiles in {@link JiffleExecutor}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ExecutorTileSplitTest extends RuntimeTestBase {
+    
+    private static final int WIDTH = 100;
+    private static final int TILE_WIDTH = 16;
+    
+    private JiffleExecutor executor;
+    
+    @After
+    public void cleanup() {
+        if (executor != null) {
+            executor.shutdownAndWait(2, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    public void splittingOffByDefault() throws Exception {
+        System.out.println("   tile splitting is off by default");
+        executor = new JiffleExecutor();
+        assertFalse(executor.isTileSplitting());
+    }
+    
+    @Test
+    public void splitTask() throws Exception {
+        System.out.println("   split task gives same result as unsplit task");
+        
+        executor = new JiffleExecutor(4);
+        executor.setTileSplitting(true);
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { src=read; dest=write; } dest = 2 * src + x();");
+        
+        RenderedImage srcImg = createSourceImage(WIDTH, TILE_WIDTH, 1);
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setSourceImage("src", srcImg);
+        runtime.setDestinationImage("dest", destImg);
+        
+        WaitingListener listener = new WaitingListener();
+        listener.setNumTasks(1);
+        executor.addEventListener(listener);
+        
+        ProgressListener progress = new ProgressListener();
+        Future<JiffleExecutorResult> future = executor.submitTask(runtime, progress);
+        assertTrue(future.get(2, TimeUnit.SECONDS).isCompleted());
+        assertTrue(listener.await(2, TimeUnit.SECONDS));
+        
+        // single event for the task
+        List<JiffleExecutorResult> results = listener.getResults();
+        assertEquals(1, results.size());
+        
+        assertTrue(progress.finished);
+        assertEquals((long) WIDTH * WIDTH, progress.done);
+        
+        RandomIter srcIter = RandomIterFactory.create(srcImg, null);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = 2 * srcIter.getSampleDouble(x, y, 0) + x;
+                assertEquals(expected, destImg.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void imageScopeVarWriteNotSplit() throws Exception {
+        System.out.println("   task which writes image-scope vars is not split");
+        
+        executor = new JiffleExecutor(4);
+        executor.setTileSplitting(true);
+        
+        AbstractDirectRuntime runtime = (AbstractDirectRuntime) getRuntime(
+                "images { dest=write; } init { n = 0; } n += 1; dest = n;");
+        assertFalse(runtime.isTileSplittable());
+        
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setDestinationImage("dest", destImg);
+        
+        Future<JiffleExecutorResult> future = executor.submitTask(runtime, null);
+        assertTrue(future.get(2, TimeUnit.SECONDS).isCompleted());
+        
+        // pixels must have been processed in raster order
+        int k = 1;
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(k++, destImg.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void imageScopeVarReadIsSplittable() throws Exception {
+        System.out.println("   task which only reads image-scope vars can be split");
+        
+        AbstractDirectRuntime runtime = (AbstractDirectRuntime) getRuntime(
+                "images { dest=write; } init { k = 42; } dest = k;");
+        assertTrue(runtime.isTileSplittable());
+    }
+    
+    @Test
+    public void concurrentSplitTasks() throws Exception {
+        System.out.println("   several split tasks on a small executor");
+        
+        final int numTasks = 4;
+        executor = new JiffleExecutor(2);
+        executor.setTileSplitting(true);
+        
+        TiledImage[] destImgs = new TiledImage[numTasks];
+        Future<?>[] futures = new Future<?>[numTasks];
+        for (int i = 0; i < numTasks; i++) {
+            JiffleDirectRuntime runtime = getRuntime(
+                    "images { dest=write; } dest = y() * width() + x();");
+            destImgs[i] = createTiledImage(WIDTH, TILE_WIDTH, 1);
+            runtime.setDestinationImage("dest", destImgs[i]);
+            futures[i] = executor.submitTask(runtime, null);
+        }
+        
+        for (int i = 0; i < numTasks; i++) {
+            futures[i].get(2, TimeUnit.SECONDS);
+            for (int y = 0; y < WIDTH; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(y * WIDTH + x, destImgs[i].getSampleDouble(x, y, 0), TOL);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void errorInSplitTask() throws Exception {
+        System.out.println("   error in split task reported as failure");
+        
+        executor = new JiffleExecutor(4);
+        executor.setTileSplitting(true);
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { src=read; dest=write; } dest = src[$-1, 0];");
+        runtime.setSourceImage("src", createSourceImage(WIDTH, TILE_WIDTH, 1));
+        runtime.setDestinationImage("dest", createTiledImage(WIDTH, TILE_WIDTH, 1));
+        
+        Future<JiffleExecutorResult> future = executor.submitTask(runtime, null);
+        assertFalse(future.get(2, TimeUnit.SECONDS).isCompleted());
+    }
+    
+    private static class ProgressListener extends AbstractProgressListener {
+        volatile long done;
+        volatile boolean finished;
+        
+        public void start() {}
+
+        public void update(long n) {
+            done = n;
+        }
+
+        public void finish() {
+            finished = true;
+        }
+    }
+}
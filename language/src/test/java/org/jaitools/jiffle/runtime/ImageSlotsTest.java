@@ -0,0 +1,125 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.TiledImage;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for image variables being referred to by index (slot)
+ * in runtime classes.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ImageSlotsTest extends RuntimeTestBase {
+    
+    @Test
+    public void multipleSourcesSetInAnyOrder() throws Exception {
+        System.out.println("   multiple sources set in different order to script");
+        
+        String script = "dest = a + 2 * b + 3 * c;" ;
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+        imageParams.put("a", Jiffle.ImageRole.SOURCE);
+        imageParams.put("b", Jiffle.ImageRole.SOURCE);
+        imageParams.put("c", Jiffle.ImageRole.SOURCE);
+
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        JiffleDirectRuntime runtime = jiffle.getRuntimeInstance();
+
+        TiledImage destImg = ImageUtils.createConstantImage(IMG_WIDTH, IMG_WIDTH, 0d);
+        runtime.setDestinationImage("dest", destImg);
+        runtime.setSourceImage("c", ImageUtils.createConstantImage(IMG_WIDTH, IMG_WIDTH, 100d));
+        runtime.setSourceImage("b", ImageUtils.createConstantImage(IMG_WIDTH, IMG_WIDTH, 10d));
+        runtime.setSourceImage("a", ImageUtils.createConstantImage(IMG_WIDTH, IMG_WIDTH, 1d));
+        
+        runtime.evaluateAll(null);
+        
+        assertImage(null, destImg, new Evaluator() {
+            public double eval(double val) {
+                return 321;
+            }
+        });
+    }
+    
+    @Test
+    public void readByNameAndByIndex() throws Exception {
+        System.out.println("   reading image values by name and by index");
+        
+        String script = "dest = src;" ;
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+        imageParams.put("src", Jiffle.ImageRole.SOURCE);
+        
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        AbstractDirectRuntime runtime = (AbstractDirectRuntime) jiffle.getRuntimeInstance();
+        
+        RenderedImage srcImg = createSequenceImage();
+        runtime.setSourceImage("src", srcImg);
+        
+        int index = runtime.getImageVarIndex("src");
+        assertTrue(index >= 0);
+        
+        for (int y = 0; y < IMG_WIDTH; y++) {
+            for (int x = 0; x < IMG_WIDTH; x++) {
+                assertEquals(runtime.readFromImage("src", x, y, 0), 
+                        runtime.readFromImage(index, x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void imageNotReferencedInScript() throws Exception {
+        System.out.println("   setting an image not referred to in the script");
+        
+        String script = "dest = 42;" ;
+        
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+        imageParams.put("src", Jiffle.ImageRole.SOURCE);
+        
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        JiffleDirectRuntime runtime = jiffle.getRuntimeInstance();
+        
+        testRuntime(createSequenceImage(), runtime, new Evaluator() {
+            public double eval(double val) {
+                return 42;
+            }
+        });
+    }
+}
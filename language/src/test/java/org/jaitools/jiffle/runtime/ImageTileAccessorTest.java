@@ -0,0 +1,263 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRenderedImage;
+
+import javax.media.jai.TiledImage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ImageTileAccessor}.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ImageTileAccessorTest {
+    
+    private static final int WIDTH = 50;
+    private static final int HEIGHT = 40;
+    private static final int TILE_WIDTH = 16;
+    private static final int TILE_HEIGHT = 12;
+    private static final double TOL = 1.0e-8;
+    
+    @Test
+    public void byteData() throws Exception {
+        System.out.println("   byte data");
+        assertReadWrite(createImage(DataBuffer.TYPE_BYTE, 1), 255);
+    }
+
+    @Test
+    public void ushortData() throws Exception {
+        System.out.println("   ushort data");
+        assertReadWrite(createImage(DataBuffer.TYPE_USHORT, 1), 65535);
+    }
+
+    @Test
+    public void intData() throws Exception {
+        System.out.println("   int data");
+        assertReadWrite(createImage(DataBuffer.TYPE_INT, 1), 100000);
+    }
+
+    @Test
+    public void floatData() throws Exception {
+        System.out.println("   float data");
+        assertReadWrite(createImage(DataBuffer.TYPE_FLOAT, 1), 0);
+    }
+
+    @Test
+    public void doubleData() throws Exception {
+        System.out.println("   double data");
+        assertReadWrite(createImage(DataBuffer.TYPE_DOUBLE, 1), 0);
+    }
+    
+    @Test
+    public void multiBandPixelInterleaved() throws Exception {
+        System.out.println("   multi-band pixel interleaved data");
+        assertReadWrite(createImage(DataBuffer.TYPE_BYTE, 3), 255);
+    }
+    
+    @Test
+    public void multiBandBanded() throws Exception {
+        System.out.println("   multi-band banded data");
+        SampleModel sm = new BandedSampleModel(DataBuffer.TYPE_INT, TILE_WIDTH, TILE_HEIGHT, 3);
+        assertReadWrite(new TiledImage(0, 0, WIDTH, HEIGHT, 0, 0, sm, null), 100000);
+    }
+    
+    @Test
+    public void nonZeroImageOrigin() throws Exception {
+        System.out.println("   non-zero image origin");
+        SampleModel sm = createSampleModel(DataBuffer.TYPE_DOUBLE, 1);
+        assertReadWrite(new TiledImage(-7, 5, WIDTH, HEIGHT, 3, -2, sm, null), 0);
+    }
+    
+    @Test
+    public void packedDataFallback() throws Exception {
+        System.out.println("   packed data (fallback access)");
+        SampleModel sm = new MultiPixelPackedSampleModel(
+                DataBuffer.TYPE_BYTE, TILE_WIDTH, TILE_HEIGHT, 4);
+        assertReadWrite(new TiledImage(0, 0, WIDTH, HEIGHT, 0, 0, sm, null), 15);
+    }
+    
+    @Test
+    public void containsImageBounds() throws Exception {
+        System.out.println("   contains");
+        TiledImage image = new TiledImage(-7, 5, WIDTH, HEIGHT, 0, 0, 
+                createImage(DataBuffer.TYPE_BYTE, 1).getSampleModel(), null);
+        ImageTileAccessor acc = new ImageTileAccessor((RenderedImage) image);
+        
+        assertTrue(acc.contains(-7, 5));
+        assertTrue(acc.contains(-7 + WIDTH - 1, 5 + HEIGHT - 1));
+        assertFalse(acc.contains(-8, 5));
+        assertFalse(acc.contains(-7, 4));
+        assertFalse(acc.contains(-7 + WIDTH, 5));
+        assertFalse(acc.contains(-7, 5 + HEIGHT));
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void writeToReadOnlyAccessor() throws Exception {
+        System.out.println("   write to read-only accessor");
+        TiledImage image = createImage(DataBuffer.TYPE_BYTE, 1);
+        ImageTileAccessor acc = new ImageTileAccessor((RenderedImage) image);
+        acc.setSample(0, 0, 0, 1);
+    }
+    
+    @Test
+    public void tileIndex() throws Exception {
+        System.out.println("   tile index");
+        assertEquals(0, ImageTileAccessor.tileIndex(0, 0, 10));
+        assertEquals(0, ImageTileAccessor.tileIndex(9, 0, 10));
+        assertEquals(1, ImageTileAccessor.tileIndex(10, 0, 10));
+        assertEquals(-1, ImageTileAccessor.tileIndex(-1, 0, 10));
+        assertEquals(-1, ImageTileAccessor.tileIndex(-10, 0, 10));
+        assertEquals(-2, ImageTileAccessor.tileIndex(-11, 0, 10));
+        assertEquals(0, ImageTileAccessor.tileIndex(3, 3, 10));
+        assertEquals(-1, ImageTileAccessor.tileIndex(2, 3, 10));
+    }
+
+    @Test
+    public void rowRunsAcrossTiles() throws Exception {
+        System.out.println("   row runs across tiles");
+        int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT, DataBuffer.TYPE_INT, 
+                DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE};
+        int[] maxValues = {255, 65535, 100000, 0, 0};
+        
+        for (int i = 0; i < types.length; i++) {
+            assertRowRuns(createImage(types[i], 2), maxValues[i]);
+        }
+    }
+    
+    @Test
+    public void rowRunsFallback() throws Exception {
+        System.out.println("   row runs (fallback access)");
+        SampleModel sm = new MultiPixelPackedSampleModel(
+                DataBuffer.TYPE_BYTE, TILE_WIDTH, TILE_HEIGHT, 4);
+        assertRowRuns(new TiledImage(-7, 5, WIDTH, HEIGHT, 3, -2, sm, null), 15);
+    }
+
+    private TiledImage createImage(int dataType, int numBands) {
+        return new TiledImage(0, 0, WIDTH, HEIGHT, 0, 0, 
+                createSampleModel(dataType, numBands), null);
+    }
+    
+    private SampleModel createSampleModel(int dataType, int numBands) {
+        int[] bandOffsets = new int[numBands];
+        for (int b = 0; b < numBands; b++) {
+            bandOffsets[b] = b;
+        }
+        return new PixelInterleavedSampleModel(dataType, TILE_WIDTH, TILE_HEIGHT, 
+                numBands, TILE_WIDTH * numBands, bandOffsets);
+    }
+
+    /**
+     * Writes a value to each sample via an accessor, then checks the values 
+     * against the image rasters and against a second accessor used for reading.
+     * If {@code maxValue} is positive, values are wrapped to the range 
+     * {@code [0, maxValue]}; otherwise fractional values are used.
+     */
+    private void assertReadWrite(TiledImage image, int maxValue) {
+        final int numBands = image.getSampleModel().getNumBands();
+        final int minX = image.getMinX();
+        final int minY = image.getMinY();
+        
+        ImageTileAccessor writer = new ImageTileAccessor((WritableRenderedImage) image);
+        for (int y = minY; y < minY + HEIGHT; y++) {
+            for (int x = minX; x < minX + WIDTH; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    writer.setSample(x, y, b, expected(x - minX, y - minY, b, maxValue));
+                }
+            }
+        }
+        writer.release();
+        
+        Raster data = image.getData();
+        ImageTileAccessor reader = new ImageTileAccessor((RenderedImage) image);
+        for (int y = minY; y < minY + HEIGHT; y++) {
+            for (int x = minX; x < minX + WIDTH; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    double value = expected(x - minX, y - minY, b, maxValue);
+                    assertEquals(value, data.getSampleDouble(x, y, b), TOL);
+                    assertEquals(value, reader.getSample(x, y, b), TOL);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Writes each row of each band as a single run, then reads the rows back 
+     * as runs (at an offset into the buffer) and checks them against the
+     * image rasters.
+     */
+    private void assertRowRuns(TiledImage image, int maxValue) {
+        final int numBands = image.getSampleModel().getNumBands();
+        final int minX = image.getMinX();
+        final int minY = image.getMinY();
+        final int offset = 3;
+        
+        double[] values = new double[WIDTH + offset];
+        ImageTileAccessor writer = new ImageTileAccessor((WritableRenderedImage) image);
+        for (int y = minY; y < minY + HEIGHT; y++) {
+            for (int b = 0; b < numBands; b++) {
+                for (int i = 0; i < WIDTH; i++) {
+                    values[offset + i] = expected(i, y - minY, b, maxValue);
+                }
+                writer.setSamples(minX, y, WIDTH, b, values, offset);
+            }
+        }
+        writer.release();
+        
+        Raster data = image.getData();
+        ImageTileAccessor reader = new ImageTileAccessor((RenderedImage) image);
+        for (int y = minY; y < minY + HEIGHT; y++) {
+            for (int b = 0; b < numBands; b++) {
+                reader.getSamples(minX, y, WIDTH, b, values, offset);
+                for (int i = 0; i < WIDTH; i++) {
+                    double value = expected(i, y - minY, b, maxValue);
+                    assertEquals(value, data.getSampleDouble(minX + i, y, b), TOL);
+                    assertEquals(value, values[offset + i], TOL);
+                }
+            }
+        }
+    }
+    
+    private double expected(int x, int y, int band, int maxValue) {
+        int n = (y * WIDTH + x) * 7 + band * 1000;
+        if (maxValue > 0) {
+            return n % (maxValue + 1);
+        }
+        return n + 0.25;
+    }
+}
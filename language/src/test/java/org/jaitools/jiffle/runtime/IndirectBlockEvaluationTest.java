@@ -0,0 +1,329 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.media.jai.TiledImage;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit tests for block evaluation with indirect runtime objects.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class IndirectBlockEvaluationTest {
+    
+    private static final int WIDTH = 20;
+    private static final double TOL = 1.0e-8;
+    
+    @Test
+    public void evaluateBlock() throws Exception {
+        System.out.println("   evaluate block with source raster");
+        
+        AbstractIndirectRuntime runtime = getRuntime("dest = 2 * src + x();", "src");
+        TiledImage srcImg = createSourceImage();
+        
+        Rectangle block = new Rectangle(5, 5, 10, 8);
+        WritableRaster dest = createDestRaster();
+        runtime.evaluateBlock(new Raster[] {srcImg.getData(block)}, dest, block);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = block.contains(x, y) ? 
+                        2 * srcImg.getSampleDouble(x, y, 0) + x : 0;
+                assertEquals(expected, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void neighbourhoodWithinRaster() throws Exception {
+        System.out.println("   neighbourhood reads from larger source raster");
+        
+        AbstractIndirectRuntime runtime = getRuntime("dest = src[-1, 0] + src[0, 1];", "src");
+        TiledImage srcImg = createSourceImage();
+        
+        Rectangle block = new Rectangle(5, 5, 10, 8);
+        Rectangle srcRect = new Rectangle(block);
+        srcRect.grow(1, 1);
+        
+        WritableRaster dest = createDestRaster();
+        runtime.evaluateBlock(new Raster[] {srcImg.getData(srcRect)}, dest, block);
+        
+        for (int y = block.y; y < block.y + block.height; y++) {
+            for (int x = block.x; x < block.x + block.width; x++) {
+                double expected = srcImg.getSampleDouble(x - 1, y, 0) 
+                        + srcImg.getSampleDouble(x, y + 1, 0);
+                assertEquals(expected, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void outsideOption() throws Exception {
+        System.out.println("   outside option with block evaluation");
+        
+        AbstractIndirectRuntime runtime = getRuntime(
+                "options { outside = 0; } dest = src[1, 0];", "src");
+        TiledImage srcImg = createSourceImage();
+        
+        Rectangle block = new Rectangle(0, 0, WIDTH, WIDTH);
+        WritableRaster dest = createDestRaster();
+        runtime.evaluateBlock(new Raster[] {srcImg.getData(block)}, dest, block);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = x < WIDTH - 1 ? srcImg.getSampleDouble(x + 1, y, 0) : 0;
+                assertEquals(expected, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void readOutsideRaster() throws Exception {
+        System.out.println("   reading outside source raster without outside option");
+        
+        AbstractIndirectRuntime runtime = getRuntime("dest = src[1, 0];", "src");
+        Rectangle block = new Rectangle(0, 0, 5, 5);
+        runtime.evaluateBlock(new Raster[] {createSourceImage().getData(block)}, 
+                createDestRaster(), block);
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void wrongNumberOfRasters() throws Exception {
+        System.out.println("   wrong number of source rasters");
+        
+        AbstractIndirectRuntime runtime = getRuntime("dest = src;", "src");
+        Rectangle block = new Rectangle(0, 0, 5, 5);
+        runtime.evaluateBlock(new Raster[0], createDestRaster(), block);
+    }
+    
+    @Test
+    public void noSources() throws Exception {
+        System.out.println("   evaluate block without sources");
+        
+        AbstractIndirectRuntime runtime = getRuntime("dest = y() * width() + x();");
+        Rectangle block = new Rectangle(0, 0, WIDTH, WIDTH);
+        WritableRaster dest = createDestRaster();
+        runtime.evaluateBlock(new Raster[0], dest, block);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(y * WIDTH + x, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void multipleDestinations() throws Exception {
+        System.out.println("   evaluate block with multiple destinations");
+        
+        AbstractIndirectRuntime runtime = getRuntime(
+                "sum = src + x(); prod = 2 * src;", 
+                new String[] {"prod", "sum"}, true, "src");
+        TiledImage srcImg = createSourceImage();
+        
+        Rectangle block = new Rectangle(5, 5, 10, 8);
+        WritableRaster dest = createDestRaster(2);
+        runtime.evaluateBlock(new Raster[] {srcImg.getData(block)}, dest, block);
+        
+        for (int y = block.y; y < block.y + block.height; y++) {
+            for (int x = block.x; x < block.x + block.width; x++) {
+                double src = srcImg.getSampleDouble(x, y, 0);
+                assertEquals(2 * src, dest.getSampleDouble(x, y, 0), TOL);
+                assertEquals(src + x, dest.getSampleDouble(x, y, 1), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void defaultDestinationOrder() throws Exception {
+        System.out.println("   destinations in script order when none are set");
+        
+        AbstractIndirectRuntime runtime = getRuntime(
+                "sum = x() + y(); prod = x() * y();", 
+                new String[] {"sum", "prod"}, false);
+        
+        Rectangle block = new Rectangle(0, 0, WIDTH, WIDTH);
+        WritableRaster dest = createDestRaster(2);
+        runtime.evaluateBlock(new Raster[0], dest, block);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(x + y, dest.getSampleDouble(x, y, 0), TOL);
+                assertEquals(x * y, dest.getSampleDouble(x, y, 1), TOL);
+            }
+        }
+        
+        // evaluate returns the first destination value
+        assertEquals(7, runtime.evaluate(3, 4), TOL);
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void tooFewDestinationBands() throws Exception {
+        System.out.println("   destination raster with too few bands");
+        
+        AbstractIndirectRuntime runtime = getRuntime(
+                "a = x(); b = y();", new String[] {"a", "b"}, true);
+        Rectangle block = new Rectangle(0, 0, 5, 5);
+        runtime.evaluateBlock(new Raster[0], createDestRaster(), block);
+    }
+    
+    @Test
+    public void copiesInParallel() throws Exception {
+        System.out.println("   runtime copies evaluate blocks in parallel");
+        
+        final AbstractIndirectRuntime prototype = getRuntime(
+                "options { outside = 0; } " +
+                "n = 0; foreach (dy in -1:1) n += src[0, dy]; dest = n + x();", "src");
+        final TiledImage srcImg = createSourceImage();
+        final WritableRaster dest = createDestRaster();
+        
+        final int numThreads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Void>> futures = CollectionFactory.list();
+            for (int i = 0; i < numThreads; i++) {
+                final int rowsPerBlock = WIDTH / numThreads;
+                final Rectangle block = new Rectangle(0, i * rowsPerBlock, WIDTH, rowsPerBlock);
+                
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        AbstractIndirectRuntime runtime = (AbstractIndirectRuntime) prototype.copy();
+                        runtime.setSourceImage("src");
+                        runtime.setDestinationImage("dest");
+                        
+                        Rectangle srcRect = new Rectangle(block);
+                        srcRect.grow(0, 1);
+                        srcRect = srcRect.intersection(srcImg.getBounds());
+                        
+                        WritableRaster blockDest = dest.createWritableChild(
+                                block.x, block.y, block.width, block.height, 
+                                block.x, block.y, null);
+                        runtime.evaluateBlock(new Raster[] {srcImg.getData(srcRect)}, 
+                                blockDest, block);
+                        return null;
+                    }
+                }));
+            }
+            
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double n = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    if (y + dy >= 0 && y + dy < WIDTH) {
+                        n += srcImg.getSampleDouble(x, y + dy, 0);
+                    }
+                }
+                assertEquals(n + x, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    
+    private AbstractIndirectRuntime getRuntime(String script, String ...sourceNames) 
+            throws Exception {
+        return getRuntime(script, new String[] {"dest"}, true, sourceNames);
+    }
+    
+    private AbstractIndirectRuntime getRuntime(String script, String[] destNames, 
+            boolean setDestinations, String ...sourceNames) throws Exception {
+        
+        Jiffle jiffle = new Jiffle();
+        jiffle.setScript(script);
+        
+        Map<String, Jiffle.ImageRole> imageParams = CollectionFactory.map();
+        for (String name : sourceNames) {
+            imageParams.put(name, Jiffle.ImageRole.SOURCE);
+        }
+        for (String name : destNames) {
+            imageParams.put(name, Jiffle.ImageRole.DEST);
+        }
+        jiffle.setImageParams(imageParams);
+        jiffle.compile();
+        
+        AbstractIndirectRuntime runtime = 
+                (AbstractIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        
+        for (String name : sourceNames) {
+            runtime.setSourceImage(name);
+        }
+        if (setDestinations) {
+            for (String name : destNames) {
+                runtime.setDestinationImage(name);
+            }
+        }
+        runtime.setWorldByResolution(new Rectangle(0, 0, WIDTH, WIDTH), 1, 1);
+        return runtime;
+    }
+    
+    private TiledImage createSourceImage() {
+        TiledImage img = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setSample(x, y, 0, (double) y * WIDTH + x);
+            }
+        }
+        return img;
+    }
+    
+    private WritableRaster createDestRaster() {
+        return createDestRaster(1);
+    }
+    
+    private WritableRaster createDestRaster(int numBands) {
+        Double[] values = new Double[numBands];
+        Arrays.fill(values, 0d);
+        return ImageUtils.createConstantImage(WIDTH, WIDTH, values).getWritableTile(0, 0);
+    }
+    
+}
@@ -80,7 +80,7 @@ public class InjectTest extends RuntimeTestBase {
                   "init { n = 42; } \n"
                 + "dest = n;" ;
         
-        JiffleDirectRuntime runtime = getRuntime(script);
+        JiffleDirectRuntime runtime = getDestRuntime(script);
         WritableRenderedImage destImg = ImageUtils.createConstantImage(IMG_WIDTH, IMG_WIDTH, 0d);
         runtime.setDestinationImage("dest", destImg);
 
@@ -110,7 +110,7 @@ public class InjectTest extends RuntimeTestBase {
                   "init { n; } \n"
                 + "dest = n;" ;
         
-        JiffleDirectRuntime runtime = getRuntime(script);
+        JiffleDirectRuntime runtime = getDestRuntime(script);
         for (int i = -5; i <= 5; i++) {
             testInject(runtime, Double.valueOf(i));
         }
@@ -118,12 +118,12 @@ public class InjectTest extends RuntimeTestBase {
     
     
     private void testScriptWithValue(String script, final Double value) throws Exception {
-        JiffleDirectRuntime runtime = getRuntime(script);
+        JiffleDirectRuntime runtime = getDestRuntime(script);
         testInject(runtime, value);
     }
             
 
-    private JiffleDirectRuntime getRuntime(String script) throws Exception {
+    private JiffleDirectRuntime getDestRuntime(String script) throws Exception {
         Jiffle jiffle = new Jiffle();
         jiffle.setScript(script);
         
@@ -229,6 +229,66 @@ public class LoopTest extends RuntimeTestBase {
         testScript(script, e);
     }
     
+    @Test
+    public void whileLoopWithNullCondition() throws Exception {
+        System.out.println("   while loop with null condition");
+        String script = 
+                  "n = 0; \n"
+                + "c = null; \n"
+                + "while (c) n++; \n"
+                + "dest = n;" ;
+        
+        Evaluator e = new Evaluator() {
+            public double eval(double val) {
+                move();
+                return 0;
+            }
+        };
+        
+        testScript(script, e);
+    }
+    
+    @Test
+    public void untilLoopWithNullCondition() throws Exception {
+        System.out.println("   until loop with null condition");
+        String script = 
+                  "n = 0; \n"
+                + "until (con(n > x(), 1, null)) n++; \n"
+                + "dest = n;" ;
+        
+        Evaluator e = new Evaluator() {
+            public double eval(double val) {
+                int xx = x;
+                move();
+                return xx + 1;
+            }
+        };
+        
+        testScript(script, e);
+    }
+    
+    @Test
+    public void breakifWithNullCondition() throws Exception {
+        System.out.println("   breakif with null condition");
+        String script = 
+                  "n = 0; \n"
+                + "while (n < x()) { \n"
+                + "  breakif(null); \n"
+                + "  n++ ; \n"
+                + "} \n"
+                + "dest = n;" ;
+        
+        Evaluator e = new Evaluator() {
+            public double eval(double val) {
+                int xx = x;
+                move();
+                return xx;
+            }
+        };
+        
+        testScript(script, e);
+    }
+    
     @Test
     public void breakifNestedInIf() throws Exception {
         System.out.println("   breakif nested in if-block");
@@ -0,0 +1,322 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.media.jai.TiledImage;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for runtime and executor metrics.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class MetricsTest {
+    
+    private static final int WIDTH = 20;
+    private static final double TOL = 1.0e-8;
+    
+    @Test
+    public void runtimeCounts() throws Exception {
+        System.out.println("   runtime counts");
+        
+        RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        long tasks = metrics.getTaskCount();
+        long pixels = metrics.getPixelsEvaluated();
+        long reads = metrics.getSourceReads();
+        long writes = metrics.getDestinationWrites();
+        long outside = metrics.getOutsideValueHits();
+        
+        runScript("options { outside = 0; } dest = src[-1, 0] + src;", 1);
+        
+        final int numPixels = WIDTH * WIDTH;
+        assertEquals(tasks + 1, metrics.getTaskCount());
+        assertEquals(pixels + numPixels, metrics.getPixelsEvaluated());
+        assertEquals(reads + 2 * numPixels, metrics.getSourceReads());
+        assertEquals(writes + numPixels, metrics.getDestinationWrites());
+        assertEquals(outside + WIDTH, metrics.getOutsideValueHits());
+        
+        assertTrue(metrics.getPixelsPerSecond() > 0);
+        assertTrue(metrics.getMaxTaskTime() > 0);
+        assertTrue(metrics.getMeanTaskTime() <= metrics.getMaxTaskTime());
+    }
+    
+    @Test
+    public void runtimeCountsRowEvaluation() throws Exception {
+        System.out.println("   runtime counts with row evaluation");
+        
+        RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        long reads = metrics.getSourceReads();
+        long writes = metrics.getDestinationWrites();
+        
+        runScript("dest = src * 2;", 1);
+        
+        assertEquals(reads + WIDTH * WIDTH, metrics.getSourceReads());
+        assertEquals(writes + WIDTH * WIDTH, metrics.getDestinationWrites());
+    }
+    
+    @Test
+    public void runtimeCountsParallel() throws Exception {
+        System.out.println("   runtime counts with parallel evaluation");
+        
+        RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        long tasks = metrics.getTaskCount();
+        long pixels = metrics.getPixelsEvaluated();
+        long writes = metrics.getDestinationWrites();
+        
+        runScript("dest = con(src > 10, src, 0);", 4);
+        
+        assertEquals(tasks + 1, metrics.getTaskCount());
+        assertEquals(pixels + WIDTH * WIDTH, metrics.getPixelsEvaluated());
+        assertEquals(writes + WIDTH * WIDTH, metrics.getDestinationWrites());
+    }
+    
+    @Test
+    public void indirectRuntimeCounts() throws Exception {
+        System.out.println("   indirect runtime counts");
+        
+        RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        long tasks = metrics.getTaskCount();
+        long pixels = metrics.getPixelsEvaluated();
+        long reads = metrics.getSourceReads();
+        long writes = metrics.getDestinationWrites();
+        long outside = metrics.getOutsideValueHits();
+        
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        params.put("src", Jiffle.ImageRole.SOURCE);
+        Jiffle jiffle = new Jiffle("options { outside = 0; } dest = src[-1, 0] + src;", params);
+        
+        AbstractIndirectRuntime runtime = 
+                (AbstractIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        runtime.setSourceImage("src");
+        runtime.setDestinationImage("dest");
+        runtime.setWorldByResolution(new Rectangle(0, 0, WIDTH, WIDTH), 1, 1);
+        
+        Rectangle block = new Rectangle(0, 0, WIDTH, WIDTH);
+        TiledImage src = ImageUtils.createConstantImage(WIDTH, WIDTH, 1d);
+        TiledImage dest = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        runtime.evaluateBlock(new Raster[] {src.getData(block)}, dest.getWritableTile(0, 0), block);
+        
+        final int numPixels = WIDTH * WIDTH;
+        assertEquals(tasks + 1, metrics.getTaskCount());
+        assertEquals(pixels + numPixels, metrics.getPixelsEvaluated());
+        assertEquals(reads + 2 * numPixels, metrics.getSourceReads());
+        assertEquals(writes + numPixels, metrics.getDestinationWrites());
+        assertEquals(outside + WIDTH, metrics.getOutsideValueHits());
+    }
+    
+    @Test
+    public void runtimeMetricsDisabled() throws Exception {
+        System.out.println("   runtime metrics disabled");
+        
+        RuntimeMetrics metrics = RuntimeMetrics.getInstance();
+        long tasks = metrics.getTaskCount();
+        metrics.setEnabled(false);
+        try {
+            runScript("dest = src;", 1);
+            assertEquals(tasks, metrics.getTaskCount());
+        } finally {
+            metrics.setEnabled(true);
+        }
+    }
+    
+    @Test
+    public void runtimeMBean() throws Exception {
+        System.out.println("   runtime MBean");
+        
+        runScript("dest = src;", 1);
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(RuntimeMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        
+        Long pixels = (Long) server.getAttribute(name, "PixelsEvaluated");
+        assertTrue(pixels >= WIDTH * WIDTH);
+    }
+    
+    @Test
+    public void executorMetricsNotPublishedByDefault() throws Exception {
+        System.out.println("   executor metrics not published by default");
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.jaitools.jiffle:type=JiffleExecutor,*");
+        Set<ObjectName> existing = server.queryNames(pattern, null);
+        
+        JiffleExecutor executor = new JiffleExecutor();
+        try {
+            Set<ObjectName> names = server.queryNames(pattern, null);
+            names.removeAll(existing);
+            assertTrue(names.isEmpty());
+            
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void executorMetrics() throws Exception {
+        System.out.println("   executor metrics");
+        
+        final int numTasks = 3;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("org.jaitools.jiffle:type=JiffleExecutor,*");
+        Set<ObjectName> existing = server.queryNames(pattern, null);
+        
+        JiffleExecutor executor = new JiffleExecutor();
+        ExecutorMetrics metrics = executor.getMetrics();
+        assertTrue(executor.publishMetrics());
+        
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        names.removeAll(existing);
+        assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        
+        try {
+            WaitingListener listener = new WaitingListener();
+            executor.addEventListener(listener);
+            listener.setNumTasks(numTasks + 1);
+            
+            for (int i = 0; i < numTasks; i++) {
+                executor.submit(createRuntime("dest = x() + y();"), null);
+            }
+            
+            // this task fails because no destination image has been set
+            Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+            params.put("dest", Jiffle.ImageRole.DEST);
+            executor.submit(new Jiffle("dest = 1;", params).getRuntimeInstance(), null);
+            
+            if (!listener.await(2, TimeUnit.SECONDS)) {
+                fail("Listener time-out period elapsed");
+            }
+            
+            assertEquals(Long.valueOf(numTasks), server.getAttribute(name, "CompletedCount"));
+            
+            assertEquals(numTasks + 1, metrics.getSubmittedCount());
+            assertEquals(numTasks, metrics.getCompletedCount());
+            assertEquals(1, metrics.getFailedCount());
+            assertEquals(0, metrics.getActiveCount());
+            assertEquals(0, metrics.getQueueDepth());
+            assertEquals(numTasks + 1, metrics.getTaskTimes().getCount());
+            
+            long sum = 0;
+            for (long n : metrics.getTaskTimeHistogram()) {
+                sum += n;
+            }
+            assertEquals(numTasks + 1, sum);
+            assertEquals(metrics.getTaskTimeBucketBounds().length + 1, 
+                    metrics.getTaskTimeHistogram().length);
+            
+        } finally {
+            assertTrue(executor.shutdownAndWait(1, TimeUnit.SECONDS));
+        }
+        
+        // the MBean is removed once polling has stopped
+        long timeOut = System.currentTimeMillis() + 2000;
+        while (server.isRegistered(name) && System.currentTimeMillis() < timeOut) {
+            Thread.sleep(20);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+    
+    @Test
+    public void latencyHistogram() throws Exception {
+        System.out.println("   latency histogram");
+        
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getPercentile(50), TOL);
+        
+        final long ms = 1000000L;
+        h.record(ms / 2);      // < 1ms
+        h.record(3 * ms);      // 2 - 5ms
+        h.record(4 * ms);      // 2 - 5ms
+        h.record(150 * ms);    // 100 - 200ms
+        h.record(120000 * ms); // overflow
+        
+        long[] bounds = h.getBucketBounds();
+        long[] counts = h.getCounts();
+        assertEquals(bounds.length + 1, counts.length);
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[2]);
+        assertEquals(1, counts[7]);
+        assertEquals(1, counts[counts.length - 1]);
+        
+        assertEquals(5, h.getCount());
+        assertEquals(120000, h.getMax(), TOL);
+        assertEquals(5, h.getPercentile(50), TOL);
+        assertEquals(120000, h.getPercentile(100), TOL);
+        
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax(), TOL);
+    }
+    
+    private void runScript(String script, int parallelism) throws Exception {
+        JiffleDirectRuntime runtime = createRuntime(script);
+        runtime.evaluateAll(null, parallelism);
+    }
+    
+    private JiffleDirectRuntime createRuntime(String script) throws Exception {
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        
+        boolean hasSource = script.contains("src");
+        if (hasSource) {
+            params.put("src", Jiffle.ImageRole.SOURCE);
+        }
+        
+        JiffleDirectRuntime runtime = new Jiffle(script, params).getRuntimeInstance();
+        if (hasSource) {
+            TiledImage src = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+            for (int y = 0; y < WIDTH; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    src.setSample(x, y, 0, x + y);
+                }
+            }
+            runtime.setSourceImage("src", src);
+        }
+        runtime.setDestinationImage("dest", ImageUtils.createConstantImage(WIDTH, WIDTH, 0d));
+        return runtime;
+    }
+    
+}
@@ -0,0 +1,274 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.TiledImage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for buffered reads of source image neighbourhoods
+ * by direct runtime objects.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class NeighbourhoodTest extends RuntimeTestBase {
+    
+    private static final int WIDTH = 60;
+    private static final int TILE_WIDTH = 16;
+    
+    private static final String SUM_3x3 = 
+              "options { outside = 0; } images { src=read; dest=write; } \n"
+            + "dest = src[-1,-1] + src[0,-1] + src[1,-1] + \n"
+            + "       src[-1, 0] + src[0, 0] + src[1, 0] + \n"
+            + "       src[-1, 1] + src[0, 1] + src[1, 1];" ;
+    
+    @Test
+    public void sum3x3() throws Exception {
+        System.out.println("   3x3 neighbourhood sum");
+        assertSum3x3(1);
+    }
+    
+    @Test
+    public void sum3x3Parallel() throws Exception {
+        System.out.println("   3x3 neighbourhood sum with parallel evaluation");
+        assertSum3x3(4);
+    }
+    
+    @Test
+    public void asymmetricOffsets() throws Exception {
+        System.out.println("   asymmetric offsets compared to unbuffered reads");
+        
+        assertSameAsUnbuffered(
+                "dest = src[2, -1] - src[-3, 2] + src[(1), +3];", 
+                "a = 2; b = -1; c = -3; d = 2; e = 1; f = 3; \n"
+                + "dest = src[a, b] - src[c, d] + src[e, f];",
+                null);
+    }
+    
+    @Test
+    public void bandReferences() throws Exception {
+        System.out.println("   offsets with band references");
+        
+        assertSameAsUnbuffered(
+                "dest = src[1][-1, 0] + 2 * src[2][0, 1] + src[0, 0];", 
+                "a = -1; b = 0; c = 1; \n"
+                + "dest = src[1][a, b] + 2 * src[2][b, c] + src[b, b];",
+                null);
+    }
+    
+    @Test
+    public void scaledWorld() throws Exception {
+        System.out.println("   offsets with a scaled world");
+        
+        assertSameAsUnbuffered(
+                "dest = src[-1, -1] + src[1, 2];", 
+                "a = -1; b = 1; c = 2; \n"
+                + "dest = src[a, a] + src[b, c];",
+                AffineTransform.getScaleInstance(0.5, 0.5));
+    }
+    
+    @Test
+    public void transposedWorld() throws Exception {
+        System.out.println("   offsets with a transposed world (unbuffered)");
+        
+        // world X maps to image rows
+        AffineTransform tr = new AffineTransform(0, 1, 1, 0, 0, 0);
+        
+        assertSameAsUnbuffered(
+                "dest = src[-1, 0] - src[0, 2];", 
+                "a = -1; b = 0; c = 2; \n"
+                + "dest = src[a, b] - src[b, c];",
+                tr);
+    }
+    
+    @Test
+    public void sourceChangedBetweenRuns() throws Exception {
+        System.out.println("   source modified in place between runs");
+        assertRepeatedRun(1);
+    }
+    
+    @Test
+    public void sourceChangedBetweenParallelRuns() throws Exception {
+        System.out.println("   source modified in place between parallel runs");
+        assertRepeatedRun(4);
+    }
+    
+    @Test
+    public void sourceAlsoDestination() throws Exception {
+        System.out.println("   same image as source and destination");
+        
+        final int size = 8;
+        TiledImage img = createTiledImage(size, size, 1);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                img.setSample(x, y, 0, 1.0);
+            }
+        }
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "options { outside = 0; } images { src=read; dest=write; } \n"
+                + "dest = src[-1, 0] + 1;");
+        runtime.setSourceImage("src", img);
+        runtime.setDestinationImage("dest", img);
+        runtime.evaluateAll(null);
+        
+        // each pixel reads the value just written to its left neighbour
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                assertEquals(x + 1, img.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void readOutsideBoundsWithOptionNotSet() throws Exception {
+        System.out.println("   reading outside image bounds with option not set");
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { src=read; dest=write; } dest = src[0, -1];");
+        runtime.setSourceImage("src", createSourceImage(WIDTH, TILE_WIDTH, 1));
+        runtime.setDestinationImage("dest", createTiledImage(WIDTH, TILE_WIDTH, 1));
+        runtime.evaluateAll(null);
+    }
+    
+    private void assertSum3x3(int parallelism) throws Exception {
+        JiffleDirectRuntime runtime = getRuntime(SUM_3x3);
+        TiledImage srcImg = createSourceImage(WIDTH, TILE_WIDTH, 1);
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setSourceImage("src", srcImg);
+        runtime.setDestinationImage("dest", destImg);
+        runtime.evaluateAll(null, parallelism);
+        
+        assertSum3x3(srcImg, destImg, 0);
+    }
+    
+    private void assertSum3x3(TiledImage srcImg, TiledImage destImg, int minRow) {
+        for (int y = minRow; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int xx = x + dx;
+                        int yy = y + dy;
+                        if (xx >= 0 && xx < WIDTH && yy >= 0 && yy < WIDTH) {
+                            expected += srcImg.getSampleDouble(xx, yy, 0);
+                        }
+                    }
+                }
+                assertEquals(expected, destImg.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    /**
+     * Evaluates the script, modifies the source image in place and
+     * evaluates it again with the same runtime object. The processing 
+     * area is the last two rows of the images, so that all of the source
+     * rows read by the second run were buffered by the first.
+     */
+    private void assertRepeatedRun(int parallelism) throws Exception {
+        final int minRow = WIDTH - 2;
+        
+        JiffleDirectRuntime runtime = getRuntime(SUM_3x3);
+        TiledImage srcImg = createSourceImage(WIDTH, TILE_WIDTH, 1);
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setWorldByResolution(new Rectangle(0, minRow, WIDTH, 2), 1, 1);
+        runtime.setSourceImage("src", srcImg);
+        runtime.setDestinationImage("dest", destImg);
+        runtime.evaluateAll(null, parallelism);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                srcImg.setSample(x, y, 0, srcImg.getSampleDouble(x, y, 0) * 2 + 1);
+            }
+        }
+        runtime.evaluateAll(null, parallelism);
+        
+        assertSum3x3(srcImg, destImg, minRow);
+    }
+    
+    /**
+     * Runs a script using constant offsets, and an equivalent script using
+     * variable offsets (which are not buffered), and compares the results.
+     * If {@code worldToImage} is not {@code null} it is used as the 
+     * transform for both images, with world bounds set to match.
+     */
+    private void assertSameAsUnbuffered(String constScript, String varScript,
+            AffineTransform worldToImage) throws Exception {
+        
+        String header = "options { outside = null; } images { src=read; dest=write; } \n";
+        
+        TiledImage srcImg = createSourceImage(WIDTH, TILE_WIDTH, 3);
+        TiledImage buffered = runScript(header + constScript, srcImg, worldToImage);
+        TiledImage unbuffered = runScript(header + varScript, srcImg, worldToImage);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = unbuffered.getSampleDouble(x, y, 0);
+                double value = buffered.getSampleDouble(x, y, 0);
+                if (Double.isNaN(expected)) {
+                    assertTrue(Double.isNaN(value));
+                } else {
+                    assertEquals(expected, value, TOL);
+                }
+            }
+        }
+    }
+    
+    private TiledImage runScript(String script, RenderedImage srcImg, 
+            AffineTransform worldToImage) throws Exception {
+        
+        JiffleDirectRuntime runtime = getRuntime(script);
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        
+        if (worldToImage == null) {
+            runtime.setSourceImage("src", srcImg);
+            runtime.setDestinationImage("dest", destImg);
+            
+        } else {
+            Rectangle imageBounds = new Rectangle(0, 0, WIDTH, WIDTH);
+            AffineTransform imageToWorld = worldToImage.createInverse();
+            runtime.setWorldByNumPixels(
+                    imageToWorld.createTransformedShape(imageBounds).getBounds2D(), 
+                    WIDTH, WIDTH);
+            
+            CoordinateTransform tr = CoordinateTransforms.getTransform(worldToImage);
+            runtime.setSourceImage("src", srcImg, tr);
+            runtime.setDestinationImage("dest", destImg, tr);
+        }
+        
+        runtime.evaluateAll(null);
+        return destImg;
+    }
+}
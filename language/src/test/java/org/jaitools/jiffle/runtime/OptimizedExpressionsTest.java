@@ -0,0 +1,192 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for constant folding and caching of common subexpressions
+ * by the compiler.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class OptimizedExpressionsTest extends RuntimeTestBase {
+    
+    @Test
+    public void foldConstants() throws Exception {
+        String script = "dest = src + sqrt(4) * M_PI - (2 ^ 3) + -(1);" ;
+        System.out.println("   " + script);
+        
+        String source = getSource(script);
+        assertFalse(source.contains("Math.sqrt"));
+        assertFalse(source.contains("Math.pow"));
+        assertTrue(source.contains(String.valueOf(2 * Math.PI)));
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return val + 2 * Math.PI - 8 - 1;
+            }
+        });
+    }
+    
+    @Test
+    public void foldLogicalOperators() throws Exception {
+        String script = "dest = src * (1 > 2 || 3 >= 3);" ;
+        System.out.println("   " + script);
+        
+        assertFalse(getSource(script).contains("_FN.OR"));
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return val;
+            }
+        });
+    }
+    
+    @Test
+    public void volatileFunctionNotFolded() throws Exception {
+        String script = "dest = rand(1) + rand(1) < 2;" ;
+        System.out.println("   " + script);
+        
+        String source = getSource(script);
+        assertTrue(source.contains("_FN.rand(1.0) + _FN.rand(1.0)"));
+        assertFalse(source.contains("_cse"));
+    }
+    
+    @Test
+    public void nullNotFolded() throws Exception {
+        String script = "dest = con(isnull(null + 1), src, 0);" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return val;
+            }
+        });
+    }
+    
+    @Test
+    public void repeatedReadsCached() throws Exception {
+        String script = "dest = (src - 10) / (src + 10);" ;
+        System.out.println("   " + script);
+        
+        assertTrue(getSource(script).contains("_cse0Set"));
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return (val - 10) / (val + 10);
+            }
+        });
+    }
+    
+    @Test
+    public void repeatedFunctionCallsCached() throws Exception {
+        String script = "dest = con(src > 50, sqrt(src) * 2, sqrt(src) + log(src + 1));" ;
+        System.out.println("   " + script);
+        
+        String source = getSource(script);
+        assertTrue(source.contains("_cse0Set"));
+        assertTrue(source.contains("_cse1Set"));
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return val > 50 ? Math.sqrt(val) * 2 : Math.sqrt(val) + Math.log(val + 1);
+            }
+        });
+    }
+    
+    @Test
+    public void cachedReadOnlyEvaluatedWhenReached() throws Exception {
+        // Neither read may be evaluated for x = 0 because the 
+        // outside option is not set
+        String script = "dest = con(x() > 0, src[-1, 0] * src[-1, 0], -1);" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+            double lastVal;
+            
+            public double eval(double val) {
+                double z = x > 0 ? lastVal * lastVal : -1;
+                lastVal = val;
+                move();
+                return z;
+            }
+        });
+    }
+    
+    @Test
+    public void expressionsWithVariablesNotCached() throws Exception {
+        String script = "a = 1; b = sqrt(src + a); a = 2; dest = b + sqrt(src + a);" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return Math.sqrt(val + 1) + Math.sqrt(val + 2);
+            }
+        });
+    }
+    
+    @Test
+    public void imageScopeVarsWithRepeatedExpressions() throws Exception {
+        String script = "init { k = sqrt(4) + width(); } dest = k + sqrt(src) + sqrt(src);" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return 2 + IMG_WIDTH + 2 * Math.sqrt(val);
+            }
+        });
+    }
+    
+    @Test
+    public void cachedExpressionInLoop() throws Exception {
+        String script = "n = 0; foreach (i in 1:3) { n += i * sqrt(src); } dest = n + sqrt(src);" ;
+        System.out.println("   " + script);
+        
+        testScript(script, new Evaluator() {
+            public double eval(double val) {
+                return 7 * Math.sqrt(val);
+            }
+        });
+    }
+    
+    private String getSource(String script) throws Exception {
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("dest", Jiffle.ImageRole.DEST);
+        params.put("src", Jiffle.ImageRole.SOURCE);
+        
+        Jiffle jiffle = new Jiffle(script, params);
+        return jiffle.getRuntimeSource(false);
+    }
+}
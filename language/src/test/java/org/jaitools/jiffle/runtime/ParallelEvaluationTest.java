@@ -0,0 +1,127 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.TiledImage;
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for parallel evaluation with direct runtime objects.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class ParallelEvaluationTest extends RuntimeTestBase {
+    
+    private static final int WIDTH = 100;
+    private static final int TILE_WIDTH = 16;
+    
+    @Test
+    public void destWithTileGrid() throws Exception {
+        System.out.println("   parallel evaluation with tiled destination");
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { src=read; dest=write; } dest = 2 * src + x();");
+        
+        RenderedImage srcImg = createSourceImage(WIDTH, TILE_WIDTH, 1);
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setSourceImage("src", srcImg);
+        runtime.setDestinationImage("dest", destImg);
+        runtime.evaluateAll(null, 4);
+        
+        RandomIter srcIter = RandomIterFactory.create(srcImg, null);
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = 2 * srcIter.getSampleDouble(x, y, 0) + x;
+                assertEquals(expected, destImg.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void imageScopeVarsCopied() throws Exception {
+        System.out.println("   image-scope variables in parallel evaluation");
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { dest=write; } init { k = 42; } dest = k + width();");
+        
+        TiledImage destImg = createTiledImage(WIDTH, TILE_WIDTH, 1);
+        runtime.setDestinationImage("dest", destImg);
+        runtime.evaluateAll(null, 3);
+        
+        for (int y = 0; y < WIDTH; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(42 + WIDTH, destImg.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test
+    public void progressAggregated() throws Exception {
+        System.out.println("   progress from parallel evaluation");
+        
+        JiffleDirectRuntime runtime = getRuntime("images { dest=write; } dest = 1;");
+        runtime.setDestinationImage("dest", createTiledImage(WIDTH, TILE_WIDTH, 1));
+        
+        final long[] done = {0};
+        final boolean[] finished = {false};
+        JiffleProgressListener listener = new AbstractProgressListener() {
+            public void start() {}
+            
+            public void update(long n) {
+                assertTrue(n >= done[0]);
+                done[0] = n;
+            }
+            
+            public void finish() {
+                finished[0] = true;
+            }
+        };
+        
+        runtime.evaluateAll(listener, 4);
+        
+        assertTrue(finished[0]);
+        assertEquals((long) WIDTH * WIDTH, done[0]);
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void errorInWorkerThread() throws Exception {
+        System.out.println("   runtime error in worker thread");
+        
+        JiffleDirectRuntime runtime = getRuntime(
+                "images { src=read; dest=write; } dest = src[$-1, 0];");
+        runtime.setSourceImage("src", createSourceImage(WIDTH, TILE_WIDTH, 1));
+        runtime.setDestinationImage("dest", createTiledImage(WIDTH, TILE_WIDTH, 1));
+        runtime.evaluateAll(null, 4);
+    }
+}
@@ -0,0 +1,267 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Map;
+
+import javax.media.jai.TiledImage;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for row-at-a-time evaluation of simple scripts by the 
+ * direct runtime.
+ * 
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RowEvaluationTest {
+    
+    private static final int WIDTH = 50;
+    private static final int HEIGHT = 40;
+    private static final int TILE_WIDTH = 16;
+    private static final int TILE_HEIGHT = 12;
+    private static final double TOL = 1.0e-8;
+    
+    private final JiffleProgressListener nullListener = new NullProgressListener();
+    
+    private interface PixelFn {
+        double eval(int x, int y, double a, double b);
+    }
+    
+    @Test
+    public void bandRatio() throws Exception {
+        String script = "dest = (a - b) / (a + b + 1);" ;
+        System.out.println("   " + script);
+        
+        assertRowEvaluation(script, true, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return (a - b) / (a + b + 1);
+            }
+        });
+    }
+    
+    @Test
+    public void localVariables() throws Exception {
+        String script = "t = a * 2; u = t > b; dest = u * t - (1 - u) * b;" ;
+        System.out.println("   " + script);
+        
+        assertRowEvaluation(script, true, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                double t = a * 2;
+                double u = t > b ? 1 : 0;
+                return u * t - (1 - u) * b;
+            }
+        });
+    }
+    
+    @Test
+    public void functionsAndConstants() throws Exception {
+        String script = "dest = sqrt(a) + max(a, b) % 7 + a^2 + M_PI;" ;
+        System.out.println("   " + script);
+        
+        assertRowEvaluation(script, true, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return Math.sqrt(a) + Math.max(a, b) % 7 + Math.pow(a, 2) + Math.PI;
+            }
+        });
+    }
+    
+    @Test
+    public void pixelPosition() throws Exception {
+        String script = "dest = a + x() * 1000;" ;
+        System.out.println("   " + script);
+        
+        assertRowEvaluation(script, true, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return a + x * 1000;
+            }
+        });
+    }
+    
+    @Test
+    public void nonQualifyingScript() throws Exception {
+        String script = "dest = con(a > b, a, b) + y();" ;
+        System.out.println("   " + script);
+        
+        assertRowEvaluation(script, false, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return (a > b ? a : b) + y;
+            }
+        });
+    }
+    
+    @Test
+    public void parallelEvaluation() throws Exception {
+        String script = "dest = a * b;" ;
+        System.out.println("   " + script + " (parallel)");
+        
+        AbstractDirectRuntime runtime = createRuntime(script, true);
+        TiledImage a = createImage(1);
+        TiledImage b = createImage(2);
+        TiledImage dest = createImage(0);
+        runtime.setSourceImage("a", a);
+        runtime.setSourceImage("b", b);
+        runtime.setDestinationImage("dest", dest);
+        runtime.evaluateAll(nullListener, 4);
+        
+        assertResult(a, b, dest, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return a * b;
+            }
+        });
+    }
+    
+    @Test
+    public void sameImageAsSourceAndDest() throws Exception {
+        String script = "dest = a + 1;" ;
+        System.out.println("   " + script + " (same image)");
+        
+        AbstractDirectRuntime runtime = createRuntime(script, true);
+        TiledImage img = createImage(1);
+        TiledImage copy = createImage(1);
+        runtime.setSourceImage("a", img);
+        runtime.setSourceImage("b", img);
+        runtime.setDestinationImage("dest", img);
+        assertFalse(runtime.isRowEvaluationSafe());
+        runtime.evaluateAll(nullListener);
+        
+        assertResult(copy, copy, img, new PixelFn() {
+            public double eval(int x, int y, double a, double b) {
+                return a + 1;
+            }
+        });
+    }
+    
+    @Test
+    public void outsideValue() throws Exception {
+        String script = "options { outside = 0; } dest = a;" ;
+        System.out.println("   " + script);
+        
+        AbstractDirectRuntime runtime = createRuntime(script, true);
+        TiledImage a = new TiledImage(0, 0, WIDTH / 2, HEIGHT, 0, 0, createSampleModel(), null);
+        fill(a, 1);
+        TiledImage dest = createImage(0);
+        runtime.setSourceImage("a", a);
+        runtime.setSourceImage("b", a);
+        runtime.setDestinationImage("dest", dest);
+        runtime.evaluateAll(nullListener);
+        
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = x < WIDTH / 2 ? value(x, y, 1) : 0;
+                assertEquals(expected, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    @Test(expected=JiffleRuntimeException.class)
+    public void outsideWithoutOption() throws Exception {
+        String script = "dest = a;" ;
+        System.out.println("   " + script + " (source smaller than dest)");
+        
+        AbstractDirectRuntime runtime = createRuntime(script, true);
+        TiledImage a = new TiledImage(0, 0, WIDTH / 2, HEIGHT, 0, 0, createSampleModel(), null);
+        runtime.setSourceImage("a", a);
+        runtime.setSourceImage("b", a);
+        runtime.setDestinationImage("dest", createImage(0));
+        runtime.evaluateAll(nullListener);
+    }
+    
+    private void assertRowEvaluation(String script, boolean expectRows, PixelFn fn) 
+            throws Exception {
+        
+        AbstractDirectRuntime runtime = createRuntime(script, expectRows);
+        TiledImage a = createImage(1);
+        TiledImage b = createImage(2);
+        TiledImage dest = createImage(0);
+        runtime.setSourceImage("a", a);
+        runtime.setSourceImage("b", b);
+        runtime.setDestinationImage("dest", dest);
+        runtime.evaluateAll(nullListener);
+        
+        assertResult(a, b, dest, fn);
+    }
+    
+    private AbstractDirectRuntime createRuntime(String script, boolean expectRows) 
+            throws Exception {
+        
+        Map<String, Jiffle.ImageRole> params = CollectionFactory.map();
+        params.put("a", Jiffle.ImageRole.SOURCE);
+        params.put("b", Jiffle.ImageRole.SOURCE);
+        params.put("dest", Jiffle.ImageRole.DEST);
+        
+        Jiffle jiffle = new Jiffle(script, params);
+        String source = jiffle.getRuntimeSource(false);
+        assertEquals(expectRows, source.contains("readRow("));
+        
+        return (AbstractDirectRuntime) jiffle.getRuntimeInstance();
+    }
+    
+    private void assertResult(RenderedImage a, RenderedImage b, TiledImage dest, PixelFn fn) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double expected = fn.eval(x, y, 
+                        a.getData().getSampleDouble(x, y, 0), 
+                        b.getData().getSampleDouble(x, y, 0));
+                assertEquals(expected, dest.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
+    private TiledImage createImage(int seed) {
+        TiledImage img = new TiledImage(0, 0, WIDTH, HEIGHT, 0, 0, createSampleModel(), null);
+        fill(img, seed);
+        return img;
+    }
+    
+    private void fill(TiledImage img, int seed) {
+        for (int y = img.getMinY(); y <= img.getMaxY() - 1; y++) {
+            for (int x = img.getMinX(); x <= img.getMaxX() - 1; x++) {
+                img.setSample(x, y, 0, value(x, y, seed));
+            }
+        }
+    }
+    
+    private double value(int x, int y, int seed) {
+        return seed == 0 ? 0 : ((x * 31 + y * 17) * seed) % 101 + 0.5;
+    }
+    
+    private SampleModel createSampleModel() {
+        return new PixelInterleavedSampleModel(DataBuffer.TYPE_DOUBLE, 
+                TILE_WIDTH, TILE_HEIGHT, 1, TILE_WIDTH, new int[] {0});
+    }
+
+}
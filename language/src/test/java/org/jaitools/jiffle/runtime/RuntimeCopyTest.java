@@ -0,0 +1,184 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Rectangle;
+import java.awt.image.WritableRenderedImage;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.imageutils.ImageUtils;
+import org.jaitools.jiffle.Jiffle;
+import org.jaitools.jiffle.RuntimeClassCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for copying runtime objects.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class RuntimeCopyTest {
+    
+    private static final int WIDTH = 10;
+    
+    private Map<String, Jiffle.ImageRole> imageParams;
+    
+    @Before
+    public void setup() {
+        imageParams = CollectionFactory.map();
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+    }
+    
+    @Test
+    public void copyHasSameClass() throws Exception {
+        System.out.println("   copy has same class as original");
+        
+        JiffleDirectRuntime runtime = new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        JiffleRuntime copy = runtime.copy();
+        
+        assertNotSame(runtime, copy);
+        assertSame(runtime.getClass(), copy.getClass());
+        assertArrayEquals(runtime.getDestinationVarNames(), copy.getDestinationVarNames());
+    }
+    
+    @Test
+    public void copyHasSameWorld() throws Exception {
+        System.out.println("   copy has same processing area");
+        
+        JiffleDirectRuntime runtime = new Jiffle("dest = 1;", imageParams).getRuntimeInstance();
+        runtime.setWorldByResolution(new Rectangle(0, 0, 100, 50), 10, 5);
+        JiffleRuntime copy = runtime.copy();
+        
+        assertTrue(copy.isWorldSet());
+        assertEquals(runtime.getMinX(), copy.getMinX(), 1.0e-8);
+        assertEquals(runtime.getMaxY(), copy.getMaxY(), 1.0e-8);
+        assertEquals(runtime.getXRes(), copy.getXRes(), 1.0e-8);
+        assertEquals(runtime.getYRes(), copy.getYRes(), 1.0e-8);
+        assertEquals(runtime.getNumPixels(), copy.getNumPixels());
+    }
+    
+    @Test
+    public void copyHasOwnVars() throws Exception {
+        System.out.println("   copy has its own image-scope variables");
+        
+        String script = "init { n = 0; } n += 1; dest = n;" ;
+        JiffleDirectRuntime runtime = new Jiffle(script, imageParams).getRuntimeInstance();
+        JiffleDirectRuntime copy = (JiffleDirectRuntime) runtime.copy();
+        
+        WritableRenderedImage img1 = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        runtime.setDestinationImage("dest", img1);
+        runtime.evaluateAll(null);
+        
+        WritableRenderedImage img2 = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        copy.setDestinationImage("dest", img2);
+        copy.evaluate(0, 0);
+        
+        assertEquals(WIDTH * WIDTH, runtime.getVar("n"), 1.0e-8);
+        assertEquals(1.0, copy.getVar("n"), 1.0e-8);
+        assertEquals(1, img2.getData().getSample(0, 0, 0));
+    }
+    
+    @Test
+    public void copyAfterEvaluation() throws Exception {
+        System.out.println("   copy made after evaluation has initial variable values");
+        
+        String script = "init { n = 0; } n += 1; dest = n;" ;
+        JiffleDirectRuntime runtime = new Jiffle(script, imageParams).getRuntimeInstance();
+        
+        WritableRenderedImage img1 = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        runtime.setDestinationImage("dest", img1);
+        runtime.evaluateAll(null);
+        
+        JiffleDirectRuntime copy = (JiffleDirectRuntime) runtime.copy();
+        assertNull(copy.getVar("n"));
+        assertTrue(copy.getImages().isEmpty());
+        
+        WritableRenderedImage img2 = ImageUtils.createConstantImage(WIDTH, WIDTH, 0d);
+        copy.setDestinationImage("dest", img2);
+        copy.evaluate(0, 0);
+        
+        assertEquals(WIDTH * WIDTH, runtime.getVar("n"), 1.0e-8);
+        assertEquals(1.0, copy.getVar("n"), 1.0e-8);
+    }
+    
+    @Test
+    public void indirectCopy() throws Exception {
+        System.out.println("   copying an indirect runtime");
+        
+        Jiffle jiffle = new Jiffle("dest = x() + y();", imageParams);
+        JiffleIndirectRuntime runtime = 
+                (JiffleIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        
+        JiffleIndirectRuntime copy = (JiffleIndirectRuntime) runtime.copy();
+        copy.setDestinationImage("dest");
+        assertEquals(5.0, copy.evaluate(2, 3), 1.0e-8);
+    }
+    
+    @Test
+    public void runtimeClassRetained() throws Exception {
+        System.out.println("   Jiffle object retains its runtime class");
+        
+        int maxSize = RuntimeClassCache.getMaxSize();
+        try {
+            RuntimeClassCache.setMaxSize(0);
+            
+            Jiffle jiffle = new Jiffle("dest = 1;", imageParams);
+            JiffleDirectRuntime r1 = jiffle.getRuntimeInstance();
+            JiffleDirectRuntime r2 = jiffle.getRuntimeInstance();
+            
+            assertNotSame(r1, r2);
+            assertSame(r1.getClass(), r2.getClass());
+            
+        } finally {
+            RuntimeClassCache.setMaxSize(maxSize);
+        }
+    }
+    
+    @Test
+    public void recompileDiscardsRuntimeClass() throws Exception {
+        System.out.println("   recompiling discards the runtime class");
+        
+        int maxSize = RuntimeClassCache.getMaxSize();
+        try {
+            RuntimeClassCache.setMaxSize(0);
+            
+            Jiffle jiffle = new Jiffle("dest = 1;", imageParams);
+            Class<?> c1 = jiffle.getRuntimeInstance().getClass();
+            jiffle.compile();
+            Class<?> c2 = jiffle.getRuntimeInstance().getClass();
+            
+            assertNotSame(c1, c2);
+            
+        } finally {
+            RuntimeClassCache.setMaxSize(maxSize);
+        }
+    }
+}
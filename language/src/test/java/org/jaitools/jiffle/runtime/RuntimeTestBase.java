@@ -24,7 +24,10 @@
  */   
 package org.jaitools.jiffle.runtime;
 
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.util.Map;
 
 import javax.media.jai.TiledImage;
@@ -90,6 +93,46 @@ public abstract class RuntimeTestBase {
         return img;
     }
 
+    /**
+     * Compiles a script which declares its own images and returns a
+     * direct runtime instance.
+     */
+    protected JiffleDirectRuntime getRuntime(String script) throws Exception {
+        Jiffle jiffle = new Jiffle();
+        jiffle.setScript(script);
+        jiffle.compile();
+        return jiffle.getRuntimeInstance();
+    }
+    
+    /**
+     * Creates a tiled image of the given size, filled with values 
+     * {@code (y * width + x) * (band + 1)}.
+     */
+    protected TiledImage createSourceImage(int width, int tileWidth, int numBands) {
+        TiledImage img = createTiledImage(width, tileWidth, numBands);
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    img.setSample(x, y, b, (double) (y * width + x) * (b + 1));
+                }
+            }
+        }
+        return img;
+    }
+    
+    /**
+     * Creates an empty, square image of type double with square tiles.
+     */
+    protected TiledImage createTiledImage(int width, int tileWidth, int numBands) {
+        int[] bandOffsets = new int[numBands];
+        for (int b = 0; b < numBands; b++) {
+            bandOffsets[b] = b;
+        }
+        SampleModel sm = new ComponentSampleModel(DataBuffer.TYPE_DOUBLE, 
+                tileWidth, tileWidth, numBands, tileWidth * numBands, bandOffsets);
+        return new TiledImage(0, 0, width, width, 0, 0, sm, null);
+    }
+
     protected void testScript(String script, Evaluator evaluator) throws Exception {
         RenderedImage srcImg = createSequenceImage();
         testScript(script, srcImg, evaluator);
@@ -0,0 +1,120 @@
+/* 
+ *  Copyright (c) 2011, Michael Bedward. All rights reserved. 
+ *   
+ *  Redistribution and use in source and binary forms, with or without modification, 
+ *  are permitted provided that the following conditions are met: 
+ *   
+ *  - Redistributions of source code must retain the above copyright notice, this  
+ *    list of conditions and the following disclaimer. 
+ *   
+ *  - Redistributions in binary form must reproduce the above copyright notice, this 
+ *    list of conditions and the following disclaimer in the documentation and/or 
+ *    other materials provided with the distribution.   
+ *   
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND 
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED 
+ *  WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE 
+ *  DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR 
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; 
+ *  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON 
+ *  ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS 
+ *  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. 
+ */   
+
+package org.jaitools.jiffle.runtime;
+
+import java.awt.Rectangle;
+import java.util.Map;
+
+import org.jaitools.CollectionFactory;
+import org.jaitools.jiffle.Jiffle;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the source image read footprints determined when 
+ * a script is compiled.
+ *
+ * @author Michael Bedward
+ * @since 0.1
+ * @version $Id$
+ */
+public class SourceFootprintTest {
+    
+    private Map<String, Jiffle.ImageRole> imageParams;
+    
+    @Before
+    public void setup() {
+        imageParams = CollectionFactory.map();
+        imageParams.put("src", Jiffle.ImageRole.SOURCE);
+        imageParams.put("other", Jiffle.ImageRole.SOURCE);
+        imageParams.put("dest", Jiffle.ImageRole.DEST);
+    }
+    
+    @Test
+    public void samePixel() throws Exception {
+        System.out.println("   footprint of same-pixel reads");
+        assertEquals(new Rectangle(0, 0, 1, 1), getFootprint("dest = 2 * src;", "src"));
+    }
+    
+    @Test
+    public void neighbourhood() throws Exception {
+        System.out.println("   footprint of neighbourhood reads");
+        assertEquals(new Rectangle(-1, -2, 4, 3), 
+                getFootprint("dest = src[-1, 0] + src[2, -2] + src;", "src"));
+    }
+    
+    @Test
+    public void neighbourhoodWithoutCentre() throws Exception {
+        System.out.println("   footprint of offset reads not including the pixel");
+        assertEquals(new Rectangle(1, 1, 2, 1), 
+                getFootprint("dest = src[1, 1] + src[2, 1];", "src"));
+    }
+    
+    @Test
+    public void absolutePosition() throws Exception {
+        System.out.println("   footprint of absolute position reads is unbounded");
+        assertNull(getFootprint("dest = src + src[$0, $0];", "src"));
+    }
+    
+    @Test
+    public void nonConstantOffset() throws Exception {
+        System.out.println("   footprint of non-constant offset reads is unbounded");
+        assertNull(getFootprint(
+                "n = 0; foreach (dx in -1:1) n += src[dx, 0]; dest = n;", "src"));
+    }
+    
+    @Test
+    public void unreadSource() throws Exception {
+        System.out.println("   footprint of an unread source is empty");
+        assertTrue(getFootprint("dest = src;", "other").isEmpty());
+    }
+    
+    @Test
+    public void eachSource() throws Exception {
+        System.out.println("   footprints of separate sources");
+        String script = "dest = src[0, 1] + other[-1, 0];";
+        assertEquals(new Rectangle(0, 1, 1, 1), getFootprint(script, "src"));
+        assertEquals(new Rectangle(-1, 0, 1, 1), getFootprint(script, "other"));
+    }
+    
+    @Test
+    public void directRuntime() throws Exception {
+        System.out.println("   footprint from direct runtime");
+        Jiffle jiffle = new Jiffle("dest = src[-1, -1] + src[1, 1];", imageParams);
+        AbstractJiffleRuntime runtime = (AbstractJiffleRuntime) jiffle.getRuntimeInstance();
+        assertEquals(new Rectangle(-1, -1, 3, 3), runtime.getSourceFootprint("src"));
+    }
+    
+    
+    private Rectangle getFootprint(String script, String varName) throws Exception {
+        Jiffle jiffle = new Jiffle(script, imageParams);
+        AbstractIndirectRuntime runtime = 
+                (AbstractIndirectRuntime) jiffle.getRuntimeInstance(Jiffle.RuntimeModel.INDIRECT);
+        return runtime.getSourceFootprint(varName);
+    }
+}
@@ -25,6 +25,7 @@
 
 package org.jaitools.jiffle.runtime;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -44,7 +45,9 @@ public class WaitingListener implements JiffleEventListener {
 
     private CountDownLatch latch = null;
 
-    private final List<JiffleExecutorResult> results = CollectionFactory.list();
+    // listeners may be called concurrently from task threads
+    private final List<JiffleExecutorResult> results = 
+            Collections.synchronizedList(CollectionFactory.<JiffleExecutorResult>list());
     
     /**
      * Sets the number of task completions and/or failures to wait for.
@@ -31,11 +31,14 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRenderedImage;
 
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.RandomIterFactory;
+
 import org.jaitools.imageutils.ImageUtils;
-import org.jaitools.jiffle.Jiffle;
 import org.jaitools.jiffle.JiffleException;
 
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  * Unit tests for scripts using world coordinate systems.
@@ -241,6 +244,45 @@ public class WorldCoordsTest extends RuntimeTestBase {
         assertImage(srcImg, destImg, e);
     }
     
+    /**
+     * The number of pixels in the processing area should be calculated
+     * from the world bounds and resolution.
+     */
+    @Test
+    public void numPixelsInProcessingArea() throws Exception {
+        System.out.println("   number of pixels in processing area");
+        
+        JiffleDirectRuntime runtime = getRuntime("images {dest=write;} dest = 42;");
+        runtime.setWorldByNumPixels(new Rectangle(0, 0, 1, 1), 3, 7);
+        assertEquals(21L, runtime.getNumPixels());
+    }
+    
+    /**
+     * World positions should not drift when the pixel dimensions
+     * can't be represented exactly.
+     */
+    @Test
+    public void noDriftInWorldPositions() throws Exception {
+        System.out.println("   no drift in world positions across processing area");
+        
+        final int N = 3 * IMG_WIDTH;
+        final double RES = 1.0 / N;
+        
+        JiffleDirectRuntime runtime = getRuntime("images {dest=write;} dest = x() / xres();");
+        runtime.setWorldByResolution(new Rectangle(0, 0, 1, 1), RES, RES);
+        
+        WritableRenderedImage destImg = ImageUtils.createConstantImage(N, N, 0d);
+        runtime.setDestinationImage("dest", destImg, CoordinateTransforms.scale(N, N));
+        runtime.evaluateAll(null);
+        
+        RandomIter iter = RandomIterFactory.create(destImg, null);
+        for (int y = 0; y < N; y++) {
+            for (int x = 0; x < N; x++) {
+                assertEquals(x, iter.getSampleDouble(x, y, 0), TOL);
+            }
+        }
+    }
+    
     /**
      * Setting an image with a transform without having previously set the world
      * bounds should throw a JiffleException.
@@ -267,12 +309,4 @@ public class WorldCoordsTest extends RuntimeTestBase {
         CoordinateTransform tr = CoordinateTransforms.translation(10, 10);
         runtime.setDefaultTransform(tr);
     }
-    
-    
-    private JiffleDirectRuntime getRuntime(String script) throws Exception {
-        Jiffle jiffle = new Jiffle();
-        jiffle.setScript(script);
-        jiffle.compile();
-        return jiffle.getRuntimeInstance();
-    }
 }